@@ -0,0 +1,355 @@
+package com.saemaps.android.usbserial;
+
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.view.Choreographer;
+
+import com.saemaps.android.maps.MapGroup;
+import com.saemaps.android.maps.MapView;
+import com.saemaps.android.maps.Marker;
+import com.saemaps.android.usbserial.core.LatencyHistogram;
+import com.saemaps.android.usbserial.core.LocationFrame;
+import com.saemaps.android.usbserial.core.PositionCoalescer;
+import com.saemaps.android.usbserial.core.SpatialIndex;
+import com.saemaps.coremap.maps.coords.GeoBounds;
+import com.saemaps.coremap.maps.coords.GeoPoint;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 地图标记批量更新器
+ * 解码后的定位数据先进入 {@link PositionCoalescer} 按手台合并，
+ * 每个显示帧（Choreographer 回调）在UI线程上一次性应用：只更新移动超过阈值的标记，新手台创建标记。
+ *
+ * 视野裁剪：所有位置同时写入 {@link SpatialIndex}；视野外已有标记的更新先挂起，
+ * 视野变化后按空间索引查出进入视野的挂起单位再补上最新位置。临近查询见 {@link #queryNearby}。
+ *
+ * 每帧的UI耗时记录在 {@link #getFrameTimeHistogram()} 中，可与 core 模块的 MapUpdateBenchmark 对照。
+ *
+ * @author SAE Maps
+ */
+public class MapMarkerUpdater implements Choreographer.FrameCallback, PositionCoalescer.UpdateSink {
+
+    private static final String TAG = "MapMarkerUpdater";
+
+    private static final String GROUP_NAME = "USB Serial";
+    private static final String UID_PREFIX = "usbserial-unit-";
+    // 友军地面单位
+    private static final String MARKER_TYPE = "a-f-G-U-C";
+
+    // 默认最多跟踪 256 个手台，移动小于 2 米不刷新标记
+    public static final int DEFAULT_MAX_UNITS = 256;
+    public static final double DEFAULT_THRESHOLD_METERS = 2.0;
+    // 视野四周各外扩 10%，平移时边缘的标记不会突然跳变
+    private static final double VIEWPORT_MARGIN = 0.1;
+    // 有挂起更新时检查视野变化的间隔
+    private static final long VIEWPORT_POLL_MS = 250;
+
+    private final MapView mapView;
+    private final PositionCoalescer coalescer;
+    private final LocationFrame decodeView = new LocationFrame();
+    private final SparseArray<Marker> markers = new SparseArray<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final LatencyHistogram frameTime = new LatencyHistogram("MAP_FRAME");
+    private final SpatialIndex spatialIndex;
+    // 以下只在UI线程上访问
+    private final SparseBooleanArray deferred = new SparseBooleanArray();
+    private final int[] viewport = new int[4]; // 南、西、北、东（1e-7 度）
+    private boolean viewportKnown;
+    private final int[] visibleScratch;
+    private final int[] positionScratch = new int[2];
+    private boolean viewportPollPosted;
+    private long culled;
+    private MapGroup group;
+    private volatile boolean disposed;
+
+    public MapMarkerUpdater(MapView mapView) {
+        this(mapView, DEFAULT_MAX_UNITS, DEFAULT_THRESHOLD_METERS);
+    }
+
+    public MapMarkerUpdater(MapView mapView, int maxUnits, double thresholdMeters) {
+        this.mapView = mapView;
+        this.coalescer = new PositionCoalescer(maxUnits, thresholdMeters);
+        this.spatialIndex = new SpatialIndex(maxUnits);
+        this.visibleScratch = new int[maxUnits];
+    }
+
+    /**
+     * 提交一个数据包；非定位包直接忽略（可在任意线程调用）
+     *
+     * @param packet 完整数据包
+     * @return true 如果是定位包并已进入合并队列
+     */
+    public boolean offer(byte[] packet) {
+        if (disposed) {
+            return false;
+        }
+        boolean accepted;
+        synchronized (decodeView) {
+            LocationFrame fix = decodeView.wrap(packet);
+            if (fix == null || !fix.hasFix() || !fix.hasValidCoordinates()) {
+                return false;
+            }
+            accepted = coalescer.offer(fix);
+            if (accepted) {
+                spatialIndex.update(fix);
+            }
+        }
+        if (accepted) {
+            scheduleFrame();
+        }
+        return accepted;
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled.compareAndSet(false, true)) {
+            // Choreographer 必须在拥有 Looper 的线程上获取，统一切到UI线程
+            mapView.post(() -> {
+                if (disposed) {
+                    frameScheduled.set(false);
+                    return;
+                }
+                Choreographer.getInstance().postFrameCallback(this);
+            });
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled.set(false);
+        if (disposed) {
+            return;
+        }
+        long start = System.nanoTime();
+        updateViewport();
+        int applied = coalescer.drain(this) + applyDeferredInViewport();
+        if (applied > 0) {
+            frameTime.recordNanos(System.nanoTime() - start);
+            Log.v(TAG, "🗺 Applied " + applied + " marker updates in one frame");
+        }
+        // 本帧处理期间又有新数据到达，预约下一帧
+        if (coalescer.hasPending()) {
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * 读取当前视野（外扩 VIEWPORT_MARGIN），地图尚未就绪时不裁剪
+     *
+     * @return true 如果视野相比上次发生了变化
+     */
+    private boolean updateViewport() {
+        GeoBounds bounds = mapView.getBounds();
+        if (bounds == null) {
+            viewportKnown = false;
+            return false;
+        }
+        double latMargin = (bounds.getNorth() - bounds.getSouth()) * VIEWPORT_MARGIN;
+        double west = bounds.getWest();
+        double east = bounds.getEast();
+        double lonSpan = bounds.crossesIDL() ? east + 360 - west : east - west;
+        double lonMargin = lonSpan * VIEWPORT_MARGIN;
+        int south = toE7(Math.max(-90, bounds.getSouth() - latMargin));
+        int north = toE7(Math.min(90, bounds.getNorth() + latMargin));
+        int westE7;
+        int eastE7;
+        if (lonSpan + 2 * lonMargin >= 360) {
+            westE7 = toE7(-180);
+            eastE7 = toE7(180);
+        } else {
+            westE7 = toE7(wrapDegrees(west - lonMargin));
+            eastE7 = toE7(wrapDegrees(east + lonMargin));
+        }
+        boolean changed = !viewportKnown || viewport[0] != south || viewport[1] != westE7
+                || viewport[2] != north || viewport[3] != eastE7;
+        viewport[0] = south;
+        viewport[1] = westE7;
+        viewport[2] = north;
+        viewport[3] = eastE7;
+        viewportKnown = true;
+        return changed;
+    }
+
+    private boolean inViewport(int latitudeE7, int longitudeE7) {
+        if (!viewportKnown) {
+            return true;
+        }
+        if (latitudeE7 < viewport[0] || latitudeE7 > viewport[2]) {
+            return false;
+        }
+        return viewport[1] <= viewport[3]
+                ? longitudeE7 >= viewport[1] && longitudeE7 <= viewport[3]
+                : longitudeE7 >= viewport[1] || longitudeE7 <= viewport[3];
+    }
+
+    private boolean inViewport(Marker marker) {
+        GeoPoint current = marker.getPoint();
+        return current != null && inViewport(toE7(current.getLatitude()), toE7(current.getLongitude()));
+    }
+
+    /**
+     * 把进入视野的挂起单位更新到最新位置
+     *
+     * @return 补上的标记数
+     */
+    private int applyDeferredInViewport() {
+        if (deferred.size() == 0) {
+            return 0;
+        }
+        int applied = 0;
+        int n = viewportKnown
+                ? spatialIndex.queryBox(viewport[0], viewport[1], viewport[2], viewport[3], visibleScratch)
+                : 0;
+        for (int i = 0; i < n; i++) {
+            int unitId = visibleScratch[i];
+            if (deferred.get(unitId) && spatialIndex.getPosition(unitId, positionScratch)) {
+                deferred.delete(unitId);
+                Marker marker = markers.get(unitId);
+                if (marker != null) {
+                    marker.setPoint(new GeoPoint(positionScratch[0] * 1e-7, positionScratch[1] * 1e-7,
+                            marker.getPoint().getAltitude()));
+                    applied++;
+                }
+            }
+        }
+        if (!viewportKnown) {
+            // 地图边界不可用，不再裁剪：挂起的单位等下一次定位包时更新
+            deferred.clear();
+        }
+        scheduleViewportPoll();
+        return applied;
+    }
+
+    /**
+     * 有挂起更新时定期检查视野，平移地图后无需等待新数据即可补上标记
+     */
+    private void scheduleViewportPoll() {
+        if (viewportPollPosted || deferred.size() == 0 || disposed) {
+            return;
+        }
+        viewportPollPosted = true;
+        mapView.postDelayed(viewportPoll, VIEWPORT_POLL_MS);
+    }
+
+    private final Runnable viewportPoll = new Runnable() {
+        @Override
+        public void run() {
+            viewportPollPosted = false;
+            if (disposed) {
+                return;
+            }
+            if (updateViewport()) {
+                int applied = applyDeferredInViewport();
+                if (applied > 0) {
+                    Log.v(TAG, "🗺 Viewport moved, refreshed " + applied + " deferred markers");
+                }
+            } else {
+                scheduleViewportPoll();
+            }
+        }
+    };
+
+    private static int toE7(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+
+    private static double wrapDegrees(double longitude) {
+        if (longitude > 180) {
+            return longitude - 360;
+        }
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        return longitude;
+    }
+
+    @Override
+    public void onPositionUpdate(int unitId, int latitudeE7, int longitudeE7, int altitudeCm,
+            int courseCentiDeg, long timeMillis, boolean created) {
+        Marker existing = markers.get(unitId);
+        if (existing != null && !inViewport(latitudeE7, longitudeE7) && !inViewport(existing)) {
+            // 新旧位置都在视野外才挂起，进入视野时再从空间索引取最新位置；
+            // 离开视野的那次更新照常应用，否则标记会停在视野边缘
+            deferred.put(unitId, true);
+            culled++;
+            scheduleViewportPoll();
+            return;
+        }
+        deferred.delete(unitId);
+        GeoPoint point = new GeoPoint(latitudeE7 * 1e-7, longitudeE7 * 1e-7, altitudeCm / 100.0);
+        Marker marker = markers.get(unitId);
+        if (marker == null) {
+            MapGroup target = getGroup();
+            if (target == null) {
+                return;
+            }
+            marker = new Marker(point, UID_PREFIX + unitId);
+            marker.setType(MARKER_TYPE);
+            marker.setTitle("手台 " + unitId);
+            marker.setMetaString("callsign", "手台 " + unitId);
+            target.addItem(marker);
+            markers.put(unitId, marker);
+            Log.d(TAG, "📍 Created marker for unit " + unitId);
+        } else {
+            marker.setPoint(point);
+        }
+        marker.setMetaLong("usbserial.fixTime", timeMillis);
+    }
+
+    private MapGroup getGroup() {
+        if (group == null) {
+            MapGroup root = mapView.getRootGroup();
+            if (root == null) {
+                Log.w(TAG, "⚠️ Map root group not available");
+                return null;
+            }
+            group = root.findMapGroup(GROUP_NAME);
+            if (group == null) {
+                group = root.addGroup(GROUP_NAME);
+            }
+        }
+        return group;
+    }
+
+    /**
+     * 查询某点附近的手台（用于临近告警，可在任意线程调用）
+     *
+     * @param latitude     中心纬度
+     * @param longitude    中心经度
+     * @param radiusMeters 半径（米）
+     * @param out          输出：手台ID
+     * @return 输出的个数
+     */
+    public int queryNearby(double latitude, double longitude, double radiusMeters, int[] out) {
+        return spatialIndex.queryRadius(toE7(latitude), toE7(longitude), radiusMeters, out);
+    }
+
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    public LatencyHistogram getFrameTimeHistogram() {
+        return frameTime;
+    }
+
+    public String getStatus() {
+        return coalescer.getStatus() + " " + spatialIndex.getStatus() + " culled=" + culled + " "
+                + frameTime.getSummary();
+    }
+
+    /**
+     * 停止更新并移除全部标记（在UI线程上调用）
+     */
+    public void dispose() {
+        disposed = true;
+        Choreographer.getInstance().removeFrameCallback(this);
+        mapView.removeCallbacks(viewportPoll);
+        deferred.clear();
+        for (int i = 0; i < markers.size(); i++) {
+            markers.valueAt(i).removeFromGroup();
+        }
+        markers.clear();
+        Log.d(TAG, "🧹 Map marker updater disposed: " + getStatus());
+    }
+}
@@ -1,5 +1,6 @@
 package com.saemaps.android.usbserial;
 
+import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.usb.UsbDevice;
@@ -11,8 +12,11 @@ import android.widget.Button;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.io.IOException;
 
 import com.atak.plugins.impl.PluginLayoutInflater;
@@ -20,7 +24,13 @@ import com.saemaps.android.dropdown.DropDown.OnStateListener;
 import com.saemaps.android.dropdown.DropDownReceiver;
 import com.saemaps.android.maps.MapView;
 import com.saemaps.android.usbserial.USBSerialLifecycle;
+import com.saemaps.android.usbserial.core.Commands;
+import com.saemaps.android.usbserial.core.FrameCodec;
+import com.saemaps.android.usbserial.core.HexUtil;
+import com.saemaps.android.usbserial.core.LocationFrame;
+import com.saemaps.android.usbserial.core.PacketType;
 import com.saemaps.android.usbserial.plugin.R;
+import com.saemaps.android.usbserial.usbserial.SerialUploadEngine;
 import com.saemaps.android.usbserial.usbserial.USBSerialManager;
 
 import java.util.List;
@@ -28,6 +38,8 @@ import java.util.List;
 public class USBSerialDropDownReceiver extends DropDownReceiver implements OnStateListener {
 
     private static final String TAG = "USBSerialDropDownReceiver";
+    // 待上传文件所在目录（插件外部文件目录下）
+    private static final String UPLOAD_DIR = "uploads";
     public static final String SHOW_PLUGIN = "com.saemaps.android.usbserial.SHOW_PLUGIN";
 
     private final View rootView;
@@ -43,6 +55,10 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
 
     // 使用现有的USB串口管理器
     private USBSerialManager usbSerialManager;
+    // 定位上图开关按钮（文字随状态变化）
+    private Button btnMapOutput;
+    // 串口文件上传（首次使用时创建）
+    private SerialUploadEngine uploadEngine;
     private List<UsbDevice> detectedDevices = new ArrayList<>();
 
     // 数据包统计
@@ -54,10 +70,17 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
     // 手台ID查询相关
     private long deviceId = -1; // 存储解析出的设备ID
 
+    // 定位包享元解码器（只在主线程使用，反复复用）
+    private final LocationFrame locationView = new LocationFrame();
+
+    // 定位数据 → 地图标记（按显示帧合并批量更新）
+    private final MapMarkerUpdater mapMarkerUpdater;
+
     public USBSerialDropDownReceiver(MapView mapView, Context context) {
         super(mapView);
         Log.d(TAG, "USBSerialDropDownReceiver constructor called");
         this.pluginContext = context;
+        this.mapMarkerUpdater = new MapMarkerUpdater(mapView);
 
         try {
             Log.d(TAG, "About to inflate layout");
@@ -76,6 +99,7 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
                 } else {
                     usbSerialManager.setMapView(getMapView());
                     Log.d(TAG, "USBSerialManager instance obtained successfully");
+                    updateMapOutputButton();
 
                     // 🔧 立即设置listener，确保数据接收回调能正常工作
                     usbSerialManager.setListener(new USBSerialManager.USBSerialListener() {
@@ -116,6 +140,10 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
                         @Override
                         public void onDataReceived(byte[] data) {
                             Log.d(TAG, "🎯 onDataReceived called with " + data.length + " bytes");
+                            // 定位包进入地图更新管线（每个显示帧合并应用一次）；定位输出默认关闭
+                            if (usbSerialManager.isLocationOutputEnabled()) {
+                                mapMarkerUpdater.offer(data);
+                            }
                             mainHandler.post(() -> {
                                 Log.d(TAG, "🎯 onDataReceived UI update started");
                                 Log.d(TAG, "🎯 tvLog is null: " + (tvLog == null));
@@ -197,6 +225,9 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
             Button btnSend = rootView.findViewById(R.id.btn_send_test);
             Button btnClearLog = rootView.findViewById(R.id.btn_clear_log);
             Button btnResetStats = rootView.findViewById(R.id.btn_reset_stats);
+            Button btnAutoBaud = rootView.findViewById(R.id.btn_auto_baud);
+            Button btnUpload = rootView.findViewById(R.id.btn_upload_file);
+            btnMapOutput = rootView.findViewById(R.id.btn_map_output);
 
             Log.d(TAG, "Buttons found - Scan: " + (btnScan != null ? "yes" : "no") +
                     ", Connect: " + (btnConnect != null ? "yes" : "no") +
@@ -262,6 +293,15 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
                 appendLog("📊 数据包统计已重置");
             });
 
+            // 自动检测波特率（收到乱码时使用）；检测中再次点击取消
+            btnAutoBaud.setOnClickListener(v -> autoDetectBaudRate());
+
+            // 上传配置/固件文件到电台（不再需要接电脑）；上传中再次点击取消
+            btnUpload.setOnClickListener(v -> chooseUploadFile());
+
+            // 定位上图/轨迹记录开关
+            btnMapOutput.setOnClickListener(v -> toggleLocationOutput());
+
             Log.d(TAG, "initViews completed successfully");
 
         } catch (Exception e) {
@@ -272,6 +312,10 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
 
     @Override
     public void disposeImpl() {
+        mapMarkerUpdater.dispose();
+        if (uploadEngine != null) {
+            uploadEngine.cancel();
+        }
         if (usbSerialManager != null) {
             usbSerialManager.destroy();
         }
@@ -415,11 +459,7 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
      * 将字节数组转换为十六进制字符串
      */
     private String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02X ", b));
-        }
-        return result.toString().trim();
+        return HexUtil.toHex(bytes);
     }
 
     /**
@@ -432,15 +472,15 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
         display.append(String.format("📥 数据包 (%d字节): ", data.length));
 
         // 检查是否为有效的数据包格式
-        if (data.length >= 4) {
+        if (data.length >= FrameCodec.MIN_FRAME_LENGTH) {
             // 验证包头 - 修复字节序问题
             // 存储方式: 0x68 0x00 (大端序)，接收时应该强制转换为 0x0068
-            int header = ((data[1] & 0xFF) << 8) | (data[0] & 0xFF);
-            if (header == 0x0068) {
+            int header = FrameCodec.header(data);
+            if (header == FrameCodec.HEADER_VALUE) {
                 // 解析包信息
-                int packetDataLength = data[2] & 0xFF;
-                int commandType = data[3] & 0xFF;
-                int totalLength = packetDataLength + 3;
+                int packetDataLength = FrameCodec.lengthField(data);
+                int commandType = FrameCodec.command(data);
+                int totalLength = FrameCodec.frameLength(packetDataLength);
 
                 // 检查包长度是否匹配
                 if (data.length == totalLength) {
@@ -482,26 +522,24 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
      * 识别数据包类型
      */
     private String identifyPacketType(int commandType, int dataLength) {
-        switch (commandType) {
-            case 0x55:
-                if (dataLength == 1) {
-                    return "🔋 开机响应包";
-                }
-                break;
-            case 0x02:
-                if (dataLength == 4) {
-                    return "🆔 查询ID响应包";
-                }
-                break;
-            case 0xCC:
-                if (dataLength == 42) {
-                    return "📍 定位数据包";
-                }
+        switch (PacketType.of(commandType, dataLength)) {
+            case POWER_ON:
+                return "🔋 " + PacketType.POWER_ON.getDisplayName();
+            case DEVICE_ID:
+                return "🆔 " + PacketType.DEVICE_ID.getDisplayName();
+            case LOCATION:
+                return "📍 " + PacketType.LOCATION.getDisplayName();
+            default:
                 break;
+        }
+        switch (commandType) {
+            case FrameCodec.CMD_POWER_ON:
+            case FrameCodec.CMD_DEVICE_ID:
+            case FrameCodec.CMD_LOCATION:
+                return String.format("❓ 未知类型 (0x%02X, %d字节)", commandType, dataLength);
             default:
                 return String.format("❓ 未知类型 (0x%02X)", commandType);
         }
-        return String.format("❓ 未知类型 (0x%02X, %d字节)", commandType, dataLength);
     }
 
     /**
@@ -511,14 +549,14 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
         StringBuilder details = new StringBuilder();
 
         switch (commandType) {
-            case 0x55: // 开机响应
+            case FrameCodec.CMD_POWER_ON: // 开机响应
                 details.append("\n  ✅ 设备开机成功");
                 // 开机后自动发送查询ID命令
                 appendLog("🔋 检测到设备开机，自动查询手台ID...");
                 mainHandler.postDelayed(() -> queryDeviceId(), 100); // 延迟100ms后查询
                 break;
 
-            case 0x02: // 查询ID响应
+            case FrameCodec.CMD_DEVICE_ID: // 查询ID响应
                 if (data.length >= 7) {
                     // 提取设备ID (字节4-6)
                     byte[] deviceIdBytes = new byte[3];
@@ -532,16 +570,20 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
                 }
                 break;
 
-            case 0xCC: // 定位数据
+            case FrameCodec.CMD_LOCATION: // 定位数据
                 details.append("\n  📍 定位数据包");
                 details.append(String.format("\n  📊 数据长度: %d字节", dataLength));
-                if (data.length >= 45) {
-                    // 显示前几个字节作为示例
-                    StringBuilder sampleData = new StringBuilder();
-                    for (int i = 4; i < Math.min(12, data.length); i++) {
-                        sampleData.append(String.format("%02X ", data[i] & 0xFF));
-                    }
-                    details.append(String.format("\n  🔍 数据样本: %s...", sampleData.toString().trim()));
+                // 享元解码：直接按偏移读取字段，不拷贝数据
+                LocationFrame fix = locationView.wrap(data);
+                if (fix != null) {
+                    details.append(String.format("\n  🆔 手台ID: %d", fix.getUnitId()));
+                    details.append(String.format("\n  🌐 位置: %.7f, %.7f  海拔: %.2fm",
+                            fix.getLatitude(), fix.getLongitude(), fix.getAltitudeMeters()));
+                    details.append(String.format("\n  🧭 速度: %.2fm/s  航向: %.2f°",
+                            fix.getSpeedMetersPerSec(), fix.getCourseDegrees()));
+                    details.append(String.format("\n  🛰 %s  卫星: %d  HDOP: %.2f  时间: %d",
+                            fix.hasFix() ? "已定位" : "未定位", fix.getSatellites(), fix.getHdop(),
+                            fix.getEpochSeconds()));
                 }
                 break;
 
@@ -559,21 +601,17 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
     private void updatePacketStats(int commandType, int dataLength) {
         totalPackets++;
 
-        switch (commandType) {
-            case 0x55:
-                if (dataLength == 1) {
-                    powerOnPackets++;
-                }
+        switch (PacketType.of(commandType, dataLength)) {
+            case POWER_ON:
+                powerOnPackets++;
                 break;
-            case 0x02:
-                if (dataLength == 4) {
-                    idQueryPackets++;
-                }
+            case DEVICE_ID:
+                idQueryPackets++;
                 break;
-            case 0xCC:
-                if (dataLength == 42) {
-                    locationPackets++;
-                }
+            case LOCATION:
+                locationPackets++;
+                break;
+            default:
                 break;
         }
 
@@ -622,12 +660,8 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
 
             appendLog("🆔 准备发送查询手台ID命令...");
 
-            // 构造查询ID数据包
-            byte[] queryPacket = new byte[4];
-            queryPacket[0] = (byte) 0x68; // 包头标识低字节
-            queryPacket[1] = (byte) 0x00; // 包头标识高字节
-            queryPacket[2] = (byte) 0x01; // 包长度（数据部分长度）
-            queryPacket[3] = (byte) 0x02; // 命令类型：查询设备ID
+            // 构造查询ID数据包: 包头 0x68 0x00 + 包长度 0x01 + 命令类型 0x02（查询设备ID）
+            byte[] queryPacket = Commands.queryDeviceId();
 
             appendLog("📦 准备发送数据包: " + bytesToHex(queryPacket));
 
@@ -708,17 +742,145 @@ public class USBSerialDropDownReceiver extends DropDownReceiver implements OnSta
         }
     }
 
+    /**
+     * 自动检测波特率
+     * 依次切换候选波特率并发送ID查询，按收到的合法帧比例选出波特率；失败时恢复原波特率
+     */
+    private void autoDetectBaudRate() {
+        if (usbSerialManager == null) {
+            appendLog("❌ USB管理器尚未初始化完成，请稍后再试");
+            return;
+        }
+        if (usbSerialManager.isBaudDetectionRunning()) {
+            usbSerialManager.cancelBaudDetection();
+            appendLog("⏹ 已取消波特率检测，恢复原波特率");
+            return;
+        }
+        boolean started = usbSerialManager.autoDetectBaudRate(result -> {
+            if (result.isDetected()) {
+                appendLog("✅ 检测到波特率: " + result.getBaudRate() + "（" + result.getElapsedMs() + "ms）");
+            } else {
+                appendLog("❌ 未检测到有效数据帧，已恢复原波特率（" + result.getElapsedMs() + "ms）");
+            }
+        });
+        if (started) {
+            appendLog("🔎 开始自动检测波特率...");
+        } else {
+            appendLog("❌ USB设备未连接，请先连接设备");
+        }
+    }
+
+    /**
+     * 开关定位输出：定位帧的字段布局尚未与电台协议核对，开启前提示用户
+     */
+    private void toggleLocationOutput() {
+        if (usbSerialManager == null) {
+            appendLog("❌ USB管理器尚未初始化完成，请稍后再试");
+            return;
+        }
+        boolean enabled = !usbSerialManager.isLocationOutputEnabled();
+        usbSerialManager.setLocationOutputEnabled(enabled);
+        updateMapOutputButton();
+        if (enabled) {
+            appendLog("📍 定位上图已开启：定位帧格式尚未与电台协议核对，地图位置和轨迹仅供参考");
+        } else {
+            appendLog("📍 定位上图已关闭：不再更新地图标记和记录轨迹（已显示的标记保留）");
+        }
+    }
+
+    private void updateMapOutputButton() {
+        if (btnMapOutput != null) {
+            boolean enabled = usbSerialManager != null && usbSerialManager.isLocationOutputEnabled();
+            btnMapOutput.setText(enabled ? "定位上图：开" : "定位上图：关");
+        }
+    }
+
+    /**
+     * 选择要上传的文件：列出插件上传目录（Android/data/.../files/uploads）中的文件
+     */
+    private void chooseUploadFile() {
+        if (usbSerialManager == null) {
+            appendLog("❌ USB管理器尚未初始化完成，请稍后再试");
+            return;
+        }
+        if (uploadEngine != null && uploadEngine.isRunning()) {
+            uploadEngine.cancel();
+            return;
+        }
+        if (!usbSerialManager.isConnected()) {
+            appendLog("❌ USB设备未连接，请先连接设备");
+            return;
+        }
+        File dir = pluginContext.getExternalFilesDir(UPLOAD_DIR);
+        File[] files = dir != null ? dir.listFiles(File::isFile) : null;
+        if (files == null || files.length == 0) {
+            appendLog("📁 上传目录中没有文件，请先把配置或固件文件复制到: "
+                    + (dir != null ? dir.getAbsolutePath() : UPLOAD_DIR));
+            return;
+        }
+        Arrays.sort(files);
+        String[] names = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            names[i] = files[i].getName() + " (" + files[i].length() + " B)";
+        }
+        new AlertDialog.Builder(getMapView().getContext())
+                .setTitle("上传文件到电台")
+                .setItems(names, (dialog, which) -> uploadFile(files[which]))
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void uploadFile(File file) {
+        if (uploadEngine == null) {
+            uploadEngine = new SerialUploadEngine(pluginContext, usbSerialManager);
+        }
+        boolean started = uploadEngine.start(file, new SerialUploadEngine.Listener() {
+            private int lastDecile = -1;
+
+            @Override
+            public void onProgress(SerialUploadEngine.Progress progress) {
+                if (tvStatus != null) {
+                    tvStatus.setText(String.format(Locale.US, "Status: 上传 %s %.0f%%", progress.fileName,
+                            progress.getPercent()));
+                }
+                // 日志每 10% 记一次
+                int decile = (int) (progress.getPercent() / 10);
+                if (decile != lastDecile) {
+                    lastDecile = decile;
+                    appendLog("📤 " + progress);
+                }
+            }
+
+            @Override
+            public void onComplete(SerialUploadEngine.Progress progress) {
+                appendLog("✅ 上传完成: " + progress);
+                if (tvStatus != null) {
+                    tvStatus.setText("Status: 上传完成 " + progress.fileName);
+                }
+            }
+
+            @Override
+            public void onError(Exception error, SerialUploadEngine.Progress progress) {
+                appendLog("❌ 上传中止: " + error.getMessage() + "，已确认 " + progress.ackedBytes + "/"
+                        + progress.totalBytes + " 字节，再次上传同一文件将续传");
+                if (tvStatus != null) {
+                    tvStatus.setText("Status: 上传中止");
+                }
+            }
+        });
+        appendLog(started ? "📤 开始上传 " + file.getName() + "（再次点击\"上传文件\"取消）"
+                : "❌ 无法上传 " + file.getName() + "：文件不可读或设备未连接");
+    }
+
     /**
      * 处理手台ID响应
      * 响应数据包格式: 0x68 0x00 0x04 0x02 ID1 ID2 ID3
      */
     private void handleIdResponse(byte[] data) {
 
-        if (data.length >= 7) {
+        if (data.length >= PacketType.DEVICE_ID.getFrameLength()) {
             // 解析设备ID (字节4-6) - 小端序解析
-            long localId = (data[4] & 0xFF); // 最低字节
-            localId |= ((data[5] & 0xFF) << 8); // 中间字节
-            localId |= ((data[6] & 0xFF) << 16); // 最高字节
+            long localId = FrameCodec.decodeDeviceId(data);
 
             deviceId = localId;
 
@@ -17,13 +17,25 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
+import com.saemaps.android.usbserial.core.ReadBacklog;
 import com.saemaps.android.usbserial.plugin.R;
+import com.saemaps.android.usbserial.usbserial.SerialIoExecutor;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Mirror of SimpleUsbTerminal SerialService adapted to plugin package.
+ *
+ * While no listener is attached, reads go to a bounded {@link ReadBacklog}: recent data stays in
+ * memory, older data spills to a cache file. On attach the in-memory part is replayed one page per
+ * main-loop turn (live reads queue behind it), and older pages are fetched on demand with
+ * {@link #readOlderBacklog(int, BacklogPageCallback)}. If anything spilled while detached, what the
+ * listener already shows predates it; listeners implementing {@link BacklogListener} are told to
+ * drop that output so the spilled pages can be shown in order above the replay.
  */
 public class SerialService extends Service implements SerialListener {
 
@@ -33,14 +45,41 @@ public class SerialService extends Service implements SerialListener {
         }
     }
 
+    /**
+     * Optional listener extension, see {@link #attach(SerialListener)}.
+     */
+    public interface BacklogListener {
+        /**
+         * Output spilled to disk while detached. Everything the listener shows so far is older than
+         * it, so it should be cleared; older pages then come from {@link #readOlderBacklog}.
+         * Called on attach, before any queued item is delivered.
+         */
+        void onBacklogSpilled();
+    }
+
+    /**
+     * Result of {@link #readOlderBacklog}, delivered on the main thread.
+     */
+    public interface BacklogPageCallback {
+        /**
+         * @param datas chunks in arrival order; empty when there is nothing older
+         */
+        void onBacklogPage(ArrayDeque<byte[]> datas);
+    }
+
     private enum QueueType {
         Connect, ConnectError, Read, IoError
     }
 
+    // bytes handed to the listener per main-loop turn while replaying the backlog
+    private static final int REPLAY_PAGE_BYTES = 8 * 1024;
+
     private static class QueueItem {
         final QueueType type;
         ArrayDeque<byte[]> datas;
         final Exception error;
+        // queue2 Read markers: number of backlog chunks that belong here
+        int chunks;
 
         QueueItem(QueueType type) {
             this(type, (Exception) null);
@@ -74,14 +113,26 @@ public class SerialService extends Service implements SerialListener {
     private final ArrayDeque<QueueItem> queue2 = new ArrayDeque<>();
     private final QueueItem lastRead = new QueueItem(QueueType.Read);
 
+    private final Runnable replayStep = this::replayStep;
+
     private SerialSocket socket;
     private SerialListener listener;
     private boolean connected;
+    // queue2 Read items are markers; their data lives in the backlog
+    private ReadBacklog backlog;
+    // true while queue2/backlog is being replayed to a freshly attached listener
+    private boolean replaying;
 
     @Override
     public void onDestroy() {
         cancelNotification();
         disconnect();
+        mainLooper.removeCallbacks(replayStep);
+        synchronized (this) {
+            if (backlog != null) {
+                backlog.close();
+            }
+        }
         super.onDestroy();
     }
 
@@ -114,21 +165,60 @@ public class SerialService extends Service implements SerialListener {
         socket.write(data);
     }
 
+    /**
+     * Queue data for the socket's writer thread without blocking the caller. Consecutive writes
+     * are written back to back in submission order. The callback (may be null) is delivered on
+     * the main thread.
+     */
+    public void writeAsync(byte[] data, @Nullable SerialSocket.WriteCallback callback) throws IOException {
+        if (!connected)
+            throw new IOException("not connected");
+        socket.writeAsync(data, callback == null ? null : new SerialSocket.WriteCallback() {
+            @Override
+            public void onWriteComplete(byte[] written) {
+                mainLooper.post(() -> callback.onWriteComplete(written));
+            }
+
+            @Override
+            public void onWriteError(byte[] failed, IOException e) {
+                mainLooper.post(() -> callback.onWriteError(failed, e));
+            }
+        });
+    }
+
+    public int getPendingWriteBytes() {
+        SerialSocket current = socket;
+        return connected && current != null ? current.getPendingWriteBytes() : 0;
+    }
+
     public void attach(SerialListener listener) {
         if (Looper.getMainLooper().getThread() != Thread.currentThread()) {
             throw new IllegalArgumentException("not in main thread");
         }
         initNotification();
         cancelNotification();
+        boolean spilled;
         synchronized (this) {
             this.listener = listener;
+            spilled = backlog != null && backlog.rewindIfSpilled();
+        }
+        if (spilled && listener instanceof BacklogListener)
+            ((BacklogListener) listener).onBacklogSpilled();
+        for (QueueItem item : queue1) {
+            // reads posted before detach predate the spill, i.e. belong to the output just dropped
+            if (!spilled || item.type != QueueType.Read || !(listener instanceof BacklogListener))
+                dispatch(item, listener);
         }
-        for (QueueItem item : queue1)
-            dispatch(item, listener);
-        for (QueueItem item : queue2)
-            dispatch(item, listener);
         queue1.clear();
-        queue2.clear();
+        synchronized (this) {
+            if (!queue2.isEmpty() && !replaying) {
+                // live reads keep queueing behind the backlog until the replay has caught up
+                replaying = true;
+                backlog().setSpillEnabled(false);
+                trimSpilledMarkers();
+                mainLooper.post(replayStep);
+            }
+        }
     }
 
     public void detach() {
@@ -138,7 +228,85 @@ public class SerialService extends Service implements SerialListener {
         // up in queue1
         // items occurring later, will be moved directly to queue2
         // detach() and mainLooper.post run in the main thread, so all items are caught
-        listener = null;
+        synchronized (this) {
+            listener = null;
+            if (!replaying && queue2.isEmpty()) {
+                // start a fresh backlog period; anything older is already in the UI
+                backlog().reset();
+            }
+        }
+    }
+
+    /**
+     * Older backlog data that was spilled to disk while detached, one page at a time going
+     * backwards. Call from the UI when the user scrolls past the top. The page is read on the
+     * serial IO pool; the callback runs on the main thread.
+     *
+     * @param maxBytes page size
+     */
+    public void readOlderBacklog(int maxBytes, BacklogPageCallback callback) {
+        final ReadBacklog source;
+        synchronized (this) {
+            source = backlog();
+        }
+        try {
+            SerialIoExecutor.shared().submit("ReadOlderBacklog", () -> {
+                ArrayDeque<byte[]> page = source.readOlder(maxBytes);
+                mainLooper.post(() -> callback.onBacklogPage(page));
+            });
+        } catch (RejectedExecutionException e) {
+            mainLooper.post(() -> callback.onBacklogPage(new ArrayDeque<>()));
+        }
+    }
+
+    public synchronized boolean hasOlderBacklog() {
+        return backlog != null && backlog.hasOlder();
+    }
+
+    private ReadBacklog backlog() {
+        if (backlog == null) {
+            backlog = new ReadBacklog(new File(getCacheDir(), "serial-backlog"), "read",
+                    ReadBacklog.DEFAULT_MEMORY_LIMIT, ReadBacklog.DEFAULT_DISK_LIMIT);
+        }
+        return backlog;
+    }
+
+    /**
+     * Replay queue2 in order, one backlog page per main-loop turn so the UI stays responsive.
+     */
+    private void replayStep() {
+        while (true) {
+            SerialListener target;
+            QueueItem item;
+            ArrayDeque<byte[]> page = null;
+            synchronized (this) {
+                target = listener;
+                if (target == null || queue2.isEmpty()) {
+                    // detached mid-replay keeps the rest queued; otherwise switch back to direct delivery
+                    replaying = false;
+                    backlog().setSpillEnabled(true);
+                    return;
+                }
+                item = queue2.peekFirst();
+                if (item.type == QueueType.Read) {
+                    // page only this marker's chunks so later Connect/IoError items keep their place
+                    page = backlog().pollRecent(REPLAY_PAGE_BYTES, item.chunks);
+                    item.chunks -= page.size();
+                    if (page.isEmpty()) {
+                        queue2.pollFirst();
+                        continue;
+                    }
+                } else {
+                    queue2.pollFirst();
+                }
+            }
+            if (page != null) {
+                target.onSerialRead(page);
+                mainLooper.post(replayStep);
+                return;
+            }
+            dispatch(item, target);
+        }
     }
 
     // === notification ===
@@ -216,7 +384,7 @@ public class SerialService extends Service implements SerialListener {
         if (!connected)
             return;
         synchronized (this) {
-            if (listener != null) {
+            if (listener != null && !replaying) {
                 mainLooper.post(() -> {
                     if (listener != null)
                         listener.onSerialConnect();
@@ -234,7 +402,7 @@ public class SerialService extends Service implements SerialListener {
         if (!connected)
             return;
         synchronized (this) {
-            if (listener != null) {
+            if (listener != null && !replaying) {
                 mainLooper.post(() -> {
                     if (listener != null)
                         listener.onSerialConnectError(e);
@@ -258,7 +426,7 @@ public class SerialService extends Service implements SerialListener {
         }
 
         synchronized (this) {
-            if (listener != null) {
+            if (listener != null && !replaying) {
                 // 如果有监听器，直接转发数据
                 mainLooper.post(() -> {
                     if (listener != null) {
@@ -268,8 +436,8 @@ public class SerialService extends Service implements SerialListener {
                     }
                 });
             } else {
-                // 如果没有监听器，将数据加入队列
-                queue2.add(new QueueItem(QueueType.Read, datas));
+                // 如果没有监听器（或正在回放积压数据），将数据加入有界积压缓冲
+                addToBacklog(datas);
             }
         }
     }
@@ -279,7 +447,7 @@ public class SerialService extends Service implements SerialListener {
         if (!connected)
             return;
         synchronized (this) {
-            if (listener != null) {
+            if (listener != null && !replaying) {
                 boolean first;
                 synchronized (lastRead) {
                     first = lastRead.datas.isEmpty();
@@ -299,19 +467,48 @@ public class SerialService extends Service implements SerialListener {
                     });
                 }
             } else {
-                if (queue2.isEmpty() || queue2.getLast().type != QueueType.Read)
-                    queue2.add(new QueueItem(QueueType.Read));
-                queue2.getLast().add(data);
+                addToBacklog(data);
             }
         }
     }
 
+    private void addToBacklog(ArrayDeque<byte[]> datas) {
+        for (byte[] data : datas)
+            addToBacklog(data);
+    }
+
+    private void addToBacklog(byte[] data) {
+        if (data == null || data.length == 0)
+            return;
+        if (queue2.isEmpty() || queue2.getLast().type != QueueType.Read)
+            queue2.add(new QueueItem(QueueType.Read, (ArrayDeque<byte[]>) null));
+        queue2.getLast().chunks++;
+        backlog().add(data);
+    }
+
+    /**
+     * Chunks spilled to disk (or dropped) are always the oldest ones, so walk the Read markers
+     * from the newest back and leave each only the chunks still in memory. The spilled part is
+     * paged in separately via {@link #readOlderBacklog}.
+     */
+    private void trimSpilledMarkers() {
+        int inMemory = backlog().memoryChunks();
+        Iterator<QueueItem> it = queue2.descendingIterator();
+        while (it.hasNext()) {
+            QueueItem item = it.next();
+            if (item.type != QueueType.Read)
+                continue;
+            item.chunks = Math.min(item.chunks, inMemory);
+            inMemory -= item.chunks;
+        }
+    }
+
     @Override
     public void onSerialIoError(Exception e) {
         if (!connected)
             return;
         synchronized (this) {
-            if (listener != null) {
+            if (listener != null && !replaying) {
                 mainLooper.post(() -> {
                     if (listener != null)
                         listener.onSerialIoError(e);
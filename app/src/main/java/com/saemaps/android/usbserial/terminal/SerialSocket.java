@@ -5,36 +5,46 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbManager;
 import android.util.Log;
 
-import androidx.core.content.ContextCompat;
-
 import com.hoho.android.usbserial.driver.UsbSerialPort;
-import com.hoho.android.usbserial.util.SerialInputOutputManager;
+import com.saemaps.android.usbserial.usbserial.SharedSerialPort;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
 
-public class SerialSocket implements SerialInputOutputManager.Listener {
+/**
+ * Terminal view over a {@link SharedSerialPort}. Reading, writing and the port itself are owned
+ * by the shared core, so the terminal and the plugin can use the same radio at the same time.
+ */
+public class SerialSocket implements SharedSerialPort.Client {
 
-    private static final int WRITE_WAIT_MILLIS = 200;
+    private static final int WRITE_WAIT_MILLIS = SharedSerialPort.DEFAULT_WRITE_TIMEOUT_MS;
+    // large writes are split so every chunk gets its own WRITE_WAIT_MILLIS budget
+    private static final int WRITE_CHUNK_SIZE = 4096;
     private static final String TAG = "SerialSocket";
 
+    /**
+     * Completion of a {@link #writeAsync} request, called on the writer thread.
+     */
+    public interface WriteCallback extends SharedSerialPort.WriteCallback {
+    }
+
     private final BroadcastReceiver disconnectReceiver;
     private final Context context;
+    private final int baudRate;
     private SerialListener listener;
-    private UsbDeviceConnection connection;
     private UsbSerialPort serialPort;
-    private SerialInputOutputManager ioManager;
+    private volatile SharedSerialPort sharedPort;
 
-    SerialSocket(Context context, UsbDeviceConnection connection, UsbSerialPort serialPort) {
+    SerialSocket(Context context, UsbSerialPort serialPort, int baudRate) {
         if (context instanceof Activity) {
             throw new InvalidParameterException("expected non UI context");
         }
         this.context = context.getApplicationContext();
-        this.connection = connection;
         this.serialPort = serialPort;
+        this.baudRate = baudRate;
         disconnectReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context ctx, Intent intent) {
@@ -46,53 +56,34 @@ public class SerialSocket implements SerialInputOutputManager.Listener {
         };
     }
 
+    /**
+     * The open port; may differ from the probed one when another client opened it first.
+     */
+    public UsbSerialPort getPort() {
+        return serialPort;
+    }
+
     public String getName() {
         return serialPort.getDriver().getClass().getSimpleName().replace("SerialDriver", "");
     }
 
     public void connect(SerialListener listener) throws IOException {
         this.listener = listener;
+        UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        // opens the port if nobody has it yet, otherwise joins the plugin/service already using it
+        sharedPort = SharedSerialPort.acquire(usbManager, serialPort, baudRate, UsbSerialPort.DATABITS_8,
+                UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE, this);
+        serialPort = sharedPort.getPort();
         context.registerReceiver(disconnectReceiver, new IntentFilter(Constants.INTENT_ACTION_DISCONNECT));
-        try {
-            serialPort.setDTR(true); // for arduino, ...
-            serialPort.setRTS(true);
-        } catch (UnsupportedOperationException e) {
-            Log.d(TAG, "Failed to set initial DTR/RTS", e);
-        }
-        ioManager = new SerialInputOutputManager(serialPort, this);
-        // 使用3.8.0版本推荐的启动方式
-        Log.d(TAG, "Using Thread-based SerialInputOutputManager - 3.8.0 API");
-        new Thread(ioManager, "SerialInputOutputManager").start();
+        Log.d(TAG, "Attached to " + sharedPort.getStatus());
     }
 
     public void disconnect() {
         listener = null; // ignore remaining data and errors
-        if (ioManager != null) {
-            ioManager.setListener(null);
-            // 使用3.9.0版本推荐的停止方式
-            try {
-                ioManager.stop(); // 3.9.0版本推荐使用stop()方法
-            } catch (NoSuchMethodError e) {
-                // 如果stop()方法不存在，忽略（向后兼容）
-                Log.d(TAG, "Using legacy SerialInputOutputManager stop behavior");
-            }
-            ioManager = null;
-        }
-        if (serialPort != null) {
-            try {
-                serialPort.setDTR(false);
-                serialPort.setRTS(false);
-            } catch (Exception ignored) {
-            }
-            try {
-                serialPort.close();
-            } catch (Exception ignored) {
-            }
-            serialPort = null;
-        }
-        if (connection != null) {
-            connection.close();
-            connection = null;
+        SharedSerialPort shared = sharedPort;
+        sharedPort = null;
+        if (shared != null) {
+            shared.release(this);
         }
         try {
             context.unregisterReceiver(disconnectReceiver);
@@ -101,22 +92,50 @@ public class SerialSocket implements SerialInputOutputManager.Listener {
     }
 
     public void write(byte[] data) throws IOException {
-        if (serialPort == null)
+        SharedSerialPort shared = sharedPort;
+        if (shared == null)
+            throw new IOException("not connected");
+        shared.write(data, WRITE_WAIT_MILLIS);
+    }
+
+    /**
+     * Queue data for the shared writer and return immediately. Requests are written in order,
+     * back to back; the callback (may be null) runs on the writer thread.
+     */
+    public void writeAsync(byte[] data, WriteCallback callback) throws IOException {
+        SharedSerialPort shared = sharedPort;
+        if (shared == null)
             throw new IOException("not connected");
-        serialPort.write(data, WRITE_WAIT_MILLIS);
+        shared.writeAsync(data, WRITE_CHUNK_SIZE, WRITE_WAIT_MILLIS, callback);
+    }
+
+    /**
+     * Bytes queued for the writer but not yet written (including other clients of the port).
+     */
+    public int getPendingWriteBytes() {
+        SharedSerialPort shared = sharedPort;
+        return shared == null ? 0 : shared.getPendingWriteBytes();
     }
 
     @Override
-    public void onNewData(byte[] data) {
-        if (listener != null) {
-            listener.onSerialRead(data);
+    public void onPortData(byte[] data) {
+        SerialListener current = listener;
+        if (current != null) {
+            current.onSerialRead(data);
         }
     }
 
     @Override
-    public void onRunError(Exception e) {
-        if (listener != null) {
-            listener.onSerialIoError(e);
+    public void onPortError(Exception e) {
+        SerialListener current = listener;
+        if (current != null) {
+            current.onSerialIoError(e);
         }
     }
+
+    @Override
+    public void onPortParametersChanged(int baudRate, int dataBits, int stopBits, int parity) {
+        // the port keeps running, received data simply follows the new settings
+        Log.i(TAG, "Serial parameters changed by another client: " + baudRate + " baud");
+    }
 }
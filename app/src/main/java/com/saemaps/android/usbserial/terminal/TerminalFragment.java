@@ -11,17 +11,16 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.hardware.usb.UsbDevice;
-import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
-import android.text.Editable;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.method.ScrollingMovementMethod;
+import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -44,21 +43,41 @@ import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
 import com.hoho.android.usbserial.util.XonXoffFilter;
+import com.saemaps.android.usbserial.core.Commands;
+import com.saemaps.android.usbserial.core.HexUtil;
+import com.saemaps.android.usbserial.core.LinkStressTest;
+import com.saemaps.android.usbserial.core.ScrollbackBuffer;
+import com.saemaps.android.usbserial.core.SimulatedSerialLink;
 import com.saemaps.android.usbserial.plugin.R;
 
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 
 /**
  * Serial terminal fragment adapted for SAE plugin environment.
  */
-public class TerminalFragment extends Fragment implements ServiceConnection, SerialListener {
+public class TerminalFragment extends Fragment implements ServiceConnection, SerialListener,
+        SerialService.BacklogListener {
 
     private enum Connected { False, Pending, True }
 
+    private static final int OLDER_BACKLOG_PAGE_BYTES = 8 * 1024;
+    // received data is coalesced into at most one redraw per interval
+    private static final long RENDER_INTERVAL_MS = 50;
+    // lines rendered into receiveText, as a multiple of the visible lines
+    private static final int WINDOW_SCREENS = 3;
+    private static final int MIN_WINDOW_LINES = 100;
+    // stress test presets, in the order shown by the stress test dialog
+    private static final String[] STRESS_PRESETS = {
+            "Echo 1 KB/s (loopback plug)", "Echo 10 KB/s (loopback plug)", "Device ID query 20 pkt/s",
+            "Simulated link 8 KB/s", "Stop"};
+    private static final long STRESS_DURATION_MS = 60_000;
+
     private final Handler mainLooper;
     private final BroadcastReceiver broadcastReceiver;
     private int deviceId, portNum, baudRate;
@@ -66,6 +85,37 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     private SerialService service;
 
     private TextView receiveText;
+    // scrollback survives view re-creation (retained fragment); receiveText only shows a window of it
+    private final ScrollbackBuffer scrollback = new ScrollbackBuffer();
+    private final SpannableStringBuilder renderBuffer = new SpannableStringBuilder();
+    private final Runnable renderRunnable = this::render;
+    private final SerialSocket.WriteCallback writeCallback = new SerialSocket.WriteCallback() {
+        @Override
+        public void onWriteComplete(byte[] data) {
+        }
+
+        @Override
+        public void onWriteError(byte[] data, IOException e) {
+            if (getActivity() == null)
+                return;
+            if (e instanceof SerialTimeoutException)
+                status(getString(R.string.status_connection_failed, "write timeout: " + e.getMessage()));
+            else
+                status(getString(R.string.status_connection_failed, "write failed: " + e.getMessage()));
+        }
+    };
+    private char[] windowChars = new char[0];
+    private byte[] windowAttrs = new byte[0];
+    private boolean renderPending;
+    // an older backlog page is being read; results of requests from before a clear are dropped
+    private boolean loadingOlderBacklog;
+    private int olderBacklogGeneration;
+    private boolean followTail = true;
+    private boolean adjustingScroll;
+    private long windowTop, windowEnd;
+    private long renderedModification = -1;
+    private LinkStressTest stressTest;
+    private SimulatedSerialLink simulatedLink;
     private TextView sendText;
     private ImageButton sendBtn;
     private TextUtil.HexWatcher hexWatcher;
@@ -114,6 +164,12 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         receiveText = view.findViewById(R.id.receive_text);                          // TextView performance decreases with number of spans
         receiveText.setTextColor(getResources().getColor(R.color.colorReceiveText)); // set as default color to reduce number of spans
         receiveText.setMovementMethod(ScrollingMovementMethod.getInstance());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // scrolling past the rendered window moves it; below M the view just follows the tail
+            receiveText.setOnScrollChangeListener((v, x, y, oldX, oldY) -> onReceiveScrolled(y, oldY));
+        }
+        renderedModification = -1;
+        receiveText.post(this::render);
 
         sendText = view.findViewById(R.id.send_text);
         sendBtn = view.findViewById(R.id.send_btn);
@@ -131,6 +187,8 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        mainLooper.removeCallbacks(renderRunnable);
+        renderPending = false;
         hexWatcher.enable(false);
     }
 
@@ -149,6 +207,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     @Override
     public void onDestroy() {
+        stopStressTest();
         if (connected != Connected.False) {
             disconnect();
         }
@@ -228,7 +287,10 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         switch (item.getItemId()) {
             case R.id.clear:
-                receiveText.setText("");
+                scrollback.clear();
+                olderBacklogGeneration++;
+                followTail = true;
+                render();
                 return true;
             case R.id.newline:
                 String[] newlineNames = getResources().getStringArray(R.array.newline_names);
@@ -275,6 +337,9 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
                     status("send BREAK failed: " + e.getMessage());
                 }
                 return true;
+            case R.id.stressTest:
+                showStressTestDialog();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -314,14 +379,59 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     @Override
     public void onSerialRead(ArrayDeque<byte[]> datas) {
-        SpannableStringBuilder spn = new SpannableStringBuilder();
+        boolean keepNewline = newline.equals(TextUtil.newline_lf);
+        LinkStressTest stress = simulatedLink == null ? stressTest : null;
+        for (byte[] data : datas) {
+            if (stress != null)
+                stress.onReceive(data);
+            scrollback.appendBytes(data, 0, data.length, ScrollbackBuffer.KIND_RECEIVE, keepNewline);
+        }
+        scheduleRender();
+    }
+
+    @Override
+    public void onBacklogSpilled() {
+        // what is shown predates the spilled output; drop it so spilled pages land above the replay in order
+        scrollback.clear();
+        olderBacklogGeneration++;
+        followTail = true;
+        status("output received in background follows; scroll up for older pages");
+    }
+
+    /**
+     * Request the next page the service spilled to disk while detached; it is prepended when it
+     * arrives. Returns false when there is none.
+     */
+    private boolean loadOlderBacklog() {
+        if (service == null || !service.hasOlderBacklog())
+            return false;
+        if (!loadingOlderBacklog) {
+            loadingOlderBacklog = true;
+            final int generation = olderBacklogGeneration;
+            service.readOlderBacklog(OLDER_BACKLOG_PAGE_BYTES, datas -> onOlderBacklog(generation, datas));
+        }
+        return true;
+    }
+
+    private void onOlderBacklog(int generation, ArrayDeque<byte[]> datas) {
+        loadingOlderBacklog = false;
+        if (generation != olderBacklogGeneration || datas.isEmpty())
+            return;
+        int length = 0;
+        for (byte[] data : datas)
+            length += data.length;
+        byte[] page = new byte[length];
+        int pos = 0;
         for (byte[] data : datas) {
-            spn.append(TextUtil.toCaretString(new String(data), newline.equals(TextUtil.newline_lf)));
+            System.arraycopy(data, 0, page, pos, data.length);
+            pos += data.length;
         }
-        Spannable colored = spn;
-        colored.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorReceiveText)), 0, colored.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        receiveText.append(colored);
-        scrollToBottom();
+        int inserted = scrollback.prependBytes(page, 0, length, ScrollbackBuffer.KIND_RECEIVE,
+                newline.equals(TextUtil.newline_lf));
+        // still parked at the top: slide the window onto the new lines
+        if (inserted > 0 && receiveText != null && receiveText.getLayout() != null && !followTail
+                && receiveText.getScrollY() <= 0)
+            showOlderLines();
     }
 
     @Override
@@ -363,8 +473,8 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
             return;
         }
         usbSerialPort = driver.getPorts().get(portNum);
-        UsbDeviceConnection usbConnection = usbManager.openDevice(driver.getDevice());
-        if (usbConnection == null) {
+        // the port itself is opened (or joined, if the plugin already has it) by SharedSerialPort
+        if (!usbManager.hasPermission(driver.getDevice())) {
             if (false) { // ContextCompat.checkSelfPermission(requireContext(), android.Manifest.permission.USB_PERMISSION) != android.content.pm.PackageManager.PERMISSION_GRANTED) {
                 PendingIntent usbPermissionIntent = PendingIntent.getBroadcast(requireContext(), 0, new Intent(Constants.INTENT_ACTION_GRANT_USB), Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0);
                 usbManager.requestPermission(driver.getDevice(), usbPermissionIntent);
@@ -373,9 +483,10 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
             status(getString(R.string.status_connection_failed, "permission denied"));
             return;
         }
-        SerialSocket socket = new SerialSocket(requireContext(), usbConnection, usbSerialPort);
+        SerialSocket socket = new SerialSocket(requireContext(), usbSerialPort, baudRate);
         try {
             service.connect(socket);
+            usbSerialPort = socket.getPort();
             status(getString(R.string.status_connected));
         } catch (Exception e) {
             status(getString(R.string.status_connection_failed, e.getMessage()));
@@ -396,16 +507,15 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     }
 
     private void disconnect() {
+        if (simulatedLink == null)
+            stopStressTest();
         connected = Connected.False;
         enableUI();
         controlLines.stop();
         if (service != null) {
             service.disconnect();
         }
-        try {
-            if (usbSerialPort != null) usbSerialPort.close();
-        } catch (IOException ignored) {
-        }
+        // closing is up to SharedSerialPort, which keeps the port open while other clients use it
         usbSerialPort = null;
     }
 
@@ -420,10 +530,9 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
                 String msg = str + newline;
                 data = msg.getBytes();
             }
-            service.write(data);
+            // queued for the service's writer thread; the UI thread never waits on the port
+            service.writeAsync(data, writeCallback);
             showSent(data);
-        } catch (SerialTimeoutException e) {
-            status(getString(R.string.status_connection_failed, "write timeout: " + e.getMessage()));
         } catch (IOException e) {
             status(getString(R.string.status_connection_failed, "write failed: " + e.getMessage()));
         }
@@ -444,19 +553,15 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     }
 
     private void showSent(byte[] data) {
-        SpannableStringBuilder spn = new SpannableStringBuilder();
         if (hexEnabled) {
             StringBuilder sb = new StringBuilder();
             TextUtil.toHexString(sb, data);
-            spn.append(getString(R.string.send_prefix_hex, sb.toString()));
+            scrollback.appendText(getString(R.string.send_prefix_hex, sb.toString()), ScrollbackBuffer.KIND_SEND, true);
         } else {
-            String msg = new String(data);
-            Spannable s = (Spannable) TextUtil.toCaretString(msg, newline.equals(TextUtil.newline_lf));
-            spn.append(s);
+            scrollback.appendText(new String(data), ScrollbackBuffer.KIND_SEND, newline.equals(TextUtil.newline_lf));
         }
-        spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorSendText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        receiveText.append(spn);
-        scrollToBottom();
+        followTail = true;
+        render();
         sendText.setText("");
     }
 
@@ -480,17 +585,243 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
                 .show();
     }
 
+    // === link stress test ===
+
+    private void showStressTestDialog() {
+        new AlertDialog.Builder(requireActivity())
+                .setTitle(stressTest != null && stressTest.isRunning() ? "Stress Test (running)" : "Stress Test")
+                .setItems(STRESS_PRESETS, (dialog, which) -> {
+                    if (which == STRESS_PRESETS.length - 1)
+                        stopStressTest();
+                    else
+                        startStressTest(which);
+                })
+                .create()
+                .show();
+    }
+
+    /**
+     * Runs a preset through the normal async send path (or a simulated port) and prints live
+     * throughput, loss and round-trip percentiles to the terminal once a second.
+     */
+    private void startStressTest(int preset) {
+        stopStressTest();
+        LinkStressTest.Config config = new LinkStressTest.Config().setDurationMs(STRESS_DURATION_MS);
+        switch (preset) {
+            case 0:
+                config.setBytesPerSecond(1024);
+                break;
+            case 1:
+                config.setBytesPerSecond(10 * 1024);
+                break;
+            case 2:
+                config.setPacketsPerSecond(20).setScript(Collections.singletonList(LinkStressTest.Step.parse(
+                        HexUtil.toHex(Commands.queryDeviceId()), "68 00 04 02 ?? ?? ??")));
+                break;
+            default:
+                config.setBytesPerSecond(8 * 1024);
+                break;
+        }
+        final LinkStressTest[] test = new LinkStressTest[1];
+        LinkStressTest.Transport transport;
+        if (preset == 3) {
+            simulatedLink = new SimulatedSerialLink(baudRate, 5, 0.01, System.nanoTime(),
+                    SimulatedSerialLink.ECHO, data -> test[0].onReceive(data));
+            transport = simulatedLink;
+        } else {
+            if (connected != Connected.True || service == null) {
+                status("stress test: not connected");
+                return;
+            }
+            transport = data -> {
+                SerialService current = service;
+                if (current == null)
+                    throw new IOException("not connected");
+                current.writeAsync(data, null);
+            };
+        }
+        test[0] = new LinkStressTest(config, transport, (report, finished) ->
+                mainLooper.post(() -> onStressReport(test[0], report, finished)));
+        stressTest = test[0];
+        status("stress test started: " + STRESS_PRESETS[preset]);
+        test[0].start();
+    }
+
+    private void onStressReport(LinkStressTest test, LinkStressTest.Report report, boolean finished) {
+        status((finished ? "stress test finished: " : "stress: ") + report);
+        if (finished && test == stressTest) {
+            stressTest = null;
+            releaseSimulatedLink();
+        }
+    }
+
+    private void stopStressTest() {
+        if (stressTest != null) {
+            // the final report still arrives from the stress thread
+            stressTest.stop();
+            stressTest = null;
+        }
+        releaseSimulatedLink();
+    }
+
+    private void releaseSimulatedLink() {
+        if (simulatedLink != null) {
+            simulatedLink.close();
+            simulatedLink = null;
+        }
+    }
+
     private void status(String msg) {
-        SpannableStringBuilder spn = new SpannableStringBuilder(msg + '\n');
-        spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorStatusText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        receiveText.append(spn);
-        scrollToBottom();
+        scrollback.appendText(msg, ScrollbackBuffer.KIND_STATUS, false);
+        scrollback.appendText("\n", ScrollbackBuffer.KIND_STATUS, true);
+        scheduleRender();
     }
 
     private void scrollToBottom() {
         final int scrollAmount = receiveText.getLayout() == null ? 0 : receiveText.getLayout().getLineTop(receiveText.getLineCount()) - receiveText.getHeight();
-        if (scrollAmount > 0) receiveText.scrollTo(0, scrollAmount);
-        else receiveText.scrollTo(0, 0);
+        scrollReceiveTo(Math.max(scrollAmount, 0));
+    }
+
+    private void scrollReceiveTo(int y) {
+        adjustingScroll = true;
+        receiveText.scrollTo(0, y);
+        adjustingScroll = false;
+    }
+
+    // === scrollback rendering ===
+
+    private void scheduleRender() {
+        if (!renderPending) {
+            renderPending = true;
+            mainLooper.postDelayed(renderRunnable, RENDER_INTERVAL_MS);
+        }
+    }
+
+    private int windowLines() {
+        int lineHeight = receiveText.getLineHeight();
+        int visible = lineHeight > 0 ? receiveText.getHeight() / lineHeight + 1 : 0;
+        return Math.max(MIN_WINDOW_LINES, visible * WINDOW_SCREENS);
+    }
+
+    /**
+     * Render [windowTop, windowEnd) of the scrollback into receiveText. When following the tail the
+     * window ends at the newest line; otherwise it stays put and the scroll position is kept.
+     */
+    private void render() {
+        renderPending = false;
+        mainLooper.removeCallbacks(renderRunnable);
+        if (receiveText == null)
+            return;
+        long first = scrollback.getFirstLine();
+        long end = scrollback.getEndLine();
+        int lines = windowLines();
+        long top, bottom;
+        if (followTail) {
+            bottom = end;
+            top = Math.max(first, end - lines);
+        } else {
+            top = Math.max(first, Math.min(windowTop, end - lines));
+            bottom = Math.min(end, top + lines);
+            // a full window whose lines are unchanged needs no redraw
+            if (top == windowTop && bottom == windowEnd && bottom < end && renderedModification >= 0)
+                return;
+        }
+        renderWindow(top, bottom, -1);
+        if (followTail)
+            scrollToBottom();
+    }
+
+    /**
+     * @param anchorLine line whose rendered char offset is returned, or -1
+     * @return char offset of anchorLine in the rendered text, or -1
+     */
+    private int renderWindow(long top, long bottom, long anchorLine) {
+        int scrollY = receiveText.getScrollY();
+        int length = 0;
+        int anchorOffset = -1;
+        for (long line = top; line < bottom; line++) {
+            int needed = length + 1 + scrollback.getLineLength(line);
+            if (needed > windowChars.length) {
+                windowChars = Arrays.copyOf(windowChars, Math.max(needed, windowChars.length * 2));
+                windowAttrs = Arrays.copyOf(windowAttrs, windowChars.length);
+            }
+            if (line > top && !scrollback.isContinuation(line)) {
+                windowChars[length] = '\n';
+                windowAttrs[length++] = ScrollbackBuffer.KIND_RECEIVE;
+            }
+            if (line == anchorLine)
+                anchorOffset = length;
+            length += scrollback.copyLine(line, windowChars, windowAttrs, length);
+        }
+        renderBuffer.clearSpans();
+        renderBuffer.replace(0, renderBuffer.length(), CharBuffer.wrap(windowChars, 0, length));
+        // only send/status text and caret notation carry spans; received text uses the view color
+        int sendColor = getResources().getColor(R.color.colorSendText);
+        int statusColor = getResources().getColor(R.color.colorStatusText);
+        int runStart = 0;
+        for (int i = 1; i <= length; i++) {
+            if (i < length && windowAttrs[i] == windowAttrs[runStart])
+                continue;
+            int attr = windowAttrs[runStart];
+            int kind = attr & ScrollbackBuffer.KIND_MASK;
+            if (kind != ScrollbackBuffer.KIND_RECEIVE)
+                renderBuffer.setSpan(new ForegroundColorSpan(kind == ScrollbackBuffer.KIND_SEND ? sendColor : statusColor),
+                        runStart, i, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            if ((attr & ScrollbackBuffer.ATTR_CARET) != 0)
+                renderBuffer.setSpan(new BackgroundColorSpan(TextUtil.caretBackground), runStart, i,
+                        Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            runStart = i;
+        }
+        receiveText.setText(renderBuffer);
+        windowTop = top;
+        windowEnd = bottom;
+        renderedModification = scrollback.getModificationCount();
+        if (!followTail)
+            scrollReceiveTo(scrollY);
+        return anchorOffset;
+    }
+
+    /**
+     * Slide the window when the user scrolls to either edge of the rendered text.
+     */
+    private void onReceiveScrolled(int y, int oldY) {
+        if (adjustingScroll || receiveText.getLayout() == null)
+            return;
+        int bottom = receiveText.getLayout().getLineTop(receiveText.getLineCount()) - receiveText.getHeight();
+        if (y < oldY)
+            followTail = false;
+        if (y <= 0 && oldY > 0) {
+            if (windowTop <= scrollback.getFirstLine()) {
+                // the window moves once the page has been read
+                loadOlderBacklog();
+                return;
+            }
+            showOlderLines();
+        } else if (y >= bottom && y > oldY && !followTail) {
+            if (windowEnd >= scrollback.getEndLine()) {
+                followTail = true;
+                return;
+            }
+            long anchor = windowEnd - 1;
+            long bottomLine = Math.min(scrollback.getEndLine(), windowEnd + windowLines() / 2);
+            long top = Math.max(scrollback.getFirstLine(), bottomLine - windowLines());
+            int offset = renderWindow(top, bottomLine, anchor);
+            if (offset >= 0) {
+                int line = receiveText.getLayout().getLineForOffset(offset);
+                scrollReceiveTo(Math.max(0, receiveText.getLayout().getLineBottom(line) - receiveText.getHeight()));
+            }
+        }
+    }
+
+    /**
+     * Move the window up by half a window, keeping the current top line in place on screen.
+     */
+    private void showOlderLines() {
+        long anchor = Math.max(windowTop, scrollback.getFirstLine());
+        long top = Math.max(scrollback.getFirstLine(), anchor - windowLines() / 2);
+        int offset = renderWindow(top, Math.min(scrollback.getEndLine(), top + windowLines()), anchor);
+        if (offset >= 0)
+            scrollReceiveTo(receiveText.getLayout().getLineTop(receiveText.getLayout().getLineForOffset(offset)));
     }
 
     private void checkForeground() {
@@ -0,0 +1,55 @@
+package com.saemaps.android.usbserial.usbserial;
+
+import android.util.Log;
+
+import com.saemaps.android.usbserial.core.CoreLog;
+
+/**
+ * 将 core 模块的 {@link CoreLog} 日志转发到 android.util.Log
+ *
+ * @author SAE Maps
+ */
+public final class AndroidLogSink implements CoreLog.Sink {
+
+    private static final AndroidLogSink INSTANCE = new AndroidLogSink();
+
+    private AndroidLogSink() {
+    }
+
+    /**
+     * 安装为 core 模块的日志输出端（可重复调用）
+     */
+    public static void install() {
+        CoreLog.setSink(INSTANCE);
+        CoreLog.setMinPriority(CoreLog.VERBOSE);
+    }
+
+    @Override
+    public void log(int priority, String tag, String message, Throwable error) {
+        switch (priority) {
+            case CoreLog.VERBOSE:
+                Log.v(tag, message);
+                break;
+            case CoreLog.DEBUG:
+                Log.d(tag, message);
+                break;
+            case CoreLog.INFO:
+                Log.i(tag, message);
+                break;
+            case CoreLog.WARN:
+                if (error != null) {
+                    Log.w(tag, message, error);
+                } else {
+                    Log.w(tag, message);
+                }
+                break;
+            default:
+                if (error != null) {
+                    Log.e(tag, message, error);
+                } else {
+                    Log.e(tag, message);
+                }
+                break;
+        }
+    }
+}
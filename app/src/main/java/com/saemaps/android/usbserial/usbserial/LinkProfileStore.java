@@ -0,0 +1,113 @@
+package com.saemaps.android.usbserial.usbserial;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.usb.UsbDevice;
+import android.util.Log;
+
+import com.saemaps.android.usbserial.core.LinkSelfTest;
+import com.saemaps.android.usbserial.core.LinkTuner;
+import com.saemaps.android.usbserial.core.TxPacer;
+
+import java.util.Locale;
+
+/**
+ * 按适配器（VID/PID）持久化的链路测量结果
+ * 同型号的 USB 串口适配器（CH340、FTDI、CP210x 等）能力相近，测一次之后按 VID/PID 记下来，
+ * 以后连接同型号适配器时可以直接据此调参，不必每次重新测。
+ *
+ * 存储在插件私有的 SharedPreferences 中，键名形如 "selftest.1A86:7523"、"tuning.1A86:7523@115200"
+ * （调出的读写参数与波特率相关，按波特率分别保存），以及用户配置的发送限速 "pacing.1A86:7523"。
+ *
+ * 线程安全：SharedPreferences 本身线程安全，所有方法可在任意线程调用。
+ *
+ * @author SAE Maps
+ */
+public final class LinkProfileStore {
+
+    private static final String TAG = "LinkProfileStore";
+
+    private static final String PREFS_NAME = "usb_link_profiles";
+    private static final String KEY_SELF_TEST = "selftest.";
+    private static final String KEY_TUNING = "tuning.";
+    private static final String KEY_PACING = "pacing.";
+
+    private final SharedPreferences prefs;
+
+    public LinkProfileStore(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 适配器标识，如 "1A86:7523"
+     */
+    public static String deviceKey(UsbDevice device) {
+        return deviceKey(device.getVendorId(), device.getProductId());
+    }
+
+    public static String deviceKey(int vendorId, int productId) {
+        return String.format(Locale.US, "%04X:%04X", vendorId, productId);
+    }
+
+    /**
+     * 保存自测结果（覆盖该适配器之前的结果）
+     */
+    public void saveSelfTest(UsbDevice device, LinkSelfTest.Result result) {
+        String key = deviceKey(device);
+        prefs.edit().putString(KEY_SELF_TEST + key, result.encode()).apply();
+        Log.d(TAG, "💾 Saved self-test for " + key + " (" + result.entries.size() + " entries)");
+    }
+
+    /**
+     * 读取自测结果
+     *
+     * @return 没有测过或记录损坏时返回 null
+     */
+    public LinkSelfTest.Result getSelfTest(UsbDevice device) {
+        return LinkSelfTest.Result.decode(prefs.getString(KEY_SELF_TEST + deviceKey(device), null));
+    }
+
+    public void clearSelfTest(UsbDevice device) {
+        prefs.edit().remove(KEY_SELF_TEST + deviceKey(device)).apply();
+    }
+
+    /**
+     * 保存调出的读写参数
+     */
+    public void saveTuning(UsbDevice device, int baudRate, LinkTuner.Settings settings) {
+        String key = deviceKey(device) + "@" + baudRate;
+        prefs.edit().putString(KEY_TUNING + key, settings.encode()).apply();
+        Log.d(TAG, "💾 Saved tuning for " + key + ": " + settings);
+    }
+
+    /**
+     * 读取调出的读写参数
+     *
+     * @return 没有保存过时返回 null
+     */
+    public LinkTuner.Settings getTuning(UsbDevice device, int baudRate) {
+        return LinkTuner.Settings.decode(prefs.getString(KEY_TUNING + deviceKey(device) + "@" + baudRate, null));
+    }
+
+    /**
+     * 保存发送限速；不限速时删除记录
+     */
+    public void savePacing(UsbDevice device, TxPacer.Settings settings) {
+        String key = deviceKey(device);
+        if (settings == null || !settings.isEnabled()) {
+            prefs.edit().remove(KEY_PACING + key).apply();
+            return;
+        }
+        prefs.edit().putString(KEY_PACING + key, settings.encode()).apply();
+        Log.d(TAG, "💾 Saved TX pacing for " + key + ": " + settings);
+    }
+
+    /**
+     * 读取发送限速
+     *
+     * @return 没有配置过时返回 null
+     */
+    public TxPacer.Settings getPacing(UsbDevice device) {
+        return TxPacer.Settings.decode(prefs.getString(KEY_PACING + deviceKey(device), null));
+    }
+}
@@ -0,0 +1,112 @@
+package com.saemaps.android.usbserial.usbserial;
+
+import android.util.Log;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 串口IO共享线程池
+ * 读线程（SerialInputOutputManager）和写线程不再每次连接都 new Thread，而是作为任务提交到
+ * 这个长期存活的线程池中，连接断开/重启时工作线程被回收复用。
+ *
+ * 特性：
+ * - 核心线程常驻（读 + 写各一个），频繁插拔/重连时不再产生线程创建开销
+ * - 线程数不设上限：每个端口的读写任务、链路自测、文件上传和轨迹日志任务都会长时间占用一个线程，
+ *   有上限的池在多端口/终端同时工作时会拒绝提交；超出核心数的空闲线程 60 秒后回收
+ * - 取消为非阻塞：通过 Future.cancel(true) 中断任务，不再 join 等待线程结束
+ * - 任务运行期间线程名带上任务名，便于在 ANR/崩溃堆栈中定位
+ *
+ * @author SAE Maps
+ */
+public final class SerialIoExecutor {
+
+    private static final String TAG = "SerialIoExecutor";
+    private static final String THREAD_PREFIX = "USBSerial-IO-";
+
+    // 常驻线程数：一个读任务 + 一个写任务
+    private static final int CORE_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static volatile SerialIoExecutor sShared;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    private SerialIoExecutor() {
+        // 同步移交：没有空闲线程时立即新建，任务不会排在长时间运行的读写任务后面
+        executor = new ThreadPoolExecutor(CORE_THREADS, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, THREAD_PREFIX + threadIndex.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * 获取进程内共享的IO线程池
+     */
+    public static SerialIoExecutor shared() {
+        SerialIoExecutor instance = sShared;
+        if (instance == null) {
+            synchronized (SerialIoExecutor.class) {
+                instance = sShared;
+                if (instance == null) {
+                    instance = new SerialIoExecutor();
+                    sShared = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 提交一个长时间运行的IO任务
+     *
+     * @param taskName 任务名（运行期间作为线程名后缀）
+     * @param task     任务
+     * @return 用于非阻塞取消的 Future
+     */
+    public Future<?> submit(String taskName, Runnable task) {
+        Future<?> future = executor.submit(() -> {
+            Thread current = Thread.currentThread();
+            String originalName = current.getName();
+            current.setName(originalName + "-" + taskName);
+            try {
+                task.run();
+            } finally {
+                current.setName(originalName);
+            }
+        });
+        Log.d(TAG, "▶ Submitted " + taskName + " (pool=" + executor.getPoolSize()
+                + ", active=" + executor.getActiveCount() + ")");
+        return future;
+    }
+
+    /**
+     * 非阻塞取消任务（中断正在执行的工作线程，不等待其结束）
+     *
+     * @param future   任务 Future，可为 null
+     * @param taskName 任务名（用于日志）
+     */
+    public static void cancel(Future<?> future, String taskName) {
+        if (future != null && !future.isDone()) {
+            future.cancel(true);
+            Log.d(TAG, "⏹ Cancelled " + taskName);
+        }
+    }
+
+    /**
+     * 获取线程池状态（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public String getStatus() {
+        return String.format("SerialIoExecutor[pool=%d, active=%d, largest=%d, completed=%d]",
+                executor.getPoolSize(), executor.getActiveCount(), executor.getLargestPoolSize(),
+                executor.getCompletedTaskCount());
+    }
+}
@@ -0,0 +1,599 @@
+package com.saemaps.android.usbserial.usbserial;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.saemaps.android.usbserial.core.FragmentCodec;
+import com.saemaps.android.usbserial.core.MessageFragmenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * 串口文件上传（电台配置 / 固件）
+ * 以前更新电台配置需要接电脑。现在从存储中按块流式读取文件（NIO FileChannel，不整体载入内存），
+ * 每块作为一条分片消息交给 {@link MessageFragmenter}：分片按滑动窗口发送、选择确认、只重传缺失分片。
+ * 同时排队 maxQueuedBlocks 块；分片器的窗口跨消息，一块的分片发完即开始发下一块，块与块之间不必等一个往返。
+ *
+ * 顺序：BEGIN 确认后才发 DATA；DATA 块可能在对端乱序完成（每块带偏移）；全部 DATA 确认后才发 END。
+ *
+ * 消息格式（类型字节见常量，多字节字段均为小端）：
+ * - BEGIN：上传ID(4) + 文件总长(4) + 续传起点(4) + 文件名(UTF-8，至多 64 字节)
+ * - DATA ：上传ID(4) + 块偏移(4) + 块数据
+ * - END  ：上传ID(4) + 文件总长(4) + 整个文件的 CRC32(4)
+ *
+ * 断点续传：每块确认后把已确认的偏移按文件路径保存（连同文件长度和修改时间），
+ * 中途取消、断开或失败后再次上传同一个未修改的文件时，沿用原上传ID从已确认的偏移继续；
+ * 对端按上传ID识别续传，从 BEGIN 中的续传起点接着写。整个文件的 CRC32 在读块时流式计算，
+ * 续传时先流式读一遍已传部分补算。
+ *
+ * 吞吐：进度回调带已确认字节数、平均吞吐（本次会话）和预计剩余时间。
+ *
+ * 取消、失败或断开时，已交给分片器但尚未完成的消息按消息ID一并取消，不再占用链路。
+ *
+ * 线程模型：文件读取在 {@link SerialIoExecutor} 上执行；所有监听器回调在主线程上执行。
+ *
+ * @author SAE Maps
+ */
+public final class SerialUploadEngine {
+
+    private static final String TAG = "SerialUploadEngine";
+
+    public static final int MSG_UPLOAD_BEGIN = 0x10;
+    public static final int MSG_UPLOAD_DATA = 0x11;
+    public static final int MSG_UPLOAD_END = 0x12;
+
+    private static final int DATA_HEADER_LENGTH = 8;
+    private static final int MAX_NAME_BYTES = 64;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    private static final String PREFS_NAME = "usb_uploads";
+    private static final String KEY_UPLOAD = "upload.";
+
+    /**
+     * 上传回调（主线程）
+     */
+    public interface Listener {
+        void onProgress(Progress progress);
+
+        void onComplete(Progress progress);
+
+        /**
+         * @param progress 失败时的进度；已确认的部分已保存，再次上传同一文件会从这里续传
+         */
+        void onError(Exception error, Progress progress);
+    }
+
+    public static final class Config {
+        int blockSize = 8 * 1024;
+        int maxQueuedBlocks = 2;
+
+        /** 每块的数据长度（每块是一条分片消息） */
+        public Config setBlockSize(int blockSize) {
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /** 同时排队等待确认的块数 */
+        public Config setMaxQueuedBlocks(int maxQueuedBlocks) {
+            this.maxQueuedBlocks = maxQueuedBlocks;
+            return this;
+        }
+    }
+
+    /**
+     * 上传进度快照
+     */
+    public static final class Progress {
+        public final String fileName;
+        public final long totalBytes;
+        public final long ackedBytes;
+        // 本次会话的续传起点
+        public final long resumedFrom;
+        public final long elapsedMs;
+
+        Progress(String fileName, long totalBytes, long ackedBytes, long resumedFrom, long elapsedMs) {
+            this.fileName = fileName;
+            this.totalBytes = totalBytes;
+            this.ackedBytes = ackedBytes;
+            this.resumedFrom = resumedFrom;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public double getPercent() {
+            return totalBytes == 0 ? 100 : ackedBytes * 100.0 / totalBytes;
+        }
+
+        /**
+         * 本次会话的平均吞吐（字节/秒）
+         */
+        public double getBytesPerSecond() {
+            return elapsedMs == 0 ? 0 : (ackedBytes - resumedFrom) * 1000.0 / elapsedMs;
+        }
+
+        /**
+         * @return 预计剩余时间（毫秒），还没有吞吐数据时返回 -1
+         */
+        public long getEtaMs() {
+            double rate = getBytesPerSecond();
+            return rate <= 0 ? -1 : (long) ((totalBytes - ackedBytes) * 1000 / rate);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %d/%d bytes (%.1f%%) %.0f B/s eta=%ds%s", fileName, ackedBytes,
+                    totalBytes, getPercent(), getBytesPerSecond(), getEtaMs() / 1000,
+                    resumedFrom > 0 ? " resumed@" + resumedFrom : "");
+        }
+    }
+
+    /**
+     * 一次上传的状态（受 SerialUploadEngine.this 保护；读块过程另以会话对象自身串行化）
+     */
+    private final class Session {
+        final File file;
+        final Listener listener;
+        final int uploadId;
+        final long totalBytes;
+        final long lastModified;
+        final long resumedFrom;
+        final CRC32 crc = new CRC32();
+        final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+        // 已交给分片器、尚未完成的消息
+        final ArrayList<Tracked> messages = new ArrayList<>();
+        // API 26 以下 CRC32 不能直接读 ByteBuffer，经由这块数组
+        byte[] crcScratch;
+        FileChannel channel;
+        // 已读出（已排队）到的偏移、已确认的偏移
+        long readOffset;
+        long ackedOffset;
+        // 当前块内已确认分片折算的字节数（仅用于进度显示）
+        long partialBytes;
+        int queuedBlocks;
+        boolean endSent;
+        boolean finished;
+        long startNanos;
+        long lastProgressNanos;
+
+        Session(File file, Listener listener, int uploadId, long resumedFrom) {
+            this.file = file;
+            this.listener = listener;
+            this.uploadId = uploadId;
+            this.totalBytes = file.length();
+            this.lastModified = file.lastModified();
+            this.resumedFrom = resumedFrom;
+            this.readOffset = resumedFrom;
+            this.ackedOffset = resumedFrom;
+            this.startNanos = System.nanoTime();
+        }
+
+        Progress progress() {
+            long elapsed = (System.nanoTime() - startNanos) / 1_000_000L;
+            return new Progress(file.getName(), totalBytes, Math.min(totalBytes, ackedOffset + partialBytes),
+                    resumedFrom, elapsed);
+        }
+    }
+
+    /**
+     * 会话发出的一条消息的回调（主线程）；记录消息ID，会话结束时据此取消仍在发送的消息
+     */
+    private abstract class Tracked implements MessageFragmenter.Listener {
+        final Session s;
+        int messageId;
+
+        Tracked(Session s) {
+            this.s = s;
+        }
+
+        @Override
+        public void onProgress(int messageId, int acked, int count) {
+        }
+
+        @Override
+        public final void onComplete(int messageId) {
+            untrack();
+            completed();
+        }
+
+        @Override
+        public final void onFailed(int messageId, IOException error) {
+            untrack();
+            fail(s, error);
+        }
+
+        abstract void completed();
+
+        private void untrack() {
+            synchronized (SerialUploadEngine.this) {
+                s.messages.remove(this);
+            }
+        }
+    }
+
+    private final USBSerialManager manager;
+    private final SharedPreferences prefs;
+    private final Config config;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private Session session;
+
+    public SerialUploadEngine(Context context, USBSerialManager manager) {
+        this(context, manager, new Config());
+    }
+
+    public SerialUploadEngine(Context context, USBSerialManager manager, Config config) {
+        if (config.blockSize <= 0 || config.blockSize > 64 * 1024 - DATA_HEADER_LENGTH
+                || config.maxQueuedBlocks <= 0) {
+            throw new IllegalArgumentException("Invalid upload configuration");
+        }
+        this.manager = manager;
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.config = config;
+    }
+
+    /**
+     * 开始（或续传）上传一个文件
+     *
+     * @param listener 回调（主线程）
+     * @return false 表示已有上传在进行、文件不可读或未连接
+     */
+    public synchronized boolean start(File file, Listener listener) {
+        // 长度字段为 4 字节
+        if (session != null || !file.isFile() || !file.canRead() || file.length() > 0xFFFFFFFFL
+                || !manager.isConnected()) {
+            return false;
+        }
+        long[] saved = loadResume(file);
+        int uploadId = saved != null ? (int) saved[0] : random.nextInt();
+        long resumeFrom = saved != null ? saved[1] : 0;
+        final Session s = new Session(file, listener, uploadId, resumeFrom);
+        for (int i = 0; i < config.maxQueuedBlocks; i++) {
+            s.freeBuffers.add(ByteBuffer.allocateDirect(DATA_HEADER_LENGTH + config.blockSize)
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+        session = s;
+        return submit(s, () -> open(s));
+    }
+
+    /**
+     * 取消上传；已确认的部分保留，再次上传同一文件时续传
+     */
+    public synchronized void cancel() {
+        Session s = session;
+        if (s != null) {
+            finish(s, new IOException("cancelled"));
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return session != null;
+    }
+
+    /**
+     * 丢弃某个文件的续传记录，下次从头上传
+     */
+    public void discardResume(File file) {
+        prefs.edit().remove(KEY_UPLOAD + file.getAbsolutePath()).apply();
+    }
+
+    // ===== IO线程 =====
+
+    private void open(Session s) {
+        try {
+            FileChannel channel = new RandomAccessFile(s.file, "r").getChannel();
+            synchronized (this) {
+                if (s.finished) {
+                    channel.close();
+                    return;
+                }
+                s.channel = channel;
+            }
+            if (s.resumedFrom > 0) {
+                // 续传：先补算已传部分的 CRC32
+                ByteBuffer buffer = ByteBuffer.allocate(config.blockSize);
+                long pos = 0;
+                while (pos < s.resumedFrom) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), s.resumedFrom - pos));
+                    int n = channel.read(buffer, pos);
+                    if (n < 0) {
+                        throw new IOException("file shrank during resume");
+                    }
+                    s.crc.update(buffer.array(), 0, n);
+                    pos += n;
+                }
+                Log.d(TAG, "⏯ Resuming " + s.file.getName() + " at " + s.resumedFrom + "/" + s.totalBytes);
+            }
+            // BEGIN 确认后再开始发送数据块
+            send(s, MSG_UPLOAD_BEGIN, beginMessage(s), new Tracked(s) {
+                @Override
+                void completed() {
+                    submitFill(s);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            fail(s, e);
+        }
+    }
+
+    private ByteBuffer beginMessage(Session s) {
+        byte[] name = s.file.getName().getBytes(Charset.forName("UTF-8"));
+        int nameLength = Math.min(name.length, MAX_NAME_BYTES);
+        ByteBuffer begin = ByteBuffer.allocate(12 + nameLength).order(ByteOrder.LITTLE_ENDIAN);
+        begin.putInt(s.uploadId).putInt((int) s.totalBytes).putInt((int) s.resumedFrom).put(name, 0, nameLength);
+        begin.flip();
+        return begin;
+    }
+
+    /**
+     * 读块并排队，直到排队数达到上限或读到文件末尾；全部块都已确认时发送 END
+     * 按会话串行执行：块必须按顺序读出，CRC32 才能流式累计
+     */
+    private void fill(Session s) throws IOException {
+        synchronized (s) {
+            fillLocked(s);
+        }
+    }
+
+    private void fillLocked(Session s) throws IOException {
+        while (true) {
+            ByteBuffer buffer;
+            long offset;
+            synchronized (this) {
+                if (s.finished) {
+                    return;
+                }
+                if (s.readOffset >= s.totalBytes) {
+                    if (s.queuedBlocks == 0 && !s.endSent) {
+                        s.endSent = true;
+                        ByteBuffer end = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+                        end.putInt(s.uploadId).putInt((int) s.totalBytes).putInt((int) s.crc.getValue());
+                        end.flip();
+                        send(s, MSG_UPLOAD_END, end, new Tracked(s) {
+                            @Override
+                            void completed() {
+                                // END 确认即上传完成
+                                finish(s, null);
+                            }
+                        });
+                    }
+                    return;
+                }
+                buffer = s.freeBuffers.poll();
+                if (buffer == null) {
+                    return;
+                }
+                offset = s.readOffset;
+            }
+            buffer.clear();
+            buffer.putInt(s.uploadId).putInt((int) offset);
+            buffer.limit((int) Math.min(buffer.capacity(), DATA_HEADER_LENGTH + s.totalBytes - offset));
+            while (buffer.hasRemaining()) {
+                if (s.channel.read(buffer, offset + buffer.position() - DATA_HEADER_LENGTH) < 0) {
+                    throw new IOException("unexpected end of file at " + (offset + buffer.position()
+                            - DATA_HEADER_LENGTH));
+                }
+            }
+            buffer.flip();
+            int length = buffer.remaining() - DATA_HEADER_LENGTH;
+            // 块按顺序读取，CRC32 流式累计
+            updateCrc(s, buffer);
+            synchronized (this) {
+                if (s.finished) {
+                    return;
+                }
+                s.readOffset = offset + length;
+                s.queuedBlocks++;
+                send(s, MSG_UPLOAD_DATA, buffer, dataListener(s, buffer, length));
+            }
+        }
+    }
+
+    // ===== 回调（主线程）=====
+
+    private Tracked dataListener(final Session s, final ByteBuffer buffer, final int length) {
+        return new Tracked(s) {
+            @Override
+            public void onProgress(int messageId, int acked, int count) {
+                synchronized (SerialUploadEngine.this) {
+                    if (s.finished) {
+                        return;
+                    }
+                    s.partialBytes = Math.min(length,
+                            Math.max(0, (long) acked * FragmentCodec.MAX_PAYLOAD - DATA_HEADER_LENGTH));
+                }
+                reportProgress(s, false);
+            }
+
+            @Override
+            void completed() {
+                // 分片器按发送顺序回调完成，已确认的偏移保持连续
+                synchronized (SerialUploadEngine.this) {
+                    if (s.finished) {
+                        return;
+                    }
+                    s.ackedOffset += length;
+                    s.partialBytes = 0;
+                    s.queuedBlocks--;
+                    s.freeBuffers.add(buffer);
+                    saveResume(s);
+                }
+                reportProgress(s, true);
+                submitFill(s);
+            }
+        };
+    }
+
+    private void submitFill(final Session s) {
+        submit(s, () -> {
+            try {
+                fill(s);
+            } catch (IOException | RuntimeException e) {
+                fail(s, e);
+            }
+        });
+    }
+
+    /**
+     * 交给分片器发送并登记消息ID
+     */
+    private void send(Session s, int type, ByteBuffer message, Tracked listener) throws IOException {
+        synchronized (this) {
+            if (s.finished) {
+                return;
+            }
+            listener.messageId = manager.sendMessage(type, message, listener);
+            s.messages.add(listener);
+        }
+    }
+
+    /**
+     * 把数据块（跳过块头）累计进 CRC32
+     */
+    private void updateCrc(Session s, ByteBuffer block) {
+        ByteBuffer data = block.duplicate();
+        data.position(DATA_HEADER_LENGTH);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            s.crc.update(data);
+            return;
+        }
+        if (s.crcScratch == null) {
+            s.crcScratch = new byte[config.blockSize];
+        }
+        int n = data.remaining();
+        data.get(s.crcScratch, 0, n);
+        s.crc.update(s.crcScratch, 0, n);
+    }
+
+    private void reportProgress(Session s, boolean force) {
+        long now = System.nanoTime();
+        Progress progress;
+        synchronized (this) {
+            if (s.finished || (!force && now - s.lastProgressNanos < PROGRESS_INTERVAL_MS * 1_000_000L)) {
+                return;
+            }
+            s.lastProgressNanos = now;
+            progress = s.progress();
+        }
+        if (s.listener != null) {
+            mainHandler.post(() -> s.listener.onProgress(progress));
+        }
+    }
+
+    // ===== 结束 =====
+
+    private void fail(Session s, Exception e) {
+        Log.w(TAG, "⚠️ Upload of " + s.file.getName() + " failed: " + e);
+        finish(s, e);
+    }
+
+    /**
+     * 结束一次上传（任意线程，只生效一次）
+     *
+     * @param error null 表示成功
+     */
+    private void finish(final Session s, final Exception error) {
+        final Progress progress;
+        final int[] pending;
+        synchronized (this) {
+            if (s.finished) {
+                return;
+            }
+            s.finished = true;
+            if (session == s) {
+                session = null;
+            }
+            progress = s.progress();
+            if (error == null) {
+                discardResume(s.file);
+            } else {
+                saveResume(s);
+            }
+            if (s.channel != null) {
+                try {
+                    s.channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            pending = new int[s.messages.size()];
+            for (int i = 0; i < pending.length; i++) {
+                pending[i] = s.messages.get(i).messageId;
+            }
+            s.messages.clear();
+        }
+        // 已交给分片器的数据块不再发送
+        for (int messageId : pending) {
+            manager.cancelMessage(messageId);
+        }
+        if (error == null) {
+            Log.d(TAG, "✅ Upload complete: " + progress);
+        }
+        if (s.listener != null) {
+            mainHandler.post(() -> {
+                if (error == null) {
+                    s.listener.onComplete(progress);
+                } else {
+                    s.listener.onError(error, progress);
+                }
+            });
+        }
+    }
+
+    private boolean submit(Session s, Runnable task) {
+        try {
+            SerialIoExecutor.shared().submit("SerialUpload", task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            fail(s, e);
+            return false;
+        }
+    }
+
+    // ===== 续传记录：size,lastModified,uploadId,ackedOffset =====
+
+    private void saveResume(Session s) {
+        if (s.ackedOffset <= 0) {
+            return;
+        }
+        prefs.edit().putString(KEY_UPLOAD + s.file.getAbsolutePath(),
+                s.totalBytes + "," + s.lastModified + "," + s.uploadId + "," + s.ackedOffset).apply();
+    }
+
+    /**
+     * @return {上传ID, 已确认偏移}；没有记录或文件已修改时返回 null
+     */
+    private long[] loadResume(File file) {
+        String text = prefs.getString(KEY_UPLOAD + file.getAbsolutePath(), null);
+        if (text == null) {
+            return null;
+        }
+        String[] f = text.split(",");
+        try {
+            if (f.length != 4 || Long.parseLong(f[0]) != file.length()
+                    || Long.parseLong(f[1]) != file.lastModified()) {
+                discardResume(file);
+                return null;
+            }
+            long acked = Long.parseLong(f[3]);
+            return acked > 0 && acked < file.length() ? new long[]{Integer.parseInt(f[2]), acked} : null;
+        } catch (NumberFormatException e) {
+            discardResume(file);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,695 @@
+package com.saemaps.android.usbserial.usbserial;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+import com.saemaps.android.usbserial.core.FrameCodec;
+import com.saemaps.android.usbserial.core.TxBufferPool;
+import com.saemaps.android.usbserial.core.TxPacer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个物理串口一份的共享IO核心
+ * 插件（USBSerialManager）、前台服务（USBSerialService）和终端（SerialService/SerialSocket）
+ * 以前各自打开端口、各起一个读线程和写线程，同时使用同一台电台时会互相抢占端口。
+ * 现在端口只被打开一次：一个读任务把每块数据原样分发给所有客户端，一个写任务按提交顺序串行写出，
+ * 各上层组件只是挂在同一个核心上的视图。
+ *
+ * 特性：
+ * - 按 设备名 + 端口号 登记，acquire() 第一次调用时打开端口，release() 最后一个客户端离开时关闭
+ * - 读到的 byte[] 在所有客户端之间共享（只读），不再为每个组件各复制一份
+ * - 读写任务运行在 {@link SerialIoExecutor} 上；CH340 状态错误后可用 {@link #restartReader()} 只重启读任务
+ * - 串口参数以第一个打开者为准，后加入的客户端参数不同时只记录警告；运行中修改参数须经
+ *   {@link #setParameters}，其它客户端会收到 {@link Client#onPortParametersChanged} 通知
+ * - 发送限速（{@link TxPacer}）按端口生效：所有客户端的写入共用同一个令牌桶
+ * - 分段写入（gather）：帧头由写任务生成，各分段直接复制进写分块，调用方不必先拼成连续数组
+ *
+ * 线程安全：所有公开方法都可在任意线程调用；客户端回调在读线程上执行，应尽快返回。
+ *
+ * @author SAE Maps
+ */
+public final class SharedSerialPort {
+
+    private static final String TAG = "SharedSerialPort";
+
+    public static final int DEFAULT_WRITE_TIMEOUT_MS = 200;
+    // 写入分块上限（也是写任务可复用缓冲区的大小）
+    private static final int MAX_WRITE_CHUNK = 4096;
+
+    /**
+     * 共享端口的客户端（读线程上回调）
+     */
+    public interface Client {
+        /**
+         * @param data 读到的数据，所有客户端共享同一个数组，不能修改
+         */
+        void onPortData(byte[] data);
+
+        void onPortError(Exception e);
+
+        /**
+         * 其它客户端修改了串口参数（调用 setParameters() 的线程上回调）
+         */
+        void onPortParametersChanged(int baudRate, int dataBits, int stopBits, int parity);
+    }
+
+    /**
+     * 异步写入完成回调（写线程上回调）
+     */
+    public interface WriteCallback {
+        void onWriteComplete(byte[] data);
+
+        void onWriteError(byte[] data, IOException e);
+    }
+
+    /**
+     * 分段写入完成回调（写线程上回调）
+     */
+    public interface GatherCallback {
+        /**
+         * @param length 写出的总字节数（含写任务生成的帧头）
+         */
+        void onWriteComplete(int length);
+
+        void onWriteError(int length, IOException e);
+    }
+
+    private static final class WriteRequest {
+        // byte[] 写入的原数组（回调用）；分段写入时为 null
+        final byte[] data;
+        // 按顺序写出的分段，写出时推进各自的 position
+        final ByteBuffer[] segments;
+        final int length;
+        final int chunkSize;
+        final int timeoutMs;
+        final WriteCallback callback;
+        final GatherCallback gatherCallback;
+        // 写完后归还分段的缓冲池，可为 null
+        final TxBufferPool pool;
+        // 写线程当前读取的分段下标
+        int cursor;
+
+        WriteRequest(byte[] data, ByteBuffer[] segments, int length, int chunkSize, int timeoutMs,
+                     WriteCallback callback, GatherCallback gatherCallback, TxBufferPool pool) {
+            this.data = data;
+            this.segments = segments;
+            this.length = length;
+            this.chunkSize = Math.max(1, Math.min(chunkSize, MAX_WRITE_CHUNK));
+            this.timeoutMs = timeoutMs;
+            this.callback = callback;
+            this.gatherCallback = gatherCallback;
+            this.pool = pool;
+        }
+
+        void complete(IOException error) {
+            releaseSegments(segments, pool);
+            if (callback != null) {
+                if (error == null) {
+                    callback.onWriteComplete(data);
+                } else {
+                    callback.onWriteError(data, error);
+                }
+            }
+            if (gatherCallback != null) {
+                if (error == null) {
+                    gatherCallback.onWriteComplete(length);
+                } else {
+                    gatherCallback.onWriteError(length, error);
+                }
+            }
+        }
+    }
+
+    private static final Map<String, SharedSerialPort> PORTS = new HashMap<>();
+
+    private final String key;
+    private final UsbSerialPort port;
+    private final UsbDeviceConnection usbConnection;
+    // 当前串口参数（受 this 保护；baudRate 另可无锁读取用于比较）
+    private volatile int baudRate;
+    private int dataBits;
+    private int stopBits;
+    private int parity;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+
+    // 读任务（受 this 保护；读线程只读 ioManager 用于识别过期的错误回调）
+    private volatile SerialInputOutputManager ioManager;
+    private Future<?> ioTask;
+    // 读缓冲大小（0 表示库默认值）与读超时，重启读任务时沿用
+    private int readBufferSize;
+    private int readTimeoutMs;
+
+    // 写任务
+    private final BlockingQueue<WriteRequest> writeQueue = new LinkedBlockingQueue<>();
+    private final byte[] chunkBuffer = new byte[MAX_WRITE_CHUNK];
+    private final TxPacer txPacer = new TxPacer();
+    private Future<?> writerTask;
+    private volatile boolean closed;
+
+    private volatile long readBytes;
+    private volatile long writtenBytes;
+
+    private SharedSerialPort(String key, UsbSerialPort port, UsbDeviceConnection usbConnection, int baudRate,
+            int dataBits, int stopBits, int parity) {
+        this.key = key;
+        this.port = port;
+        this.usbConnection = usbConnection;
+        this.baudRate = baudRate;
+        this.dataBits = dataBits;
+        this.stopBits = stopBits;
+        this.parity = parity;
+    }
+
+    private static String key(UsbDevice device, int portNumber) {
+        return device.getDeviceName() + "#" + portNumber;
+    }
+
+    /**
+     * 查找已打开的共享端口
+     *
+     * @return 没有客户端打开该端口时返回 null
+     */
+    public static SharedSerialPort find(UsbDevice device, int portNumber) {
+        synchronized (PORTS) {
+            return PORTS.get(key(device, portNumber));
+        }
+    }
+
+    /**
+     * 加入共享端口；端口尚未打开时打开设备、设置参数并启动读写任务
+     *
+     * @param usbManager 用于打开设备（调用方需已获得USB权限）
+     * @param port       驱动探测得到的端口（端口已被其它客户端打开时忽略，沿用已打开的端口对象）
+     * @param client     客户端
+     * @return 共享端口
+     * @throws IOException 打开设备或端口失败
+     */
+    public static SharedSerialPort acquire(UsbManager usbManager, UsbSerialPort port, int baudRate, int dataBits,
+            int stopBits, int parity, Client client) throws IOException {
+        UsbDevice device = port.getDriver().getDevice();
+        String key = key(device, port.getPortNumber());
+        synchronized (PORTS) {
+            SharedSerialPort shared = PORTS.get(key);
+            if (shared == null) {
+                shared = open(usbManager, port, key, baudRate, dataBits, stopBits, parity);
+                PORTS.put(key, shared);
+                // 先登记客户端再启动读任务，第一块数据也不会丢
+                shared.clients.add(client);
+                shared.startReader();
+                shared.writerTask = SerialIoExecutor.shared().submit("SharedSerialWriter", shared::runWriter);
+            } else {
+                if (shared.baudRate != baudRate) {
+                    Log.w(TAG, "⚠️ " + key + " already open at " + shared.baudRate + " baud, ignoring " + baudRate);
+                }
+                shared.clients.add(client);
+            }
+            Log.d(TAG, "🔗 " + key + " clients=" + shared.clients.size());
+            return shared;
+        }
+    }
+
+    /**
+     * 在已打开的共享端口上再挂一个客户端（如链路自测），离开时同样调用 {@link #release(Client)}
+     *
+     * @return 端口已关闭时返回 false
+     */
+    public boolean attach(Client client) {
+        synchronized (PORTS) {
+            if (closed) {
+                return false;
+            }
+            clients.add(client);
+            Log.d(TAG, "🔗 " + key + " clients=" + clients.size());
+            return true;
+        }
+    }
+
+    private static SharedSerialPort open(UsbManager usbManager, UsbSerialPort port, String key, int baudRate,
+            int dataBits, int stopBits, int parity) throws IOException {
+        UsbDeviceConnection conn = usbManager.openDevice(port.getDriver().getDevice());
+        if (conn == null) {
+            throw new IOException("Failed to open USB device.");
+        }
+        try {
+            port.open(conn);
+            port.setParameters(baudRate, dataBits, stopBits, parity);
+            try {
+                port.setDTR(true);
+                port.setRTS(true);
+            } catch (UnsupportedOperationException e) {
+                Log.d(TAG, "Failed to set initial DTR/RTS", e);
+            }
+            try {
+                port.purgeHwBuffers(true, true);
+            } catch (Throwable ignored) {
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                port.close();
+            } catch (Exception ignored) {
+            }
+            conn.close();
+            throw e;
+        }
+        Log.d(TAG, "✅ Opened " + key + " @" + baudRate);
+        return new SharedSerialPort(key, port, conn, baudRate, dataBits, stopBits, parity);
+    }
+
+    /**
+     * 离开共享端口；最后一个客户端离开时停止读写任务并关闭端口
+     * 关闭在 PORTS 锁内完成：同一端口并发的 acquire() 等旧端口关完再重新打开，不会被旧的关闭拆掉
+     */
+    public void release(Client client) {
+        synchronized (PORTS) {
+            if (!clients.remove(client)) {
+                return;
+            }
+            Log.d(TAG, "🔗 " + key + " released, clients=" + clients.size());
+            if (!clients.isEmpty()) {
+                return;
+            }
+            PORTS.remove(key);
+            close();
+        }
+    }
+
+    private void close() {
+        closed = true;
+        stopReader();
+        SerialIoExecutor.cancel(writerTask, "SharedSerialWriter");
+        writerTask = null;
+        failPending(new IOException("disconnected"));
+        try {
+            port.setDTR(false);
+            port.setRTS(false);
+        } catch (Exception ignored) {
+        }
+        try {
+            port.close();
+        } catch (Exception e) {
+            Log.w(TAG, "Error closing serial port", e);
+        }
+        try {
+            usbConnection.close();
+        } catch (Exception e) {
+            Log.w(TAG, "Error closing connection", e);
+        }
+        Log.d(TAG, "⏹ Closed " + key);
+    }
+
+    // ===== 串口参数 =====
+
+    /**
+     * 修改串口参数（端口对所有客户端生效），成功后通知除 source 以外的客户端
+     *
+     * @param source 发起修改的客户端，不会收到通知；可为 null
+     * @throws IOException 端口已关闭或驱动设置失败（参数保持原值）
+     */
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity, Client source)
+            throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("not connected");
+            }
+            if (baudRate == this.baudRate && dataBits == this.dataBits && stopBits == this.stopBits
+                    && parity == this.parity) {
+                return;
+            }
+            port.setParameters(baudRate, dataBits, stopBits, parity);
+            this.baudRate = baudRate;
+            this.dataBits = dataBits;
+            this.stopBits = stopBits;
+            this.parity = parity;
+        }
+        Log.d(TAG, "⚙️ " + key + " parameters -> " + baudRate + " " + dataBits + "/" + stopBits + "/" + parity);
+        for (Client client : clients) {
+            if (client != source) {
+                client.onPortParametersChanged(baudRate, dataBits, stopBits, parity);
+            }
+        }
+    }
+
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    // ===== 读 =====
+
+    private synchronized void startReader() {
+        final SerialInputOutputManager[] ref = new SerialInputOutputManager[1];
+        ioManager = new SerialInputOutputManager(port, new SerialInputOutputManager.Listener() {
+            @Override
+            public void onNewData(byte[] data) {
+                readBytes += data.length;
+                for (Client client : clients) {
+                    client.onPortData(data);
+                }
+            }
+
+            @Override
+            public void onRunError(Exception e) {
+                if (ref[0] != ioManager || closed) {
+                    return;
+                }
+                for (Client client : clients) {
+                    client.onPortError(e);
+                }
+            }
+        });
+        ref[0] = ioManager;
+        if (readBufferSize > 0) {
+            ioManager.setReadBufferSize(readBufferSize);
+        }
+        ioManager.setReadTimeout(readTimeoutMs);
+        ioTask = SerialIoExecutor.shared().submit("SerialInputOutputManager", ioManager);
+    }
+
+    private synchronized void stopReader() {
+        if (ioManager != null) {
+            try {
+                ioManager.setListener(null);
+                ioManager.stop();
+            } catch (Exception e) {
+                Log.w(TAG, "Error stopping IO manager: " + e.getMessage());
+            }
+            ioManager = null;
+        }
+        SerialIoExecutor.cancel(ioTask, "SerialInputOutputManager");
+        ioTask = null;
+    }
+
+    /**
+     * 只重启读任务（端口保持打开），用于 CH340 状态错误后的恢复
+     *
+     * @return 新的读任务是否已在运行
+     */
+    public synchronized boolean restartReader() {
+        if (closed) {
+            return false;
+        }
+        stopReader();
+        startReader();
+        return ioTask != null && !ioTask.isDone();
+    }
+
+    /**
+     * 设置读缓冲大小和读超时；缓冲大小立即生效，读超时变化时重启读任务（库不允许运行中改读超时）
+     *
+     * @param bufferSize 读缓冲大小（字节）
+     * @param timeoutMs  读超时，0 表示阻塞读
+     */
+    public synchronized void setReadTuning(int bufferSize, int timeoutMs) {
+        boolean timeoutChanged = timeoutMs != readTimeoutMs;
+        readBufferSize = bufferSize;
+        readTimeoutMs = timeoutMs;
+        if (closed || ioManager == null) {
+            return;
+        }
+        if (timeoutChanged) {
+            stopReader();
+            startReader();
+        } else {
+            ioManager.setReadBufferSize(bufferSize);
+        }
+    }
+
+    // ===== 写 =====
+
+    /**
+     * 提交异步写入，按提交顺序在写线程上串行写出
+     *
+     * @param chunkSize 每次 USB 写入的最大字节数（不超过 4096）
+     * @param timeoutMs 每块的写超时
+     * @param callback  完成回调（写线程上执行），可为 null
+     */
+    public void writeAsync(byte[] data, int chunkSize, int timeoutMs, WriteCallback callback) throws IOException {
+        enqueue(new WriteRequest(data, new ByteBuffer[]{ByteBuffer.wrap(data)}, data.length, chunkSize, timeoutMs,
+                callback, null, null));
+    }
+
+    /**
+     * 提交分段写入：各分段 [position, limit) 依次写出，写线程把它们直接复制进写分块（只复制一次）
+     * 写出过程中推进各分段的 position，回调之前调用方不能再修改这些缓冲区。
+     *
+     * @param segments 分段，可以是直接缓冲区或堆缓冲区
+     * @param pool     写完（或失败）后把从该池取出的分段归还，可为 null
+     * @param callback 完成回调（写线程上执行），可为 null
+     */
+    public void writeGatherAsync(ByteBuffer[] segments, TxBufferPool pool, int chunkSize, int timeoutMs,
+                                 GatherCallback callback) throws IOException {
+        ByteBuffer[] copy = segments.clone();
+        enqueue(new WriteRequest(null, copy, remaining(copy), chunkSize, timeoutMs, null, callback, pool));
+    }
+
+    /**
+     * 提交一帧分段写入：写任务生成 68 00 包头、包长度和命令类型，数据内容取自各分段
+     *
+     * @param command 命令类型
+     * @param payload 数据内容分段，总长度不超过 {@link FrameCodec#MAX_DATA_LENGTH}
+     * @param pool    写完（或失败）后把从该池取出的分段归还，可为 null
+     */
+    public void writeFrameAsync(int command, ByteBuffer[] payload, TxBufferPool pool, int chunkSize, int timeoutMs,
+                                GatherCallback callback) throws IOException {
+        int dataLength = remaining(payload);
+        byte[] header = new byte[FrameCodec.MIN_FRAME_LENGTH];
+        try {
+            FrameCodec.writeHeader(header, 0, command, dataLength);
+        } catch (IllegalArgumentException e) {
+            releaseSegments(payload, pool);
+            throw e;
+        }
+        ByteBuffer[] segments = new ByteBuffer[payload.length + 1];
+        segments[0] = ByteBuffer.wrap(header);
+        System.arraycopy(payload, 0, segments, 1, payload.length);
+        enqueue(new WriteRequest(null, segments, header.length + dataLength, chunkSize, timeoutMs, null, callback,
+                pool));
+    }
+
+    private void enqueue(WriteRequest request) throws IOException {
+        if (closed) {
+            releaseSegments(request.segments, request.pool);
+            throw new IOException("not connected");
+        }
+        writeQueue.add(request);
+        // 与 close() 竞争：close() 先置 closed 再清队列，入队后再查一次，
+        // 保证请求要么被 close() 清掉，要么在这里失败，不会留在没有写线程的队列里
+        if (closed) {
+            failPending(new IOException("not connected"));
+        }
+    }
+
+    private static int remaining(ByteBuffer[] segments) {
+        long total = 0;
+        for (ByteBuffer segment : segments) {
+            total += segment.remaining();
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Gather write too large: " + total);
+        }
+        return (int) total;
+    }
+
+    private static void releaseSegments(ByteBuffer[] segments, TxBufferPool pool) {
+        if (pool == null) {
+            return;
+        }
+        for (ByteBuffer segment : segments) {
+            pool.release(segment);
+        }
+    }
+
+    /**
+     * 同步写入：经由同一个写队列排队，等写线程写完后返回
+     */
+    public void write(byte[] data, int timeoutMs) throws IOException {
+        final IOException[] error = new IOException[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        writeAsync(data, MAX_WRITE_CHUNK, timeoutMs, new WriteCallback() {
+            @Override
+            public void onWriteComplete(byte[] written) {
+                done.countDown();
+            }
+
+            @Override
+            public void onWriteError(byte[] failed, IOException e) {
+                error[0] = e;
+                done.countDown();
+            }
+        });
+        try {
+            // 前面排队的数据也要写完，给足等待时间
+            if (!done.await(timeoutMs + pendingWriteTimeMs(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("write queue timeout");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("write interrupted");
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    private long pendingWriteTimeMs() {
+        long time = 0;
+        long bytes = 0;
+        int frames = 0;
+        for (WriteRequest request : writeQueue) {
+            time += request.timeoutMs * (long) ((request.length + request.chunkSize - 1) / request.chunkSize);
+            bytes += request.length;
+            frames++;
+        }
+        // 限速时排队数据还要额外等令牌和帧间隔
+        return time + txPacer.estimateDelayMs(bytes, frames);
+    }
+
+    /**
+     * 设置发送限速（对该端口所有客户端生效）
+     *
+     * @param settings 限速参数，null 或 {@link TxPacer.Settings#UNLIMITED} 表示不限速
+     */
+    public void setTxPacing(TxPacer.Settings settings) {
+        txPacer.configure(settings);
+    }
+
+    public TxPacer getTxPacer() {
+        return txPacer;
+    }
+
+    /**
+     * 已排队尚未写出的字节数
+     */
+    public int getPendingWriteBytes() {
+        int bytes = 0;
+        for (WriteRequest request : writeQueue) {
+            bytes += request.length;
+        }
+        return bytes;
+    }
+
+    private void runWriter() {
+        Log.d(TAG, "✳️ Writer started: " + key);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WriteRequest request = writeQueue.take();
+                try {
+                    if (closed) {
+                        throw new IOException("not connected");
+                    }
+                    // 限速时每块不超过突发，写之前先取令牌
+                    int chunkSize = txPacer.maxChunk(request.chunkSize);
+                    txPacer.awaitFrameGap();
+                    for (int off = 0; off < request.length; off += chunkSize) {
+                        int len = Math.min(chunkSize, request.length - off);
+                        txPacer.acquire(len);
+                        writeChunk(request, len);
+                        writtenBytes += len;
+                    }
+                    txPacer.onFrameWritten();
+                    request.complete(null);
+                } catch (IOException e) {
+                    Log.w(TAG, "❌ write failed: " + e.getMessage());
+                    request.complete(e);
+                } catch (InterruptedException e) {
+                    // 等令牌时被停止：当前请求也要回调失败
+                    request.complete(new IOException("disconnected"));
+                    throw e;
+                } catch (RuntimeException e) {
+                    // 端口在写入过程中被关闭，或驱动层抛出的其它异常
+                    Log.e(TAG, "💥 write fatal error", e);
+                    request.complete(new IOException(e));
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "✴️ Writer interrupted: " + key);
+        } finally {
+            failPending(new IOException("disconnected"));
+            Log.d(TAG, "⏹ Writer stopped: " + key);
+        }
+    }
+
+    /**
+     * 从请求的分段中取出 len 字节写出一块
+     */
+    private void writeChunk(WriteRequest request, int len) throws IOException {
+        ByteBuffer[] segments = request.segments;
+        while (!segments[request.cursor].hasRemaining()) {
+            request.cursor++;
+        }
+        ByteBuffer first = segments[request.cursor];
+        if (first.hasArray() && first.arrayOffset() + first.position() == 0 && first.remaining() >= len) {
+            // 分块正好从数组开头开始：直接交给驱动，不经过写缓冲
+            port.write(first.array(), len, request.timeoutMs);
+            first.position(first.position() + len);
+            return;
+        }
+        int filled = 0;
+        while (filled < len) {
+            ByteBuffer segment = segments[request.cursor];
+            int n = Math.min(segment.remaining(), len - filled);
+            segment.get(chunkBuffer, filled, n);
+            filled += n;
+            if (!segment.hasRemaining()) {
+                request.cursor++;
+            }
+        }
+        port.write(chunkBuffer, len, request.timeoutMs);
+    }
+
+    private void failPending(IOException e) {
+        List<WriteRequest> pending = new ArrayList<>();
+        writeQueue.drainTo(pending);
+        for (WriteRequest request : pending) {
+            request.complete(e);
+        }
+    }
+
+    // ===== 访问器 =====
+
+    public UsbSerialPort getPort() {
+        return port;
+    }
+
+    public UsbDeviceConnection getConnection() {
+        return usbConnection;
+    }
+
+    public UsbDevice getDevice() {
+        return port.getDriver().getDevice();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public synchronized String getStatus() {
+        return String.format("SharedSerialPort[%s, clients=%d, reader=%s, rx=%d, tx=%d, txPending=%d, pacing=%s]",
+                key, clients.size(), ioTask == null ? "NONE" : ioTask.isDone() ? "DONE" : "RUNNING", readBytes,
+                writtenBytes, getPendingWriteBytes(), txPacer.getSettings());
+    }
+}
@@ -5,6 +5,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
@@ -13,19 +14,44 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.hoho.android.usbserial.driver.SerialTimeoutException;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
-import com.hoho.android.usbserial.util.SerialInputOutputManager;
 
 import com.saemaps.android.usbserial.USBSerialPermissionReceiver;
+import com.saemaps.android.usbserial.core.BaudRateDetector;
+import com.saemaps.android.usbserial.core.Commands;
+import com.saemaps.android.usbserial.core.ConnectionLifecycle;
+import com.saemaps.android.usbserial.core.ConnectionStateMachine;
+import com.saemaps.android.usbserial.core.FragmentCodec;
+import com.saemaps.android.usbserial.core.FrameCodec;
+import com.saemaps.android.usbserial.core.HexUtil;
+import com.saemaps.android.usbserial.core.LatencyTracer;
+import com.saemaps.android.usbserial.core.LinkSelfTest;
+import com.saemaps.android.usbserial.core.LinkTuner;
+import com.saemaps.android.usbserial.core.LinkWatchdog;
+import com.saemaps.android.usbserial.core.LocationFrame;
+import com.saemaps.android.usbserial.core.MessageFragmenter;
+import com.saemaps.android.usbserial.core.MessageReassembler;
+import com.saemaps.android.usbserial.core.PacketBridge;
+import com.saemaps.android.usbserial.core.RingBuffer;
+import com.saemaps.android.usbserial.core.TrackLog;
+import com.saemaps.android.usbserial.core.TrackStore;
+import com.saemaps.android.usbserial.core.TxBufferPool;
+import com.saemaps.android.usbserial.core.TxPacer;
 
 import com.saemaps.android.maps.MapView;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Wrapper around usb-serial-for-android that handles discovery, permission, and
@@ -35,6 +61,11 @@ public class USBSerialManager {
 
     private static final String TAG = "USBSerialManager";
 
+    static {
+        // core 模块日志转发到 logcat
+        AndroidLogSink.install();
+    }
+
     // 数据缓冲机制 - 参考SimpleUsbTerminal
     private final ArrayDeque<byte[]> dataBuffer = new ArrayDeque<>();
     private final Object bufferLock = new Object();
@@ -44,7 +75,37 @@ public class USBSerialManager {
     private RingBuffer ringBuffer;
     // 数据包相关常量
     private static final int MIN_PACKET_SIZE = 4; // 最小数据包大小（包头3字节 + 至少1字节数据）
-    private static final int MAX_PACKET_SIZE = 256; // 最大数据包大小限制
+    private static final int MAX_PACKET_SIZE = FrameCodec.MAX_FRAME_LENGTH; // 最大数据包大小（包长度字段 255 + 3）
+
+    // 端到端延迟追踪 - USB读取 → 拆包 → 分发 → 监听器完成
+    private final LatencyTracer latencyTracer = new LatencyTracer();
+
+    // 手台轨迹存储 - 按24位手台ID保存最近轨迹（列式基本类型数组，主线程写入，启动时由IO线程回放）
+    private final TrackStore trackStore = new TrackStore();
+    private final LocationFrame trackView = new LocationFrame();
+    // 轨迹持久化日志 - 内存映射段文件，重启后回放最近的轨迹到 trackStore
+    private static final long TRACK_REPLAY_WINDOW_MS = 6 * 60 * 60 * 1000L;
+    private final TrackLog trackLog;
+    private volatile boolean trackLogReady = false;
+    // 回放完成前收到的定位点（主线程访问）：回放结束后按到达顺序补写，旧点不会因时间乱序被拒
+    private static final int MAX_PENDING_FIXES = 4096;
+    private boolean trackReplayPending = true;
+    private final ArrayList<long[]> pendingFixes = new ArrayList<>();
+
+    // 📍 定位帧的字段布局（LocationFrame）尚未与电台协议文档核对：解出的位置默认不进入地图和轨迹，
+    // 由用户在面板上手动开启，设置保存在插件私有的 SharedPreferences 中
+    private static final String PREFS_SETTINGS = "usb_serial_settings";
+    private static final String KEY_LOCATION_OUTPUT = "location_output";
+    private final SharedPreferences settings;
+    private volatile boolean locationOutputEnabled;
+
+    // 本地转发桥 - 把完整数据包经 TCP/UDP 分发给其他进程（默认关闭）
+    private volatile PacketBridge packetBridge;
+
+    // 🧩 超过一帧容量的消息：分片帧经由写队列按窗口发出，收到的分片在主线程上重组
+    private final MessageFragmenter messageFragmenter;
+    private final MessageReassembler messageReassembler;
+    private volatile MessageListener messageListener;
 
     // 移除内部单例管理，改为由USBSerialLifecycle管理
     // 🔑 使用完全通用的action名称，避免包名冲突
@@ -62,32 +123,129 @@ public class USBSerialManager {
     // 移除动态注册的permission receiver，现在使用静态注册的USBSerialPermissionReceiver
 
     private USBSerialListener listener;
-    private UsbSerialPort currentPort;
-    private UsbDeviceConnection currentConnection;
-    private UsbDevice currentDevice;
-    private SerialInputOutputManager ioManager;
-    private Thread legacyIoThread;
-    private volatile boolean isConnected;
-    private volatile boolean isReconnecting;
-    private volatile boolean isDisconnecting;
-    private volatile boolean isDeviceDetached;
-
-    // 线程安全保护 - 参考SimpleUsbTerminal
-    private final Object sendLock = new Object();
-
-    // 🔧 写通道：单线程 + 阻塞队列，避免与 SerialInputOutputManager 的读线程并发冲突
-    private final java.util.concurrent.BlockingQueue<byte[]> writeQueue = new java.util.concurrent.LinkedBlockingQueue<>();
-    private Thread writerThread;
-    private volatile boolean writerRunning = false;
-
-    // 🔧 写入安全配置
-    private static final int WRITE_TIMEOUT_MS = 300;
-    // 全速 bulk endpoint 常见安全包长（64）。若你实测稳定，可以调整到 128/256。
-    private static final int WRITE_CHUNK = 64;
-
-    // 重连计数器和错误分类
+    // 以下连接资源只在连接事件循环线程上修改，其它线程只读
+    private volatile UsbSerialPort currentPort;
+    private volatile UsbDeviceConnection currentConnection;
+    private volatile UsbDevice currentDevice;
+    // 共享IO核心：读写任务和端口本身由 SharedSerialPort 持有，终端可同时挂在同一端口上
+    private volatile SharedSerialPort sharedPort;
+    // 本次连接在共享端口上的客户端（重连后旧客户端的迟到错误据此忽略）
+    private SharedSerialPort.Client portClient;
+
+    // 🔀 连接状态机：所有生命周期操作在同一事件循环线程上串行执行，取代 sendLock + volatile 标志位
+    private final ConnectionStateMachine connection = new ConnectionStateMachine("USBSerialConnection");
+    // 连接/恢复/断开的状态迁移决策在 core 中（可脱离 Android 测试），端口相关操作在回调里完成
+    private final ConnectionLifecycle lifecycle = new ConnectionLifecycle(connection,
+            new ConnectionLifecycle.Callback() {
+                @Override
+                public boolean hasResources() {
+                    return currentPort != null || currentConnection != null;
+                }
+
+                @Override
+                public boolean restartReader() {
+                    // 只重启共享端口的读任务（端口保持打开，同一端口上的终端也随之恢复）
+                    Log.i(TAG, "🔄 Restarting SerialInputOutputManager due to CH340 error...");
+                    SharedSerialPort shared = sharedPort;
+                    if (shared == null) {
+                        Log.w(TAG, "❌ Port not available for restart");
+                        return false;
+                    }
+                    return shared.restartReader();
+                }
+
+                @Override
+                public void releaseResources(String reason) {
+                    releaseConnection(reason);
+                }
+
+                @Override
+                public void onDisconnected(String reason) {
+                    if (listener == null) {
+                        return;
+                    }
+                    try {
+                        listener.onDeviceDisconnected();
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error in listener.onDeviceDisconnected", e);
+                    }
+                }
+            });
+
+    // 👁 链路活性看门狗：静默超时后发送ID查询探测，仍无响应则判定失效并走重连流程
+    private static final byte[] LINK_PROBE = Commands.queryDeviceId();
+    private final LinkWatchdog linkWatchdog = new LinkWatchdog(connection, new LinkWatchdog.Callback() {
+        @Override
+        public boolean onProbe(String deviceKey) {
+            try {
+                sendData(LINK_PROBE);
+                return true;
+            } catch (IOException e) {
+                Log.w(TAG, "⚠️ Link probe failed: " + e.getMessage());
+                return false;
+            }
+        }
+
+        @Override
+        public void onLinkStale(String deviceKey, long silentMs) {
+            handleLinkStale(silentMs);
+        }
+
+        @Override
+        public void onLinkAlive(String deviceKey) {
+            // 链路确认有数据往来后才清零重连计数，避免"能打开但无响应"的设备无限重连
+            reconnectCount = 0;
+        }
+    });
+
+    // 🔎 波特率自动检测：依次切换候选波特率并按有效帧比例打分（切换、探测和回调都在连接事件循环上）
+    private BaudDetectionListener baudDetectionListener;
+    private final BaudRateDetector baudDetector = new BaudRateDetector(connection, new BaudRateDetector.Callback() {
+        @Override
+        public boolean onSetBaudRate(int baud) {
+            SharedSerialPort shared = sharedPort;
+            if (shared == null) {
+                return false;
+            }
+            try {
+                // 经共享端口切换，同一端口上的终端会收到参数变更通知
+                shared.setParameters(baud, dataBits, stopBits, parity, portClient);
+                return true;
+            } catch (Exception e) {
+                Log.w(TAG, "⚠️ Cannot switch to " + baud + " baud: " + e.getMessage());
+                return false;
+            }
+        }
+
+        @Override
+        public void onProbe() {
+            try {
+                sendData(LINK_PROBE);
+            } catch (IOException e) {
+                Log.w(TAG, "⚠️ Baud detection probe failed: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onFinished(BaudRateDetector.Result result) {
+            onBaudDetectionFinished(result);
+        }
+    });
+
+    // 🧪 链路自测（同一时间只运行一个）与按 VID/PID 保存的测量结果
+    private final LinkProfileStore linkProfiles;
+    private volatile LinkSelfTest linkSelfTest;
+
+    // 📦 分段发送用的直接缓冲区池（写任务写完后自动归还）
+    private final TxBufferPool txBufferPool = new TxBufferPool();
+
+    // 🎛 读写参数（写分块、写超时、读缓冲）按端点包长、波特率和运行反馈自适应，按适配器 VID/PID 保存
+    private volatile LinkTuner linkTuner;
+
+    // 重连计数器和错误分类（只在连接事件循环上访问）
     private int reconnectCount = 0;
-    private long lastReconnectTime = 0;
+    private ScheduledFuture<?> pendingReconnect;
+    private UsbDevice reconnectDevice;
     private static final int MAX_RECONNECT_ATTEMPTS = 5;
     private static final long RECONNECT_COOLDOWN_MS = 10000; // 10秒冷却期
 
@@ -127,6 +285,41 @@ public class USBSerialManager {
         void onPermissionDenied(UsbDevice device);
     }
 
+    /**
+     * 链路自测回调（主线程）
+     */
+    public interface LinkSelfTestListener {
+        void onProgress(LinkSelfTest.Entry entry, int index, int total);
+
+        /**
+         * @param result 测量结果（已按适配器 VID/PID 保存）；取消时只包含已测完的组合
+         */
+        void onComplete(LinkSelfTest.Result result);
+
+        void onError(Exception error);
+    }
+
+    /**
+     * 分片消息回调（主线程）
+     */
+    public interface MessageListener {
+        /**
+         * @param type    消息类型
+         * @param message 重组后的完整消息
+         */
+        void onMessageReceived(int type, byte[] message);
+    }
+
+    /**
+     * 波特率检测回调（主线程）
+     */
+    public interface BaudDetectionListener {
+        /**
+         * @param result 检测结果；成功时端口已切换到检测出的波特率，失败时已恢复原波特率
+         */
+        void onBaudRateDetected(BaudRateDetector.Result result);
+    }
+
     // 构造函数 - 传入插件Context与宿主应用Context（用于PendingIntent/UsbManager）
     public USBSerialManager(Context pluginCtx, Context hostAppCtx) {
         if (pluginCtx == null) {
@@ -151,6 +344,28 @@ public class USBSerialManager {
         // 初始化环形缓冲区
         this.ringBuffer = new RingBuffer();
 
+        // 分片消息收发：分片和确认帧都经由 sendFrame() 进入共享端口的写队列
+        this.messageFragmenter = new MessageFragmenter(connection, this::sendFrame, new MessageFragmenter.Config());
+        this.messageReassembler = new MessageReassembler(new MessageReassembler.Config(), this::sendFrame,
+                (type, message) -> {
+                    MessageListener l = messageListener;
+                    if (l != null) {
+                        l.onMessageReceived(type, message);
+                    }
+                });
+
+        // 轨迹日志：打开（含崩溃恢复扫描）与回放放在IO线程，不阻塞插件加载
+        this.trackLog = new TrackLog(new File(pluginContext.getFilesDir(), "tracklog"));
+        this.linkProfiles = new LinkProfileStore(pluginContext);
+        this.settings = pluginContext.getSharedPreferences(PREFS_SETTINGS, Context.MODE_PRIVATE);
+        this.locationOutputEnabled = settings.getBoolean(KEY_LOCATION_OUTPUT, false);
+        try {
+            SerialIoExecutor.shared().submit("TrackLogRecovery", this::recoverTrackLog);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "❌ Track log recovery rejected, positions will not survive restart", e);
+            trackReplayPending = false;
+        }
+
         Log.d(TAG, "🔑 Plugin context: " + pluginContext.getPackageName());
         Log.d(TAG, "🔑 Host context: " + hostContext.getPackageName());
 
@@ -231,11 +446,16 @@ public class USBSerialManager {
                 }
             } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
                 Log.d(TAG, "🔍 STEP1: USB device detached: " + describe(device));
-                isDeviceDetached = true;
-                if (currentPort != null && device.equals(currentPort.getDriver().getDevice())) {
-                    if (!debugMode || debugStep > 1) { // 调试模式下步骤1不执行断开连接
-                        disconnect();
-                    }
+                if (!debugMode || debugStep > 1) { // 调试模式下步骤1不执行断开连接
+                    connection.post(() -> {
+                        if (device.equals(reconnectDevice)) {
+                            cancelPendingReconnect();
+                        }
+                        UsbSerialPort port = currentPort;
+                        if (port != null && device.equals(port.getDriver().getDevice())) {
+                            teardown("device detached");
+                        }
+                    });
                 }
                 scanDevices();
             } else if (ACTION_USB_PERMISSION_GRANTED.equals(action)) {
@@ -268,6 +488,10 @@ public class USBSerialManager {
         return this.listener;
     }
 
+    public void setMessageListener(MessageListener listener) {
+        this.messageListener = listener;
+    }
+
     public void scanDevices() {
         Log.d(TAG, "🔍 STEP1: Starting device scan...");
         List<UsbDevice> devices = new ArrayList<>();
@@ -297,11 +521,15 @@ public class USBSerialManager {
 
     // 连接入口里（STEP2）：（只要没权限就 requestPermission；有权限直连）
     public void connectToDevice(UsbDevice device) {
+        connection.runOnLoop(() -> doConnectToDevice(device));
+    }
+
+    private void doConnectToDevice(UsbDevice device) {
         Log.d(TAG, "🔌 connectToDevice called for device: " + describe(device));
         Log.d(TAG, "🔌 Debug mode: " + debugMode + ", debug step: " + debugStep);
 
         // 🔧 防止重复连接：如果正在连接同一个设备，直接返回
-        if (isConnected && currentPort != null) {
+        if (isConnected() && currentPort != null) {
             UsbDevice connectedDevice = currentPort.getDriver().getDevice();
             if (connectedDevice.getVendorId() == device.getVendorId() &&
                     connectedDevice.getProductId() == device.getProductId()) {
@@ -311,10 +539,6 @@ public class USBSerialManager {
             }
         }
 
-        // reset transient flags for a fresh connection attempt
-        isDeviceDetached = false;
-        isDisconnecting = false;
-
         if (debugMode && debugStep == 1) {
             Log.d(TAG, "🔍 STEP1: connectToDevice called but ignored in debug mode");
             return;
@@ -324,9 +548,9 @@ public class USBSerialManager {
             Log.d(TAG, "🔐 STEP2: Starting connection process for device: " + describe(device));
         }
 
-        if (isConnected) {
+        if (connection.getState() != ConnectionStateMachine.State.IDLE) {
             Log.d(TAG, "🔌 Already connected, disconnecting first");
-            disconnect();
+            teardown("reconnect to another device");
         }
 
         UsbSerialDriver driver = SerialDriverProber.probeDevice(device);
@@ -422,145 +646,240 @@ public class USBSerialManager {
 
     // 真正打开端口（已有权限时走这里；或权限授予回调后走这里）
     public void openPortAfterPermission(UsbDevice device) {
-        synchronized (sendLock) { // 🔧 添加同步锁防止竞态条件
+        connection.runOnLoop(() -> doOpenPort(device));
+    }
+
+    private void doOpenPort(UsbDevice device) {
+        if (!lifecycle.beginConnect(describe(device))) {
+            return;
+        }
+        try {
+            if (debugMode && debugStep >= 2) {
+                Log.d(TAG, "🔐 STEP2: Device permission already granted, opening connection...");
+            }
+
+            UsbSerialDriver driver = SerialDriverProber.probeDevice(device);
+            if (driver == null) {
+                Log.e(TAG, "Driver disappeared for device: " + describe(device));
+                teardown("driver disappeared");
+                if (listener != null) {
+                    listener.onError(new IOException("Driver disappeared"));
+                }
+                return;
+            }
+
+            currentDevice = device;
+
             try {
                 if (debugMode && debugStep >= 2) {
-                    Log.d(TAG, "🔐 STEP2: Device permission already granted, opening connection...");
+                    Log.d(TAG, "🔐 STEP2: Opening serial port: baud=" + baudRate +
+                            ", data=" + dataBits + ", stop=" + stopBits + ", parity=" + parity);
                 }
-
-                UsbDeviceConnection conn = usbManager.openDevice(device);
-                if (conn == null) {
-                    Log.e(TAG, "Failed to open device connection: " + describe(device));
-                    if (debugMode && debugStep >= 2) {
-                        Log.e(TAG, "🔐 STEP2: Failed to open USB device connection");
-                    }
-                    if (listener != null) {
-                        listener.onError(new IOException("Failed to open USB device."));
-                    }
-                    return;
+                // 打开（或加入终端已打开的）共享端口：端口参数、DTR/RTS、读写任务都由共享核心负责
+                SharedSerialPort.Client client = createPortClient();
+                SharedSerialPort shared = SharedSerialPort.acquire(usbManager, driver.getPorts().get(0), baudRate,
+                        dataBits, stopBits, parity, client);
+                portClient = client;
+                sharedPort = shared;
+                currentPort = shared.getPort();
+                currentConnection = shared.getConnection();
+                linkTuner = createLinkTuner(device, shared);
+                TxPacer.Settings pacing = linkProfiles.getPacing(device);
+                if (pacing != null) {
+                    shared.setTxPacing(pacing);
                 }
 
+                // 延迟检查线程状态
+                mainHandler.postDelayed(() -> {
+                    SharedSerialPort current = sharedPort;
+                    Log.d(TAG, "🔧 IO after 1s: " + (current == null ? "NONE" : current.getStatus())
+                            + " " + SerialIoExecutor.shared().getStatus());
+                    Log.d(TAG, "🔧 Connection status: " + connection.getState());
+                }, 1000);
+
                 if (debugMode && debugStep >= 2) {
-                    Log.d(TAG, "🔐 STEP2: USB device connection opened successfully");
+                    Log.d(TAG, "🔐 STEP2: Shared serial port ready: " + shared.getStatus());
                 }
 
-                UsbSerialDriver driver = SerialDriverProber.probeDevice(device);
-                if (driver == null) {
-                    Log.e(TAG, "Driver disappeared for device: " + describe(device));
-                    if (listener != null) {
-                        listener.onError(new IOException("Driver disappeared"));
-                    }
-                    return;
-                }
+                lifecycle.onOpened(client, describe(device));
+                // 开始链路活性监视（重连计数器在看门狗确认链路存活后清零）
+                linkWatchdog.start(deviceKey(device));
+                Log.d(TAG, "USB serial connected: " + describe(device));
 
-                currentPort = driver.getPorts().get(0);
-                currentDevice = device;
-                currentConnection = conn;
+                // 连接成功，不需要发送测试数据
+                Log.d(TAG, "🔧 Connection established successfully");
+                if (debugMode && debugStep >= 2) {
+                    Log.d(TAG, "🔐 STEP2: USB serial connection established successfully!");
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to open serial port", e);
+                if (debugMode && debugStep >= 2) {
+                    Log.e(TAG, "🔐 STEP2: Failed to establish USB serial connection: " + e.getMessage());
+                }
+                teardown("open port failed");
+                if (listener != null) {
+                    listener.onError(e);
+                }
+                return;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to open device", e);
+            notifyError("Connection failed", e);
+            teardown("connection failed");
+            return;
+        }
 
-                try {
-                    if (debugMode && debugStep >= 2) {
-                        Log.d(TAG, "🔐 STEP2: Opening serial port...");
-                    }
-                    currentPort.open(conn);
+        if (listener != null) {
+            listener.onDeviceConnected(device);
+        }
+    }
 
-                    if (debugMode && debugStep >= 2) {
-                        Log.d(TAG, "🔐 STEP2: Setting serial port parameters: baud=" + baudRate +
-                                ", data=" + dataBits + ", stop=" + stopBits + ", parity=" + parity);
-                    }
-                    currentPort.setParameters(baudRate, dataBits, stopBits, parity);
+    public void sendData(byte[] data) throws IOException {
+        if (data == null || data.length == 0) {
+            throw new IOException("Empty payload");
+        }
+        SharedSerialPort shared = checkWritable();
+        LinkTuner tuner = linkTuner;
+        if (tuner == null) {
+            throw new IOException("Serial port not connected");
+        }
+        // 写任务按当前调出的分块大小写出
+        int chunk = tuner.getWriteChunk();
+        shared.writeAsync(data, chunk, tuner.getWriteTimeoutMs(), new TunerWriteCallback(shared, tuner));
+        Log.d(TAG, "🚀 queued TX bytes=" + data.length + " (chunk=" + chunk + ")");
+    }
 
-                    if (debugMode && debugStep >= 2) {
-                        Log.d(TAG, "🔐 STEP2: Setting DTR and RTS signals...");
-                    }
-                    currentPort.setDTR(true);
-                    currentPort.setRTS(true);
+    /**
+     * 分段发送一帧：包头、包长度和命令类型由写任务生成，数据内容直接从各分段复制进 USB 写分块，
+     * 调用方不必先拼成连续数组
+     *
+     * 从 {@link #acquireTxBuffer()} 取得的分段在写完后自动归还缓冲池；其它分段写出时 position 会被推进，
+     * 写完之前不能再修改。
+     *
+     * @param command 命令类型
+     * @param payload 数据内容分段，总长度不超过 {@link FrameCodec#MAX_DATA_LENGTH}
+     */
+    public void sendFrame(int command, ByteBuffer... payload) throws IOException {
+        SharedSerialPort shared;
+        try {
+            shared = checkWritable();
+        } catch (IOException e) {
+            releaseTxBuffers(payload);
+            throw e;
+        }
+        LinkTuner tuner = linkTuner;
+        if (tuner == null) {
+            releaseTxBuffers(payload);
+            throw new IOException("Serial port not connected");
+        }
+        shared.writeFrameAsync(command, payload, txBufferPool, tuner.getWriteChunk(), tuner.getWriteTimeoutMs(),
+                new TunerWriteCallback(shared, tuner));
+    }
 
-                    // Flush any stale data in device buffers where supported
-                    try {
-                        currentPort.purgeHwBuffers(true, true);
-                    } catch (Throwable ignored) {
-                    }
+    public void sendFrame(int command, List<ByteBuffer> payload) throws IOException {
+        sendFrame(command, payload.toArray(new ByteBuffer[0]));
+    }
 
-                    // 🔧 SimpleUsbTerminal风格：使用Thread启动IO管理器（3.8.0版本）
-                    if (debugMode && debugStep >= 2) {
-                        Log.d(TAG, "🔐 STEP2: Starting SerialInputOutputManager (SimpleUsbTerminal style)...");
-                    }
+    /**
+     * 分段发送原始数据（不加帧头），各分段按顺序写出，语义同 {@link #sendFrame(int, ByteBuffer...)}
+     */
+    public void sendData(ByteBuffer... segments) throws IOException {
+        SharedSerialPort shared;
+        try {
+            shared = checkWritable();
+        } catch (IOException e) {
+            releaseTxBuffers(segments);
+            throw e;
+        }
+        LinkTuner tuner = linkTuner;
+        if (tuner == null) {
+            releaseTxBuffers(segments);
+            throw new IOException("Serial port not connected");
+        }
+        shared.writeGatherAsync(segments, txBufferPool, tuner.getWriteChunk(), tuner.getWriteTimeoutMs(),
+                new TunerWriteCallback(shared, tuner));
+    }
 
-                    // 使用统一的创建方法
-                    createSerialInputOutputManager();
+    /**
+     * 从发送缓冲池取一块直接缓冲区（容量为一帧数据内容的上限），填好后传给 sendFrame()/sendData()，写完自动归还
+     */
+    public ByteBuffer acquireTxBuffer() {
+        return txBufferPool.acquire();
+    }
 
-                    // 延迟检查线程状态
-                    mainHandler.postDelayed(() -> {
-                        Log.d(TAG, "🔧 Thread state after 1s: " + legacyIoThread.getState());
-                        Log.d(TAG, "🔧 Connection status: " + (isConnected ? "CONNECTED" : "DISCONNECTED"));
-                        Log.d(TAG, "🔧 Port status: " + (currentPort != null ? "OPEN" : "CLOSED"));
-                    }, 1000);
+    /**
+     * 归还未发送的缓冲区（发送失败抛异常时已自动归还，无需调用）
+     */
+    public void releaseTxBuffer(ByteBuffer buffer) {
+        txBufferPool.release(buffer);
+    }
 
-                    if (debugMode && debugStep >= 2) {
-                        Log.d(TAG, "🔐 STEP2: SerialInputOutputManager started successfully");
-                    }
+    private void releaseTxBuffers(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            txBufferPool.release(buffer);
+        }
+    }
 
-                    isConnected = true;
-                    // 连接成功，重置重连计数器
-                    reconnectCount = 0;
-                    Log.d(TAG, "USB serial connected: " + describe(device));
+    /**
+     * 发送一条任意长度（不超过 64KB）的消息：拆成带序号的分片帧经由写队列按窗口发出，
+     * 对端确认后窗口滑动，超时只重传未确认的分片；多条消息排队，窗口跨消息连续发送
+     *
+     * 对端（电台固件）须实现 {@link FragmentCodec} 的分片与确认格式。
+     *
+     * @param type     消息类型（0-255，由应用约定，如配置、航点列表）
+     * @param message  消息内容 [position, limit)；发送完成前不能修改
+     * @param listener 回调（主线程），可为 null
+     * @return 消息ID
+     */
+    public int sendMessage(int type, ByteBuffer message, MessageFragmenter.Listener listener) throws IOException {
+        checkWritable();
+        return messageFragmenter.send(type, message, listener == null ? null : new MessageFragmenter.Listener() {
+            @Override
+            public void onProgress(int messageId, int acked, int count) {
+                mainHandler.post(() -> listener.onProgress(messageId, acked, count));
+            }
 
-                    // 🔧 启动写线程
-                    startWriterThread();
+            @Override
+            public void onComplete(int messageId) {
+                mainHandler.post(() -> listener.onComplete(messageId));
+            }
 
-                    // 连接成功，不需要发送测试数据
-                    Log.d(TAG, "🔧 Connection established successfully");
-                    if (debugMode && debugStep >= 2) {
-                        Log.d(TAG, "🔐 STEP2: USB serial connection established successfully!");
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to open serial port", e);
-                    if (debugMode && debugStep >= 2) {
-                        Log.e(TAG, "🔐 STEP2: Failed to establish USB serial connection: " + e.getMessage());
-                    }
-                    // 🔧 如果出错，确保在同一个锁内完成清理
-                    cleanupConnection(); // 使用已同步的清理方法
-                    if (listener != null) {
-                        listener.onError(e);
-                    }
-                    return;
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to open device", e);
-                notifyError("Connection failed", e);
-                closeSilently();
+            @Override
+            public void onFailed(int messageId, IOException error) {
+                mainHandler.post(() -> listener.onFailed(messageId, error));
             }
-        } // 🔧 同步锁结束
+        });
+    }
 
-        // 🔧 后续的 listener 回调可以在锁外进行，避免死锁
-        if (isConnected && listener != null) {
-            listener.onDeviceConnected(device);
-        }
+    /**
+     * 取消一条排队中或正在发送的消息（回调 onFailed）；已完成的消息忽略
+     *
+     * @param messageId {@link #sendMessage} 返回的消息ID
+     */
+    public void cancelMessage(int messageId) {
+        messageFragmenter.cancel(messageId);
     }
 
-    public void sendData(byte[] data) throws IOException {
-        if (data == null || data.length == 0) {
-            throw new IOException("Empty payload");
-        }
-        if (!isConnected || currentPort == null || currentConnection == null) {
+    /**
+     * 发送前检查：已连接且仍有USB权限
+     *
+     * @return 当前共享端口
+     */
+    private SharedSerialPort checkWritable() throws IOException {
+        UsbSerialPort port = currentPort;
+        if (!isConnected() || port == null || currentConnection == null) {
             throw new IOException("Serial port not connected");
         }
         // 权限可能在后台被系统回收，发送前再检查一次
-        UsbDevice dev = currentPort.getDriver().getDevice();
+        UsbDevice dev = port.getDriver().getDevice();
         if (!usbManager.hasPermission(dev)) {
             throw new IOException("Lost USB permission");
         }
-
-        // 拆分为 ≤WRITE_CHUNK 的小包，逐个入队
-        int off = 0;
-        while (off < data.length) {
-            int n = Math.min(WRITE_CHUNK, data.length - off);
-            byte[] slice = new byte[n];
-            System.arraycopy(data, off, slice, 0, n);
-            off += n;
-            writeQueue.offer(slice);
+        SharedSerialPort shared = sharedPort;
+        if (shared == null) {
+            throw new IOException("Serial port not connected");
         }
-        Log.d(TAG, "🚀 queued TX bytes=" + data.length + " (chunk=" + WRITE_CHUNK + ")");
+        return shared;
     }
 
     public void sendString(String text) throws IOException {
@@ -571,19 +890,8 @@ public class USBSerialManager {
      * 辅助方法，用于打印 byte 数组为十六进制字符串，便于调试
      * 这是调试Native Crash的关键工具
      */
-    private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
-
     public static String bytesToHex(byte[] bytes) {
-        if (bytes == null)
-            return "null";
-        char[] hexChars = new char[bytes.length * 3];
-        for (int j = 0; j < bytes.length; j++) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 3] = HEX_ARRAY[v >>> 4];
-            hexChars[j * 3 + 1] = HEX_ARRAY[v & 0x0F];
-            hexChars[j * 3 + 2] = ' ';
-        }
-        return new String(hexChars).trim();
+        return HexUtil.toHex(bytes);
     }
 
     /**
@@ -599,70 +907,28 @@ public class USBSerialManager {
     }
 
     public void disconnect() {
-        synchronized (sendLock) { // 🔧 添加同步锁防止竞态条件
-            try {
-                isDisconnecting = true;
-
-                // 清理环形缓冲区
-                clearRingBuffer();
-
-                if (ioManager != null) {
-                    try {
-                        ioManager.stop();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error stopping ioManager", e);
-                    }
-                    ioManager = null;
-                }
-                stopLegacyThread();
-                // 🔧 停止写线程
-                stopWriterThread();
-                if (currentPort != null) {
-                    try {
-                        try {
-                            currentPort.setDTR(false);
-                        } catch (Exception ignored) {
-                        }
-                        try {
-                            currentPort.setRTS(false);
-                        } catch (Exception ignored) {
-                        }
-                        currentPort.close();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error closing serial port", e);
-                    }
-                    currentPort = null;
-                }
-                if (currentConnection != null) {
-                    try {
-                        currentConnection.close();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error closing connection", e);
-                    }
-                    currentConnection = null;
-                }
-                if (isConnected && listener != null) {
-                    try {
-                        listener.onDeviceDisconnected();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error in listener.onDeviceDisconnected", e);
-                    }
-                }
-                isConnected = false;
-                currentDevice = null; // 🔧 确保清理 currentDevice
-                Log.d(TAG, "Serial connection closed");
-            } catch (Exception e) {
-                Log.e(TAG, "Error in disconnect", e);
-            } finally {
-                isDisconnecting = false;
-            }
-        } // 🔧 同步锁结束
+        connection.runOnLoop(() -> {
+            cancelPendingReconnect();
+            teardown("disconnect requested");
+        });
     }
 
     public void destroy() {
-        closeSilently();
         // 不再需要注销动态注册的permission receiver，使用静态注册的USBSerialPermissionReceiver
-        // disconnect();
+        connection.post(() -> {
+            cancelPendingReconnect();
+            teardown("manager destroyed");
+        });
+        connection.shutdown();
+        trackLogReady = false;
+        trackReplayPending = false;
+        pendingFixes.clear();
+        try {
+            SerialIoExecutor.shared().submit("TrackLogClose", trackLog::close);
+        } catch (RejectedExecutionException e) {
+            trackLog.close();
+        }
+        stopPacketBridge();
         try {
             pluginContext.unregisterReceiver(usbReceiver);
         } catch (Exception e) {
@@ -671,7 +937,29 @@ public class USBSerialManager {
     }
 
     public boolean isConnected() {
-        return isConnected;
+        return connection.getState() == ConnectionStateMachine.State.CONNECTED;
+    }
+
+    /**
+     * 获取当前连接状态
+     * 
+     * @return 连接状态
+     */
+    public ConnectionStateMachine.State getConnectionState() {
+        return connection.getState();
+    }
+
+    /**
+     * 添加连接状态监听器（在连接事件循环线程上回调）
+     * 
+     * @param listener 状态监听器
+     */
+    public void addConnectionStateListener(ConnectionStateMachine.StateListener listener) {
+        connection.addStateListener(listener);
+    }
+
+    public void removeConnectionStateListener(ConnectionStateMachine.StateListener listener) {
+        connection.removeStateListener(listener);
     }
 
     public String getCurrentDeviceInfo() {
@@ -687,122 +975,111 @@ public class USBSerialManager {
         this.dataBits = dataBits;
         this.stopBits = stopBits;
         this.parity = parity;
-        if (isConnected && currentPort != null) {
-            try {
-                currentPort.setParameters(baudRate, dataBits, stopBits, parity);
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to update serial parameters", e);
+        connection.runOnLoop(() -> {
+            SharedSerialPort shared = sharedPort;
+            if (isConnected() && shared != null) {
+                try {
+                    // 经共享端口修改：端口记录的参数随之更新，其它客户端收到通知
+                    shared.setParameters(baudRate, dataBits, stopBits, parity, portClient);
+                    rebuildLinkTuner();
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to update serial parameters", e);
+                }
             }
-        }
+        });
     }
 
-    private void cleanup() {
-        if (ioManager != null) {
-            ioManager.stop();
-            ioManager = null;
-        }
-        stopLegacyThread();
-        if (currentPort != null) {
-            try {
-                currentPort.close();
-            } catch (Exception ignored) {
-            }
-            currentPort = null;
-        }
-        if (currentConnection != null) {
-            currentConnection.close();
-            currentConnection = null;
+    /**
+     * 调出的参数与波特率相关：保存旧波特率下的参数，按新波特率重新建立（在连接事件循环上执行）
+     */
+    private void rebuildLinkTuner() {
+        SharedSerialPort shared = sharedPort;
+        UsbDevice device = currentDevice;
+        LinkTuner tuner = linkTuner;
+        if (shared != null && device != null && (tuner == null || tuner.getBaudRate() != baudRate)) {
+            saveLinkTuning();
+            linkTuner = createLinkTuner(device, shared);
         }
-        currentDevice = null;
-        isConnected = false;
     }
 
-    private void stopLegacyThread() {
-        try {
-            if (legacyIoThread != null && legacyIoThread.isAlive()) {
-                Log.d(TAG, "Stopping legacy SerialInputOutputManager thread");
-                legacyIoThread.interrupt();
-                try {
-                    legacyIoThread.join(1000); // wait up to 1s for the legacy IO thread to finish
-                } catch (InterruptedException e) {
-                    Log.w(TAG, "Interrupted while waiting for legacy thread to stop", e);
-                    Thread.currentThread().interrupt();
-                } catch (Exception e) {
-                    Log.e(TAG, "Error stopping legacy thread", e);
-                }
-                legacyIoThread = null;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error in stopLegacyThread", e);
-            legacyIoThread = null;
+    /**
+     * 把调参器的读参数应用到共享端口（在连接事件循环上执行）
+     */
+    private void applyReadTuning(LinkTuner tuner) {
+        SharedSerialPort shared = sharedPort;
+        if (tuner != linkTuner || shared == null) {
+            // 调参器已随断开或改波特率被替换
+            return;
         }
+        shared.setReadTuning(tuner.getReadBufferSize(), tuner.getReadTimeoutMs());
     }
 
-    // 🔧 写线程管理方法
-    private void startWriterThread() {
-        if (writerRunning)
+    /**
+     * 同一端口上的其它客户端修改了串口参数（在连接事件循环上执行）
+     */
+    private void onSharedParametersChanged(SharedSerialPort.Client source, int baudRate, int dataBits,
+            int stopBits, int parity) {
+        if (source != portClient) {
             return;
-        writerRunning = true;
-        writerThread = new Thread(() -> {
-            Log.d(TAG, "✳️ Writer thread started");
-            try {
-                while (writerRunning) {
-                    byte[] chunk = writeQueue.take(); // 阻塞等数据
-                    try {
-                        // 再次做防御性检查（并发断开/权限回收时能第一时间发现）
-                        if (!isConnected || currentPort == null || currentConnection == null) {
-                            Log.w(TAG, "⛔ Drop TX chunk: not connected");
-                            continue;
-                        }
-                        UsbDevice dev = currentPort.getDriver().getDevice();
-                        if (!usbManager.hasPermission(dev)) {
-                            Log.w(TAG, "⛔ Drop TX chunk: lost permission");
-                            continue;
-                        }
-
-                        // 将写操作串行化，避免与其它位置的潜在写并发
-                        synchronized (currentPort) {
-                            currentPort.write(chunk, WRITE_TIMEOUT_MS);
-                        }
-                        Log.d(TAG, "📤 wrote " + chunk.length + " bytes");
-                    } catch (IOException ioe) {
-                        Log.e(TAG, "❌ write IOException, will disconnect", ioe);
-                        // 写失败通常表示连接已坏，主动断开清理
-                        disconnect();
-                    } catch (Throwable t) {
-                        // 把所有 native 层异常也兜住，避免 app 直接崩
-                        Log.e(TAG, "💥 write fatal error (native/other)", t);
-                        disconnect();
-                    }
-                }
-            } catch (InterruptedException ie) {
-                Log.d(TAG, "✴️ Writer thread interrupted");
-                Thread.currentThread().interrupt();
-            } finally {
-                Log.d(TAG, "⏹ Writer thread stopped");
-            }
-        }, "USBSerialWriter");
-        writerThread.start();
-    }
-
-    private void stopWriterThread() {
-        writerRunning = false;
-        if (writerThread != null) {
-            writerThread.interrupt();
-            try {
-                writerThread.join(500);
-            } catch (InterruptedException ignore) {
-            }
-            writerThread = null;
         }
-        writeQueue.clear();
+        Log.i(TAG, "⚙️ Serial parameters changed by another client: " + baudRate + " baud");
+        this.baudRate = baudRate;
+        this.dataBits = dataBits;
+        this.stopBits = stopBits;
+        this.parity = parity;
+        rebuildLinkTuner();
     }
 
     /**
-     * 智能错误分类
+     * 写结果反馈给调参器；写失败通常表示连接已坏，投递断开事件（不在写线程内同步清理）
      */
+    private final class TunerWriteCallback implements SharedSerialPort.WriteCallback, SharedSerialPort.GatherCallback {
+        private final SharedSerialPort shared;
+        private final LinkTuner tuner;
+
+        TunerWriteCallback(SharedSerialPort shared, LinkTuner tuner) {
+            this.shared = shared;
+            this.tuner = tuner;
+        }
+
+        @Override
+        public void onWriteComplete(byte[] data) {
+            onWriteComplete(data.length);
+        }
+
+        @Override
+        public void onWriteError(byte[] data, IOException e) {
+            onWriteError(data.length, e);
+        }
+
+        @Override
+        public void onWriteComplete(int length) {
+            tuner.onWriteSuccess(length);
+            Log.d(TAG, "📤 wrote " + length + " bytes");
+        }
+
+        @Override
+        public void onWriteError(int length, IOException e) {
+            // 端口关闭时排队请求也会以失败回调，这类失败不反映链路质量，不能喂给调参器
+            boolean portOpen = shared.isOpen();
+            Log.e(TAG, "❌ write failed, will disconnect: " + e.getMessage());
+            connection.post(() -> {
+                // 只处理当前连接的写失败，旧连接写任务的迟到错误忽略
+                if (shared != sharedPort) {
+                    return;
+                }
+                if (portOpen && connection.getState() == ConnectionStateMachine.State.CONNECTED) {
+                    // 分块减半后的参数在断开时保存，下次连接同型号适配器时从更保守的值开始
+                    tuner.onWriteFailure(e instanceof SerialTimeoutException);
+                }
+                handleConnectionLost("write failed: " + e.getMessage());
+            });
+        }
+    }
+
     private ErrorType classifyError(String message) {
-        if (isDisconnecting || isDeviceDetached || message.contains("Connection closed")) {
+        if (connection.getState() == ConnectionStateMachine.State.DISCONNECTING
+                || message.contains("Connection closed")) {
             return ErrorType.BENIGN_CLOSE;
         }
 
@@ -840,38 +1117,6 @@ public class USBSerialManager {
 
     // 移除动态注册的permission receiver方法，现在使用静态注册的USBSerialPermissionReceiver
 
-    /**
-     * 安全关闭串口
-     */
-    private void closeSilently() {
-        try {
-            if (currentPort != null) {
-                currentPort.close();
-                Log.d(TAG, "Serial connection closed");
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "⚠️ Exception while closing serial port", e);
-        }
-    }
-
-    /**
-     * 权限被拒绝通知
-     */
-    private void notifyPermissionDenied(UsbDevice device) {
-        Log.w(TAG, "⚠️ Permission denied for device VID="
-                + device.getVendorId() + " PID=" + device.getProductId());
-        // 如果你有 listener，可以在这里回调： listener.onPermissionDenied(device);
-    }
-
-    /**
-     * 连接成功通知
-     */
-    private void notifyConnected(UsbDevice device) {
-        Log.d(TAG, "✅ Serial device connected successfully: VID="
-                + device.getVendorId() + " PID=" + device.getProductId());
-        // 如果你有 listener，可以在这里回调： listener.onConnected(device);
-    }
-
     /**
      * 通用错误通知
      */
@@ -904,31 +1149,34 @@ public class USBSerialManager {
     }
 
     /**
-     * 创建SerialInputOutputManager
+     * 创建本次连接在共享端口上的客户端（回调在共享读线程上执行）
      */
-    private void createSerialInputOutputManager() {
-        if (currentPort == null) {
-            Log.e(TAG, "❌ Cannot create SerialInputOutputManager: port is null");
-            return;
-        }
-
-        Log.d(TAG, "🔧 Creating SerialInputOutputManager with port: NOT NULL");
-
-        ioManager = new SerialInputOutputManager(currentPort, new SerialInputOutputManager.Listener() {
+    private SharedSerialPort.Client createPortClient() {
+        return new SharedSerialPort.Client() {
             @Override
-            public void onNewData(byte[] data) {
+            public void onPortData(byte[] data) {
+                // ⏱ 在IO线程上打接收时间戳，随数据一起进入环形缓冲区
+                final long rxNanos = System.nanoTime();
+                linkWatchdog.onRx();
+                baudDetector.onRx(data, 0, data.length);
+                LinkTuner tuner = linkTuner;
+                if (tuner != null && tuner.onRead(data.length)) {
+                    // 改读超时要重启读任务，不能在读任务自己的回调里做：投递到连接事件循环
+                    connection.post(() -> applyReadTuning(tuner));
+                }
                 // 🔧 使用环形缓冲区处理数据包完整性
                 Log.d(TAG, "📥 Received data: " + data.length + " bytes");
 
                 // 使用主线程Handler处理数据，避免阻塞IO线程
                 mainHandler.post(() -> {
                     try {
+                        long handlerNanos = System.nanoTime();
                         // 将数据写入环形缓冲区
-                        int written = ringBuffer.write(data);
+                        int written = ringBuffer.write(data, rxNanos);
                         Log.d(TAG, "📝 Written " + written + " bytes to ring buffer");
 
                         // 检查并提取完整数据包
-                        processCompletePackets();
+                        processCompletePackets(handlerNanos);
 
                     } catch (Exception e) {
                         Log.e(TAG, "❌ Error processing data in ring buffer", e);
@@ -937,167 +1185,439 @@ public class USBSerialManager {
             }
 
             @Override
-            public void onRunError(Exception e) {
-                // 🔧 在回调入口处添加同步锁，防止竞态条件
-                synchronized (sendLock) {
-                    String message = e != null && e.getMessage() != null ? e.getMessage() : "";
-
-                    Log.w(TAG, "Serial IO error: " + message);
-
-                    // 检查是否是CH340相关错误
-                    if (isCH340Error(e)) {
-                        Log.w(TAG, "⚠️ CH340 USB status error detected - checking thread status");
-
-                        // 检查线程状态
-                        if (legacyIoThread != null && legacyIoThread.isAlive()) {
-                            Log.d(TAG, "🔍 Thread still alive, but USB status failed - attempting restart");
-                            restartSerialInputOutputManager(); // 现在调用的是同步版本了
-                        } else {
-                            Log.w(TAG, "🔍 Thread terminated due to USB status error - connection lost");
-                            handleConnectionLost(message);
-                        }
-                        return;
-                    }
-
-                    // 其他错误：直接断开连接
-                    Log.i(TAG, "Connection lost: " + message);
-                    handleConnectionLost(message);
-                } // 🔧 同步锁结束
+            public void onPortError(Exception e) {
+                // 🔀 IO线程上不做任何清理，只把错误事件投递给连接事件循环，避免阻塞在生命周期操作上
+                final SharedSerialPort.Client source = this;
+                connection.post(() -> handleRunError(source, e));
             }
-        });
 
-        // 3.8.0版本需要使用Thread方式启动
-        legacyIoThread = new Thread(ioManager, "SerialInputOutputManager");
-        legacyIoThread.start();
-        Log.d(TAG, "SerialInputOutputManager started successfully with Thread");
+            @Override
+            public void onPortParametersChanged(int baudRate, int dataBits, int stopBits, int parity) {
+                final SharedSerialPort.Client source = this;
+                connection.post(() -> onSharedParametersChanged(source, baudRate, dataBits, stopBits, parity));
+            }
+        };
+    }
 
-        // 检查线程状态
-        Log.d(TAG, "🔧 Thread state after start: " + legacyIoThread.getState());
+    /**
+     * 处理IO线程报告的错误（在连接事件循环上执行）
+     * 
+     * @param source 报告错误的共享端口客户端
+     * @param e      错误
+     */
+    private void handleRunError(SharedSerialPort.Client source, Exception e) {
+        String message = e != null && e.getMessage() != null ? e.getMessage() : "";
+        if (lifecycle.isCurrent(source)) {
+            Log.w(TAG, "Serial IO error: " + message);
+        }
+        // CH340 状态错误时端口仍然打开，只重启读任务；其它错误直接断开
+        lifecycle.onRunError(source, isCH340Error(e) && currentPort != null, message);
     }
 
     /**
-     * 重启SerialInputOutputManager
+     * 处理连接丢失（在连接事件循环上执行）
      */
-    private void restartSerialInputOutputManager() {
-        synchronized (sendLock) { // 🔧 添加同步锁保护CH340重启过程
-            try {
-                Log.i(TAG, "🔄 Restarting SerialInputOutputManager due to CH340 error...");
+    private void handleConnectionLost(String reason) {
+        Log.i(TAG, "🔌 Connection lost: " + reason);
 
-                // 停止当前的IO管理器
-                if (legacyIoThread != null && legacyIoThread.isAlive()) {
-                    Log.d(TAG, "🛑 Stopping current SerialInputOutputManager");
-                    legacyIoThread.interrupt();
-                    try {
-                        legacyIoThread.join(1000);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
+        // 清理连接状态，并通知监听器
+        teardown(reason);
+    }
 
-                // 重新创建SerialInputOutputManager
-                if (currentPort != null) {
-                    Log.d(TAG, "🔄 Creating new SerialInputOutputManager");
-                    createSerialInputOutputManager();
+    /**
+     * 看门狗判定链路失效（在连接事件循环上执行）
+     * 先按连接丢失断开，再对同一设备发起带退避的重连
+     *
+     * @param silentMs 已静默时长
+     */
+    private void handleLinkStale(long silentMs) {
+        UsbDevice device = currentDevice;
+        handleConnectionLost("link stale: no data for " + silentMs + "ms");
+        if (device != null) {
+            scheduleReconnect(device);
+        }
+    }
 
-                    if (legacyIoThread != null && legacyIoThread.isAlive()) {
-                        Log.i(TAG, "✅ SerialInputOutputManager restarted successfully");
-                    } else {
-                        Log.w(TAG, "❌ Failed to restart SerialInputOutputManager");
-                        handleConnectionLost("Failed to restart SerialInputOutputManager");
-                    }
-                } else {
-                    Log.w(TAG, "❌ Port not available for restart");
-                    handleConnectionLost("Port not available for restart");
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "❌ Error restarting SerialInputOutputManager", e);
-                handleConnectionLost("Error restarting SerialInputOutputManager: " + e.getMessage());
+    /**
+     * 安排对设备的自动重连（在连接事件循环上执行）
+     * 退避时间按 1s、2s、4s... 递增，上限为 RECONNECT_COOLDOWN_MS；
+     * 连续 MAX_RECONNECT_ATTEMPTS 次未能恢复数据往来则放弃并上报错误
+     *
+     * @param device 目标设备
+     */
+    private void scheduleReconnect(UsbDevice device) {
+        if (reconnectCount >= MAX_RECONNECT_ATTEMPTS) {
+            Log.e(TAG, "❌ Giving up on " + describe(device) + " after " + reconnectCount + " reconnect attempts");
+            reconnectCount = 0;
+            notifyError("Link lost: device not responding");
+            return;
+        }
+        cancelPendingReconnect();
+        long delayMs = Math.min(RECONNECT_COOLDOWN_MS, 1000L << reconnectCount);
+        reconnectCount++;
+        reconnectDevice = device;
+        Log.i(TAG, "🔁 Reconnect attempt " + reconnectCount + "/" + MAX_RECONNECT_ATTEMPTS + " in " + delayMs
+                + "ms: " + describe(device));
+        pendingReconnect = connection.postDelayed(() -> {
+            pendingReconnect = null;
+            reconnectDevice = null;
+            if (connection.getState() == ConnectionStateMachine.State.IDLE) {
+                doConnectToDevice(device);
             }
-        } // 🔧 同步锁结束
+        }, delayMs);
+    }
+
+    private void cancelPendingReconnect() {
+        if (pendingReconnect != null) {
+            pendingReconnect.cancel(false);
+            pendingReconnect = null;
+            Log.d(TAG, "🔁 Pending reconnect cancelled");
+        }
+        reconnectDevice = null;
     }
 
     /**
-     * 处理连接丢失
+     * 按端点包长和波特率创建调参器；同型号适配器在同一波特率下保存过参数时直接恢复，
+     * 自测过时以自测的最佳写分块为上限，并把读参数应用到共享读任务
      */
-    private void handleConnectionLost(String reason) {
-        Log.i(TAG, "🔌 Connection lost: " + reason);
+    private LinkTuner createLinkTuner(UsbDevice device, SharedSerialPort shared) {
+        int packetSize = 64;
+        try {
+            packetSize = shared.getPort().getReadEndpoint().getMaxPacketSize();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "⚠️ Endpoint packet size unavailable, assuming 64: " + e.getMessage());
+        }
+        LinkTuner tuner = new LinkTuner(baudRate, packetSize);
+        tuner.restore(linkProfiles.getTuning(device, baudRate));
+        tuner.applySelfTest(linkProfiles.getSelfTest(device));
+        shared.setReadTuning(tuner.getReadBufferSize(), tuner.getReadTimeoutMs());
+        Log.d(TAG, "🎛 " + tuner.getStatus());
+        return tuner;
+    }
 
-        if (listener != null) {
-            listener.onDeviceDisconnected();
+    /**
+     * 保存调参器学到的参数（只在有变化时写入）
+     */
+    private void saveLinkTuning() {
+        LinkTuner tuner = linkTuner;
+        UsbDevice device = currentDevice;
+        linkTuner = null;
+        if (tuner != null && device != null && tuner.hasUnsavedChanges()) {
+            linkProfiles.saveTuning(device, tuner.getBaudRate(), tuner.getSettings());
+            tuner.markSaved();
         }
+    }
 
-        // 清理连接状态
-        cleanupConnection();
+    /**
+     * 获取当前连接的读写调参器，未连接时返回 null
+     */
+    public LinkTuner getLinkTuner() {
+        return linkTuner;
     }
 
     /**
-     * 清理连接状态 - SimpleUsbTerminal风格
+     * 设置发送限速（令牌桶），用于串口缓冲小、转发慢的电台固件；按适配器 VID/PID 保存，下次连接自动恢复
+     * 限速作用于整个物理端口，终端经由同一共享端口的写入也受约束。
+     *
+     * @param bytesPerSecond 持续速率（字节/秒），0 表示不限速
+     * @param burstBytes     突发（令牌桶容量），0 表示按约 50ms 的字节量自动估算
+     * @param frameGapMs     帧间最小空闲时间（毫秒），0 表示不插入间隔
+     * @return false 表示未连接（参数未保存）
      */
-    private void cleanupConnection() {
-        synchronized (sendLock) { // 🔧 添加同步锁防止竞态条件
-            Log.d(TAG, "🧹 Cleaning up connection state");
+    public boolean setTxPacing(long bytesPerSecond, int burstBytes, long frameGapMs) {
+        TxPacer.Settings settings = new TxPacer.Settings(bytesPerSecond, burstBytes, frameGapMs);
+        SharedSerialPort shared = sharedPort;
+        UsbDevice device = currentDevice;
+        if (shared == null || device == null) {
+            return false;
+        }
+        shared.setTxPacing(settings);
+        linkProfiles.savePacing(device, settings);
+        return true;
+    }
 
-            isConnected = false;
+    /**
+     * 获取当前端口的发送限速，未连接时返回 null
+     */
+    public TxPacer.Settings getTxPacing() {
+        SharedSerialPort shared = sharedPort;
+        return shared == null ? null : shared.getTxPacer().getSettings();
+    }
 
-            // 清理环形缓冲区
-            clearRingBuffer();
+    private static String deviceKey(UsbDevice device) {
+        return String.format("%04X:%04X@%s", device.getVendorId(), device.getProductId(), device.getDeviceName());
+    }
 
-            // 停止IO管理器
-            if (ioManager != null) {
-                try {
-                    ioManager.setListener(null);
-                    ioManager.stop();
-                } catch (Exception e) {
-                    Log.w(TAG, "Error stopping IO manager: " + e.getMessage());
-                }
-                ioManager = null;
+    /**
+     * 获取链路活性看门狗
+     */
+    public LinkWatchdog getLinkWatchdog() {
+        return linkWatchdog;
+    }
+
+    /**
+     * 配置链路活性看门狗
+     *
+     * @param silenceMs      无数据多久后开始探测（毫秒）
+     * @param probeTimeoutMs 探测后等待响应的时间（毫秒）
+     * @param probeEnabled   是否发送 68 00 01 02 探测包；关闭时仅按静默时长判定
+     */
+    public void setLinkWatchdogConfig(long silenceMs, long probeTimeoutMs, boolean probeEnabled) {
+        linkWatchdog.configure(silenceMs, probeTimeoutMs, probeEnabled);
+    }
+
+    /**
+     * 对环回插头或回显固件运行链路自测：按负载长度 × 写分块大小依次跑定时突发，
+     * 测量吞吐、往返延迟分布和错误率，结果按适配器 VID/PID 保存
+     *
+     * 自测期间链路上是随机可打印字符，不会被当成协议帧；不要对真实电台运行。
+     *
+     * @param config   测试矩阵与每组时长
+     * @param listener 回调（主线程），可为 null
+     * @return false 表示未连接或已有自测在运行
+     */
+    public synchronized boolean runLinkSelfTest(LinkSelfTest.Config config, LinkSelfTestListener listener) {
+        final SharedSerialPort shared = sharedPort;
+        final UsbDevice device = currentDevice;
+        if (!isConnected() || shared == null || device == null || linkSelfTest != null) {
+            return false;
+        }
+        final LinkSelfTest[] test = new LinkSelfTest[1];
+        final SharedSerialPort.Client tap = new SharedSerialPort.Client() {
+            @Override
+            public void onPortData(byte[] data) {
+                test[0].onReceive(data);
+            }
+
+            @Override
+            public void onPortError(Exception e) {
+                // 端口错误由连接自身的客户端处理；自测中的请求会按超时计为丢失
             }
 
-            // 停止线程
-            if (legacyIoThread != null) {
+            @Override
+            public void onPortParametersChanged(int baudRate, int dataBits, int stopBits, int parity) {
+                // 测量结果按自测开始时的波特率保存；中途改波特率的测量只会表现为丢包
+            }
+        };
+        test[0] = new LinkSelfTest(config, baudRate,
+                chunk -> data -> shared.writeAsync(data, chunk, SharedSerialPort.DEFAULT_WRITE_TIMEOUT_MS, null),
+                (entry, index, total) -> {
+                    if (listener != null) {
+                        mainHandler.post(() -> listener.onProgress(entry, index, total));
+                    }
+                });
+        if (!shared.attach(tap)) {
+            return false;
+        }
+        linkSelfTest = test[0];
+        try {
+            SerialIoExecutor.shared().submit("LinkSelfTest", () -> {
                 try {
-                    legacyIoThread.interrupt();
+                    LinkSelfTest.Result result = test[0].run();
+                    linkProfiles.saveSelfTest(device, result);
+                    LinkTuner tuner = linkTuner;
+                    if (tuner != null) {
+                        tuner.applySelfTest(result);
+                    }
+                    Log.d(TAG, "🧪 Link self-test for " + LinkProfileStore.deviceKey(device) + ":\n" + result);
+                    if (listener != null) {
+                        mainHandler.post(() -> listener.onComplete(result));
+                    }
                 } catch (Exception e) {
-                    Log.w(TAG, "Error interrupting IO thread: " + e.getMessage());
+                    Log.w(TAG, "⚠️ Link self-test aborted: " + e);
+                    if (listener != null) {
+                        mainHandler.post(() -> listener.onError(e));
+                    }
+                } finally {
+                    shared.release(tap);
+                    synchronized (USBSerialManager.this) {
+                        linkSelfTest = null;
+                    }
                 }
-                legacyIoThread = null;
+            });
+        } catch (RejectedExecutionException e) {
+            shared.release(tap);
+            linkSelfTest = null;
+            Log.e(TAG, "❌ Cannot start link self-test", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 取消正在运行的链路自测（已测完的组合仍会保存）
+     */
+    public void cancelLinkSelfTest() {
+        LinkSelfTest test = linkSelfTest;
+        if (test != null) {
+            test.cancel();
+        }
+    }
+
+    public boolean isLinkSelfTestRunning() {
+        return linkSelfTest != null;
+    }
+
+    /**
+     * 获取某个适配器（按 VID/PID）上次保存的自测结果
+     *
+     * @return 没有测过时返回 null
+     */
+    public LinkSelfTest.Result getLinkSelfTestResult(UsbDevice device) {
+        return linkProfiles.getSelfTest(device);
+    }
+
+    /**
+     * 自动检测波特率：先试当前波特率，再按 {@link BaudRateDetector#DEFAULT_CANDIDATES} 依次尝试，
+     * 每次切换后发送ID查询探测，按收到的合法帧比例打分；检测成功后按新波特率更新参数和读写调参，
+     * 失败时恢复原波特率
+     *
+     * 检测期间收到的乱码仍会进入帧解析流程，按正常的损坏帧处理。
+     *
+     * @param listener 回调（主线程），可为 null
+     * @return false 表示未连接
+     */
+    public boolean autoDetectBaudRate(BaudDetectionListener listener) {
+        return autoDetectBaudRate(null, listener);
+    }
+
+    /**
+     * 在指定候选中自动检测波特率
+     *
+     * @param candidates 候选波特率，按尝试顺序；为 null 时使用当前波特率 + 默认候选
+     * @param listener   回调（主线程），可为 null
+     * @return false 表示未连接
+     */
+    public boolean autoDetectBaudRate(int[] candidates, BaudDetectionListener listener) {
+        if (!isConnected()) {
+            return false;
+        }
+        connection.runOnLoop(() -> {
+            // 期间若已断开，每个候选都切换失败，检测以"未检测到"结束
+            baudDetectionListener = listener;
+            baudDetector.start(candidates != null ? candidates : defaultBaudCandidates(),
+                    BaudRateDetector.DEFAULT_DWELL_MS);
+        });
+        return true;
+    }
+
+    /**
+     * 取消正在进行的波特率检测并恢复原波特率
+     */
+    public void cancelBaudDetection() {
+        connection.runOnLoop(() -> {
+            if (!baudDetector.isRunning()) {
+                return;
             }
+            baudDetector.cancel();
+            baudDetectionListener = null;
+            restoreBaudRate();
+        });
+    }
 
-            // 关闭串口
-            if (currentPort != null) {
-                try {
-                    currentPort.setDTR(false);
-                    currentPort.setRTS(false);
-                } catch (Exception ignored) {
-                }
-                try {
-                    currentPort.close();
-                } catch (Exception ignored) {
-                }
-                currentPort = null;
+    public boolean isBaudDetectionRunning() {
+        return baudDetector.isRunning();
+    }
+
+    /**
+     * 当前波特率排在最前，配置正确时一次探测往返即可确认
+     */
+    private int[] defaultBaudCandidates() {
+        int[] defaults = BaudRateDetector.DEFAULT_CANDIDATES;
+        int[] candidates = new int[defaults.length + 1];
+        int count = 0;
+        candidates[count++] = baudRate;
+        for (int baud : defaults) {
+            if (baud != baudRate) {
+                candidates[count++] = baud;
             }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
 
-            // 关闭USB连接
-            if (currentConnection != null) {
-                try {
-                    currentConnection.close();
-                } catch (Exception ignored) {
-                }
-                currentConnection = null;
+    private void onBaudDetectionFinished(BaudRateDetector.Result result) {
+        BaudDetectionListener listener = baudDetectionListener;
+        baudDetectionListener = null;
+        if (result.isDetected()) {
+            if (result.getBaudRate() != baudRate) {
+                Log.d(TAG, "🔎 Baud rate " + baudRate + " -> " + result.getBaudRate());
+                // 端口已在检测出的波特率上；这里更新记录的参数并按新波特率重建调参器
+                setSerialParameters(result.getBaudRate(), dataBits, stopBits, parity);
             }
+        } else {
+            Log.w(TAG, "⚠️ Baud rate detection failed, restoring " + baudRate);
+            restoreBaudRate();
+        }
+        if (listener != null) {
+            mainHandler.post(() -> listener.onBaudRateDetected(result));
+        }
+    }
+
+    private void restoreBaudRate() {
+        SharedSerialPort shared = sharedPort;
+        if (shared == null) {
+            return;
+        }
+        try {
+            shared.setParameters(baudRate, dataBits, stopBits, parity, portClient);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to restore baud rate " + baudRate, e);
+        }
+    }
+
+    /**
+     * 释放全部连接资源并回到 IDLE 状态 - SimpleUsbTerminal风格（在连接事件循环上执行）
+     * 如果之前处于已连接/恢复中状态，会回调 listener.onDeviceDisconnected()
+     * 
+     * @param reason 断开原因
+     */
+    private void teardown(String reason) {
+        lifecycle.teardown(reason);
+    }
+
+    /**
+     * 释放连接资源（由 lifecycle 在 DISCONNECTING 与 IDLE 之间调用）
+     *
+     * @param reason 断开原因
+     */
+    private void releaseConnection(String reason) {
+        Log.d(TAG, "🧹 Cleaning up connection state: " + reason);
+        linkWatchdog.stop();
+        cancelLinkSelfTest();
+        baudDetector.cancel();
+        baudDetectionListener = null;
+        messageFragmenter.cancelAll();
+        messageReassembler.clear();
+
+        // 清理环形缓冲区
+        clearRingBuffer();
+
+        // 离开共享端口：读写任务随之停止；没有其它客户端（终端）时端口和USB连接一并关闭
+        saveLinkTuning();
+        SharedSerialPort shared = sharedPort;
+        SharedSerialPort.Client client = portClient;
+        sharedPort = null;
+        portClient = null;
+        currentPort = null;
+        currentConnection = null;
+        if (shared != null) {
+            shared.release(client);
+        }
 
-            currentDevice = null;
-            Log.d(TAG, "✅ Connection cleanup completed");
-        } // 🔧 同步锁结束
+        currentDevice = null; // 🔧 确保清理 currentDevice
+        Log.d(TAG, "✅ Connection cleanup completed");
     }
 
     /**
      * 处理完整数据包
      * 从环形缓冲区中提取完整的可变长度数据包并发送给监听器
      * 数据包格式：前2字节包头(0x0068) + 1字节包长度 + 1字节命令类型 + 数据内容
+     * 
+     * @param handlerNanos 主线程开始处理本批数据的时间（用于延迟追踪）
      */
-    private void processCompletePackets() {
-        if (ringBuffer == null || listener == null) {
+    private void processCompletePackets(long handlerNanos) {
+        PacketBridge bridge = packetBridge;
+        if (ringBuffer == null) {
             return;
         }
 
@@ -1105,16 +1625,38 @@ public class USBSerialManager {
         while (ringBuffer.hasCompleteVariablePacket() > 0) {
             byte[] packet = ringBuffer.readVariablePacket();
             if (packet != null && packet.length >= MIN_PACKET_SIZE && packet.length <= MAX_PACKET_SIZE) {
+                // 分片和确认帧属于传输层，由分片收发器处理，不分发给监听器
+                int command = FrameCodec.command(packet);
+                if (command == FrameCodec.CMD_FRAGMENT) {
+                    messageReassembler.onFrame(packet);
+                    continue;
+                } else if (command == FrameCodec.CMD_FRAGMENT_ACK) {
+                    messageFragmenter.onAck(packet);
+                    continue;
+                }
+                long decodedNanos = System.nanoTime();
+                long rxNanos = ringBuffer.getLastPacketTimestamp();
                 Log.d(TAG, "📦 Extracted complete packet: " + packet.length + " bytes");
 
                 // 解析数据包信息
                 parsePacketInfo(packet);
+                recordTrack(packet);
 
-                try {
-                    listener.onDataReceived(packet);
-                    Log.d(TAG, "📤 Packet sent to listener successfully");
-                } catch (Exception e) {
-                    Log.e(TAG, "❌ Error sending packet to listener", e);
+                long dispatchNanos = System.nanoTime();
+                if (bridge != null) {
+                    bridge.publish(packet);
+                }
+                if (listener != null) {
+                    try {
+                        listener.onDataReceived(packet);
+                        Log.d(TAG, "📤 Packet sent to listener successfully");
+                    } catch (Exception e) {
+                        Log.e(TAG, "❌ Error sending packet to listener", e);
+                    }
+                }
+                if (rxNanos != 0 && latencyTracer.isEnabled()) {
+                    latencyTracer.recordPacket(packet[3] & 0xFF, packet.length, rxNanos, handlerNanos,
+                            decodedNanos, dispatchNanos, System.nanoTime());
                 }
             } else if (packet != null) {
                 Log.w(TAG, "⚠️ Invalid packet size: " + packet.length + " bytes");
@@ -1131,36 +1673,36 @@ public class USBSerialManager {
      * @param packet 数据包
      */
     private void parsePacketInfo(byte[] packet) {
-        if (packet.length < 4) {
+        if (packet.length < FrameCodec.MIN_FRAME_LENGTH) {
             Log.w(TAG, "⚠️ Packet too short: " + packet.length + " bytes");
             return;
         }
 
         // 检查包头 - 修复字节序问题
         // 存储方式: 0x68 0x00 (大端序)，接收时应该强制转换为 0x0068
-        int header = ((packet[1] & 0xFF) << 8) | (packet[0] & 0xFF);
-        if (header != 0x0068) {
+        int header = FrameCodec.header(packet);
+        if (header != FrameCodec.HEADER_VALUE) {
             Log.w(TAG, "⚠️ Invalid packet header: 0x" + Integer.toHexString(header).toUpperCase());
             return;
         }
 
         // 解析包长度和命令类型
-        int packetDataLength = packet[2] & 0xFF;
-        int commandType = packet[3] & 0xFF;
-        int totalLength = packetDataLength + 3;
+        int packetDataLength = FrameCodec.lengthField(packet);
+        int commandType = FrameCodec.command(packet);
+        int totalLength = FrameCodec.frameLength(packetDataLength);
 
         Log.d(TAG, String.format("📋 Packet info: Header=0x0068, DataLen=%d, Cmd=0x%02X, Total=%d",
                 packetDataLength, commandType, totalLength));
 
         // 根据命令类型记录详细信息
         switch (commandType) {
-            case 0x55:
+            case FrameCodec.CMD_POWER_ON:
                 Log.d(TAG, "🔋 Power-on response packet");
                 break;
-            case 0x02:
+            case FrameCodec.CMD_DEVICE_ID:
                 Log.d(TAG, "🆔 Device ID query response packet");
                 break;
-            case 0xCC:
+            case FrameCodec.CMD_LOCATION:
                 Log.d(TAG, "📍 Location data packet");
                 break;
             default:
@@ -1169,6 +1711,146 @@ public class USBSerialManager {
         }
     }
 
+    /**
+     * 把定位包写入轨迹存储；ID响应包登记本机手台ID
+     *
+     * @param packet 完整数据包
+     */
+    private void recordTrack(byte[] packet) {
+        int command = FrameCodec.command(packet);
+        if (command == FrameCodec.CMD_LOCATION) {
+            if (!locationOutputEnabled) {
+                return;
+            }
+            LocationFrame fix = trackView.wrap(packet);
+            if (fix != null && fix.hasFix() && fix.hasValidCoordinates()) {
+                if (trackReplayPending) {
+                    // 回放尚未完成：先暂存，回放的旧点进入存储后再补写
+                    if (pendingFixes.size() < MAX_PENDING_FIXES) {
+                        pendingFixes.add(new long[]{fix.getUnitId(), fix.getTimeMillis(), fix.getLatitudeE7(),
+                                fix.getLongitudeE7(), fix.getAltitudeCm()});
+                    }
+                    return;
+                }
+                appendFix(fix.getUnitId(), fix.getTimeMillis(), fix.getLatitudeE7(), fix.getLongitudeE7(),
+                        fix.getAltitudeCm());
+            }
+        } else if (command == FrameCodec.CMD_DEVICE_ID) {
+            long unitId = FrameCodec.decodeDeviceId(packet);
+            if (unitId >= 0) {
+                trackStore.registerUnit((int) unitId);
+            }
+        }
+    }
+
+    /**
+     * 是否把解出的定位用于地图标记和轨迹记录（默认关闭）
+     */
+    public boolean isLocationOutputEnabled() {
+        return locationOutputEnabled;
+    }
+
+    /**
+     * 开关定位输出（地图标记和轨迹记录），设置会保存
+     */
+    public void setLocationOutputEnabled(boolean enabled) {
+        locationOutputEnabled = enabled;
+        settings.edit().putBoolean(KEY_LOCATION_OUTPUT, enabled).apply();
+        Log.i(TAG, "📍 Location output " + (enabled ? "enabled" : "disabled"));
+    }
+
+    /**
+     * 写入轨迹存储（主线程），轨迹日志在其后台写线程上追加，换段和刷盘不占用主线程
+     */
+    private void appendFix(int unitId, long timeMillis, int latitudeE7, int longitudeE7, int altitudeCm) {
+        trackStore.append(unitId, timeMillis, latitudeE7, longitudeE7, altitudeCm);
+        if (trackLogReady && !trackLog.appendAsync(unitId, timeMillis, latitudeE7, longitudeE7, altitudeCm)) {
+            trackLogReady = false;
+            Log.w(TAG, "⚠️ Track log not accepting points, persistence disabled");
+        }
+    }
+
+    /**
+     * 打开轨迹日志并把最近 TRACK_REPLAY_WINDOW_MS 内的轨迹回放到 trackStore（在IO线程上执行）
+     * 回放期间到达的定位点暂存在主线程，回放结束后再写入，保证每个单位的时间顺序
+     */
+    private void recoverTrackLog() {
+        boolean ready = false;
+        try {
+            trackLog.open();
+            int points = trackLog.replayInto(System.currentTimeMillis() - TRACK_REPLAY_WINDOW_MS, trackStore);
+            ready = true;
+            Log.d(TAG, "📂 Track log ready, " + points + " points restored: " + trackStore.getStatus());
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Track log unavailable, positions will not survive restart", e);
+        }
+        final boolean logReady = ready;
+        mainHandler.post(() -> onTrackLogRecovered(logReady));
+    }
+
+    /**
+     * 回放结束：启用实时写入并补写回放期间暂存的定位点（主线程）
+     */
+    private void onTrackLogRecovered(boolean logReady) {
+        if (!trackReplayPending) {
+            // 已销毁
+            return;
+        }
+        trackReplayPending = false;
+        trackLogReady = logReady;
+        for (long[] f : pendingFixes) {
+            appendFix((int) f[0], f[1], (int) f[2], (int) f[3], (int) f[4]);
+        }
+        if (!pendingFixes.isEmpty()) {
+            Log.d(TAG, "📂 " + pendingFixes.size() + " fixes received during replay written");
+        }
+        pendingFixes.clear();
+    }
+
+    /**
+     * 启动本地转发桥（已启动时先停止旧的）
+     *
+     * @param config 端口、监听范围与输出格式
+     * @return true 如果启动成功
+     */
+    public synchronized boolean startPacketBridge(PacketBridge.Config config) {
+        stopPacketBridge();
+        try {
+            PacketBridge bridge = new PacketBridge(config);
+            bridge.start();
+            packetBridge = bridge;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Failed to start packet bridge", e);
+            return false;
+        }
+    }
+
+    /**
+     * 停止本地转发桥
+     */
+    public synchronized void stopPacketBridge() {
+        PacketBridge bridge = packetBridge;
+        packetBridge = null;
+        if (bridge != null) {
+            bridge.close();
+        }
+    }
+
+    /**
+     * 获取本地转发桥，未启动时返回 null
+     */
+    public PacketBridge getPacketBridge() {
+        return packetBridge;
+    }
+
+    /**
+     * 获取手台轨迹存储
+     */
+    public TrackStore getTrackStore() {
+        return trackStore;
+    }
+
     /**
      * 获取环形缓冲区状态（用于调试）
      * 
@@ -1181,6 +1863,39 @@ public class USBSerialManager {
         return "Ring buffer not initialized";
     }
 
+    /**
+     * 获取端到端延迟追踪器
+     * 
+     * @return 延迟追踪器
+     */
+    public LatencyTracer getLatencyTracer() {
+        return latencyTracer;
+    }
+
+    /**
+     * 启用/禁用延迟追踪
+     * 
+     * @param enabled 是否启用
+     */
+    public void setLatencyTracingEnabled(boolean enabled) {
+        latencyTracer.setEnabled(enabled);
+        Log.d(TAG, "⏱ Latency tracing " + (enabled ? "enabled" : "disabled"));
+    }
+
+    /**
+     * 导出延迟追踪记录为CSV文件（用于离线分析）
+     * 
+     * @param file 目标文件
+     * @return 导出的记录条数
+     * @throws IOException 写文件失败
+     */
+    public int exportLatencyTrace(java.io.File file) throws IOException {
+        int count = latencyTracer.exportTrace(file);
+        Log.d(TAG, "⏱ Exported " + count + " latency trace records to " + file.getAbsolutePath());
+        Log.d(TAG, "⏱ Latency summary:\n" + latencyTracer.getSummary());
+        return count;
+    }
+
     /**
      * 清空环形缓冲区
      */
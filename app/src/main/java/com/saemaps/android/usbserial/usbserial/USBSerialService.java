@@ -10,6 +10,7 @@ import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 
@@ -17,6 +18,7 @@ import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
 import com.saemaps.android.usbserial.USBSerialDropDownReceiver;
+import com.saemaps.android.usbserial.core.PacketRing;
 import com.saemaps.android.usbserial.plugin.R;
 import com.saemaps.android.usbserial.terminal.Constants;
 import com.saemaps.android.usbserial.terminal.SerialListener;
@@ -24,9 +26,15 @@ import com.saemaps.android.usbserial.terminal.SerialSocket;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Foreground USB serial service bridging USB driver sockets with plugin UI.
+ *
+ * Besides the single attached {@link SerialListener}, any number of components bound through
+ * {@link SerialBinder} can subscribe with {@link #addBatchListener}. Every read is copied once into a
+ * shared {@link PacketRing}; each subscriber is notified once per N reads or per time window with the
+ * sequence range it has not seen yet, instead of one callback per read.
  */
 public class USBSerialService extends Service implements SerialListener {
 
@@ -36,6 +44,77 @@ public class USBSerialService extends Service implements SerialListener {
         }
     }
 
+    /**
+     * Batched read subscriber. Called on the handler given to {@link #addBatchListener}.
+     */
+    public interface BatchListener {
+        /**
+         * @param ring         shared ring holding the reads
+         * @param fromSequence first new sequence (inclusive)
+         * @param toSequence   last new sequence (exclusive); read with
+         *                     {@code ring.forEach(from, to, visitor)}, which reports reads lost to overrun
+         */
+        void onSerialBatch(PacketRing ring, long fromSequence, long toSequence);
+    }
+
+    // Shared ring sizing: 1 MB / 4096 reads covers several seconds at full USB rate
+    private static final int BATCH_RING_BYTES = 1024 * 1024;
+    private static final int BATCH_RING_SLOTS = 4096;
+
+    private final class BatchSubscription implements Runnable {
+        final BatchListener listener;
+        final Handler handler;
+        final int maxPackets;
+        final long maxDelayMs;
+        long nextSequence;
+        int pending;
+        boolean posted;
+        boolean immediate;
+        long deliveries;
+
+        BatchSubscription(BatchListener listener, Handler handler, int maxPackets, long maxDelayMs) {
+            this.listener = listener;
+            this.handler = handler;
+            this.maxPackets = Math.max(1, maxPackets);
+            this.maxDelayMs = Math.max(0, maxDelayMs);
+            this.nextSequence = batchRing.getHeadSequence();
+        }
+
+        synchronized void onAppended() {
+            pending++;
+            if (pending >= maxPackets) {
+                if (!immediate) {
+                    // batch full: replace the pending timed flush with an immediate one
+                    immediate = true;
+                    posted = true;
+                    handler.removeCallbacks(this);
+                    handler.post(this);
+                }
+            } else if (!posted) {
+                posted = true;
+                handler.postDelayed(this, maxDelayMs);
+            }
+        }
+
+        @Override
+        public void run() {
+            long from;
+            long to;
+            synchronized (this) {
+                from = nextSequence;
+                to = batchRing.getHeadSequence();
+                nextSequence = to;
+                pending = 0;
+                posted = false;
+                immediate = false;
+            }
+            if (to > from && batchListeners.contains(this)) {
+                deliveries++;
+                listener.onSerialBatch(batchRing, from, to);
+            }
+        }
+    }
+
     private enum QueueType {
         CONNECT, CONNECT_ERROR, READ, IO_ERROR
     }
@@ -77,6 +156,10 @@ public class USBSerialService extends Service implements SerialListener {
     private final ArrayDeque<QueueItem> queue1 = new ArrayDeque<>();
     private final ArrayDeque<QueueItem> queue2 = new ArrayDeque<>();
     private final QueueItem lastRead = new QueueItem(QueueType.READ);
+    private final PacketRing batchRing = new PacketRing(BATCH_RING_BYTES, BATCH_RING_SLOTS);
+    private final CopyOnWriteArrayList<BatchSubscription> batchListeners = new CopyOnWriteArrayList<>();
+    private HandlerThread batchThread;
+    private Handler batchHandler;
 
     private SerialSocket socket;
     private SerialListener listener;
@@ -86,6 +169,14 @@ public class USBSerialService extends Service implements SerialListener {
     public void onDestroy() {
         cancelNotification();
         disconnect();
+        batchListeners.clear();
+        synchronized (batchRing) {
+            if (batchThread != null) {
+                batchThread.quitSafely();
+                batchThread = null;
+                batchHandler = null;
+            }
+        }
         super.onDestroy();
     }
 
@@ -148,6 +239,62 @@ public class USBSerialService extends Service implements SerialListener {
         initNotification();
     }
 
+    /**
+     * Subscribe to reads in batches. Delivery happens once {@code maxPackets} reads are pending or
+     * {@code maxDelayMs} after the first pending read, whichever comes first.
+     *
+     * @param listener   subscriber
+     * @param handler    handler to deliver on; null uses a shared background thread so the main
+     *                   looper is not woken for every batch
+     * @param maxPackets reads per batch
+     * @param maxDelayMs longest a read waits before delivery
+     */
+    public void addBatchListener(BatchListener listener, @Nullable Handler handler, int maxPackets,
+            long maxDelayMs) {
+        removeBatchListener(listener);
+        batchListeners.add(new BatchSubscription(listener, handler != null ? handler : getBatchHandler(),
+                maxPackets, maxDelayMs));
+    }
+
+    public void removeBatchListener(BatchListener listener) {
+        for (BatchSubscription subscription : batchListeners) {
+            if (subscription.listener == listener) {
+                batchListeners.remove(subscription);
+                subscription.handler.removeCallbacks(subscription);
+            }
+        }
+    }
+
+    public String getBatchStatus() {
+        StringBuilder sb = new StringBuilder(batchRing.getStatus());
+        for (BatchSubscription subscription : batchListeners) {
+            sb.append(" [every ").append(subscription.maxPackets).append('/').append(subscription.maxDelayMs)
+                    .append("ms: ").append(subscription.deliveries).append(" deliveries]");
+        }
+        return sb.toString();
+    }
+
+    private Handler getBatchHandler() {
+        synchronized (batchRing) {
+            if (batchHandler == null) {
+                batchThread = new HandlerThread("USBSerialBatch");
+                batchThread.start();
+                batchHandler = new Handler(batchThread.getLooper());
+            }
+            return batchHandler;
+        }
+    }
+
+    private void publishBatch(byte[] data) {
+        if (batchListeners.isEmpty() || data == null || data.length == 0) {
+            return;
+        }
+        batchRing.append(data);
+        for (BatchSubscription subscription : batchListeners) {
+            subscription.onAppended();
+        }
+    }
+
     // ===== Notification handling =====
 
     private void initNotification() {
@@ -269,6 +416,9 @@ public class USBSerialService extends Service implements SerialListener {
         if (!connected || datas == null || datas.isEmpty()) {
             return;
         }
+        for (byte[] data : datas) {
+            publishBatch(data);
+        }
 
         synchronized (this) {
             if (listener != null) {
@@ -292,6 +442,7 @@ public class USBSerialService extends Service implements SerialListener {
         if (!connected) {
             return;
         }
+        publishBatch(data);
         synchronized (this) {
             if (listener != null) {
                 boolean first;
@@ -0,0 +1,397 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 波特率自动检测（按有效帧比例打分）
+ * 波特率配错时收到的是乱码，帧解析器找不到合法的 68 00 帧。检测时依次切换候选波特率，
+ * 每切换一次发送一个探测包（ID 查询 68 00 01 02，电台会应答），把随后收到的字节送入增量帧扫描器：
+ * 覆盖在已知类型帧（{@link PacketType}）内的字节占收到字节的比例即为该波特率的得分。
+ *
+ * 驻留时间随波特率和测得的往返时间伸缩：不短于给定的最小驻留，也不短于两个往返加一个最长帧在该波特率下的传输时间；
+ * 驻留期间还没有收到有效帧时按 PROBES_PER_CANDIDATE 均分驻留时间重发探测，单个探测或应答丢失不会错过正确的波特率。
+ * 往返时间取自之前锁定时"最后一次探测到达标"的耗时（指数平滑），未测得前用 DEFAULT_RTT_MS。
+ *
+ * 打分随字节到达增量进行：某个候选已经收到足够多的有效帧且得分达标时立即锁定，不必等驻留时间结束；
+ * 全部候选都试过仍无法锁定时选得分最高的一个，都没有有效帧则判定失败（调用方应恢复原波特率）。
+ * 首个候选通常是当前波特率，配置正确时一个探测往返即可确认。
+ *
+ * 线程模型（与 {@link LinkWatchdog} 相同）：
+ * - onRx() 在IO线程上调用
+ * - 切换、超时和回调都通过 {@link ConnectionStateMachine} 在连接事件循环上执行
+ *
+ * @author SAE Maps
+ */
+public final class BaudRateDetector {
+
+    private static final String TAG = "BaudRateDetector";
+
+    // 常见电台波特率，按出现频率排序
+    public static final int[] DEFAULT_CANDIDATES = {115200, 9600, 57600, 38400, 19200, 230400, 460800, 921600};
+    // 每个候选的最小驻留时间（实际驻留按波特率和往返时间伸长）
+    public static final long DEFAULT_DWELL_MS = 100;
+    // 未测得往返时间前的估计值
+    public static final long DEFAULT_RTT_MS = 250;
+    // 单个候选驻留时间上限
+    private static final long MAX_DWELL_MS = 3000;
+    // 每个候选最多发送的探测次数（驻留内均分）
+    private static final int PROBES_PER_CANDIDATE = 3;
+    // 切换后丢弃的时间：旧波特率下还在途的字节不计分
+    private static final long SETTLE_NANOS = 5_000_000L;
+    // 锁定条件
+    private static final int LOCK_FRAMES = 1;
+    private static final double LOCK_SCORE = 0.9;
+
+    /**
+     * 检测回调（在连接事件循环上执行）
+     */
+    public interface Callback {
+        /**
+         * 切换端口波特率
+         *
+         * @return false 表示切换失败，跳过该候选
+         */
+        boolean onSetBaudRate(int baudRate);
+
+        /**
+         * 发送探测包（如 ID 查询），电台静默时促使其应答
+         */
+        void onProbe();
+
+        /**
+         * 检测结束；端口停留在 {@link Result#getBaudRate()}（失败时停留在最后一个候选，调用方负责恢复）
+         */
+        void onFinished(Result result);
+    }
+
+    /**
+     * 一个候选波特率的得分
+     */
+    public static final class Score {
+        public final int baudRate;
+        public final long bytes;
+        public final long validBytes;
+        public final int validFrames;
+
+        Score(int baudRate, long bytes, long validBytes, int validFrames) {
+            this.baudRate = baudRate;
+            this.bytes = bytes;
+            this.validBytes = validBytes;
+            this.validFrames = validFrames;
+        }
+
+        /**
+         * 有效帧字节占比 [0, 1]
+         */
+        public double getRatio() {
+            return bytes == 0 ? 0 : (double) validBytes / bytes;
+        }
+
+        boolean betterThan(Score other) {
+            if (other == null) {
+                return validFrames > 0;
+            }
+            if (validFrames == 0) {
+                return false;
+            }
+            if (getRatio() != other.getRatio()) {
+                return getRatio() > other.getRatio();
+            }
+            return validFrames > other.validFrames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d: %d frame(s), %d/%d bytes valid (%.0f%%)", baudRate, validFrames,
+                    validBytes, bytes, getRatio() * 100);
+        }
+    }
+
+    /**
+     * 检测结果
+     */
+    public static final class Result {
+        private final Score best;
+        private final List<Score> scores;
+        private final long elapsedMs;
+
+        Result(Score best, List<Score> scores, long elapsedMs) {
+            this.best = best;
+            this.scores = Collections.unmodifiableList(new ArrayList<>(scores));
+            this.elapsedMs = elapsedMs;
+        }
+
+        public boolean isDetected() {
+            return best != null;
+        }
+
+        /**
+         * @return 检测到的波特率，失败时返回 -1
+         */
+        public int getBaudRate() {
+            return best == null ? -1 : best.baudRate;
+        }
+
+        public List<Score> getScores() {
+            return scores;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return (best == null ? "no valid frames" : "detected " + best) + " in " + elapsedMs + "ms, tried "
+                    + scores;
+        }
+    }
+
+    /**
+     * 增量帧扫描器：只保留一帧以内的未完成字节
+     */
+    static final class FrameScorer {
+        private final byte[] pending = new byte[FrameCodec.MAX_FRAME_LENGTH];
+        private int pendingLength;
+        long bytes;
+        long validBytes;
+        int validFrames;
+
+        void feed(byte[] data, int offset, int length) {
+            bytes += length;
+            for (int i = 0; i < length; i++) {
+                pending[pendingLength++] = data[offset + i];
+                scan(false);
+            }
+        }
+
+        /**
+         * 从 pending 头部消费能确定的字节：完整的有效帧或不可能是帧头的垃圾
+         */
+        private void scan(boolean flush) {
+            int pos = 0;
+            while (pos < pendingLength) {
+                int available = pendingLength - pos;
+                if (pending[pos] != FrameCodec.HEADER_0) {
+                    pos++;
+                    continue;
+                }
+                if (available < 2) {
+                    break;
+                }
+                if (pending[pos + 1] != FrameCodec.HEADER_1) {
+                    pos++;
+                    continue;
+                }
+                if (available < FrameCodec.MIN_FRAME_LENGTH) {
+                    break;
+                }
+                int lengthField = pending[pos + FrameCodec.OFFSET_LENGTH] & 0xFF;
+                int command = pending[pos + FrameCodec.OFFSET_COMMAND] & 0xFF;
+                if (PacketType.of(command, lengthField) == PacketType.UNKNOWN) {
+                    pos++;
+                    continue;
+                }
+                int frameLength = FrameCodec.frameLength(lengthField);
+                if (available < frameLength) {
+                    break;
+                }
+                validBytes += frameLength;
+                validFrames++;
+                pos += frameLength;
+            }
+            if (flush) {
+                pos = pendingLength;
+            }
+            if (pos > 0) {
+                System.arraycopy(pending, pos, pending, 0, pendingLength - pos);
+                pendingLength -= pos;
+            }
+        }
+    }
+
+    private final ConnectionStateMachine loop;
+    private final Callback callback;
+
+    // 以下字段受 this 保护（IO线程与事件循环都会访问）
+    private int[] candidates;
+    private long dwellMs;
+    private int index = -1;
+    // 端口当前所在的波特率（最后一次切换成功的候选）
+    private int currentBaud = -1;
+    private FrameScorer scorer;
+    private long attemptStartNanos;
+    private long startNanos;
+    private final List<Score> scores = new ArrayList<>();
+    private Score best;
+    private ScheduledFuture<?> dwellFuture;
+    private ScheduledFuture<?> probeFuture;
+    private long probeNanos;
+    // 平滑后的探测往返时间（毫秒），跨多次检测保留
+    private long rttMs = DEFAULT_RTT_MS;
+    private boolean lockPosted;
+    private int generation;
+
+    public BaudRateDetector(ConnectionStateMachine loop, Callback callback) {
+        this.loop = loop;
+        this.callback = callback;
+    }
+
+    /**
+     * 开始检测（必须在事件循环上调用）
+     *
+     * @param candidates 候选波特率，按尝试顺序
+     * @param dwellMs    每个候选的最小驻留时间（按波特率和往返时间伸长，见 {@link #dwellFor}）
+     */
+    public synchronized void start(int[] candidates, long dwellMs) {
+        if (candidates == null || candidates.length == 0 || dwellMs <= 0) {
+            throw new IllegalArgumentException("Invalid baud detection parameters");
+        }
+        cancel();
+        this.candidates = candidates.clone();
+        this.dwellMs = dwellMs;
+        scores.clear();
+        best = null;
+        index = -1;
+        currentBaud = -1;
+        startNanos = System.nanoTime();
+        CoreLog.d(TAG, "🔎 Detecting baud rate among " + candidates.length + " candidate(s)");
+        next(++generation);
+    }
+
+    public synchronized boolean isRunning() {
+        return scorer != null;
+    }
+
+    /**
+     * 某个候选的实际驻留时间：不短于两个往返加一个最长帧的传输时间（每字节 10 位）
+     */
+    synchronized long dwellFor(int baudRate) {
+        long frameMs = (FrameCodec.MAX_FRAME_LENGTH * 10L * 1000L + baudRate - 1) / baudRate;
+        return Math.min(MAX_DWELL_MS, Math.max(dwellMs, 2 * rttMs + frameMs));
+    }
+
+    public synchronized long getRttMs() {
+        return rttMs;
+    }
+
+    /**
+     * 取消检测（必须在事件循环上调用），不回调 onFinished
+     */
+    public synchronized void cancel() {
+        generation++;
+        cancelTimers();
+        scorer = null;
+    }
+
+    private void cancelTimers() {
+        if (dwellFuture != null) {
+            dwellFuture.cancel(false);
+            dwellFuture = null;
+        }
+        if (probeFuture != null) {
+            probeFuture.cancel(false);
+            probeFuture = null;
+        }
+    }
+
+    /**
+     * 喂入收到的数据（IO线程）
+     */
+    public synchronized void onRx(byte[] data, int offset, int length) {
+        if (scorer == null || System.nanoTime() - attemptStartNanos < SETTLE_NANOS) {
+            return;
+        }
+        scorer.feed(data, offset, length);
+        if (!lockPosted && scorer.validFrames >= LOCK_FRAMES
+                && (double) scorer.validBytes / scorer.bytes >= LOCK_SCORE) {
+            // 达标立即锁定，不等驻留时间结束
+            lockPosted = true;
+            long sample = (System.nanoTime() - probeNanos) / 1_000_000L;
+            rttMs = Math.max(1, (rttMs * 3 + sample) / 4);
+            final int gen = generation;
+            final FrameScorer attempt = scorer;
+            loop.post(() -> finishAttempt(gen, attempt, true));
+        }
+    }
+
+    private synchronized void next(int gen) {
+        if (gen != generation) {
+            return;
+        }
+        while (++index < candidates.length) {
+            int baud = candidates[index];
+            scorer = null;
+            if (!callback.onSetBaudRate(baud)) {
+                CoreLog.w(TAG, "⚠️ Could not switch to " + baud + ", skipping");
+                continue;
+            }
+            currentBaud = baud;
+            attemptStartNanos = System.nanoTime();
+            lockPosted = false;
+            final FrameScorer attempt = new FrameScorer();
+            scorer = attempt;
+            long dwell = dwellFor(baud);
+            probe(gen, attempt, dwell / PROBES_PER_CANDIDATE, PROBES_PER_CANDIDATE - 1);
+            dwellFuture = loop.postDelayed(() -> finishAttempt(gen, attempt, false), dwell);
+            return;
+        }
+        finish();
+    }
+
+    /**
+     * 发送一次探测；该候选还没有有效帧且还有剩余次数时，间隔 intervalMs 后再探测
+     */
+    private synchronized void probe(int gen, FrameScorer attempt, long intervalMs, int remaining) {
+        probeFuture = null;
+        if (gen != generation || scorer != attempt || attempt.validFrames > 0) {
+            return;
+        }
+        probeNanos = System.nanoTime();
+        callback.onProbe();
+        if (remaining > 0) {
+            probeFuture = loop.postDelayed(() -> probe(gen, attempt, intervalMs, remaining - 1), intervalMs);
+        }
+    }
+
+    /**
+     * @param attempt 发起结束的那次尝试的扫描器；锁定和驻留超时可能同时排队，
+     *                先执行的一个已经切到下一个候选时，另一个必须作废
+     */
+    private synchronized void finishAttempt(int gen, FrameScorer attempt, boolean locked) {
+        if (gen != generation || scorer == null || scorer != attempt) {
+            return;
+        }
+        cancelTimers();
+        scorer.scan(true);
+        Score score = new Score(candidates[index], scorer.bytes, scorer.validBytes, scorer.validFrames);
+        scores.add(score);
+        CoreLog.d(TAG, "🔎 " + score);
+        if (score.betterThan(best)) {
+            best = score;
+        }
+        if (locked && score.validFrames >= LOCK_FRAMES) {
+            best = score;
+            finish();
+        } else {
+            next(gen);
+        }
+    }
+
+    private void finish() {
+        cancelTimers();
+        scorer = null;
+        generation++;
+        if (best != null && currentBaud != best.baudRate) {
+            // 停留在最佳候选上
+            callback.onSetBaudRate(best.baudRate);
+        }
+        Result result = new Result(best, scores, (System.nanoTime() - startNanos) / 1_000_000L);
+        CoreLog.i(TAG, "🔎 Baud rate detection " + result);
+        callback.onFinished(result);
+    }
+}
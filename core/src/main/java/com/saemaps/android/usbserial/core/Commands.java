@@ -0,0 +1,22 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 下行命令构造
+ *
+ * @author SAE Maps
+ */
+public final class Commands {
+
+    private Commands() {
+    }
+
+    /**
+     * 查询手台ID: 0x68 0x00 0x01 0x02
+     * 设备以 {@link PacketType#DEVICE_ID} 响应
+     *
+     * @return 新分配的命令帧（调用方可自由修改）
+     */
+    public static byte[] queryDeviceId() {
+        return FrameCodec.encode(FrameCodec.CMD_DEVICE_ID, null);
+    }
+}
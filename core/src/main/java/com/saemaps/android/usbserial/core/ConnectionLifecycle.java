@@ -0,0 +1,164 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 连接生命周期
+ * USBSerialManager 的连接、恢复、断开决策：在 {@link ConnectionStateMachine} 上按固定顺序迁移状态，
+ * 打开端口、重启读任务、释放资源等具体操作由调用方完成或通过 {@link Callback} 回调。
+ *
+ * 流程：
+ * - 连接：{@link #beginConnect}（不在 IDLE 时先断开旧连接）→ 打开成功 {@link #onOpened}，失败 {@link #teardown}
+ * - 运行错误：旧连接的迟到错误忽略；CH340 状态错误且已连接时进入 RECOVERING，只重启读任务，
+ *   重启失败或其它错误直接断开
+ * - 断开：DISCONNECTING → 释放资源 → IDLE，之前已连接（或恢复中）则回调 onDisconnected
+ *
+ * 线程模型：所有方法都必须在状态机的事件循环上调用，回调也在事件循环上执行。
+ *
+ * @author SAE Maps
+ */
+public final class ConnectionLifecycle {
+
+    private static final String TAG = "ConnectionLifecycle";
+
+    /**
+     * 端口操作回调（在连接事件循环上执行）
+     */
+    public interface Callback {
+        /**
+         * @return 是否还持有连接资源（IDLE 状态下有残留资源时 teardown 仍要清理）
+         */
+        boolean hasResources();
+
+        /**
+         * 重启读任务，端口保持打开
+         *
+         * @return false 表示无法重启
+         */
+        boolean restartReader() throws Exception;
+
+        /**
+         * 释放连接资源（在 DISCONNECTING 与 IDLE 之间调用）
+         *
+         * @param reason 断开原因
+         */
+        void releaseResources(String reason);
+
+        /**
+         * 之前处于 CONNECTED / RECOVERING 的连接已断开（已回到 IDLE）
+         *
+         * @param reason 断开原因
+         */
+        void onDisconnected(String reason);
+    }
+
+    private final ConnectionStateMachine machine;
+    private final Callback callback;
+    // 当前连接的标识（共享端口客户端），错误回调据此识别旧连接
+    private Object current;
+
+    public ConnectionLifecycle(ConnectionStateMachine machine, Callback callback) {
+        this.machine = machine;
+        this.callback = callback;
+    }
+
+    /**
+     * 开始连接：不在 IDLE 时先断开旧连接，再进入 CONNECTING
+     *
+     * @param reason 连接描述
+     * @return false 表示不能开始连接（状态不允许）
+     */
+    public boolean beginConnect(String reason) {
+        if (machine.getState() != ConnectionStateMachine.State.IDLE) {
+            teardown("reopen");
+        }
+        return machine.transition(ConnectionStateMachine.State.CONNECTING, reason);
+    }
+
+    /**
+     * 端口打开成功
+     *
+     * @param client 本次连接的标识，之后的运行错误据此识别
+     * @param reason 连接描述
+     */
+    public boolean onOpened(Object client, String reason) {
+        current = client;
+        return machine.transition(ConnectionStateMachine.State.CONNECTED, reason);
+    }
+
+    /**
+     * @return source 是否为当前连接
+     */
+    public boolean isCurrent(Object source) {
+        return source != null && source == current;
+    }
+
+    /**
+     * 处理IO线程报告的运行错误
+     *
+     * @param source      报告错误的连接标识
+     * @param statusError 是否为可原地恢复的 CH340 状态错误
+     * @param message     错误描述
+     */
+    public void onRunError(Object source, boolean statusError, String message) {
+        if (!isCurrent(source)) {
+            // 旧连接（已被重启或断开替换）的迟到错误
+            CoreLog.d(TAG, "Ignoring run error from stale connection");
+            return;
+        }
+        if (statusError && machine.getState() == ConnectionStateMachine.State.CONNECTED) {
+            CoreLog.w(TAG, "⚠️ CH340 USB status error detected - port still open, attempting restart");
+            recover("CH340 status error");
+            return;
+        }
+        CoreLog.i(TAG, "🔌 Connection lost: " + message);
+        teardown(message);
+    }
+
+    /**
+     * 原地恢复：进入 RECOVERING 只重启读任务，成功回到 CONNECTED，失败断开
+     */
+    public void recover(String reason) {
+        if (!machine.transition(ConnectionStateMachine.State.RECOVERING, reason)) {
+            return;
+        }
+        boolean restarted;
+        try {
+            restarted = callback.restartReader();
+        } catch (Exception e) {
+            CoreLog.w(TAG, "❌ Error restarting reader", e);
+            restarted = false;
+        }
+        if (restarted) {
+            CoreLog.i(TAG, "✅ Reader restarted");
+            machine.transition(ConnectionStateMachine.State.CONNECTED, "IO restarted");
+        } else {
+            teardown("restart failed");
+        }
+    }
+
+    /**
+     * 释放全部连接资源并回到 IDLE
+     *
+     * @param reason 断开原因
+     */
+    public void teardown(String reason) {
+        ConnectionStateMachine.State previous = machine.getState();
+        if (previous == ConnectionStateMachine.State.IDLE && !callback.hasResources()) {
+            return;
+        }
+        if (previous != ConnectionStateMachine.State.IDLE) {
+            machine.transition(ConnectionStateMachine.State.DISCONNECTING, reason);
+        }
+        try {
+            current = null;
+            callback.releaseResources(reason);
+        } finally {
+            if (previous != ConnectionStateMachine.State.IDLE) {
+                machine.transition(ConnectionStateMachine.State.IDLE, reason);
+            }
+        }
+        if (previous == ConnectionStateMachine.State.CONNECTED
+                || previous == ConnectionStateMachine.State.RECOVERING) {
+            callback.onDisconnected(reason);
+        }
+    }
+}
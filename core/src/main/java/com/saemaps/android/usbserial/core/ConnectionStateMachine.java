@@ -0,0 +1,224 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 串口连接状态机
+ * 所有连接生命周期操作（打开、断开、重启IO、错误处理）都投递到同一个事件循环线程上串行执行，
+ * 取代原先分散在各处的 sendLock 同步块和 volatile 标志位。
+ *
+ * 状态迁移：
+ *
+ * <pre>
+ * IDLE ──► CONNECTING ──► CONNECTED ──► RECOVERING
+ *   ▲          │              │              │
+ *   │          ▼              ▼              ▼
+ *   └────── DISCONNECTING ◄───┴──────────────┘
+ * </pre>
+ *
+ * 状态只能在事件循环线程上修改，读取可以在任意线程进行。
+ *
+ * @author SAE Maps
+ */
+public class ConnectionStateMachine {
+
+    private static final String TAG = "ConnectionStateMachine";
+
+    public enum State {
+        IDLE, // 未连接
+        CONNECTING, // 正在打开端口
+        CONNECTED, // 已连接，IO正常
+        RECOVERING, // 正在重启IO管理器（如CH340状态错误）
+        DISCONNECTING // 正在释放资源
+    }
+
+    /**
+     * 状态变化监听器（在事件循环线程上回调）
+     */
+    public interface StateListener {
+        void onStateChanged(State from, State to, String reason);
+    }
+
+    private static final Map<State, EnumSet<State>> TRANSITIONS = new EnumMap<>(State.class);
+
+    static {
+        TRANSITIONS.put(State.IDLE, EnumSet.of(State.CONNECTING));
+        TRANSITIONS.put(State.CONNECTING, EnumSet.of(State.CONNECTED, State.DISCONNECTING));
+        TRANSITIONS.put(State.CONNECTED, EnumSet.of(State.RECOVERING, State.DISCONNECTING));
+        TRANSITIONS.put(State.RECOVERING, EnumSet.of(State.CONNECTED, State.DISCONNECTING));
+        TRANSITIONS.put(State.DISCONNECTING, EnumSet.of(State.IDLE));
+    }
+
+    private final ScheduledExecutorService loop;
+    private final CopyOnWriteArrayList<StateListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Thread loopThread;
+    // 注入的执行器不经过本类的线程工厂，事件循环线程在执行事件时记录
+    private final boolean captureLoopThread;
+    private volatile State state = State.IDLE;
+
+    /**
+     * 创建带独立事件循环线程的状态机
+     *
+     * @param threadName 事件循环线程名
+     */
+    public ConnectionStateMachine(String threadName) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            loopThread = t;
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        // 预先启动事件循环线程，保证 isOnLoop()/transition() 的线程检查从一开始就有效
+        executor.prestartAllCoreThreads();
+        this.loop = executor;
+        this.captureLoopThread = false;
+    }
+
+    /**
+     * 使用外部提供的单线程执行器（用于在测试中注入可控的事件循环）
+     * 事件循环线程在第一个事件执行时确定，此前 isOnLoop() 返回 false、transition() 不做线程检查。
+     *
+     * @param loop 单线程调度执行器
+     */
+    ConnectionStateMachine(ScheduledExecutorService loop) {
+        this.loop = loop;
+        this.captureLoopThread = true;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isIn(State s1, State... others) {
+        State current = state;
+        if (current == s1) {
+            return true;
+        }
+        for (State s : others) {
+            if (current == s) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void addStateListener(StateListener listener) {
+        if (listener != null) {
+            listeners.addIfAbsent(listener);
+        }
+    }
+
+    public void removeStateListener(StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 判断当前线程是否为事件循环线程
+     */
+    public boolean isOnLoop() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * 执行状态迁移（必须在事件循环线程上调用）
+     *
+     * @param to     目标状态
+     * @param reason 迁移原因（用于日志和监听器）
+     * @return true 如果迁移合法并已执行
+     */
+    public boolean transition(State to, String reason) {
+        if (loopThread != null && !isOnLoop()) {
+            throw new IllegalStateException("State transitions must run on the connection loop");
+        }
+        State from = state;
+        if (from == to) {
+            return true;
+        }
+        EnumSet<State> allowed = TRANSITIONS.get(from);
+        if (allowed == null || !allowed.contains(to)) {
+            CoreLog.w(TAG, "⛔ Illegal transition " + from + " → " + to + " (" + reason + ")");
+            return false;
+        }
+        state = to;
+        CoreLog.d(TAG, "🔀 " + from + " → " + to + " (" + reason + ")");
+        for (StateListener listener : listeners) {
+            try {
+                listener.onStateChanged(from, to, reason);
+            } catch (Exception e) {
+                CoreLog.e(TAG, "Error in state listener", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 投递事件到事件循环
+     *
+     * @param event 事件处理逻辑
+     */
+    public void post(Runnable event) {
+        try {
+            loop.execute(wrap(event));
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            CoreLog.w(TAG, "Connection loop already shut down, event dropped");
+        }
+    }
+
+    /**
+     * 延迟投递事件到事件循环
+     *
+     * @param event   事件处理逻辑
+     * @param delayMs 延迟（毫秒）
+     * @return 可用于取消的 Future，循环已关闭时返回 null
+     */
+    public ScheduledFuture<?> postDelayed(Runnable event, long delayMs) {
+        try {
+            return loop.schedule(wrap(event), delayMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            CoreLog.w(TAG, "Connection loop already shut down, delayed event dropped");
+            return null;
+        }
+    }
+
+    /**
+     * 如果已在事件循环线程上则立即执行，否则投递
+     *
+     * @param event 事件处理逻辑
+     */
+    public void runOnLoop(Runnable event) {
+        if (isOnLoop()) {
+            wrap(event).run();
+        } else {
+            post(event);
+        }
+    }
+
+    /**
+     * 关闭事件循环（已投递的事件会执行完毕）
+     */
+    public void shutdown() {
+        loop.shutdown();
+    }
+
+    private Runnable wrap(Runnable event) {
+        return () -> {
+            if (captureLoopThread) {
+                loopThread = Thread.currentThread();
+            }
+            try {
+                event.run();
+            } catch (Throwable t) {
+                // 事件异常不能杀死事件循环线程
+                CoreLog.e(TAG, "❌ Unhandled error in connection event", t);
+            }
+        };
+    }
+}
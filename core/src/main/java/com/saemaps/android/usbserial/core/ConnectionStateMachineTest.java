@@ -0,0 +1,420 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接状态机测试类
+ * 用注入的单线程执行器驱动状态机，通过 USBSerialManager 使用的同一个 {@link ConnectionLifecycle}
+ * 配合模拟串口走完连接生命周期：打开成功/失败、CH340 状态错误后重启读任务、致命错误断开、
+ * 旧连接的迟到错误、延迟重连的取消。
+ *
+ * @author SAE Maps
+ */
+public class ConnectionStateMachineTest {
+    private static final String TAG = "ConnectionStateMachineTest";
+
+    /**
+     * 模拟串口：可设定打开失败、重启读任务失败，并记录打开/关闭/重启次数
+     */
+    static final class FakePort {
+        boolean failOpen;
+        boolean failRestart;
+        boolean open;
+        int opens;
+        int closes;
+        int restarts;
+
+        void open() throws java.io.IOException {
+            opens++;
+            if (failOpen) {
+                throw new java.io.IOException("Failed to open USB device.");
+            }
+            open = true;
+        }
+
+        boolean restartReader() {
+            restarts++;
+            return open && !failRestart;
+        }
+
+        void close() {
+            if (open) {
+                closes++;
+            }
+            open = false;
+        }
+    }
+
+    /**
+     * 最小连接：和 USBSerialManager 一样把状态迁移交给 ConnectionLifecycle，只提供端口操作，
+     * 所有生命周期操作都在事件循环上执行
+     */
+    static final class FakeConnection implements ConnectionLifecycle.Callback {
+        final ConnectionStateMachine machine;
+        final ConnectionLifecycle lifecycle;
+        FakePort port;
+        // 当前连接的标识，模拟共享端口客户端
+        Object client;
+        int disconnects;
+
+        FakeConnection(ConnectionStateMachine machine) {
+            this.machine = machine;
+            lifecycle = new ConnectionLifecycle(machine, this);
+        }
+
+        void connect(FakePort newPort) {
+            machine.post(() -> {
+                if (!lifecycle.beginConnect("connect")) {
+                    return;
+                }
+                port = newPort;
+                try {
+                    newPort.open();
+                    client = new Object();
+                    lifecycle.onOpened(client, "opened");
+                } catch (java.io.IOException e) {
+                    lifecycle.teardown("open failed: " + e.getMessage());
+                }
+            });
+        }
+
+        /**
+         * 读线程报告错误：只投递事件，不在IO线程上清理
+         */
+        void onPortError(Object source, String message) {
+            machine.post(() -> lifecycle.onRunError(source, message.contains("usb status error"), message));
+        }
+
+        void disconnect() {
+            machine.post(() -> lifecycle.teardown("user disconnect"));
+        }
+
+        @Override
+        public boolean hasResources() {
+            return port != null;
+        }
+
+        @Override
+        public boolean restartReader() {
+            return port != null && port.restartReader();
+        }
+
+        @Override
+        public void releaseResources(String reason) {
+            if (port != null) {
+                port.close();
+            }
+            port = null;
+            client = null;
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+            disconnects++;
+        }
+    }
+
+    /**
+     * 记录状态变化序列的监听器
+     */
+    static final class Recorder implements ConnectionStateMachine.StateListener {
+        final List<String> transitions = new ArrayList<>();
+
+        @Override
+        public synchronized void onStateChanged(ConnectionStateMachine.State from, ConnectionStateMachine.State to,
+                                                String reason) {
+            transitions.add(from + ">" + to);
+        }
+
+        synchronized String take() {
+            String result = String.join(",", transitions);
+            transitions.clear();
+            return result;
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor executor;
+    private static ConnectionStateMachine machine;
+    private static Recorder recorder;
+
+    private static void setUp() {
+        executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "TestConnectionLoop");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        machine = new ConnectionStateMachine(executor);
+        recorder = new Recorder();
+        machine.addStateListener(recorder);
+    }
+
+    private static void tearDown() {
+        machine.shutdown();
+    }
+
+    /**
+     * 等事件循环处理完已投递的事件
+     */
+    private static void drain() {
+        CountDownLatch done = new CountDownLatch(1);
+        machine.post(done::countDown);
+        try {
+            if (!done.await(2, TimeUnit.SECONDS)) {
+                CoreLog.e(TAG, "❌ Connection loop did not drain");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (condition) {
+            CoreLog.d(TAG, "✅ " + what);
+        } else {
+            CoreLog.e(TAG, "❌ " + what);
+        }
+    }
+
+    private static void expect(String expected, String what) {
+        String actual = recorder.take();
+        check(expected.equals(actual), what + " [" + actual + "]");
+    }
+
+    /**
+     * 打开成功、用户断开
+     */
+    public static void testConnectAndDisconnect() {
+        setUp();
+        FakeConnection connection = new FakeConnection(machine);
+        FakePort port = new FakePort();
+        connection.connect(port);
+        drain();
+        expect("IDLE>CONNECTING,CONNECTING>CONNECTED", "Connect reaches CONNECTED");
+        check(port.open && port.opens == 1, "Port opened once");
+
+        connection.disconnect();
+        drain();
+        expect("CONNECTED>DISCONNECTING,DISCONNECTING>IDLE", "Disconnect returns to IDLE");
+        check(!port.open && port.closes == 1, "Port closed once");
+        check(connection.disconnects == 1, "Disconnect reported once");
+
+        connection.disconnect();
+        drain();
+        expect("", "Disconnect while IDLE is a no-op");
+        check(connection.disconnects == 1, "No second disconnect report");
+        tearDown();
+    }
+
+    /**
+     * 打开失败时经 DISCONNECTING 回到 IDLE，之后可以再次连接
+     */
+    public static void testOpenFailure() {
+        setUp();
+        FakeConnection connection = new FakeConnection(machine);
+        FakePort broken = new FakePort();
+        broken.failOpen = true;
+        connection.connect(broken);
+        drain();
+        expect("IDLE>CONNECTING,CONNECTING>DISCONNECTING,DISCONNECTING>IDLE", "Open failure returns to IDLE");
+        check(connection.disconnects == 0, "Open failure is not reported as a disconnect");
+
+        connection.connect(new FakePort());
+        drain();
+        expect("IDLE>CONNECTING,CONNECTING>CONNECTED", "Reconnect after open failure");
+        tearDown();
+    }
+
+    /**
+     * 已连接时再次连接：先断开旧连接再打开新端口
+     */
+    public static void testReopen() {
+        setUp();
+        FakeConnection connection = new FakeConnection(machine);
+        FakePort first = new FakePort();
+        connection.connect(first);
+        drain();
+        recorder.take();
+
+        FakePort second = new FakePort();
+        connection.connect(second);
+        drain();
+        expect("CONNECTED>DISCONNECTING,DISCONNECTING>IDLE,IDLE>CONNECTING,CONNECTING>CONNECTED",
+                "Reopen tears down the old connection first");
+        check(!first.open && second.open, "Old port closed, new port open");
+        check(connection.disconnects == 1, "Old connection reported as disconnected");
+        tearDown();
+    }
+
+    /**
+     * CH340 状态错误只重启读任务；重启失败才断开
+     */
+    public static void testRecovery() {
+        setUp();
+        FakeConnection connection = new FakeConnection(machine);
+        FakePort port = new FakePort();
+        connection.connect(port);
+        drain();
+        recorder.take();
+
+        connection.onPortError(connection.client, "usb status error");
+        drain();
+        expect("CONNECTED>RECOVERING,RECOVERING>CONNECTED", "Status error recovers in place");
+        check(port.restarts == 1 && port.open, "Reader restarted, port kept open");
+
+        port.failRestart = true;
+        connection.onPortError(connection.client, "usb status error");
+        drain();
+        expect("CONNECTED>RECOVERING,RECOVERING>DISCONNECTING,DISCONNECTING>IDLE", "Failed restart disconnects");
+        check(!port.open, "Port closed after failed restart");
+        tearDown();
+    }
+
+    /**
+     * 致命错误断开；旧连接的迟到错误不影响新连接
+     */
+    public static void testFatalAndStaleErrors() {
+        setUp();
+        FakeConnection connection = new FakeConnection(machine);
+        connection.connect(new FakePort());
+        drain();
+        Object oldClient = connection.client;
+        connection.onPortError(oldClient, "device detached");
+        drain();
+        expect("IDLE>CONNECTING,CONNECTING>CONNECTED,CONNECTED>DISCONNECTING,DISCONNECTING>IDLE",
+                "Fatal error disconnects");
+
+        FakePort port = new FakePort();
+        connection.connect(port);
+        drain();
+        recorder.take();
+        connection.onPortError(oldClient, "device detached");
+        drain();
+        check(machine.getState() == ConnectionStateMachine.State.CONNECTED && port.open,
+                "Stale error from the old connection is ignored");
+        expect("", "No transitions for stale error");
+        tearDown();
+    }
+
+    /**
+     * 非法迁移被拒绝，状态不变
+     */
+    public static void testIllegalTransitions() {
+        setUp();
+        final boolean[] results = new boolean[3];
+        machine.post(() -> {
+            results[0] = machine.transition(ConnectionStateMachine.State.CONNECTED, "skip connecting");
+            results[1] = machine.transition(ConnectionStateMachine.State.RECOVERING, "not connected");
+            results[2] = machine.transition(ConnectionStateMachine.State.IDLE, "same state");
+        });
+        drain();
+        check(!results[0] && !results[1], "IDLE cannot jump to CONNECTED or RECOVERING");
+        check(results[2], "Transition to the current state is a no-op");
+        check(machine.getState() == ConnectionStateMachine.State.IDLE, "State unchanged after illegal transitions");
+        expect("", "Listener not called for rejected transitions");
+        tearDown();
+    }
+
+    /**
+     * 注入的执行器：isOnLoop() 识别事件循环线程，循环外的迁移被拒绝，runOnLoop() 在循环上就地执行
+     */
+    public static void testLoopThreadChecks() {
+        setUp();
+        final boolean[] onLoop = new boolean[2];
+        machine.post(() -> onLoop[0] = machine.isOnLoop());
+        drain();
+        check(onLoop[0], "isOnLoop() is true inside an event");
+        check(!machine.isOnLoop(), "isOnLoop() is false on the test thread");
+
+        boolean rejected = false;
+        try {
+            machine.transition(ConnectionStateMachine.State.CONNECTING, "off loop");
+        } catch (IllegalStateException e) {
+            rejected = true;
+        }
+        check(rejected, "Transition off the loop thread throws");
+        check(machine.getState() == ConnectionStateMachine.State.IDLE, "Off-loop transition left state unchanged");
+
+        final List<String> order = new ArrayList<>();
+        machine.post(() -> {
+            machine.runOnLoop(() -> order.add("inline"));
+            order.add("after");
+        });
+        drain();
+        check("inline,after".equals(String.join(",", order)), "runOnLoop() runs inline on the loop");
+
+        machine.runOnLoop(() -> onLoop[1] = machine.isOnLoop());
+        drain();
+        check(onLoop[1], "runOnLoop() from another thread is posted to the loop");
+        tearDown();
+    }
+
+    /**
+     * 延迟重连可在触发前取消
+     */
+    public static void testDelayedEvents() {
+        setUp();
+        final int[] fired = new int[2];
+        ScheduledFuture<?> cancelled = machine.postDelayed(() -> fired[0]++, 50);
+        machine.postDelayed(() -> fired[1]++, 10);
+        check(cancelled != null && cancelled.cancel(false), "Pending reconnect can be cancelled");
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+        check(fired[0] == 0 && fired[1] == 1, "Only the uncancelled delayed event fired");
+        machine.shutdown();
+        check(machine.postDelayed(() -> fired[1]++, 10) == null, "Delayed post after shutdown is dropped");
+    }
+
+    /**
+     * 运行所有测试
+     */
+    public static void runAllTests() {
+        CoreLog.d(TAG, "🚀 Starting ConnectionStateMachine test suite");
+
+        try {
+            testConnectAndDisconnect();
+            testOpenFailure();
+            testReopen();
+            testRecovery();
+            testFatalAndStaleErrors();
+            testIllegalTransitions();
+            testLoopThreadChecks();
+            testDelayedEvents();
+            CoreLog.d(TAG, "🎉 All tests completed");
+        } catch (Exception e) {
+            CoreLog.e(TAG, "❌ Test suite failed", e);
+        }
+    }
+
+    /**
+     * 在普通 JVM 上运行（gradle :core:stateMachineTest）
+     * 任何一条错误级别日志都视为失败，以非零退出码结束
+     */
+    public static void main(String[] args) {
+        // 错误日志可能来自事件循环线程
+        final AtomicInteger errors = new AtomicInteger();
+        CoreLog.setMinPriority(CoreLog.VERBOSE);
+        CoreLog.setSink((priority, tag, message, error) -> {
+            if (priority >= CoreLog.ERROR) {
+                errors.incrementAndGet();
+            }
+            CoreLog.CONSOLE.log(priority, tag, message, error);
+        });
+        runAllTests();
+        if (errors.get() > 0) {
+            System.err.println("ConnectionStateMachineTest: " + errors.get() + " failure(s)");
+            System.exit(1);
+        }
+        System.out.println("ConnectionStateMachineTest: OK");
+    }
+}
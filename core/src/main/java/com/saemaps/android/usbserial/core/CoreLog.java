@@ -0,0 +1,112 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 核心库日志门面
+ * core 模块不依赖 Android，日志通过可替换的 {@link Sink} 输出：
+ * - 插件运行时由 app 模块安装转发到 android.util.Log 的实现
+ * - 在普通 JVM 上（自测、压测、基准）默认输出到标准输出/标准错误
+ *
+ * @author SAE Maps
+ */
+public final class CoreLog {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    /**
+     * 日志输出端
+     */
+    public interface Sink {
+        void log(int priority, String tag, String message, Throwable error);
+    }
+
+    /**
+     * 标准输出实现（JVM 默认）
+     */
+    public static final Sink CONSOLE = (priority, tag, message, error) -> {
+        java.io.PrintStream out = priority >= WARN ? System.err : System.out;
+        out.println(levelChar(priority) + "/" + tag + ": " + message);
+        if (error != null) {
+            error.printStackTrace(out);
+        }
+    };
+
+    private static volatile Sink sink = CONSOLE;
+    private static volatile int minPriority = DEBUG;
+
+    private CoreLog() {
+    }
+
+    /**
+     * 安装日志输出端
+     *
+     * @param newSink 输出端，null 表示丢弃全部日志
+     */
+    public static void setSink(Sink newSink) {
+        sink = newSink;
+    }
+
+    /**
+     * 设置最低输出级别（低于该级别的日志直接丢弃）
+     */
+    public static void setMinPriority(int priority) {
+        minPriority = priority;
+    }
+
+    public static boolean isLoggable(int priority) {
+        return sink != null && priority >= minPriority;
+    }
+
+    public static void v(String tag, String message) {
+        log(VERBOSE, tag, message, null);
+    }
+
+    public static void d(String tag, String message) {
+        log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        log(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        log(WARN, tag, message, error);
+    }
+
+    public static void e(String tag, String message) {
+        log(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        log(ERROR, tag, message, error);
+    }
+
+    private static void log(int priority, String tag, String message, Throwable error) {
+        Sink current = sink;
+        if (current != null && priority >= minPriority) {
+            current.log(priority, tag, message, error);
+        }
+    }
+
+    private static char levelChar(int priority) {
+        switch (priority) {
+            case VERBOSE:
+                return 'V';
+            case DEBUG:
+                return 'D';
+            case INFO:
+                return 'I';
+            case WARN:
+                return 'W';
+            default:
+                return 'E';
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 分片消息帧编解码
+ * 一帧的包长度字段只有 1 字节，数据内容最多 254 字节。配置文件、航点列表等大块数据拆成多个分片帧发送，
+ * 对端按序号重组，并用确认帧告知收到了哪些分片（滑动窗口 + 选择确认）。
+ *
+ * 分片帧（命令类型 {@link FrameCodec#CMD_FRAGMENT}）数据内容：
+ * 消息ID(1) + 消息类型(1) + 分片序号(2, 小端) + 分片总数(2, 小端) + 分片数据
+ *
+ * 确认帧（命令类型 {@link FrameCodec#CMD_FRAGMENT_ACK}）数据内容：
+ * 消息ID(1) + 累计确认(2, 小端：序号小于该值的分片都已收到) + 选择确认位图(4, 小端：第 i 位表示
+ * 序号 累计确认+1+i 的分片已收到)
+ *
+ * 消息ID按消息递增（模 256），用于区分重传的旧分片和新消息；消息类型由应用自行约定。
+ *
+ * @author SAE Maps
+ */
+public final class FragmentCodec {
+
+    public static final int HEADER_LENGTH = 6;
+    // 单个分片的数据上限
+    public static final int MAX_PAYLOAD = FrameCodec.MAX_DATA_LENGTH - HEADER_LENGTH;
+    public static final int MAX_FRAGMENTS = 0xFFFF;
+    public static final int ACK_LENGTH = 7;
+    public static final int ACK_BITMAP_BITS = 32;
+
+    private static final int OFFSET_MESSAGE_ID = FrameCodec.OFFSET_DATA;
+    private static final int OFFSET_TYPE = FrameCodec.OFFSET_DATA + 1;
+    private static final int OFFSET_SEQUENCE = FrameCodec.OFFSET_DATA + 2;
+    private static final int OFFSET_COUNT = FrameCodec.OFFSET_DATA + 4;
+    private static final int OFFSET_PAYLOAD = FrameCodec.OFFSET_DATA + HEADER_LENGTH;
+    private static final int OFFSET_ACK_CUMULATIVE = FrameCodec.OFFSET_DATA + 1;
+    private static final int OFFSET_ACK_BITMAP = FrameCodec.OFFSET_DATA + 3;
+
+    /**
+     * 帧发送通道（如 USBSerialManager::sendFrame，写入共享端口的写队列）
+     */
+    public interface FrameSink {
+        void send(int command, ByteBuffer... payload) throws IOException;
+    }
+
+    private FragmentCodec() {
+    }
+
+    /**
+     * 生成分片头（分片数据另作一个分段发送）
+     */
+    public static ByteBuffer header(int messageId, int type, int sequence, int count) {
+        byte[] h = new byte[HEADER_LENGTH];
+        h[0] = (byte) messageId;
+        h[1] = (byte) type;
+        h[2] = (byte) sequence;
+        h[3] = (byte) (sequence >>> 8);
+        h[4] = (byte) count;
+        h[5] = (byte) (count >>> 8);
+        return ByteBuffer.wrap(h);
+    }
+
+    /**
+     * 生成确认帧的数据内容
+     */
+    public static ByteBuffer ack(int messageId, int cumulative, int bitmap) {
+        byte[] a = new byte[ACK_LENGTH];
+        a[0] = (byte) messageId;
+        a[1] = (byte) cumulative;
+        a[2] = (byte) (cumulative >>> 8);
+        a[3] = (byte) bitmap;
+        a[4] = (byte) (bitmap >>> 8);
+        a[5] = (byte) (bitmap >>> 16);
+        a[6] = (byte) (bitmap >>> 24);
+        return ByteBuffer.wrap(a);
+    }
+
+    /**
+     * 判断是否为完整的分片帧
+     */
+    public static boolean isFragment(byte[] frame) {
+        return frame != null && frame.length >= OFFSET_PAYLOAD && FrameCodec.isWellFormed(frame)
+                && FrameCodec.command(frame) == FrameCodec.CMD_FRAGMENT;
+    }
+
+    /**
+     * 判断是否为完整的确认帧
+     */
+    public static boolean isAck(byte[] frame) {
+        return frame != null && frame.length == FrameCodec.OFFSET_DATA + ACK_LENGTH && FrameCodec.isWellFormed(frame)
+                && FrameCodec.command(frame) == FrameCodec.CMD_FRAGMENT_ACK;
+    }
+
+    public static int messageId(byte[] frame) {
+        return frame[OFFSET_MESSAGE_ID] & 0xFF;
+    }
+
+    public static int type(byte[] frame) {
+        return frame[OFFSET_TYPE] & 0xFF;
+    }
+
+    public static int sequence(byte[] frame) {
+        return FrameCodec.readUInt16LE(frame, OFFSET_SEQUENCE);
+    }
+
+    public static int count(byte[] frame) {
+        return FrameCodec.readUInt16LE(frame, OFFSET_COUNT);
+    }
+
+    public static int payloadOffset() {
+        return OFFSET_PAYLOAD;
+    }
+
+    public static int payloadLength(byte[] frame) {
+        return frame.length - OFFSET_PAYLOAD;
+    }
+
+    public static int ackCumulative(byte[] frame) {
+        return FrameCodec.readUInt16LE(frame, OFFSET_ACK_CUMULATIVE);
+    }
+
+    public static int ackBitmap(byte[] frame) {
+        return FrameCodec.readInt32LE(frame, OFFSET_ACK_BITMAP);
+    }
+}
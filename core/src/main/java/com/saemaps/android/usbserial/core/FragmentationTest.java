@@ -0,0 +1,100 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 分片消息收发测试类
+ * 用 {@link MessageFragmenter} 和 {@link MessageReassembler} 在丢包、随机延迟（乱序）的模拟链路上传一批消息。
+ *
+ * @author SAE Maps
+ */
+public class FragmentationTest {
+
+    /**
+     * 在丢包、乱序的模拟链路上收发一批消息，验证重组结果与原文一致（gradle :core:fragmentation）
+     */
+    public static void main(String[] args) throws Exception {
+        CoreLog.setMinPriority(CoreLog.INFO);
+        final double lossRate = args.length > 0 ? Double.parseDouble(args[0]) : 0.05;
+        final Random random = new Random(42);
+        final ConnectionStateMachine link = new ConnectionStateMachine("FragmentLink");
+        final MessageFragmenter[] sender = new MessageFragmenter[1];
+        final MessageReassembler[] receiver = new MessageReassembler[1];
+        final byte[][] received = new byte[8][];
+        final CountDownLatch done = new CountDownLatch(received.length);
+        // 链路：按概率丢弃，随机延迟 1-20ms（因此会乱序）
+        final FragmentCodec.FrameSink toReceiver = (command, payload) -> {
+            final byte[] frame = toFrame(command, payload);
+            if (random.nextDouble() >= lossRate) {
+                link.postDelayed(() -> receiver[0].onFrame(frame), 1 + random.nextInt(20));
+            }
+        };
+        final FragmentCodec.FrameSink toSender = (command, payload) -> {
+            final byte[] frame = toFrame(command, payload);
+            if (random.nextDouble() >= lossRate) {
+                link.postDelayed(() -> sender[0].onAck(frame), 1 + random.nextInt(20));
+            }
+        };
+        ConnectionStateMachine loop = new ConnectionStateMachine("Fragmenter");
+        sender[0] = new MessageFragmenter(loop, toReceiver, new MessageFragmenter.Config().setRetransmitTimeoutMs(100).setMaxRetries(10));
+        receiver[0] = new MessageReassembler(new MessageReassembler.Config(), toSender,
+                (type, message) -> received[type] = message);
+        final byte[][] messages = new byte[received.length][];
+        final int[] failures = new int[1];
+        long start = System.nanoTime();
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new byte[random.nextInt(20000) + 1];
+            random.nextBytes(messages[i]);
+            sender[0].send(i, ByteBuffer.wrap(messages[i]), new MessageFragmenter.Listener() {
+                @Override
+                public void onProgress(int messageId, int acked, int count) {
+                }
+
+                @Override
+                public void onComplete(int messageId) {
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailed(int messageId, IOException error) {
+                    failures[0]++;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        int ok = 0;
+        for (int i = 0; i < messages.length; i++) {
+            if (Arrays.equals(messages[i], received[i])) {
+                ok++;
+            }
+        }
+        System.out.println("loss=" + lossRate + " delivered " + ok + "/" + messages.length + " intact, failures="
+                + failures[0] + " in " + elapsedMs + "ms");
+        System.out.println(sender[0].getStatus());
+        System.out.println(receiver[0].getStatus());
+        loop.shutdown();
+        link.shutdown();
+    }
+
+    private static byte[] toFrame(int command, ByteBuffer... payload) {
+        int length = 0;
+        for (ByteBuffer b : payload) {
+            length += b.remaining();
+        }
+        byte[] frame = new byte[FrameCodec.MIN_FRAME_LENGTH + length];
+        FrameCodec.writeHeader(frame, 0, command, length);
+        int pos = FrameCodec.OFFSET_DATA;
+        for (ByteBuffer b : payload) {
+            int n = b.remaining();
+            b.get(frame, pos, n);
+            pos += n;
+        }
+        return frame;
+    }
+}
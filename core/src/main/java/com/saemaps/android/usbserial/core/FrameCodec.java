@@ -0,0 +1,172 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 串口数据帧编解码
+ * 帧格式：2字节包头(0x68 0x00) + 1字节包长度 + 1字节命令类型 + 数据内容
+ * 包长度字段 = 命令类型(1字节) + 数据内容长度，帧总长度 = 包长度 + 3
+ *
+ * 字节序说明：包头在线路上依次为 0x68 0x00，按小端读取即为 0x0068
+ *
+ * @author SAE Maps
+ */
+public final class FrameCodec {
+
+    public static final byte HEADER_0 = (byte) 0x68;
+    public static final byte HEADER_1 = (byte) 0x00;
+    public static final int HEADER_VALUE = 0x0068;
+
+    // 包头(2) + 包长度(1)
+    public static final int PREFIX_LENGTH = 3;
+    // 最小帧：包头 + 包长度 + 命令类型
+    public static final int MIN_FRAME_LENGTH = 4;
+    // 包长度字段为1字节
+    public static final int MAX_FRAME_LENGTH = 0xFF + PREFIX_LENGTH;
+    // 数据内容最大长度（包长度字段还包含命令类型 1 字节）
+    public static final int MAX_DATA_LENGTH = 0xFF - 1;
+
+    public static final int OFFSET_LENGTH = 2;
+    public static final int OFFSET_COMMAND = 3;
+    public static final int OFFSET_DATA = 4;
+
+    public static final int CMD_DEVICE_ID = 0x02;
+    public static final int CMD_POWER_ON = 0x55;
+    public static final int CMD_LOCATION = 0xCC;
+    // 分片消息（见 FragmentCodec）
+    public static final int CMD_FRAGMENT = 0xF0;
+    public static final int CMD_FRAGMENT_ACK = 0xF1;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * 判断两个字节是否构成包头
+     */
+    public static boolean isHeader(byte b0, byte b1) {
+        return b0 == HEADER_0 && b1 == HEADER_1;
+    }
+
+    /**
+     * 由包长度字段计算帧总长度
+     *
+     * @param lengthField 包长度字段（无符号）
+     * @return 帧总长度
+     */
+    public static int frameLength(int lengthField) {
+        return (lengthField & 0xFF) + PREFIX_LENGTH;
+    }
+
+    /**
+     * 读取包头（小端）
+     */
+    public static int header(byte[] frame) {
+        return ((frame[1] & 0xFF) << 8) | (frame[0] & 0xFF);
+    }
+
+    /**
+     * 读取包长度字段
+     */
+    public static int lengthField(byte[] frame) {
+        return frame[OFFSET_LENGTH] & 0xFF;
+    }
+
+    /**
+     * 读取命令类型
+     */
+    public static int command(byte[] frame) {
+        return frame[OFFSET_COMMAND] & 0xFF;
+    }
+
+    /**
+     * 检查帧是否完整有效：包头正确且实际长度与包长度字段一致
+     *
+     * @param frame 帧数据
+     * @return true 如果帧有效
+     */
+    public static boolean isWellFormed(byte[] frame) {
+        return frame != null && frame.length >= MIN_FRAME_LENGTH
+                && isHeader(frame[0], frame[1])
+                && frame.length == frameLength(frame[OFFSET_LENGTH]);
+    }
+
+    /**
+     * 编码一帧
+     *
+     * @param command 命令类型
+     * @param data    数据内容，可为 null
+     * @return 完整帧
+     */
+    public static byte[] encode(int command, byte[] data) {
+        int dataLength = data == null ? 0 : data.length;
+        byte[] frame = new byte[MIN_FRAME_LENGTH + dataLength];
+        writeHeader(frame, 0, command, dataLength);
+        if (dataLength > 0) {
+            System.arraycopy(data, 0, frame, OFFSET_DATA, dataLength);
+        }
+        return frame;
+    }
+
+    /**
+     * 写入帧头：包头 + 包长度 + 命令类型（共 {@link #MIN_FRAME_LENGTH} 字节），数据内容由调用方另行写出
+     *
+     * @param dst        目标数组
+     * @param offset     写入位置
+     * @param command    命令类型
+     * @param dataLength 数据内容长度
+     */
+    public static void writeHeader(byte[] dst, int offset, int command, int dataLength) {
+        if (dataLength < 0 || dataLength > MAX_DATA_LENGTH) {
+            throw new IllegalArgumentException("Frame data too long: " + dataLength);
+        }
+        dst[offset] = HEADER_0;
+        dst[offset + 1] = HEADER_1;
+        dst[offset + OFFSET_LENGTH] = (byte) (dataLength + 1);
+        dst[offset + OFFSET_COMMAND] = (byte) command;
+    }
+
+    /**
+     * 读取小端序 16 位无符号整数
+     */
+    public static int readUInt16LE(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * 读取小端序 32 位有符号整数
+     */
+    public static int readInt32LE(byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0xFF) << 16)
+                | (data[offset + 3] << 24);
+    }
+
+    /**
+     * 读取小端序 32 位无符号整数
+     */
+    public static long readUInt32LE(byte[] data, int offset) {
+        return readInt32LE(data, offset) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 读取小端序 24 位无符号整数
+     */
+    public static int readUInt24LE(byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0xFF) << 16);
+    }
+
+    /**
+     * 解析查询ID响应中的设备ID（字节4-6，小端序）
+     * 响应格式: 0x68 0x00 0x04 0x02 ID1 ID2 ID3
+     *
+     * @param frame 响应帧
+     * @return 设备ID；帧不是ID响应时返回 -1
+     */
+    public static long decodeDeviceId(byte[] frame) {
+        if (frame == null || frame.length < OFFSET_DATA + 3 || command(frame) != CMD_DEVICE_ID) {
+            return -1;
+        }
+        return readUInt24LE(frame, OFFSET_DATA);
+    }
+}
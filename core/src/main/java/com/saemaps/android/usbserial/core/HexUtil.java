@@ -0,0 +1,81 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 十六进制格式化工具（调试日志、界面显示）
+ *
+ * @author SAE Maps
+ */
+public final class HexUtil {
+
+    private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
+
+    private HexUtil() {
+    }
+
+    /**
+     * 转换为以空格分隔的十六进制字符串，如 "68 00 01 02"
+     *
+     * @param bytes 数据，可为 null
+     * @return 十六进制字符串；null 输入返回 "null"
+     */
+    public static String toHex(byte[] bytes) {
+        if (bytes == null) {
+            return "null";
+        }
+        return toHex(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 转换数组片段为以空格分隔的十六进制字符串
+     *
+     * @param bytes  数据
+     * @param offset 起始偏移
+     * @param length 长度
+     * @return 十六进制字符串
+     */
+    public static String toHex(byte[] bytes, int offset, int length) {
+        if (length <= 0) {
+            return "";
+        }
+        char[] hexChars = new char[length * 3 - 1];
+        for (int j = 0; j < length; j++) {
+            int v = bytes[offset + j] & 0xFF;
+            hexChars[j * 3] = HEX_ARRAY[v >>> 4];
+            hexChars[j * 3 + 1] = HEX_ARRAY[v & 0x0F];
+            if (j < length - 1) {
+                hexChars[j * 3 + 2] = ' ';
+            }
+        }
+        return new String(hexChars);
+    }
+
+    /**
+     * 解析十六进制字符串，忽略空白，如 "68 00 01 02"
+     *
+     * @param hex 十六进制字符串
+     * @return 字节数组
+     * @throws IllegalArgumentException 含非十六进制字符或位数为奇数
+     */
+    public static byte[] fromHex(CharSequence hex) {
+        StringBuilder digits = new StringBuilder(hex.length());
+        for (int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                digits.append(c);
+            }
+        }
+        if (digits.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+        }
+        byte[] bytes = new byte[digits.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = Character.digit(digits.charAt(i * 2), 16);
+            int lo = Character.digit(digits.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Invalid hex: " + hex);
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+}
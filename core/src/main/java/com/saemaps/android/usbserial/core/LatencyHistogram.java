@@ -0,0 +1,152 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 固定内存的延迟直方图（HDR风格，对数-线性分桶）
+ *
+ * 特性：
+ * - 记录单位为微秒，内部按 2 的幂次分段，每段再线性细分为 32 个子桶（相对误差约 3%）
+ * - 桶数组在构造时一次性分配，记录过程不产生任何对象分配
+ * - 超过最大可追踪值的样本会被钳制到最后一个桶
+ *
+ * @author SAE Maps
+ */
+public class LatencyHistogram {
+
+    // 线性区间的位数：小于 2^SUB_BUCKET_BITS 微秒的值逐一计数
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // 64
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1; // 32
+
+    // 最大可追踪值：2^26 微秒（约67秒），足以覆盖任何有意义的串口延迟
+    private static final int MAX_VALUE_BITS = 26;
+    public static final long MAX_TRACKABLE_MICROS = (1L << MAX_VALUE_BITS) - 1;
+
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT
+            + (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF;
+
+    private final String name;
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long sumMicros;
+    private long minMicros = Long.MAX_VALUE;
+    private long maxMicros;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 记录一个纳秒级延迟样本
+     *
+     * @param nanos 延迟（纳秒），负值按0处理
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(nanos <= 0 ? 0 : nanos / 1000);
+    }
+
+    /**
+     * 记录一个微秒级延迟样本
+     *
+     * @param micros 延迟（微秒）
+     */
+    public synchronized void recordMicros(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        } else if (micros > MAX_TRACKABLE_MICROS) {
+            micros = MAX_TRACKABLE_MICROS;
+        }
+        counts[bucketIndex(micros)]++;
+        totalCount++;
+        sumMicros += micros;
+        if (micros < minMicros) {
+            minMicros = micros;
+        }
+        if (micros > maxMicros) {
+            maxMicros = micros;
+        }
+    }
+
+    public synchronized long getCount() {
+        return totalCount;
+    }
+
+    public synchronized long getMinMicros() {
+        return totalCount == 0 ? 0 : minMicros;
+    }
+
+    public synchronized long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public synchronized double getMeanMicros() {
+        return totalCount == 0 ? 0 : (double) sumMicros / totalCount;
+    }
+
+    /**
+     * 获取指定百分位的延迟值（返回所在桶的上界，保证不低估）
+     *
+     * @param percentile 百分位 (0-100)
+     * @return 延迟（微秒）
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double p = Math.max(0.0, Math.min(100.0, percentile));
+        long target = Math.max(1, (long) Math.ceil(p / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public synchronized void reset() {
+        java.util.Arrays.fill(counts, 0);
+        totalCount = 0;
+        sumMicros = 0;
+        minMicros = Long.MAX_VALUE;
+        maxMicros = 0;
+    }
+
+    /**
+     * 获取统计摘要（用于日志和界面显示）
+     *
+     * @return 摘要字符串
+     */
+    public synchronized String getSummary() {
+        return String.format("%s[n=%d, min=%dus, p50=%dus, p90=%dus, p99=%dus, max=%dus, mean=%.1fus]",
+                name, totalCount, getMinMicros(), getValueAtPercentile(50), getValueAtPercentile(90),
+                getValueAtPercentile(99), maxMicros, getMeanMicros());
+    }
+
+    private static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = msb - SUB_BUCKET_BITS + 1;
+        int sub = (int) (micros >>> shift); // 落在 [32, 63]
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (sub - SUB_BUCKET_HALF);
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / SUB_BUCKET_HALF + 1;
+        long sub = (offset % SUB_BUCKET_HALF) + SUB_BUCKET_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,200 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+/**
+ * 端到端延迟追踪器
+ * 记录每个数据包从 USB 读取（onNewData）到监听器回调完成的各阶段时间戳
+ *
+ * 阶段划分：
+ * - QUEUE：USB读取 → 主线程Handler开始处理（mainHandler 排队时间）
+ * - DECODE：USB读取 → 环形缓冲区拆出完整数据包
+ * - DISPATCH：拆包完成 → 开始回调监听器
+ * - LISTENER：监听器 onDataReceived 执行耗时
+ * - END_TO_END：USB读取 → 监听器回调完成
+ *
+ * 每个阶段聚合到固定内存的 {@link LatencyHistogram}，同时最近的若干条原始记录
+ * 保存在预分配的环形数组中，可导出为 CSV 追踪文件用于离线分析。
+ *
+ * @author SAE Maps
+ */
+public class LatencyTracer {
+
+    public enum Stage {
+        QUEUE, DECODE, DISPATCH, LISTENER, END_TO_END
+    }
+
+    // 默认保留最近 4096 条追踪记录
+    private static final int DEFAULT_TRACE_CAPACITY = 4096;
+
+    private final LatencyHistogram[] histograms;
+    private volatile boolean enabled = true;
+
+    // 追踪记录环形数组（列式存储，避免每包分配对象）
+    private final int traceCapacity;
+    private final long[] rxNanos;
+    private final long[] handlerNanos;
+    private final long[] decodedNanos;
+    private final long[] dispatchNanos;
+    private final long[] doneNanos;
+    private final int[] commandTypes;
+    private final int[] packetLengths;
+    private int traceNext;
+    private long traceTotal;
+
+    public LatencyTracer() {
+        this(DEFAULT_TRACE_CAPACITY);
+    }
+
+    public LatencyTracer(int traceCapacity) {
+        if (traceCapacity <= 0) {
+            throw new IllegalArgumentException("Trace capacity must be positive");
+        }
+        Stage[] stages = Stage.values();
+        histograms = new LatencyHistogram[stages.length];
+        for (Stage stage : stages) {
+            histograms[stage.ordinal()] = new LatencyHistogram(stage.name());
+        }
+        this.traceCapacity = traceCapacity;
+        rxNanos = new long[traceCapacity];
+        handlerNanos = new long[traceCapacity];
+        decodedNanos = new long[traceCapacity];
+        dispatchNanos = new long[traceCapacity];
+        doneNanos = new long[traceCapacity];
+        commandTypes = new int[traceCapacity];
+        packetLengths = new int[traceCapacity];
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 记录一个数据包的全部阶段时间戳（均为 System.nanoTime()）
+     *
+     * @param commandType 命令类型
+     * @param length      数据包长度
+     * @param rx          USB读取时间（onNewData）
+     * @param handler     主线程开始处理时间
+     * @param decoded     拆包完成时间
+     * @param dispatch    开始回调监听器时间
+     * @param done        监听器回调完成时间
+     */
+    public void recordPacket(int commandType, int length, long rx, long handler, long decoded,
+            long dispatch, long done) {
+        if (!enabled) {
+            return;
+        }
+        histograms[Stage.QUEUE.ordinal()].recordNanos(handler - rx);
+        histograms[Stage.DECODE.ordinal()].recordNanos(decoded - rx);
+        histograms[Stage.DISPATCH.ordinal()].recordNanos(dispatch - decoded);
+        histograms[Stage.LISTENER.ordinal()].recordNanos(done - dispatch);
+        histograms[Stage.END_TO_END.ordinal()].recordNanos(done - rx);
+
+        synchronized (this) {
+            int i = traceNext;
+            rxNanos[i] = rx;
+            handlerNanos[i] = handler;
+            decodedNanos[i] = decoded;
+            dispatchNanos[i] = dispatch;
+            doneNanos[i] = done;
+            commandTypes[i] = commandType;
+            packetLengths[i] = length;
+            traceNext = (i + 1) % traceCapacity;
+            traceTotal++;
+        }
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * 清空所有直方图和追踪记录
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        synchronized (this) {
+            traceNext = 0;
+            traceTotal = 0;
+        }
+    }
+
+    /**
+     * 获取各阶段延迟摘要
+     *
+     * @return 多行摘要字符串
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (LatencyHistogram histogram : histograms) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(histogram.getSummary());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 导出追踪记录为 CSV 文件（按时间先后排序，时间为相对第一条记录的微秒数）
+     *
+     * @param file 目标文件
+     * @return 导出的记录条数
+     * @throws IOException 写文件失败
+     */
+    public int exportTrace(File file) throws IOException {
+        int count;
+        int start;
+        long[] rx;
+        long[] handler;
+        long[] decoded;
+        long[] dispatch;
+        long[] done;
+        int[] cmd;
+        int[] len;
+        // 先在锁内拷贝快照，避免写文件期间阻塞数据处理
+        synchronized (this) {
+            count = (int) Math.min(traceTotal, traceCapacity);
+            start = traceTotal > traceCapacity ? traceNext : 0;
+            rx = rxNanos.clone();
+            handler = handlerNanos.clone();
+            decoded = decodedNanos.clone();
+            dispatch = dispatchNanos.clone();
+            done = doneNanos.clone();
+            cmd = commandTypes.clone();
+            len = packetLengths.clone();
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), Charset.forName("UTF-8")))) {
+            writer.write("seq,cmd,len,rx_us,queue_us,decode_us,dispatch_us,listener_us,total_us");
+            writer.newLine();
+            long base = count > 0 ? rx[start] : 0;
+            for (int n = 0; n < count; n++) {
+                int i = (start + n) % traceCapacity;
+                writer.write(String.format("%d,0x%02X,%d,%d,%d,%d,%d,%d,%d",
+                        n, cmd[i], len[i],
+                        (rx[i] - base) / 1000,
+                        (handler[i] - rx[i]) / 1000,
+                        (decoded[i] - rx[i]) / 1000,
+                        (dispatch[i] - decoded[i]) / 1000,
+                        (done[i] - dispatch[i]) / 1000,
+                        (done[i] - rx[i]) / 1000));
+                writer.newLine();
+            }
+        }
+        return count;
+    }
+}
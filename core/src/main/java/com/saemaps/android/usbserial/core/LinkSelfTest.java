@@ -0,0 +1,315 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 链路吞吐与往返延迟自测
+ * 对接环回插头或回显固件，按"负载长度 × 写分块大小"的组合依次跑定时突发（每组一次不限速的
+ * {@link LinkStressTest} 随机回显），记录每组实际吞吐、往返延迟分布和错误率，
+ * 给出当前线缆 / 适配器 / 波特率组合能稳定承受的上限，供后续调参使用。
+ *
+ * 突发由等待响应的请求数上限（maxOutstanding）约束，而不是速率，所以测到的是链路本身的饱和吞吐。
+ *
+ * 结果可用 {@link Result#encode()} 编码为单行文本持久化，{@link Result#decode(String)} 还原。
+ *
+ * 线程安全：run() 阻塞调用方线程直到测完；onReceive()/cancel() 可在任意线程调用。
+ *
+ * @author SAE Maps
+ */
+public final class LinkSelfTest {
+
+    private static final String TAG = "LinkSelfTest";
+
+    // 错误率低于该值的组合才参与"最佳组合"的评选
+    private static final double MAX_ACCEPTABLE_ERROR_PERCENT = 0.5;
+
+    /**
+     * 按写分块大小创建发送通道
+     */
+    public interface TransportFactory {
+        LinkStressTest.Transport create(int chunkSize) throws IOException;
+    }
+
+    /**
+     * 进度回调（在调用 run() 的线程上执行）
+     */
+    public interface Listener {
+        void onEntry(Entry entry, int index, int total);
+    }
+
+    public static final class Config {
+        int[] payloadSizes = {16, 64, 128, 250};
+        int[] chunkSizes = {32, 64, 128, 256};
+        long stepDurationMs = 3000;
+        long responseTimeoutMs = 1000;
+        int maxOutstanding = 8;
+
+        /** 依次测试的负载长度（每个请求的字节数，至少 8） */
+        public Config setPayloadSizes(int... payloadSizes) {
+            this.payloadSizes = payloadSizes.clone();
+            return this;
+        }
+
+        /** 依次测试的写分块大小 */
+        public Config setChunkSizes(int... chunkSizes) {
+            this.chunkSizes = chunkSizes.clone();
+            return this;
+        }
+
+        /** 每组突发的时长 */
+        public Config setStepDurationMs(long stepDurationMs) {
+            this.stepDurationMs = stepDurationMs;
+            return this;
+        }
+
+        public Config setResponseTimeoutMs(long responseTimeoutMs) {
+            this.responseTimeoutMs = responseTimeoutMs;
+            return this;
+        }
+
+        /** 突发中等待响应的请求数上限 */
+        public Config setMaxOutstanding(int maxOutstanding) {
+            this.maxOutstanding = maxOutstanding;
+            return this;
+        }
+    }
+
+    /**
+     * 一组（负载长度, 写分块）的测量结果
+     */
+    public static final class Entry {
+        public final int payloadSize;
+        public final int chunkSize;
+        public final long txBytesPerSecond;
+        public final long rxBytesPerSecond;
+        public final long rttP50Micros;
+        public final long rttP90Micros;
+        public final long rttP99Micros;
+        public final long rttMaxMicros;
+        // 丢失、发送失败和多余字节按请求折算后的错误率（百分比）
+        public final double errorPercent;
+
+        public Entry(int payloadSize, int chunkSize, long txBytesPerSecond, long rxBytesPerSecond,
+                     long rttP50Micros, long rttP90Micros, long rttP99Micros, long rttMaxMicros,
+                     double errorPercent) {
+            this.payloadSize = payloadSize;
+            this.chunkSize = chunkSize;
+            this.txBytesPerSecond = txBytesPerSecond;
+            this.rxBytesPerSecond = rxBytesPerSecond;
+            this.rttP50Micros = rttP50Micros;
+            this.rttP90Micros = rttP90Micros;
+            this.rttP99Micros = rttP99Micros;
+            this.rttMaxMicros = rttMaxMicros;
+            this.errorPercent = errorPercent;
+        }
+
+        static Entry from(int payloadSize, int chunkSize, LinkStressTest.Report report) {
+            long requests = report.sentPackets + report.sendErrors;
+            long bad = report.lost + report.sendErrors
+                    + (report.unexpectedBytes + payloadSize - 1) / payloadSize;
+            double errorPercent = requests == 0 ? 100 : Math.min(100, bad * 100.0 / requests);
+            return new Entry(payloadSize, chunkSize, Math.round(report.getTxBytesPerSecond()),
+                    Math.round(report.getRxBytesPerSecond()), report.rttP50Micros, report.rttP90Micros,
+                    report.rttP99Micros, report.rttMaxMicros, errorPercent);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "payload=%d chunk=%d tx=%d B/s rx=%d B/s rtt p50=%.1fms p90=%.1fms "
+                    + "p99=%.1fms max=%.1fms err=%.2f%%", payloadSize, chunkSize, txBytesPerSecond,
+                    rxBytesPerSecond, rttP50Micros / 1000.0, rttP90Micros / 1000.0, rttP99Micros / 1000.0,
+                    rttMaxMicros / 1000.0, errorPercent);
+        }
+    }
+
+    /**
+     * 一次自测的全部结果
+     */
+    public static final class Result {
+        public final int baudRate;
+        public final long timestamp;
+        public final List<Entry> entries;
+
+        public Result(int baudRate, long timestamp, List<Entry> entries) {
+            this.baudRate = baudRate;
+            this.timestamp = timestamp;
+            this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        }
+
+        /**
+         * 错误率可接受的组合中接收吞吐最高的一组
+         *
+         * @return 没有可接受的组合时返回 null
+         */
+        public Entry getBest() {
+            Entry best = null;
+            for (Entry e : entries) {
+                if (e.errorPercent <= MAX_ACCEPTABLE_ERROR_PERCENT
+                        && (best == null || e.rxBytesPerSecond > best.rxBytesPerSecond)) {
+                    best = e;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * 编码为单行文本：baud|timestamp|payload,chunk,tx,rx,p50,p90,p99,max,err;...
+         */
+        public String encode() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(baudRate).append('|').append(timestamp).append('|');
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                if (i > 0) {
+                    sb.append(';');
+                }
+                sb.append(e.payloadSize).append(',').append(e.chunkSize).append(',')
+                        .append(e.txBytesPerSecond).append(',').append(e.rxBytesPerSecond).append(',')
+                        .append(e.rttP50Micros).append(',').append(e.rttP90Micros).append(',')
+                        .append(e.rttP99Micros).append(',').append(e.rttMaxMicros).append(',')
+                        .append(String.format(Locale.US, "%.3f", e.errorPercent));
+            }
+            return sb.toString();
+        }
+
+        /**
+         * 还原 {@link #encode()} 的输出
+         *
+         * @return 格式不对时返回 null
+         */
+        public static Result decode(String text) {
+            if (text == null) {
+                return null;
+            }
+            try {
+                String[] parts = text.split("\\|", -1);
+                if (parts.length != 3) {
+                    return null;
+                }
+                List<Entry> entries = new ArrayList<>();
+                if (!parts[2].isEmpty()) {
+                    for (String item : parts[2].split(";")) {
+                        String[] f = item.split(",");
+                        entries.add(new Entry(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Long.parseLong(f[2]),
+                                Long.parseLong(f[3]), Long.parseLong(f[4]), Long.parseLong(f[5]),
+                                Long.parseLong(f[6]), Long.parseLong(f[7]), Double.parseDouble(f[8])));
+                    }
+                }
+                return new Result(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), entries);
+            } catch (RuntimeException e) {
+                CoreLog.w(TAG, "⚠️ Cannot decode self-test result: " + e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Self-test @" + baudRate + " baud:");
+            for (Entry e : entries) {
+                sb.append("\n  ").append(e);
+            }
+            Entry best = getBest();
+            sb.append("\n  best: ").append(best == null ? "none (all combinations had errors)" : best);
+            return sb.toString();
+        }
+    }
+
+    private final Config config;
+    private final int baudRate;
+    private final TransportFactory transports;
+    private final Listener listener;
+
+    private volatile LinkStressTest current;
+    private volatile boolean cancelled;
+
+    /**
+     * @param baudRate   被测链路的波特率（只用于记录）
+     * @param transports 按写分块大小创建发送通道
+     * @param listener   每测完一组回调一次，可为 null
+     */
+    public LinkSelfTest(Config config, int baudRate, TransportFactory transports, Listener listener) {
+        this.config = config;
+        this.baudRate = baudRate;
+        this.transports = transports;
+        this.listener = listener;
+    }
+
+    /**
+     * 依次跑完所有组合（阻塞）
+     *
+     * @return 测量结果；中途取消时只包含已测完的组合
+     */
+    public Result run() throws InterruptedException {
+        List<Entry> entries = new ArrayList<>();
+        int total = config.payloadSizes.length * config.chunkSizes.length;
+        CoreLog.i(TAG, "🧪 Self-test started: " + total + " combination(s) x " + config.stepDurationMs + "ms");
+        for (int payload : config.payloadSizes) {
+            for (int chunk : config.chunkSizes) {
+                if (cancelled) {
+                    break;
+                }
+                Entry entry = runStep(payload, chunk);
+                entries.add(entry);
+                CoreLog.i(TAG, "🧪 " + entry);
+                if (listener != null) {
+                    listener.onEntry(entry, entries.size(), total);
+                }
+            }
+        }
+        Result result = new Result(baudRate, System.currentTimeMillis(), entries);
+        CoreLog.i(TAG, "🏁 " + result);
+        return result;
+    }
+
+    private Entry runStep(int payload, int chunk) throws InterruptedException {
+        LinkStressTest.Transport transport;
+        try {
+            transport = transports.create(chunk);
+        } catch (IOException e) {
+            CoreLog.w(TAG, "⚠️ Cannot create transport for chunk " + chunk + ": " + e.getMessage());
+            return new Entry(payload, chunk, 0, 0, 0, 0, 0, 0, 100);
+        }
+        LinkStressTest.Config stress = new LinkStressTest.Config()
+                .setBytesPerSecond(0)
+                .setPacketsPerSecond(0)
+                .setDurationMs(config.stepDurationMs)
+                .setResponseTimeoutMs(config.responseTimeoutMs)
+                .setMaxOutstanding(config.maxOutstanding)
+                .setPayloadRange(payload, payload);
+        LinkStressTest test = new LinkStressTest(stress, transport, null);
+        current = test;
+        test.start();
+        try {
+            while (test.isRunning()) {
+                if (cancelled) {
+                    test.stop();
+                }
+                Thread.sleep(20);
+            }
+        } catch (InterruptedException e) {
+            test.stop();
+            throw e;
+        } finally {
+            current = null;
+        }
+        return Entry.from(payload, chunk, test.getReport());
+    }
+
+    /**
+     * 喂入收到的数据（任意线程）
+     */
+    public void onReceive(byte[] data) {
+        LinkStressTest test = current;
+        if (test != null) {
+            test.onReceive(data);
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+}
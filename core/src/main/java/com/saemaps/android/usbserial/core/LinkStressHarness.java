@@ -0,0 +1,33 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 链路压力测试运行器
+ * 对带 1% 丢包的模拟回显链路按指定速率压测，输出吞吐、丢失和往返延迟。
+ *
+ * @author SAE Maps
+ */
+public class LinkStressHarness {
+
+    /**
+     * 对模拟链路做一次回显压测（gradle :core:linkStress）
+     */
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        CoreLog.setMinPriority(CoreLog.INFO);
+        final LinkStressTest[] test = new LinkStressTest[1];
+        SimulatedSerialLink link = new SimulatedSerialLink(115200, 5, 0.01, 42, SimulatedSerialLink.ECHO,
+                data -> test[0].onReceive(data));
+        LinkStressTest.Config config = new LinkStressTest.Config().setBytesPerSecond(rate).setDurationMs(10_000).setPayloadRange(16, 64)
+                .setSeed(42);
+        test[0] = new LinkStressTest(config, link, (report, finished) ->
+                System.out.println((finished ? "FINAL " : "") + report));
+        test[0].start();
+        while (test[0].isRunning()) {
+            Thread.sleep(100);
+        }
+        link.close();
+        LinkStressTest.Report report = test[0].getReport();
+        System.out.println(String.format("expected loss ~1%%: %.2f%%, unexpected bytes=%d, send errors=%d",
+                report.getLossPercent(), report.unexpectedBytes, report.sendErrors));
+    }
+}
@@ -0,0 +1,524 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 链路压力测试
+ * 按目标速率（字节/秒或包/秒）发送脚本化或随机的命令序列，校验响应是否符合预期，
+ * 并实时统计实际吞吐、丢失和往返延迟分位数，用于鉴定线缆和电台。
+ *
+ * 工作方式：
+ * - 发送线程按速率预算发包，每个有预期响应的请求进入 FIFO 等待队列
+ * - {@link #onReceive} 把收到的字节累积起来，在其中查找队首请求的预期响应（支持 ?? 通配）；
+ *   找到即记一次往返延迟；先找到后面请求的应答、或超过响应超时仍未找到，都记为丢失
+ * - 随机模式发送 [序号][随机可打印字符] 并期待原样回显，适用于环回插头或回显固件；
+ *   不加帧头，避免随机数据被电台当成命令执行
+ *
+ * 发送通过 {@link Transport} 完成，可以是真实串口的异步写入，也可以是 {@link SimulatedSerialLink}。
+ *
+ * 运行：./gradlew :core:linkStress [-Prate=字节每秒]（对模拟链路做一次 10 秒回显压测）
+ *
+ * 线程安全：onReceive()/getReport()/stop() 可在任意线程调用。
+ *
+ * @author SAE Maps
+ */
+public final class LinkStressTest {
+
+    private static final String TAG = "LinkStressTest";
+
+    // 接收累积缓冲上限：超过后丢弃最旧的字节
+    private static final int RX_BUFFER_LIMIT = 64 * 1024;
+    // 匹配时向后查看的等待请求数
+    private static final int LOOKAHEAD = 8;
+    // 空闲时的最长休眠
+    private static final long MAX_PARK_NANOS = 5_000_000L;
+
+    /**
+     * 发送通道
+     */
+    public interface Transport {
+        void send(byte[] data) throws IOException;
+    }
+
+    /**
+     * 进度回调（在发送线程上执行）
+     */
+    public interface Listener {
+        /**
+         * @param report   当前统计
+         * @param finished true 表示测试已结束（最后一次回调）
+         */
+        void onReport(Report report, boolean finished);
+    }
+
+    /**
+     * 脚本中的一步：请求 + 预期响应
+     */
+    public static final class Step {
+        final byte[] request;
+        // 预期响应，-1 表示通配；null 表示不等待响应
+        final int[] expected;
+
+        public Step(byte[] request, int[] expected) {
+            this.request = request;
+            this.expected = expected;
+        }
+
+        /**
+         * 由十六进制文本构造，如 parse("68 00 01 02", "68 00 04 02 ?? ?? ??")
+         *
+         * @param expectedHex 预期响应，?? 表示任意字节；null 或空表示不等待响应
+         */
+        public static Step parse(String requestHex, String expectedHex) {
+            byte[] request = HexUtil.fromHex(requestHex);
+            if (expectedHex == null || expectedHex.trim().isEmpty()) {
+                return new Step(request, null);
+            }
+            String[] tokens = expectedHex.trim().split("\\s+");
+            int[] expected = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                expected[i] = "??".equals(tokens[i]) ? -1 : Integer.parseInt(tokens[i], 16);
+            }
+            return new Step(request, expected);
+        }
+
+        /**
+         * 期待原样回显的一步
+         */
+        public static Step echo(byte[] request) {
+            int[] expected = new int[request.length];
+            for (int i = 0; i < request.length; i++) {
+                expected[i] = request[i] & 0xFF;
+            }
+            return new Step(request, expected);
+        }
+    }
+
+    public static final class Config {
+        int bytesPerSecond;
+        int packetsPerSecond = 10;
+        long durationMs = 60_000;
+        long responseTimeoutMs = 1000;
+        int maxOutstanding = 64;
+        long reportIntervalMs = 1000;
+        List<Step> script = Collections.emptyList();
+        int minPayload = 16;
+        int maxPayload = 64;
+        long seed = System.nanoTime();
+
+        /** 按字节速率发送（优先于包速率），0 表示不按字节限速 */
+        public Config setBytesPerSecond(int bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /** 按包速率发送 */
+        public Config setPacketsPerSecond(int packetsPerSecond) {
+            this.packetsPerSecond = packetsPerSecond;
+            return this;
+        }
+
+        /** 测试时长，0 表示直到 stop() */
+        public Config setDurationMs(long durationMs) {
+            this.durationMs = durationMs;
+            return this;
+        }
+
+        public Config setResponseTimeoutMs(long responseTimeoutMs) {
+            this.responseTimeoutMs = responseTimeoutMs;
+            return this;
+        }
+
+        /** 等待响应的请求数上限，达到后暂停发送 */
+        public Config setMaxOutstanding(int maxOutstanding) {
+            this.maxOutstanding = maxOutstanding;
+            return this;
+        }
+
+        public Config setReportIntervalMs(long reportIntervalMs) {
+            this.reportIntervalMs = reportIntervalMs;
+            return this;
+        }
+
+        /** 循环执行的脚本；为空时使用随机回显模式 */
+        public Config setScript(List<Step> script) {
+            this.script = script == null ? Collections.<Step>emptyList() : new ArrayList<>(script);
+            return this;
+        }
+
+        /** 随机模式的负载长度范围（含序号） */
+        public Config setPayloadRange(int minPayload, int maxPayload) {
+            this.minPayload = Math.max(8, minPayload);
+            this.maxPayload = Math.max(this.minPayload, maxPayload);
+            return this;
+        }
+
+        public Config setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    /**
+     * 统计快照
+     */
+    public static final class Report {
+        public long elapsedMs;
+        public long sentPackets;
+        public long sentBytes;
+        public long receivedBytes;
+        public long matched;
+        public long lost;
+        public long outstanding;
+        public long unexpectedBytes;
+        public long sendErrors;
+        public long rttP50Micros;
+        public long rttP90Micros;
+        public long rttP99Micros;
+        public long rttMaxMicros;
+
+        public double getTxBytesPerSecond() {
+            return elapsedMs == 0 ? 0 : sentBytes * 1000.0 / elapsedMs;
+        }
+
+        public double getRxBytesPerSecond() {
+            return elapsedMs == 0 ? 0 : receivedBytes * 1000.0 / elapsedMs;
+        }
+
+        /** 丢失率（已判定的请求中丢失的比例，百分比） */
+        public double getLossPercent() {
+            long decided = matched + lost;
+            return decided == 0 ? 0 : lost * 100.0 / decided;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1fs tx=%d pkt %.0f B/s rx=%.0f B/s ok=%d lost=%d (%.2f%%) rtt p50=%.1fms "
+                    + "p90=%.1fms p99=%.1fms max=%.1fms", elapsedMs / 1000.0, sentPackets, getTxBytesPerSecond(),
+                    getRxBytesPerSecond(), matched, lost, getLossPercent(), rttP50Micros / 1000.0,
+                    rttP90Micros / 1000.0, rttP99Micros / 1000.0, rttMaxMicros / 1000.0);
+        }
+    }
+
+    private static final class Pending {
+        final int[] expected;
+        final long sentNanos;
+
+        Pending(int[] expected, long sentNanos) {
+            this.expected = expected;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    private final Config config;
+    private final Transport transport;
+    private final Listener listener;
+    private final Random random;
+    private final LatencyHistogram rtt = new LatencyHistogram("stress-rtt");
+
+    // 以下字段受 this 保护
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private byte[] rxBuffer = new byte[4096];
+    private int rxLength;
+    private long receivedBytes;
+    private long matched;
+    private long lost;
+    private long unexpectedBytes;
+
+    // 只在发送线程上修改
+    private volatile long sentPackets;
+    private volatile long sentBytes;
+    private volatile long sendErrors;
+    private int scriptIndex;
+    private int sequence;
+    // nextRequest() 生成的请求对应的预期响应
+    private int[] nextExpected;
+
+    private volatile boolean running;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile Thread thread;
+
+    /**
+     * @param listener 进度回调，可为 null
+     */
+    public LinkStressTest(Config config, Transport transport, Listener listener) {
+        this.config = config;
+        this.transport = transport;
+        this.listener = listener;
+        this.random = new Random(config.seed);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Stress test already started");
+        }
+        running = true;
+        startNanos = System.nanoTime();
+        thread = new Thread(this::run, "LinkStress");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        CoreLog.i(TAG, "🚦 Stress test started: " + describe());
+        long lastReport = startNanos;
+        byte[] next = nextRequest();
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                long elapsed = now - startNanos;
+                if (config.durationMs > 0 && elapsed >= config.durationMs * 1_000_000L) {
+                    break;
+                }
+                expire(now);
+                if (now - lastReport >= config.reportIntervalMs * 1_000_000L) {
+                    lastReport = now;
+                    report(false);
+                }
+                long waitNanos = nanosUntilAllowed(elapsed);
+                if (waitNanos > 0 || outstanding() >= config.maxOutstanding) {
+                    LockSupport.parkNanos(Math.max(100_000L, Math.min(waitNanos, MAX_PARK_NANOS)));
+                    continue;
+                }
+                send(next);
+                next = nextRequest();
+            }
+            // 给最后一批请求留出响应时间
+            long drainUntil = System.nanoTime() + config.responseTimeoutMs * 1_000_000L;
+            while (outstanding() > 0 && System.nanoTime() < drainUntil) {
+                expire(System.nanoTime());
+                LockSupport.parkNanos(MAX_PARK_NANOS);
+            }
+            expireAll();
+        } finally {
+            endNanos = System.nanoTime();
+            running = false;
+            Report report = getReport();
+            CoreLog.i(TAG, "🏁 Stress test finished: " + report);
+            if (listener != null) {
+                listener.onReport(report, true);
+            }
+        }
+    }
+
+    /**
+     * 按速率预算计算距离下一个请求可发送还需等待的时间；预算允许一个包的突发
+     */
+    private long nanosUntilAllowed(long elapsedNanos) {
+        if (config.bytesPerSecond > 0) {
+            long due = sentBytes * 1_000_000_000L / config.bytesPerSecond;
+            return due - elapsedNanos;
+        }
+        if (config.packetsPerSecond > 0) {
+            long due = sentPackets * 1_000_000_000L / config.packetsPerSecond;
+            return due - elapsedNanos;
+        }
+        return 0;
+    }
+
+    private void send(byte[] request) {
+        int[] expected = nextExpected;
+        long now = System.nanoTime();
+        if (expected != null) {
+            synchronized (this) {
+                pending.addLast(new Pending(expected, now));
+            }
+        }
+        try {
+            transport.send(request);
+            sentPackets++;
+            sentBytes += request.length;
+        } catch (IOException e) {
+            sendErrors++;
+            CoreLog.w(TAG, "⚠️ Stress send failed: " + e.getMessage());
+            if (expected != null) {
+                synchronized (this) {
+                    pending.pollLast();
+                }
+            }
+            // 端口异常时不要空转
+            LockSupport.parkNanos(100_000_000L);
+        }
+    }
+
+    private byte[] nextRequest() {
+        if (!config.script.isEmpty()) {
+            Step step = config.script.get(scriptIndex);
+            scriptIndex = (scriptIndex + 1) % config.script.size();
+            nextExpected = step.expected;
+            return step.request;
+        }
+        int length = config.minPayload + random.nextInt(config.maxPayload - config.minPayload + 1);
+        byte[] request = new byte[length];
+        // 8 位十六进制序号保证每个请求的回显都是唯一的
+        String seq = String.format("%08X", sequence++);
+        for (int i = 0; i < 8; i++) {
+            request[i] = (byte) seq.charAt(i);
+        }
+        for (int i = 8; i < length; i++) {
+            request[i] = (byte) ('!' + random.nextInt(94));
+        }
+        nextExpected = Step.echo(request).expected;
+        return request;
+    }
+
+    private synchronized int outstanding() {
+        return pending.size();
+    }
+
+    /**
+     * 喂入收到的数据（任意线程）
+     */
+    public void onReceive(byte[] data) {
+        onReceive(data, 0, data.length);
+    }
+
+    public synchronized void onReceive(byte[] data, int offset, int length) {
+        long now = System.nanoTime();
+        receivedBytes += length;
+        if (rxLength + length > rxBuffer.length) {
+            if (rxLength + length > RX_BUFFER_LIMIT) {
+                int drop = Math.min(rxLength, rxLength + length - RX_BUFFER_LIMIT);
+                consume(drop);
+                unexpectedBytes += drop;
+            }
+            if (rxLength + length > rxBuffer.length) {
+                byte[] grown = new byte[Math.max(rxLength + length, rxBuffer.length * 2)];
+                System.arraycopy(rxBuffer, 0, grown, 0, rxLength);
+                rxBuffer = grown;
+            }
+        }
+        int copy = Math.min(length, rxBuffer.length - rxLength);
+        System.arraycopy(data, offset + length - copy, rxBuffer, rxLength, copy);
+        rxLength += copy;
+        match(now);
+    }
+
+    private void match(long now) {
+        while (!pending.isEmpty()) {
+            // 应答按请求顺序到达：如果找到的是后面某个请求的应答，它前面的请求都已丢失
+            int skipped = 0;
+            int at = -1;
+            Pending found = null;
+            for (Pending p : pending) {
+                at = indexOf(p.expected);
+                if (at >= 0) {
+                    found = p;
+                    break;
+                }
+                if (++skipped == LOOKAHEAD) {
+                    break;
+                }
+            }
+            if (found == null) {
+                break;
+            }
+            for (int i = 0; i < skipped; i++) {
+                pending.pollFirst();
+                lost++;
+            }
+            unexpectedBytes += at;
+            consume(at + found.expected.length);
+            pending.pollFirst();
+            matched++;
+            rtt.recordNanos(now - found.sentNanos);
+        }
+        if (pending.isEmpty() && rxLength > 0) {
+            // 没有任何请求在等响应：缓冲中的都是多余数据
+            unexpectedBytes += rxLength;
+            rxLength = 0;
+        }
+    }
+
+    private int indexOf(int[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= rxLength; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                int p = pattern[j];
+                if (p >= 0 && (rxBuffer[i + j] & 0xFF) != p) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void consume(int count) {
+        System.arraycopy(rxBuffer, count, rxBuffer, 0, rxLength - count);
+        rxLength -= count;
+    }
+
+    private synchronized void expire(long now) {
+        long timeout = config.responseTimeoutMs * 1_000_000L;
+        boolean changed = false;
+        while (!pending.isEmpty() && now - pending.peekFirst().sentNanos >= timeout) {
+            pending.pollFirst();
+            lost++;
+            changed = true;
+        }
+        if (changed) {
+            // 队首变化后，缓冲里可能已有后续请求的响应
+            match(System.nanoTime());
+        }
+    }
+
+    private synchronized void expireAll() {
+        lost += pending.size();
+        pending.clear();
+    }
+
+    private void report(boolean finished) {
+        if (listener != null) {
+            listener.onReport(getReport(), finished);
+        }
+    }
+
+    /**
+     * 获取当前统计
+     */
+    public synchronized Report getReport() {
+        Report r = new Report();
+        long end = running || endNanos == 0 ? System.nanoTime() : endNanos;
+        r.elapsedMs = startNanos == 0 ? 0 : (end - startNanos) / 1_000_000L;
+        r.sentPackets = sentPackets;
+        r.sentBytes = sentBytes;
+        r.receivedBytes = receivedBytes;
+        r.matched = matched;
+        r.lost = lost;
+        r.outstanding = pending.size();
+        r.unexpectedBytes = unexpectedBytes;
+        r.sendErrors = sendErrors;
+        r.rttP50Micros = rtt.getValueAtPercentile(50);
+        r.rttP90Micros = rtt.getValueAtPercentile(90);
+        r.rttP99Micros = rtt.getValueAtPercentile(99);
+        r.rttMaxMicros = rtt.getMaxMicros();
+        return r;
+    }
+
+    private String describe() {
+        String rate = config.bytesPerSecond > 0 ? config.bytesPerSecond + " B/s"
+                : config.packetsPerSecond > 0 ? config.packetsPerSecond + " pkt/s" : "unlimited";
+        String mode = config.script.isEmpty() ? "random echo" : "script(" + config.script.size() + " steps)";
+        return mode + " @ " + rate + (config.durationMs > 0 ? " for " + config.durationMs + "ms" : "");
+    }
+}
@@ -0,0 +1,305 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.Locale;
+
+/**
+ * 串口读写参数自适应调节
+ * 写分块大小、写超时、读缓冲大小和读超时以前是固定常量（64 字节 / 300ms / 库默认值），
+ * 不管适配器是 CH340 还是 FTDI、波特率是 9600 还是 921600。现在先按端点包长和波特率给出初值，
+ * 再根据运行中的反馈调整：
+ *
+ * - 写：连续成功一段时间后分块加大一个端点包长（不超过上限），写超时或失败则分块减半、超时放宽（AIMD）
+ * - 读：读操作经常把缓冲区读满说明缓冲区偏小，加倍；长时间每次都只用到很小一部分则减半
+ * - 链路自测的最佳组合（{@link LinkSelfTest.Result#getBest()}）作为写分块的上限
+ *
+ * 读超时保持 0（阻塞读，库内部用异步 UsbRequest）：非零超时下库会在超时短读后调用 testConnection()，
+ * 这正是 CH340 "usb get_status request failed" 错误的来源，且轮询只会增加延迟。
+ *
+ * 学到的参数可用 {@link Settings#encode()} 按适配器持久化，下次连接同型号适配器时直接恢复。
+ *
+ * 线程安全：所有公开方法都已同步。
+ *
+ * @author SAE Maps
+ */
+public final class LinkTuner {
+
+    private static final String TAG = "LinkTuner";
+
+    public static final int MAX_WRITE_CHUNK = 4096;
+    public static final int MAX_READ_BUFFER = 16 * 1024;
+    private static final int MIN_WRITE_TIMEOUT_MS = 100;
+    private static final int MAX_WRITE_TIMEOUT_MS = 2000;
+    // 初值：一个写分块约占线路 20ms，读缓冲约能容纳 10ms 的数据
+    private static final int CHUNK_TARGET_MS = 20;
+    private static final int READ_BUFFER_TARGET_MS = 10;
+    // 连续多少次写成功后尝试加大分块
+    private static final int GROW_AFTER_WRITES = 64;
+    // 每多少次读评估一次读缓冲
+    private static final int READ_SAMPLE = 256;
+
+    /**
+     * 一组读写参数
+     */
+    public static final class Settings {
+        public final int writeChunk;
+        public final int writeTimeoutMs;
+        public final int readBufferSize;
+        public final int readTimeoutMs;
+
+        public Settings(int writeChunk, int writeTimeoutMs, int readBufferSize, int readTimeoutMs) {
+            this.writeChunk = writeChunk;
+            this.writeTimeoutMs = writeTimeoutMs;
+            this.readBufferSize = readBufferSize;
+            this.readTimeoutMs = readTimeoutMs;
+        }
+
+        /**
+         * 编码为单行文本：chunk,writeTimeout,readBuffer,readTimeout
+         */
+        public String encode() {
+            return writeChunk + "," + writeTimeoutMs + "," + readBufferSize + "," + readTimeoutMs;
+        }
+
+        /**
+         * @return 格式不对时返回 null
+         */
+        public static Settings decode(String text) {
+            if (text == null) {
+                return null;
+            }
+            String[] f = text.split(",");
+            if (f.length != 4) {
+                return null;
+            }
+            try {
+                return new Settings(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                        Integer.parseInt(f[3]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "chunk=%d writeTimeout=%dms readBuffer=%d readTimeout=%dms",
+                    writeChunk, writeTimeoutMs, readBufferSize, readTimeoutMs);
+        }
+    }
+
+    private final int baudRate;
+    private final int packetSize;
+    private int maxChunk = MAX_WRITE_CHUNK;
+
+    private int writeChunk;
+    private int writeTimeoutMs;
+    private int readBufferSize;
+    private int readTimeoutMs;
+
+    private int writeSuccessStreak;
+    private int readCount;
+    private int fullReads;
+    private long readBytes;
+    private long writeFailures;
+    private long adjustments;
+    private boolean changedSinceSave;
+
+    /**
+     * @param baudRate   当前波特率
+     * @param packetSize 端点最大包长（全速设备通常 64，高速设备 512）；未知时传 64
+     */
+    public LinkTuner(int baudRate, int packetSize) {
+        if (baudRate <= 0) {
+            throw new IllegalArgumentException("Invalid baud rate: " + baudRate);
+        }
+        this.baudRate = baudRate;
+        this.packetSize = packetSize > 0 ? packetSize : 64;
+        Settings initial = initialSettings(baudRate, this.packetSize);
+        apply(initial);
+    }
+
+    /**
+     * 按端点包长和波特率计算初值
+     */
+    public static Settings initialSettings(int baudRate, int packetSize) {
+        int bytesPerSecond = Math.max(1, baudRate / 10);
+        int chunk = roundDown(bytesPerSecond * CHUNK_TARGET_MS / 1000, packetSize);
+        chunk = clamp(chunk, packetSize, MAX_WRITE_CHUNK);
+        int readBuffer = roundUp(bytesPerSecond * READ_BUFFER_TARGET_MS / 1000, packetSize);
+        readBuffer = clamp(readBuffer, packetSize, MAX_READ_BUFFER);
+        return new Settings(chunk, writeTimeoutFor(chunk, baudRate, MIN_WRITE_TIMEOUT_MS), readBuffer, 0);
+    }
+
+    /**
+     * 写超时至少是一个分块线路时间的 4 倍
+     */
+    private static int writeTimeoutFor(int chunk, int baudRate, int floorMs) {
+        long chunkMs = chunk * 10_000L / baudRate;
+        return (int) clamp(Math.max(floorMs, chunkMs * 4 + 50), MIN_WRITE_TIMEOUT_MS, MAX_WRITE_TIMEOUT_MS);
+    }
+
+    /**
+     * 恢复之前保存的参数（按端点包长校正到合法范围）
+     */
+    public synchronized void restore(Settings saved) {
+        if (saved == null) {
+            return;
+        }
+        apply(saved);
+        changedSinceSave = false;
+        CoreLog.d(TAG, "🎛 Restored " + getSettings());
+    }
+
+    /**
+     * 以链路自测结果约束写分块：最佳组合的分块作为上限
+     */
+    public synchronized void applySelfTest(LinkSelfTest.Result result) {
+        LinkSelfTest.Entry best = result == null ? null : result.getBest();
+        if (best == null || result.baudRate != baudRate) {
+            return;
+        }
+        maxChunk = clamp(best.chunkSize, packetSize, MAX_WRITE_CHUNK);
+        if (writeChunk > maxChunk) {
+            writeChunk = maxChunk;
+            changedSinceSave = true;
+        }
+        CoreLog.d(TAG, "🎛 Self-test caps chunk at " + maxChunk + ": " + getSettings());
+    }
+
+    private void apply(Settings s) {
+        writeChunk = clamp(s.writeChunk, Math.min(packetSize, maxChunk), maxChunk);
+        writeTimeoutMs = clamp(s.writeTimeoutMs, MIN_WRITE_TIMEOUT_MS, MAX_WRITE_TIMEOUT_MS);
+        readBufferSize = clamp(s.readBufferSize, packetSize, MAX_READ_BUFFER);
+        readTimeoutMs = Math.max(0, s.readTimeoutMs);
+    }
+
+    /**
+     * 反馈：一次写入成功
+     */
+    public synchronized void onWriteSuccess(int length) {
+        if (++writeSuccessStreak < GROW_AFTER_WRITES || writeChunk >= maxChunk) {
+            return;
+        }
+        writeSuccessStreak = 0;
+        if (length < writeChunk) {
+            // 写入量本身没有用满分块，加大也没有意义
+            return;
+        }
+        writeChunk = Math.min(maxChunk, writeChunk + packetSize);
+        writeTimeoutMs = writeTimeoutFor(writeChunk, baudRate, writeTimeoutMs);
+        adjusted("write ok streak");
+    }
+
+    /**
+     * 反馈：一次写入失败或超时；分块减半、超时放宽
+     */
+    public synchronized void onWriteFailure(boolean timeout) {
+        writeSuccessStreak = 0;
+        writeFailures++;
+        writeChunk = Math.max(packetSize, roundDown(writeChunk / 2, packetSize));
+        if (timeout) {
+            writeTimeoutMs = Math.min(MAX_WRITE_TIMEOUT_MS, writeTimeoutMs * 3 / 2);
+        }
+        adjusted(timeout ? "write timeout" : "write failure");
+    }
+
+    /**
+     * 反馈：读任务读到一块数据
+     *
+     * @return 读缓冲大小是否有变化（调用方需要把新值应用到读任务）
+     */
+    public synchronized boolean onRead(int length) {
+        readCount++;
+        readBytes += length;
+        // FTDI 每个端点包要去掉 2 字节状态，"读满"按 7/8 算
+        if (length * 8L >= readBufferSize * 7L) {
+            fullReads++;
+        }
+        if (readCount < READ_SAMPLE) {
+            return false;
+        }
+        long average = readBytes / readCount;
+        int full = fullReads;
+        readCount = 0;
+        readBytes = 0;
+        fullReads = 0;
+        if (full * 4 >= READ_SAMPLE && readBufferSize < MAX_READ_BUFFER) {
+            // 四分之一以上的读把缓冲读满：数据在适配器里排队，加倍
+            readBufferSize = Math.min(MAX_READ_BUFFER, readBufferSize * 2);
+            adjusted("reads filling buffer");
+            return true;
+        }
+        if (full == 0 && average * 8 < readBufferSize && readBufferSize > packetSize) {
+            readBufferSize = Math.max(packetSize, roundUp(readBufferSize / 2, packetSize));
+            adjusted("reads mostly small");
+            return true;
+        }
+        return false;
+    }
+
+    private void adjusted(String reason) {
+        adjustments++;
+        changedSinceSave = true;
+        CoreLog.d(TAG, "🎛 " + reason + " -> " + getSettings());
+    }
+
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    public synchronized int getWriteChunk() {
+        return writeChunk;
+    }
+
+    public synchronized int getWriteTimeoutMs() {
+        return writeTimeoutMs;
+    }
+
+    public synchronized int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public synchronized int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public synchronized Settings getSettings() {
+        return new Settings(writeChunk, writeTimeoutMs, readBufferSize, readTimeoutMs);
+    }
+
+    /**
+     * 自上次 restore()/markSaved() 以来参数是否有变化
+     */
+    public synchronized boolean hasUnsavedChanges() {
+        return changedSinceSave;
+    }
+
+    public synchronized void markSaved() {
+        changedSinceSave = false;
+    }
+
+    private static int roundDown(int value, int unit) {
+        return value / unit * unit;
+    }
+
+    private static int roundUp(int value, int unit) {
+        return (value + unit - 1) / unit * unit;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public synchronized String getStatus() {
+        return String.format(Locale.US, "LinkTuner[%d baud, packet=%d, %s, maxChunk=%d, writeFailures=%d, "
+                + "adjustments=%d]", baudRate, packetSize, getSettings(), maxChunk, writeFailures, adjustments);
+    }
+}
@@ -0,0 +1,294 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 链路活性看门狗
+ * 电台静默与链路已断在USB层面看起来完全一样，只有 onRunError 或写失败时才会发现。
+ * 看门狗按设备记录最后一次收到数据的时间，静默超过阈值后可选地发送探测包（如 68 00 01 02 ID查询），
+ * 探测超时仍无任何数据则判定链路失效，交给重连流程处理。
+ *
+ * 时间界限：从最后一次收到数据起，最迟在 silenceMs + probeTimeoutMs + 一个检查周期 内判定失效。
+ *
+ * 线程模型：
+ * - onRx() 在IO线程上调用，只写一个 volatile 时间戳，不加锁不分配
+ * - 检查逻辑通过 {@link ConnectionStateMachine#postDelayed} 在连接事件循环上执行，回调也在事件循环上
+ *
+ * @author SAE Maps
+ */
+public class LinkWatchdog {
+
+    private static final String TAG = "LinkWatchdog";
+
+    // 默认静默阈值：10秒无数据开始探测
+    public static final long DEFAULT_SILENCE_MS = 10000;
+    // 默认探测超时：探测后3秒仍无数据判定失效
+    public static final long DEFAULT_PROBE_TIMEOUT_MS = 3000;
+    // 检查周期上下限
+    private static final long MIN_TICK_MS = 100;
+    private static final long MAX_TICK_MS = 1000;
+
+    /**
+     * 看门狗回调（在连接事件循环上执行）
+     */
+    public interface Callback {
+        /**
+         * 发送探测包
+         *
+         * @param deviceKey 设备标识
+         * @return true 如果探测包已成功入队
+         */
+        boolean onProbe(String deviceKey);
+
+        /**
+         * 链路判定失效
+         *
+         * @param deviceKey 设备标识
+         * @param silentMs  已静默时长（毫秒）
+         */
+        void onLinkStale(String deviceKey, long silentMs);
+
+        /**
+         * 链路确认存活（连接后首次收到数据，或探测得到响应）
+         *
+         * @param deviceKey 设备标识
+         */
+        void onLinkAlive(String deviceKey);
+    }
+
+    private enum Phase {
+        WATCHING, // 正常监视
+        PROBING, // 已发探测包，等待任意数据
+        STALE // 已判定失效，等待 stop()
+    }
+
+    /**
+     * 单个设备的活性记录
+     */
+    private static final class DeviceRecord {
+        final String key;
+        volatile long lastRxNanos;
+        volatile long rxCount;
+        long probesSent;
+        long staleCount;
+
+        DeviceRecord(String key) {
+            this.key = key;
+        }
+    }
+
+    private final ConnectionStateMachine loop;
+    private final Callback callback;
+    private final Map<String, DeviceRecord> records = new ConcurrentHashMap<>();
+
+    private volatile long silenceMs = DEFAULT_SILENCE_MS;
+    private volatile long probeTimeoutMs = DEFAULT_PROBE_TIMEOUT_MS;
+    private volatile boolean probeEnabled = true;
+    private volatile boolean enabled = true;
+
+    // 以下字段只在事件循环上访问（active 另外会被IO线程读取）
+    private volatile DeviceRecord active;
+    private Phase phase;
+    private long watchStartNanos;
+    private long probeSentNanos;
+    private long rxCountAtStart;
+    private boolean aliveReported;
+    private ScheduledFuture<?> tickFuture;
+    private int generation;
+
+    public LinkWatchdog(ConnectionStateMachine loop, Callback callback) {
+        this.loop = loop;
+        this.callback = callback;
+    }
+
+    /**
+     * 配置看门狗参数（下一个检查周期生效）
+     *
+     * @param silenceMs      静默阈值（毫秒）
+     * @param probeTimeoutMs 探测超时（毫秒）；不探测时同样作为静默之后的宽限期
+     * @param probeEnabled   是否在静默后发送探测包
+     */
+    public void configure(long silenceMs, long probeTimeoutMs, boolean probeEnabled) {
+        if (silenceMs <= 0 || probeTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Watchdog timeouts must be positive");
+        }
+        this.silenceMs = silenceMs;
+        this.probeTimeoutMs = probeTimeoutMs;
+        this.probeEnabled = probeEnabled;
+        CoreLog.d(TAG, "⚙️ Watchdog configured: silence=" + silenceMs + "ms, probeTimeout=" + probeTimeoutMs
+                + "ms, probe=" + probeEnabled);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 启用/禁用看门狗（禁用后正在进行的监视在下一个检查周期停止）
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 最坏情况下从最后一次收到数据到判定失效的时间（毫秒）
+     */
+    public long getStaleBoundMs() {
+        return silenceMs + probeTimeoutMs + tickIntervalMs();
+    }
+
+    /**
+     * 记录收到数据（IO线程热路径）
+     */
+    public void onRx() {
+        DeviceRecord record = active;
+        if (record != null) {
+            record.lastRxNanos = System.nanoTime();
+            record.rxCount++;
+        }
+    }
+
+    /**
+     * 开始监视设备（必须在事件循环上调用）
+     *
+     * @param deviceKey 设备标识
+     */
+    public void start(String deviceKey) {
+        stop();
+        if (!enabled) {
+            return;
+        }
+        DeviceRecord record = records.get(deviceKey);
+        if (record == null) {
+            record = new DeviceRecord(deviceKey);
+            records.put(deviceKey, record);
+        }
+        long now = System.nanoTime();
+        // 连接建立视为一次活动，从此刻开始计算静默
+        record.lastRxNanos = now;
+        watchStartNanos = now;
+        rxCountAtStart = record.rxCount;
+        aliveReported = false;
+        phase = Phase.WATCHING;
+        active = record;
+        CoreLog.d(TAG, "👁 Watching " + deviceKey + " (stale bound " + getStaleBoundMs() + "ms)");
+        scheduleTick(++generation);
+    }
+
+    /**
+     * 停止监视（必须在事件循环上调用）
+     */
+    public void stop() {
+        generation++;
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+        if (active != null) {
+            CoreLog.d(TAG, "⏹ Stopped watching " + active.key);
+        }
+        active = null;
+        phase = null;
+    }
+
+    private long tickIntervalMs() {
+        long tick = Math.min(silenceMs, probeTimeoutMs) / 2;
+        return Math.max(MIN_TICK_MS, Math.min(MAX_TICK_MS, tick));
+    }
+
+    private void scheduleTick(final int gen) {
+        tickFuture = loop.postDelayed(() -> tick(gen), tickIntervalMs());
+    }
+
+    private void tick(int gen) {
+        DeviceRecord record = active;
+        if (gen != generation || record == null || phase == null) {
+            // 已 stop() 或重新 start()，旧周期作废
+            return;
+        }
+        if (!enabled) {
+            stop();
+            return;
+        }
+
+        long now = System.nanoTime();
+        long lastRx = record.lastRxNanos;
+        long silentMs = (now - lastRx) / 1000000L;
+
+        if (!aliveReported && record.rxCount != rxCountAtStart) {
+            aliveReported = true;
+            callback.onLinkAlive(record.key);
+        }
+
+        switch (phase) {
+            case WATCHING:
+                if (silentMs >= silenceMs) {
+                    if (probeEnabled) {
+                        record.probesSent++;
+                        probeSentNanos = now;
+                        phase = Phase.PROBING;
+                        CoreLog.d(TAG, "📡 " + record.key + " silent " + silentMs + "ms, sending probe");
+                        if (!callback.onProbe(record.key)) {
+                            CoreLog.w(TAG, "⚠️ Probe could not be queued for " + record.key);
+                        }
+                    } else if (silentMs >= silenceMs + probeTimeoutMs) {
+                        declareStale(record, silentMs);
+                        return;
+                    }
+                }
+                break;
+            case PROBING:
+                if (lastRx - probeSentNanos > 0) {
+                    CoreLog.d(TAG, "✅ " + record.key + " answered probe");
+                    phase = Phase.WATCHING;
+                    callback.onLinkAlive(record.key);
+                } else if ((now - probeSentNanos) / 1000000L >= probeTimeoutMs) {
+                    declareStale(record, silentMs);
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+        scheduleTick(gen);
+    }
+
+    private void declareStale(DeviceRecord record, long silentMs) {
+        phase = Phase.STALE;
+        record.staleCount++;
+        CoreLog.w(TAG, "💀 Link stale: " + record.key + " silent for " + silentMs + "ms");
+        callback.onLinkStale(record.key, silentMs);
+    }
+
+    /**
+     * 获取指定设备距最后一次收到数据的时长
+     *
+     * @param deviceKey 设备标识
+     * @return 毫秒；从未监视过该设备返回 -1
+     */
+    public long getSilenceMs(String deviceKey) {
+        DeviceRecord record = records.get(deviceKey);
+        return record == null ? -1 : (System.nanoTime() - record.lastRxNanos) / 1000000L;
+    }
+
+    /**
+     * 获取看门狗状态（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public String getStatus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("LinkWatchdog[enabled=%b, silence=%dms, probeTimeout=%dms, probe=%b]",
+                enabled, silenceMs, probeTimeoutMs, probeEnabled));
+        DeviceRecord current = active;
+        for (DeviceRecord record : records.values()) {
+            sb.append(String.format("\n  %s%s: silent=%dms, rx=%d, probes=%d, stale=%d",
+                    record == current ? "* " : "  ", record.key,
+                    (System.nanoTime() - record.lastRxNanos) / 1000000L,
+                    record.rxCount, record.probesSent, record.staleCount));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,156 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 定位数据批量解码结果（列式基本类型数组）
+ * 一批 0xCC 定位帧解码到预分配的数组中，解码过程不产生任何对象分配；
+ * 批次对象可 clear() 后反复使用。
+ *
+ * @author SAE Maps
+ */
+public final class LocationBatch {
+
+    private final int capacity;
+    private final LocationFrame view = new LocationFrame();
+
+    public final int[] unitIds;
+    public final long[] timeMillis;
+    public final int[] latitudesE7;
+    public final int[] longitudesE7;
+    public final int[] altitudesCm;
+    public final int[] speedsCmPerSec;
+    public final int[] coursesCentiDeg;
+    public final byte[] statuses;
+    public final byte[] satellites;
+    public final int[] hdopsCenti;
+
+    private int size;
+    private long rejected;
+
+    public LocationBatch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        unitIds = new int[capacity];
+        timeMillis = new long[capacity];
+        latitudesE7 = new int[capacity];
+        longitudesE7 = new int[capacity];
+        altitudesCm = new int[capacity];
+        speedsCmPerSec = new int[capacity];
+        coursesCentiDeg = new int[capacity];
+        statuses = new byte[capacity];
+        satellites = new byte[capacity];
+        hdopsCenti = new int[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * 累计被拒绝（非定位帧）的帧数
+     */
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 解码一帧并追加到批次末尾
+     *
+     * @param buf    缓冲区
+     * @param offset 帧起始偏移
+     * @return true 如果已追加；非定位帧或批次已满返回 false
+     */
+    public boolean add(byte[] buf, int offset) {
+        if (size == capacity) {
+            return false;
+        }
+        LocationFrame f = view.wrap(buf, offset);
+        if (f == null) {
+            rejected++;
+            return false;
+        }
+        int i = size;
+        unitIds[i] = f.getUnitId();
+        timeMillis[i] = f.getTimeMillis();
+        latitudesE7[i] = f.getLatitudeE7();
+        longitudesE7[i] = f.getLongitudeE7();
+        altitudesCm[i] = f.getAltitudeCm();
+        speedsCmPerSec[i] = f.getSpeedCmPerSec();
+        coursesCentiDeg[i] = f.getCourseCentiDegrees();
+        statuses[i] = (byte) f.getStatus();
+        satellites[i] = (byte) f.getSatellites();
+        hdopsCenti[i] = f.getHdopCenti();
+        size = i + 1;
+        return true;
+    }
+
+    /**
+     * 批量解码一组独立的帧
+     *
+     * @param frames 帧数组
+     * @param from   起始下标
+     * @param count  帧数
+     * @return 实际解码的定位帧数
+     */
+    public int addAll(byte[][] frames, int from, int count) {
+        int decoded = 0;
+        for (int n = 0; n < count && size < capacity; n++) {
+            if (add(frames[from + n], 0)) {
+                decoded++;
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * 批量解码首尾相连的定位帧（如从日志或缓冲区整块读取的数据）
+     * 遇到非定位帧时按帧头的包长度跳过；无法识别的字节逐字节跳过
+     *
+     * @param buf    缓冲区
+     * @param offset 起始偏移
+     * @param length 数据长度
+     * @return 已消费的字节数（批次满时可能小于 length，剩余数据可在 clear() 后继续解码）
+     */
+    public int decodeStream(byte[] buf, int offset, int length) {
+        int pos = offset;
+        int end = offset + length;
+        while (end - pos >= FrameCodec.MIN_FRAME_LENGTH && size < capacity) {
+            if (!FrameCodec.isHeader(buf[pos], buf[pos + 1])) {
+                pos++;
+                continue;
+            }
+            int frameLength = FrameCodec.frameLength(buf[pos + FrameCodec.OFFSET_LENGTH]);
+            if (end - pos < frameLength) {
+                break;
+            }
+            add(buf, pos);
+            pos += frameLength;
+        }
+        return pos - offset;
+    }
+
+    public double getLatitude(int index) {
+        return latitudesE7[index] * 1e-7;
+    }
+
+    public double getLongitude(int index) {
+        return longitudesE7[index] * 1e-7;
+    }
+
+    public boolean hasFix(int index) {
+        return (statuses[index] & LocationFrame.STATUS_FIX_VALID) != 0;
+    }
+}
@@ -0,0 +1,175 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 定位流差分压缩基准
+ * 测量 {@link LocationDeltaCodec} 的压缩比和编解码吞吐，并逐帧校验解码结果与原始帧一致。
+ *
+ * 输入：
+ * - 带参数时读取串口原始抓包文件（USB 读到的字节流原样保存），从中提取全部 0xCC 帧
+ * - 无参数时生成模拟流量：若干手台 1Hz 上报，步行/车载速度随机游走，GPS 噪声 ±1m；
+ *   半数手台的保留字段带缓慢变化的非零内容（布局未核对，按可能携带实际数据的情况测）
+ *
+ * 运行：./gradlew :core:codecBenchmark [-Pcapture=抓包文件]
+ *
+ * @author SAE Maps
+ */
+public class LocationCodecBenchmark {
+
+    private static final int SYNTHETIC_UNITS = 50;
+    private static final int SYNTHETIC_SECONDS = 3600;
+    private static final int ROUNDS = 20;
+    private static final int WARMUP_ROUNDS = 5;
+    // 约 1 米对应的纬度 1e-7 度数
+    private static final double E7_PER_METER = 1e7 / 111195.0;
+
+    public static void main(String[] args) throws IOException {
+        CoreLog.setMinPriority(CoreLog.INFO);
+        byte[] frames;
+        String source;
+        if (args.length > 0) {
+            frames = extractFrames(Files.readAllBytes(Paths.get(args[0])));
+            source = args[0];
+        } else {
+            frames = synthesize();
+            source = String.format("synthetic (%d units x %d s @ 1Hz)", SYNTHETIC_UNITS, SYNTHETIC_SECONDS);
+        }
+        int count = frames.length / LocationFrame.FRAME_LENGTH;
+        if (count == 0) {
+            System.out.println("No 0xCC location frames found in " + source);
+            return;
+        }
+        System.out.println("Source: " + source + ", " + count + " location frames, " + frames.length + " bytes");
+
+        byte[] encoded = new byte[count * LocationDeltaCodec.MAX_RECORD_SIZE];
+        byte[] decoded = new byte[frames.length];
+        LocationFrame view = new LocationFrame();
+        int encodedLength = 0;
+        long encodeNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            LocationDeltaCodec.Encoder encoder = new LocationDeltaCodec.Encoder();
+            long t0 = System.nanoTime();
+            int p = 0;
+            for (int off = 0; off < frames.length; off += LocationFrame.FRAME_LENGTH) {
+                p += encoder.encode(view.wrap(frames, off), encoded, p);
+            }
+            long t1 = System.nanoTime();
+
+            LocationDeltaCodec.Decoder decoder = new LocationDeltaCodec.Decoder();
+            int q = 0;
+            int out = 0;
+            while (q < p) {
+                int n = decoder.decode(encoded, q, p, decoded, out);
+                if (n <= 0) {
+                    throw new IllegalStateException("Decode failed at " + q + ": " + n);
+                }
+                q += n;
+                out += LocationFrame.FRAME_LENGTH;
+            }
+            long t2 = System.nanoTime();
+
+            encodedLength = p;
+            if (round >= WARMUP_ROUNDS) {
+                encodeNanos = Math.min(encodeNanos, t1 - t0);
+                decodeNanos = Math.min(decodeNanos, t2 - t1);
+            }
+        }
+
+        // 逐字节比较（含保留字段）
+        boolean lossless = Arrays.equals(frames, decoded);
+
+        System.out.println(String.format("Encoded: %d bytes, %.2f bytes/fix, ratio %.2fx, lossless=%s",
+                encodedLength, (double) encodedLength / count, (double) frames.length / encodedLength, lossless));
+        System.out.println(String.format("Encode: %.1f Mfix/s (%.0f ns/fix), %.0f MB/s of raw frames",
+                count * 1e3 / encodeNanos, (double) encodeNanos / count, frames.length * 1e3 / encodeNanos));
+        System.out.println(String.format("Decode: %.1f Mfix/s (%.0f ns/fix), %.0f MB/s of raw frames",
+                count * 1e3 / decodeNanos, (double) decodeNanos / count, frames.length * 1e3 / decodeNanos));
+        if (!lossless) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 从原始串口字节流中提取 0xCC 帧，按顺序拼接
+     */
+    private static byte[] extractFrames(byte[] capture) {
+        byte[] out = new byte[capture.length];
+        int n = 0;
+        int pos = 0;
+        while (capture.length - pos >= FrameCodec.MIN_FRAME_LENGTH) {
+            if (!FrameCodec.isHeader(capture[pos], capture[pos + 1])) {
+                pos++;
+                continue;
+            }
+            int frameLength = FrameCodec.frameLength(capture[pos + FrameCodec.OFFSET_LENGTH]);
+            if (capture.length - pos < frameLength) {
+                break;
+            }
+            if (LocationFrame.isLocationFrame(capture, pos)) {
+                System.arraycopy(capture, pos, out, n, frameLength);
+                n += frameLength;
+            }
+            pos += frameLength;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static byte[] synthesize() {
+        Random random = new Random(42);
+        int[] lat = new int[SYNTHETIC_UNITS];
+        int[] lon = new int[SYNTHETIC_UNITS];
+        int[] alt = new int[SYNTHETIC_UNITS];
+        double[] speed = new double[SYNTHETIC_UNITS];
+        double[] heading = new double[SYNTHETIC_UNITS];
+        int[] sats = new int[SYNTHETIC_UNITS];
+        int[] battery = new int[SYNTHETIC_UNITS];
+        for (int u = 0; u < SYNTHETIC_UNITS; u++) {
+            lat[u] = 399000000 + random.nextInt(1000000);
+            lon[u] = 1164000000 + random.nextInt(1000000);
+            alt[u] = 4000 + random.nextInt(10000);
+            // 一半步行、一半车载
+            speed[u] = u % 2 == 0 ? 1 + random.nextDouble() : 8 + random.nextDouble() * 10;
+            heading[u] = random.nextDouble() * 2 * Math.PI;
+            sats[u] = 8 + random.nextInt(5);
+            battery[u] = 80 + random.nextInt(20);
+        }
+
+        long epoch = 1700000000L;
+        byte[] out = new byte[SYNTHETIC_UNITS * SYNTHETIC_SECONDS * LocationFrame.FRAME_LENGTH];
+        int p = 0;
+        for (int s = 0; s < SYNTHETIC_SECONDS; s++) {
+            for (int u = 0; u < SYNTHETIC_UNITS; u++) {
+                heading[u] += (random.nextDouble() - 0.5) * 0.2;
+                double step = speed[u] * E7_PER_METER;
+                lat[u] += (int) (step * Math.cos(heading[u]) + random.nextGaussian() * E7_PER_METER);
+                lon[u] += (int) (step * Math.sin(heading[u]) / Math.cos(Math.toRadians(40))
+                        + random.nextGaussian() * E7_PER_METER);
+                alt[u] += (int) (random.nextGaussian() * 30);
+                if (random.nextInt(120) == 0) {
+                    sats[u] = 6 + random.nextInt(7);
+                }
+                int course = (int) ((Math.toDegrees(heading[u]) % 360 + 360) % 360 * 100);
+                int speedCm = (int) (speed[u] * 100 + random.nextGaussian() * 10);
+                int frame = p;
+                p += LocationFrame.encode(out, p, 0x100000 + u, epoch + s, lat[u], lon[u], alt[u],
+                        Math.max(0, speedCm), course, LocationFrame.STATUS_FIX_VALID, sats[u],
+                        80 + random.nextInt(40));
+                if (u % 2 == 1) {
+                    if (random.nextInt(300) == 0 && battery[u] > 0) {
+                        battery[u]--;
+                    }
+                    out[frame + LocationFrame.OFFSET_RESERVED] = (byte) battery[u];
+                    out[frame + LocationFrame.OFFSET_RESERVED + 1] = (byte) (u * 7);
+                }
+            }
+        }
+        return out;
+    }
+}
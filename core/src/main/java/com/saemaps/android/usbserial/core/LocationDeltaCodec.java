@@ -0,0 +1,437 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 定位流差分压缩编解码
+ * 同一手台相邻两次定位通常只在坐标末几位上有差别，45 字节的原始 0xCC 帧大部分是冗余。
+ * 编码器按手台ID保存上一条记录，后续记录只写各字段的差值（ZigZag + 变长整数），
+ * 解码器维护相同的状态并还原出逐字节一致的 0xCC 帧。保留字段（偏移 31 起 14 字节）的含义尚未与固件核对，
+ * 按原始字节透传：关键帧在非全 0 时写入，差分帧只在与上一条不同时写入。
+ *
+ * 记录格式：
+ *
+ * <pre>
+ * [flags 1][unitId varint][字段...]
+ *   flags bit0 KEY：关键帧，字段为绝对值；否则为相对该手台上一条记录的差值
+ *   flags bit1 STATUS：带状态字节；bit2 SATS：带卫星数字节（非关键帧时只在变化时写）
+ *   flags bit3 RESERVED：带保留字段的 14 字节原始内容（没有时关键帧为全 0，差分帧沿用上一条）
+ * 关键帧：时间(秒) varint，纬度/经度/海拔 zigzag，速度/航向/HDOP varint，状态，卫星数，[保留字段]
+ * 差分帧：时间/纬度/经度/海拔/速度/航向/HDOP 的差值 zigzag，[状态]，[卫星数]，[保留字段]
+ * </pre>
+ *
+ * 每个手台每 keyframeInterval 条记录强制写一次关键帧，解码端中途加入或丢记录后最多等一个间隔即可重新同步。
+ * 同时提供 ZigZag/变长整数的基础方法，供 TrackLog 等其他紧凑格式复用。
+ *
+ * 编码器和解码器都不是线程安全的，每条流各用一个实例。
+ *
+ * @author SAE Maps
+ */
+public final class LocationDeltaCodec {
+
+    public static final int DEFAULT_MAX_UNITS = 256;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+    /** 单条记录的最大长度 */
+    public static final int MAX_RECORD_SIZE = 1 + 5 + 10 + 5 * 3 + 3 * 3 + 2 + LocationFrame.RESERVED_LENGTH;
+
+    private static final int FLAG_KEY = 0x01;
+    private static final int FLAG_STATUS = 0x02;
+    private static final int FLAG_SATS = 0x04;
+    private static final int FLAG_RESERVED = 0x08;
+    private static final int RESERVED = LocationFrame.RESERVED_LENGTH;
+
+    private LocationDeltaCodec() {
+    }
+
+    // ---------------------------------------------------------------- 基础方法
+
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 写入无符号变长整数（每字节7位，高位为续位标志）
+     *
+     * @return 写入后的偏移
+     */
+    public static int putVarLong(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * 读取变长整数
+     *
+     * @param in     输入
+     * @param cursor cursor[0] 为读取偏移，读取后前移
+     * @param limit  输入结束偏移
+     * @return 数值；越界或超过 10 字节时 cursor[0] 置为 -1
+     */
+    public static long getVarLong(byte[] in, int[] cursor, int limit) {
+        int pos = cursor[0];
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                cursor[0] = -1;
+                return 0;
+            }
+            byte b = in[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                cursor[0] = pos;
+                return result;
+            }
+        }
+        cursor[0] = -1;
+        return 0;
+    }
+
+    // ---------------------------------------------------------------- 每手台状态
+
+    /**
+     * 编码端与解码端共用的每手台上一条记录
+     */
+    private static final class UnitState {
+        final UnitIndex index;
+        final long[] epoch;
+        final int[] lat;
+        final int[] lon;
+        final int[] alt;
+        final int[] speed;
+        final int[] course;
+        final int[] hdop;
+        final byte[] status;
+        final byte[] sats;
+        // 每手台 RESERVED 字节
+        final byte[] reserved;
+        final int[] sinceKey;
+        final boolean[] valid;
+
+        UnitState(int maxUnits) {
+            index = new UnitIndex(maxUnits);
+            epoch = new long[maxUnits];
+            lat = new int[maxUnits];
+            lon = new int[maxUnits];
+            alt = new int[maxUnits];
+            speed = new int[maxUnits];
+            course = new int[maxUnits];
+            hdop = new int[maxUnits];
+            status = new byte[maxUnits];
+            sats = new byte[maxUnits];
+            reserved = new byte[maxUnits * RESERVED];
+            sinceKey = new int[maxUnits];
+            valid = new boolean[maxUnits];
+        }
+
+        void store(int slot, long e, int la, int lo, int al, int sp, int co, int hd, byte st, byte sa) {
+            epoch[slot] = e;
+            lat[slot] = la;
+            lon[slot] = lo;
+            alt[slot] = al;
+            speed[slot] = sp;
+            course[slot] = co;
+            hdop[slot] = hd;
+            status[slot] = st;
+            sats[slot] = sa;
+            valid[slot] = true;
+        }
+
+        boolean reservedEquals(int slot, byte[] value, int off) {
+            int base = slot * RESERVED;
+            for (int i = 0; i < RESERVED; i++) {
+                if (reserved[base + i] != value[off + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void clear() {
+            index.clear();
+            java.util.Arrays.fill(valid, false);
+        }
+    }
+
+    // ---------------------------------------------------------------- 编码器
+
+    /**
+     * 差分编码器
+     */
+    public static final class Encoder {
+
+        private final UnitState state;
+        private final int keyframeInterval;
+        // 当前记录的保留字段
+        private final byte[] reserved = new byte[RESERVED];
+        private long records;
+        private long keyframes;
+        private long inputBytes;
+        private long outputBytes;
+
+        public Encoder() {
+            this(DEFAULT_MAX_UNITS, DEFAULT_KEYFRAME_INTERVAL);
+        }
+
+        /**
+         * @param maxUnits         保存差分状态的手台数上限（超出的手台每条都写关键帧）
+         * @param keyframeInterval 每手台关键帧间隔（记录数）
+         */
+        public Encoder(int maxUnits, int keyframeInterval) {
+            if (keyframeInterval <= 0) {
+                throw new IllegalArgumentException("Keyframe interval must be positive");
+            }
+            this.state = new UnitState(maxUnits);
+            this.keyframeInterval = keyframeInterval;
+        }
+
+        /**
+         * 编码一个定位帧
+         *
+         * @param frame 已 wrap 的定位帧
+         * @param out   输出缓冲区（至少 MAX_RECORD_SIZE 字节可写）
+         * @param off   写入偏移
+         * @return 写入的字节数
+         */
+        public int encode(LocationFrame frame, byte[] out, int off) {
+            frame.copyReserved(reserved, 0);
+            return encode(frame.getUnitId(), frame.getEpochSeconds(), frame.getLatitudeE7(),
+                    frame.getLongitudeE7(), frame.getAltitudeCm(), frame.getSpeedCmPerSec(),
+                    frame.getCourseCentiDegrees(), frame.getStatus(), frame.getSatellites(), frame.getHdopCenti(),
+                    reserved, out, off);
+        }
+
+        /**
+         * 编码一条保留字段全为 0 的定位记录
+         *
+         * @return 写入的字节数
+         */
+        public int encode(int unitId, long epochSeconds, int latitudeE7, int longitudeE7, int altitudeCm,
+                int speedCmPerSec, int courseCentiDeg, int status, int satellites, int hdopCenti,
+                byte[] out, int off) {
+            java.util.Arrays.fill(reserved, (byte) 0);
+            return encode(unitId, epochSeconds, latitudeE7, longitudeE7, altitudeCm, speedCmPerSec, courseCentiDeg,
+                    status, satellites, hdopCenti, reserved, out, off);
+        }
+
+        private int encode(int unitId, long epochSeconds, int latitudeE7, int longitudeE7, int altitudeCm,
+                int speedCmPerSec, int courseCentiDeg, int status, int satellites, int hdopCenti,
+                byte[] tail, byte[] out, int off) {
+            int slot = state.index.findOrAdd(unitId);
+            boolean key = slot < 0 || !state.valid[slot] || state.sinceKey[slot] >= keyframeInterval;
+            byte st = (byte) status;
+            byte sa = (byte) satellites;
+            int flags;
+            int p = off + 1;
+            p = putVarLong(out, p, unitId);
+            if (key) {
+                flags = FLAG_KEY | FLAG_STATUS | FLAG_SATS;
+                p = putVarLong(out, p, epochSeconds);
+                p = putVarLong(out, p, zigzag(latitudeE7));
+                p = putVarLong(out, p, zigzag(longitudeE7));
+                p = putVarLong(out, p, zigzag(altitudeCm));
+                p = putVarLong(out, p, speedCmPerSec);
+                p = putVarLong(out, p, courseCentiDeg);
+                p = putVarLong(out, p, hdopCenti);
+                out[p++] = st;
+                out[p++] = sa;
+                if (!isZero(tail)) {
+                    flags |= FLAG_RESERVED;
+                    System.arraycopy(tail, 0, out, p, RESERVED);
+                    p += RESERVED;
+                }
+                keyframes++;
+            } else {
+                flags = 0;
+                p = putVarLong(out, p, zigzag(epochSeconds - state.epoch[slot]));
+                p = putVarLong(out, p, zigzag((long) latitudeE7 - state.lat[slot]));
+                p = putVarLong(out, p, zigzag((long) longitudeE7 - state.lon[slot]));
+                p = putVarLong(out, p, zigzag((long) altitudeCm - state.alt[slot]));
+                p = putVarLong(out, p, zigzag(speedCmPerSec - state.speed[slot]));
+                p = putVarLong(out, p, zigzag(courseCentiDeg - state.course[slot]));
+                p = putVarLong(out, p, zigzag(hdopCenti - state.hdop[slot]));
+                if (st != state.status[slot]) {
+                    flags |= FLAG_STATUS;
+                    out[p++] = st;
+                }
+                if (sa != state.sats[slot]) {
+                    flags |= FLAG_SATS;
+                    out[p++] = sa;
+                }
+                if (!state.reservedEquals(slot, tail, 0)) {
+                    flags |= FLAG_RESERVED;
+                    System.arraycopy(tail, 0, out, p, RESERVED);
+                    p += RESERVED;
+                }
+            }
+            out[off] = (byte) flags;
+            if (slot >= 0) {
+                state.store(slot, epochSeconds, latitudeE7, longitudeE7, altitudeCm, speedCmPerSec, courseCentiDeg,
+                        hdopCenti, st, sa);
+                System.arraycopy(tail, 0, state.reserved, slot * RESERVED, RESERVED);
+                state.sinceKey[slot] = key ? 0 : state.sinceKey[slot] + 1;
+            }
+            records++;
+            inputBytes += LocationFrame.FRAME_LENGTH;
+            outputBytes += p - off;
+            return p - off;
+        }
+
+        private static boolean isZero(byte[] tail) {
+            for (byte b : tail) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 丢弃全部差分状态，之后每个手台的下一条记录都是关键帧（如下游重新连接）
+         */
+        public void reset() {
+            state.clear();
+        }
+
+        /**
+         * 压缩比（原始 0xCC 帧字节数 / 编码后字节数）
+         */
+        public double getCompressionRatio() {
+            return outputBytes == 0 ? 0 : (double) inputBytes / outputBytes;
+        }
+
+        public String getStatus() {
+            return String.format("LocationDeltaCodec.Encoder[records=%d, keyframes=%d, ratio=%.2f]",
+                    records, keyframes, getCompressionRatio());
+        }
+    }
+
+    // ---------------------------------------------------------------- 解码器
+
+    /**
+     * 差分解码器，输出还原后的 45 字节 0xCC 帧
+     */
+    public static final class Decoder {
+
+        /** 输入不完整，需要更多字节 */
+        public static final int NEED_MORE = 0;
+        /** 记录无法解码（格式错误或缺少关键帧），调用方应跳过这条流直到重新同步 */
+        public static final int INVALID = -1;
+
+        private final UnitState state;
+        private final int[] cursor = new int[1];
+        private long records;
+        private long missingKeyframe;
+
+        public Decoder() {
+            this(DEFAULT_MAX_UNITS);
+        }
+
+        public Decoder(int maxUnits) {
+            this.state = new UnitState(maxUnits);
+        }
+
+        /**
+         * 解码一条记录
+         *
+         * @param in       输入
+         * @param off      记录起始偏移
+         * @param limit    输入结束偏移
+         * @param frameOut 输出的 0xCC 帧（至少 LocationFrame.FRAME_LENGTH 字节可写）
+         * @param frameOff 输出偏移
+         * @return 消耗的字节数；NEED_MORE 或 INVALID
+         */
+        public int decode(byte[] in, int off, int limit, byte[] frameOut, int frameOff) {
+            if (off >= limit) {
+                return NEED_MORE;
+            }
+            int flags = in[off] & 0xFF;
+            if ((flags & ~(FLAG_KEY | FLAG_STATUS | FLAG_SATS | FLAG_RESERVED)) != 0) {
+                return INVALID;
+            }
+            cursor[0] = off + 1;
+            int unitId = (int) getVarLong(in, cursor, limit);
+            long a = getVarLong(in, cursor, limit);
+            long b = getVarLong(in, cursor, limit);
+            long c = getVarLong(in, cursor, limit);
+            long d = getVarLong(in, cursor, limit);
+            long e = getVarLong(in, cursor, limit);
+            long f = getVarLong(in, cursor, limit);
+            long g = getVarLong(in, cursor, limit);
+            if (cursor[0] < 0) {
+                return NEED_MORE;
+            }
+            int p = cursor[0];
+            int extra = ((flags & FLAG_STATUS) != 0 ? 1 : 0) + ((flags & FLAG_SATS) != 0 ? 1 : 0)
+                    + ((flags & FLAG_RESERVED) != 0 ? RESERVED : 0);
+            if (p + extra > limit) {
+                return NEED_MORE;
+            }
+
+            int slot = state.index.findOrAdd(unitId);
+            long epoch;
+            int lat;
+            int lon;
+            int alt;
+            int speed;
+            int course;
+            int hdop;
+            byte st;
+            byte sa;
+            if ((flags & FLAG_KEY) != 0) {
+                epoch = a;
+                lat = (int) unzigzag(b);
+                lon = (int) unzigzag(c);
+                alt = (int) unzigzag(d);
+                speed = (int) e;
+                course = (int) f;
+                hdop = (int) g;
+                st = in[p++];
+                sa = in[p++];
+            } else {
+                if (slot < 0 || !state.valid[slot]) {
+                    missingKeyframe++;
+                    return INVALID;
+                }
+                epoch = state.epoch[slot] + unzigzag(a);
+                lat = (int) (state.lat[slot] + unzigzag(b));
+                lon = (int) (state.lon[slot] + unzigzag(c));
+                alt = (int) (state.alt[slot] + unzigzag(d));
+                speed = (int) (state.speed[slot] + unzigzag(e));
+                course = (int) (state.course[slot] + unzigzag(f));
+                hdop = (int) (state.hdop[slot] + unzigzag(g));
+                st = (flags & FLAG_STATUS) != 0 ? in[p++] : state.status[slot];
+                sa = (flags & FLAG_SATS) != 0 ? in[p++] : state.sats[slot];
+            }
+            LocationFrame.encode(frameOut, frameOff, unitId, epoch, lat, lon, alt, speed, course, st & 0xFF,
+                    sa & 0xFF, hdop);
+            int tailOff = frameOff + LocationFrame.OFFSET_RESERVED;
+            if ((flags & FLAG_RESERVED) != 0) {
+                System.arraycopy(in, p, frameOut, tailOff, RESERVED);
+                p += RESERVED;
+            } else if ((flags & FLAG_KEY) == 0) {
+                System.arraycopy(state.reserved, slot * RESERVED, frameOut, tailOff, RESERVED);
+            }
+            if (slot >= 0) {
+                state.store(slot, epoch, lat, lon, alt, speed, course, hdop, st, sa);
+                System.arraycopy(frameOut, tailOff, state.reserved, slot * RESERVED, RESERVED);
+            }
+            records++;
+            return p - off;
+        }
+
+        public void reset() {
+            state.clear();
+        }
+
+        public String getStatus() {
+            return String.format("LocationDeltaCodec.Decoder[records=%d, missingKeyframe=%d]", records,
+                    missingKeyframe);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 0xCC 定位数据包的享元（flyweight）解码器
+ * 不拷贝、不创建对象，按偏移直接从包缓冲区读取字段；一个实例可反复 wrap() 到不同的数据包上。
+ *
+ * 帧布局（45字节，多字节字段均为小端序，与ID响应一致）：
+ *
+ * <pre>
+ * 偏移  长度  字段
+ *  0     2    包头 0x68 0x00
+ *  2     1    包长度 0x2A (42)
+ *  3     1    命令类型 0xCC
+ *  4     3    手台ID（无符号24位）
+ *  7     4    定位时间（UTC 秒，无符号32位）
+ * 11     4    纬度（有符号，单位 1e-7 度）
+ * 15     4    经度（有符号，单位 1e-7 度）
+ * 19     4    海拔（有符号，单位 厘米）
+ * 23     2    速度（无符号，单位 厘米/秒）
+ * 25     2    航向（无符号，单位 0.01 度）
+ * 27     1    状态位（bit0: 定位有效，bit1: 差分定位）
+ * 28     1    卫星数
+ * 29     2    HDOP（无符号，单位 0.01）
+ * 31    14    保留
+ * </pre>
+ *
+ * 注意：现有文档只规定了包长度，以上字段布局为约定格式，偏移集中定义在本类的常量中，
+ * 与手台固件核对或协议调整时只需修改这里。
+ *
+ * 线程安全：实例不是线程安全的，每个解码线程应持有自己的实例。
+ *
+ * @author SAE Maps
+ */
+public final class LocationFrame {
+
+    public static final int FRAME_LENGTH = 45;
+
+    public static final int OFFSET_UNIT_ID = 4;
+    public static final int OFFSET_TIME = 7;
+    public static final int OFFSET_LATITUDE = 11;
+    public static final int OFFSET_LONGITUDE = 15;
+    public static final int OFFSET_ALTITUDE = 19;
+    public static final int OFFSET_SPEED = 23;
+    public static final int OFFSET_COURSE = 25;
+    public static final int OFFSET_STATUS = 27;
+    public static final int OFFSET_SATELLITES = 28;
+    public static final int OFFSET_HDOP = 29;
+    public static final int OFFSET_RESERVED = 31;
+    public static final int RESERVED_LENGTH = FRAME_LENGTH - OFFSET_RESERVED;
+
+    public static final int STATUS_FIX_VALID = 0x01;
+    public static final int STATUS_DIFFERENTIAL = 0x02;
+
+    private static final double E7 = 1e-7;
+
+    private byte[] buffer;
+    private int base;
+
+    /**
+     * 判断缓冲区指定位置是否为一个完整的 0xCC 定位帧
+     *
+     * @param buf    缓冲区
+     * @param offset 帧起始偏移
+     * @return true 如果包头、包长度和命令类型都匹配
+     */
+    public static boolean isLocationFrame(byte[] buf, int offset) {
+        return buf != null && offset >= 0 && buf.length - offset >= FRAME_LENGTH
+                && FrameCodec.isHeader(buf[offset], buf[offset + 1])
+                && (buf[offset + FrameCodec.OFFSET_LENGTH] & 0xFF) == PacketType.LOCATION.getLengthField()
+                && (buf[offset + FrameCodec.OFFSET_COMMAND] & 0xFF) == FrameCodec.CMD_LOCATION;
+    }
+
+    /**
+     * 绑定到一个完整帧
+     *
+     * @param frame 帧数据
+     * @return this；帧不是定位包时返回 null
+     */
+    public LocationFrame wrap(byte[] frame) {
+        return wrap(frame, 0);
+    }
+
+    /**
+     * 绑定到缓冲区中指定偏移处的帧
+     *
+     * @param buf    缓冲区
+     * @param offset 帧起始偏移
+     * @return this；该处不是定位包时返回 null
+     */
+    public LocationFrame wrap(byte[] buf, int offset) {
+        if (!isLocationFrame(buf, offset)) {
+            return null;
+        }
+        this.buffer = buf;
+        this.base = offset;
+        return this;
+    }
+
+    public int getUnitId() {
+        return FrameCodec.readUInt24LE(buffer, base + OFFSET_UNIT_ID);
+    }
+
+    /**
+     * 定位时间（UTC 秒）
+     */
+    public long getEpochSeconds() {
+        return FrameCodec.readUInt32LE(buffer, base + OFFSET_TIME);
+    }
+
+    /**
+     * 定位时间（UTC 毫秒，便于直接与 System.currentTimeMillis() 比较）
+     */
+    public long getTimeMillis() {
+        return getEpochSeconds() * 1000L;
+    }
+
+    public int getLatitudeE7() {
+        return FrameCodec.readInt32LE(buffer, base + OFFSET_LATITUDE);
+    }
+
+    public int getLongitudeE7() {
+        return FrameCodec.readInt32LE(buffer, base + OFFSET_LONGITUDE);
+    }
+
+    public double getLatitude() {
+        return getLatitudeE7() * E7;
+    }
+
+    public double getLongitude() {
+        return getLongitudeE7() * E7;
+    }
+
+    public int getAltitudeCm() {
+        return FrameCodec.readInt32LE(buffer, base + OFFSET_ALTITUDE);
+    }
+
+    public double getAltitudeMeters() {
+        return getAltitudeCm() / 100.0;
+    }
+
+    public int getSpeedCmPerSec() {
+        return FrameCodec.readUInt16LE(buffer, base + OFFSET_SPEED);
+    }
+
+    public double getSpeedMetersPerSec() {
+        return getSpeedCmPerSec() / 100.0;
+    }
+
+    public int getCourseCentiDegrees() {
+        return FrameCodec.readUInt16LE(buffer, base + OFFSET_COURSE);
+    }
+
+    public double getCourseDegrees() {
+        return getCourseCentiDegrees() / 100.0;
+    }
+
+    public int getStatus() {
+        return buffer[base + OFFSET_STATUS] & 0xFF;
+    }
+
+    public boolean hasFix() {
+        return (getStatus() & STATUS_FIX_VALID) != 0;
+    }
+
+    public int getSatellites() {
+        return buffer[base + OFFSET_SATELLITES] & 0xFF;
+    }
+
+    public int getHdopCenti() {
+        return FrameCodec.readUInt16LE(buffer, base + OFFSET_HDOP);
+    }
+
+    public double getHdop() {
+        return getHdopCenti() / 100.0;
+    }
+
+    /**
+     * 复制保留字段（偏移 31 起 14 字节）的原始内容；布局未与固件核对前，这些字节可能带有实际数据
+     *
+     * @param dest       目标缓冲区（至少 RESERVED_LENGTH 字节可写）
+     * @param destOffset 写入偏移
+     */
+    public void copyReserved(byte[] dest, int destOffset) {
+        System.arraycopy(buffer, base + OFFSET_RESERVED, dest, destOffset, RESERVED_LENGTH);
+    }
+
+    /**
+     * 按本类定义的布局编码一个定位帧（用于模拟设备、压测和基准）
+     *
+     * @param buf    目标缓冲区（至少 FRAME_LENGTH 字节可写）
+     * @param offset 写入偏移
+     * @return 写入的字节数（FRAME_LENGTH）
+     */
+    public static int encode(byte[] buf, int offset, int unitId, long epochSeconds, int latitudeE7,
+            int longitudeE7, int altitudeCm, int speedCmPerSec, int courseCentiDeg, int status, int satellites,
+            int hdopCenti) {
+        buf[offset] = FrameCodec.HEADER_0;
+        buf[offset + 1] = FrameCodec.HEADER_1;
+        buf[offset + FrameCodec.OFFSET_LENGTH] = (byte) PacketType.LOCATION.getLengthField();
+        buf[offset + FrameCodec.OFFSET_COMMAND] = (byte) FrameCodec.CMD_LOCATION;
+        putLE(buf, offset + OFFSET_UNIT_ID, unitId, 3);
+        putLE(buf, offset + OFFSET_TIME, (int) epochSeconds, 4);
+        putLE(buf, offset + OFFSET_LATITUDE, latitudeE7, 4);
+        putLE(buf, offset + OFFSET_LONGITUDE, longitudeE7, 4);
+        putLE(buf, offset + OFFSET_ALTITUDE, altitudeCm, 4);
+        putLE(buf, offset + OFFSET_SPEED, speedCmPerSec, 2);
+        putLE(buf, offset + OFFSET_COURSE, courseCentiDeg, 2);
+        buf[offset + OFFSET_STATUS] = (byte) status;
+        buf[offset + OFFSET_SATELLITES] = (byte) satellites;
+        putLE(buf, offset + OFFSET_HDOP, hdopCenti, 2);
+        for (int i = OFFSET_RESERVED; i < FRAME_LENGTH; i++) {
+            buf[offset + i] = 0;
+        }
+        return FRAME_LENGTH;
+    }
+
+    private static void putLE(byte[] buf, int offset, int value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            buf[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * 坐标是否在合法范围内（用于过滤未定位时的填充值）
+     */
+    public boolean hasValidCoordinates() {
+        int lat = getLatitudeE7();
+        int lon = getLongitudeE7();
+        return lat >= -900000000 && lat <= 900000000 && lon >= -1800000000 && lon <= 1800000000;
+    }
+}
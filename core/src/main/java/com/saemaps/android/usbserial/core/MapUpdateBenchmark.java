@@ -0,0 +1,166 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 地图标记更新基准
+ * 对比"逐包更新标记"与"按显示帧合并 + 移动阈值过滤"两种方式下，每帧UI耗时随跟踪单位数的变化。
+ *
+ * 模型：
+ * - 每个单位以 1~3 m/s 沿缓慢变化的航向移动（位置用 double 累加，取整后才上报，保证小步长也会累积），
+ *   每帧收到 PACKETS_PER_UNIT_PER_FRAME 个定位包（中继突发）
+ * - 一次标记更新的代价 = 坐标对象分配 + 墨卡托投影到屏幕像素 + 图层包围盒更新 + 渲染失效，
+ *   渲染失效（ATAK 中 setPoint 触发的监听器和 GL 渲染对象重建）用固定忙等模拟，
+ *   默认 DEFAULT_UPDATE_COST_NS，可用第一个参数覆盖（填真机上测得的单次更新耗时）
+ * - 真机上的实际帧耗时见 MapMarkerUpdater.getFrameTimeHistogram()
+ *
+ * 运行：./gradlew :core:mapUpdateBenchmark
+ *
+ * @author SAE Maps
+ */
+public class MapUpdateBenchmark {
+
+    private static final int[] UNIT_COUNTS = { 10, 25, 50, 100, 250, 500, 1000 };
+    private static final int FRAMES = 600; // 60fps 下约 10 秒
+    private static final int WARMUP_FRAMES = 200;
+    private static final int PACKETS_PER_UNIT_PER_FRAME = 2;
+    private static final double FRAME_SECONDS = 1.0 / 60;
+    private static final double THRESHOLD_METERS = 2.0;
+    // 约 1 米对应的纬度 1e-7 度数
+    private static final double E7_PER_METER = 1e7 / 111195.0;
+    // 每次标记更新的渲染失效代价（纳秒）
+    private static final long DEFAULT_UPDATE_COST_NS = 2000;
+    private static final double MAP_SIZE_PX = 256 << 16; // 缩放级别 16 的墨卡托世界宽度
+
+    private static long updateCostNs = DEFAULT_UPDATE_COST_NS;
+
+    /**
+     * 模拟地图标记集合
+     */
+    private static final class FakeMarkerLayer implements PositionCoalescer.UpdateSink {
+        final Map<Integer, double[]> markers = new HashMap<>();
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        long updates;
+
+        void apply(int unitId, int lat, int lon, int alt) {
+            double latDeg = lat * 1e-7;
+            double lonDeg = lon * 1e-7;
+            // 投影到屏幕像素
+            double x = (lonDeg + 180) / 360 * MAP_SIZE_PX;
+            double sinLat = Math.sin(Math.toRadians(latDeg));
+            double y = (0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI)) * MAP_SIZE_PX;
+            double[] point = { latDeg, lonDeg, alt / 100.0, x, y };
+            markers.put(unitId, point);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            spin(updateCostNs);
+            updates++;
+        }
+
+        @Override
+        public void onPositionUpdate(int unitId, int latitudeE7, int longitudeE7, int altitudeCm,
+                int courseCentiDeg, long timeMillis, boolean created) {
+            apply(unitId, latitudeE7, longitudeE7, altitudeCm);
+        }
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // 忙等，模拟渲染失效
+        }
+    }
+
+    public static void main(String[] args) {
+        CoreLog.setMinPriority(CoreLog.INFO);
+        if (args.length > 0) {
+            updateCostNs = Long.parseLong(args[0]);
+        }
+        System.out.println("update cost " + updateCostNs + "ns, threshold " + THRESHOLD_METERS + "m");
+        System.out.println("units  pkts/frame | naive upd/frame  p50us  p99us | coalesced upd/frame  p50us  p99us");
+        for (int units : UNIT_COUNTS) {
+            runScenario(units);
+        }
+    }
+
+    private static void runScenario(int units) {
+        Random random = new Random(units);
+        double[] lat = new double[units];
+        double[] lon = new double[units];
+        double[] speed = new double[units];
+        double[] heading = new double[units];
+        for (int u = 0; u < units; u++) {
+            lat[u] = 399000000 + random.nextInt(1000000);
+            lon[u] = 1164000000 + random.nextInt(1000000);
+            speed[u] = 1 + random.nextDouble() * 2;
+            heading[u] = random.nextDouble() * 2 * Math.PI;
+        }
+        double lonScale = 1 / Math.cos(Math.toRadians(39.9));
+
+        LatencyHistogram naiveHist = new LatencyHistogram("naive");
+        LatencyHistogram coalescedHist = new LatencyHistogram("coalesced");
+        FakeMarkerLayer naiveLayer = new FakeMarkerLayer();
+        FakeMarkerLayer coalescedLayer = new FakeMarkerLayer();
+        PositionCoalescer coalescer = new PositionCoalescer(units, THRESHOLD_METERS);
+
+        int packetsPerFrame = units * PACKETS_PER_UNIT_PER_FRAME;
+        int[] frameUnit = new int[packetsPerFrame];
+        int[] frameLat = new int[packetsPerFrame];
+        int[] frameLon = new int[packetsPerFrame];
+
+        for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+            // 生成本帧到达的定位包
+            int p = 0;
+            for (int k = 0; k < PACKETS_PER_UNIT_PER_FRAME; k++) {
+                for (int u = 0; u < units; u++) {
+                    double step = speed[u] * FRAME_SECONDS / PACKETS_PER_UNIT_PER_FRAME * E7_PER_METER;
+                    heading[u] += (random.nextDouble() - 0.5) * 0.02;
+                    lat[u] += step * Math.cos(heading[u]);
+                    lon[u] += step * Math.sin(heading[u]) * lonScale;
+                    frameUnit[p] = u;
+                    frameLat[p] = (int) Math.round(lat[u]);
+                    frameLon[p] = (int) Math.round(lon[u]);
+                    p++;
+                }
+            }
+            boolean measured = frame >= WARMUP_FRAMES;
+
+            // 方式一：每个包都在UI线程上更新一次标记
+            long t0 = System.nanoTime();
+            for (int i = 0; i < packetsPerFrame; i++) {
+                naiveLayer.apply(frameUnit[i], frameLat[i], frameLon[i], 0);
+            }
+            long t1 = System.nanoTime();
+
+            // 方式二：数据线程 offer（不计入UI耗时），UI线程每帧 drain 一次
+            for (int i = 0; i < packetsPerFrame; i++) {
+                coalescer.offer(frameUnit[i], frameLat[i], frameLon[i], 0, 0, frame);
+            }
+            long t2 = System.nanoTime();
+            coalescer.drain(coalescedLayer);
+            long t3 = System.nanoTime();
+
+            if (measured) {
+                naiveHist.recordNanos(t1 - t0);
+                coalescedHist.recordNanos(t3 - t2);
+            } else if (frame == WARMUP_FRAMES - 1) {
+                naiveLayer.updates = 0;
+                coalescedLayer.updates = 0;
+            }
+        }
+
+        System.out.println(String.format("%5d  %10d | %15.1f  %5d  %5d | %19.1f  %5d  %5d",
+                units, packetsPerFrame,
+                (double) naiveLayer.updates / FRAMES, naiveHist.getValueAtPercentile(50),
+                naiveHist.getValueAtPercentile(99),
+                (double) coalescedLayer.updates / FRAMES, coalescedHist.getValueAtPercentile(50),
+                coalescedHist.getValueAtPercentile(99)));
+    }
+}
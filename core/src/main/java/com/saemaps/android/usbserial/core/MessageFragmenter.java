@@ -0,0 +1,435 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 分片消息发送（滑动窗口）
+ * 把超过一帧容量的消息按 {@link FragmentCodec} 拆成带序号的分片帧，经由帧发送通道（即共享端口的写队列）
+ * 发出；同时在途的分片不超过窗口大小，收到确认后窗口滑动、补发新分片。
+ *
+ * - 分片数据直接引用消息缓冲区的切片，通过分段写入交给写任务，不为每个分片复制数组
+ * - 确认帧带累计确认和 32 位选择确认位图，超时只重传仍未确认的分片；超时时间按次数加倍
+ * - 连续重传 maxRetries 次仍无进展判定失败
+ * - 窗口跨消息：一条消息的分片全部发出后，窗口余量立即用于发送排队的下一条消息（同时在途的消息数
+ *   不超过 maxMessagesInFlight），消息之间不必等最后一个确认的往返；对端按消息ID分别重组，
+ *   因此各消息在对端完成的先后不保证，本地的 onComplete 仍按发送顺序回调
+ * - 可按消息ID取消单条消息（{@link #cancel(int)}）
+ *
+ * 线程模型（与 {@link LinkWatchdog} 相同）：
+ * - send()/onAck()/cancel() 可在任意线程调用，实际处理都投递到 {@link ConnectionStateMachine} 的事件循环上
+ * - 监听器在事件循环上回调
+ *
+ * @author SAE Maps
+ */
+public final class MessageFragmenter {
+
+    private static final String TAG = "MessageFragmenter";
+
+    /**
+     * 单条消息的发送回调（在事件循环上执行）
+     */
+    public interface Listener {
+        void onProgress(int messageId, int acked, int count);
+
+        void onComplete(int messageId);
+
+        void onFailed(int messageId, IOException error);
+    }
+
+    public static final class Config {
+        int window = 8;
+        int maxMessagesInFlight = 2;
+        int fragmentSize = FragmentCodec.MAX_PAYLOAD;
+        long retransmitTimeoutMs = 2000;
+        int maxRetries = 5;
+        int maxMessageBytes = 64 * 1024;
+
+        /** 同时在途的分片数上限（所有在途消息合计） */
+        public Config setWindow(int window) {
+            this.window = window;
+            return this;
+        }
+
+        /** 同时在途的消息数上限（不应超过对端同时重组的消息数） */
+        public Config setMaxMessagesInFlight(int maxMessagesInFlight) {
+            this.maxMessagesInFlight = maxMessagesInFlight;
+            return this;
+        }
+
+        /** 每个分片的数据长度（不超过 {@link FragmentCodec#MAX_PAYLOAD}） */
+        public Config setFragmentSize(int fragmentSize) {
+            this.fragmentSize = fragmentSize;
+            return this;
+        }
+
+        /** 首次重传超时，应大于一个窗口的线路时间加对端处理时间 */
+        public Config setRetransmitTimeoutMs(long retransmitTimeoutMs) {
+            this.retransmitTimeoutMs = retransmitTimeoutMs;
+            return this;
+        }
+
+        /** 连续无进展的重传次数上限 */
+        public Config setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /** 单条消息的大小上限（应与对端重组上限一致） */
+        public Config setMaxMessageBytes(int maxMessageBytes) {
+            this.maxMessageBytes = maxMessageBytes;
+            return this;
+        }
+    }
+
+    /**
+     * 一条待发送的消息
+     */
+    private static final class Outgoing {
+        final int messageId;
+        final int type;
+        final ByteBuffer message;
+        final int count;
+        final boolean[] acked;
+        final Listener listener;
+        int ackedCount;
+        // 窗口起点（第一个未确认的分片）和下一个首次发送的分片
+        int base;
+        int next;
+        // 已发出未确认的分片数
+        int outstanding;
+        int retries;
+        long retransmits;
+        ScheduledFuture<?> retransmitFuture;
+        // 已全部确认，等前面的消息完成后再回调
+        boolean delivered;
+
+        Outgoing(int messageId, int type, ByteBuffer message, int count, Listener listener) {
+            this.messageId = messageId;
+            this.type = type;
+            this.message = message;
+            this.count = count;
+            this.acked = new boolean[count];
+            this.listener = listener;
+        }
+    }
+
+    private final ConnectionStateMachine loop;
+    private final FragmentCodec.FrameSink sink;
+    private final Config config;
+
+    // 以下字段只在事件循环上访问
+    private final ArrayDeque<Outgoing> queue = new ArrayDeque<>();
+    // 在途的消息（按发送顺序）
+    private final ArrayDeque<Outgoing> active = new ArrayDeque<>();
+    private int inFlight;
+    private long sentMessages;
+    private long sentFragments;
+    private long retransmittedFragments;
+
+    // 消息ID可在任意线程分配
+    private int nextMessageId;
+
+    public MessageFragmenter(ConnectionStateMachine loop, FragmentCodec.FrameSink sink, Config config) {
+        if (config.window <= 0 || config.maxMessagesInFlight <= 0 || config.fragmentSize <= 0
+                || config.fragmentSize > FragmentCodec.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Invalid fragmenter configuration");
+        }
+        this.loop = loop;
+        this.sink = sink;
+        this.config = config;
+    }
+
+    /**
+     * 排队发送一条消息
+     *
+     * @param type     消息类型（0-255，由应用约定）
+     * @param message  消息内容 [position, limit)；发送完成前不能修改
+     * @param listener 回调，可为 null
+     * @return 消息ID
+     */
+    public int send(int type, ByteBuffer message, Listener listener) {
+        int length = message.remaining();
+        if (length > config.maxMessageBytes) {
+            throw new IllegalArgumentException("Message too large: " + length + " > " + config.maxMessageBytes);
+        }
+        int count = Math.max(1, (length + config.fragmentSize - 1) / config.fragmentSize);
+        if (count > FragmentCodec.MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("Too many fragments: " + count);
+        }
+        int messageId;
+        synchronized (this) {
+            messageId = nextMessageId;
+            nextMessageId = (nextMessageId + 1) & 0xFF;
+        }
+        final Outgoing outgoing = new Outgoing(messageId, type & 0xFF, message.slice(), count, listener);
+        loop.post(() -> {
+            queue.addLast(outgoing);
+            pump();
+        });
+        return messageId;
+    }
+
+    /**
+     * 处理一个确认帧（任意线程）
+     */
+    public void onAck(byte[] frame) {
+        if (!FragmentCodec.isAck(frame)) {
+            return;
+        }
+        final int messageId = FragmentCodec.messageId(frame);
+        final int cumulative = FragmentCodec.ackCumulative(frame);
+        final int bitmap = FragmentCodec.ackBitmap(frame);
+        loop.post(() -> handleAck(messageId, cumulative, bitmap));
+    }
+
+    /**
+     * 取消一条排队中或在途的消息，回调 onFailed；消息已完成时忽略
+     */
+    public void cancel(final int messageId) {
+        loop.runOnLoop(() -> {
+            IOException error = new IOException("cancelled");
+            for (Outgoing o : active) {
+                if (o.messageId == messageId && !o.delivered) {
+                    fail(o, error);
+                    return;
+                }
+            }
+            for (Outgoing o : queue) {
+                if (o.messageId == messageId) {
+                    queue.remove(o);
+                    if (o.listener != null) {
+                        o.listener.onFailed(o.messageId, error);
+                    }
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * 取消全部消息（断开连接时调用），每条未完成的消息回调 onFailed
+     */
+    public void cancelAll() {
+        loop.runOnLoop(() -> {
+            IOException error = new IOException("cancelled");
+            while (!queue.isEmpty()) {
+                // 先清空队列，避免 fail() 里的 pump() 把排队的消息发出去
+                Outgoing o = queue.removeFirst();
+                if (o.listener != null) {
+                    o.listener.onFailed(o.messageId, error);
+                }
+            }
+            while (!active.isEmpty()) {
+                Outgoing o = active.peekFirst();
+                if (o.delivered) {
+                    deliver(o);
+                } else {
+                    fail(o, error);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在窗口余量内发送还没发过的分片：先发在途消息的，在途消息的分片都已发出时启动排队的下一条
+     */
+    private void pump() {
+        while (inFlight < config.window) {
+            Outgoing o = null;
+            for (Outgoing a : active) {
+                if (a.next < a.count && a.next < a.base + config.window) {
+                    o = a;
+                    break;
+                }
+            }
+            if (o == null) {
+                if (active.size() >= config.maxMessagesInFlight || queue.isEmpty() || hasUnsent()) {
+                    return;
+                }
+                o = queue.pollFirst();
+                active.addLast(o);
+                CoreLog.d(TAG, "🧩 Sending message " + o.messageId + ": " + o.message.remaining() + " bytes in "
+                        + o.count + " fragment(s)");
+            }
+            if (!sendFragment(o, o.next)) {
+                continue;
+            }
+            o.next++;
+            o.outstanding++;
+            inFlight++;
+            if (o.retransmitFuture == null) {
+                armRetransmit(o);
+            }
+        }
+    }
+
+    /**
+     * 在途消息中是否还有分片没发出（只因单条消息的窗口范围受限而暂停）
+     */
+    private boolean hasUnsent() {
+        for (Outgoing a : active) {
+            if (a.next < a.count) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false 表示发送失败，消息已按失败处理
+     */
+    private boolean sendFragment(Outgoing o, int seq) {
+        int start = seq * config.fragmentSize;
+        ByteBuffer payload = o.message.duplicate();
+        payload.position(start);
+        payload.limit(Math.min(o.message.limit(), start + config.fragmentSize));
+        try {
+            sink.send(FrameCodec.CMD_FRAGMENT, FragmentCodec.header(o.messageId, o.type, seq, o.count), payload);
+            sentFragments++;
+            return true;
+        } catch (IOException e) {
+            fail(o, e);
+            return false;
+        }
+    }
+
+    private void armRetransmit(final Outgoing o) {
+        if (o.retransmitFuture != null) {
+            o.retransmitFuture.cancel(false);
+        }
+        // 每次重传后超时加倍
+        long timeout = config.retransmitTimeoutMs << Math.min(o.retries, 4);
+        o.retransmitFuture = loop.postDelayed(() -> onRetransmitTimeout(o), timeout);
+    }
+
+    private void onRetransmitTimeout(Outgoing o) {
+        if (!active.contains(o) || o.delivered) {
+            return;
+        }
+        o.retransmitFuture = null;
+        if (++o.retries > config.maxRetries) {
+            fail(o, new IOException("no acknowledgement after " + config.maxRetries + " retries"));
+            return;
+        }
+        // 重传窗口内已发出但未确认的分片
+        int resent = 0;
+        for (int seq = o.base; seq < o.next; seq++) {
+            if (!o.acked[seq]) {
+                if (!sendFragment(o, seq)) {
+                    return;
+                }
+                resent++;
+            }
+        }
+        o.retransmits += resent;
+        retransmittedFragments += resent;
+        CoreLog.d(TAG, "🔁 Message " + o.messageId + ": retransmitted " + resent + " fragment(s), retry " + o.retries);
+        armRetransmit(o);
+    }
+
+    private void handleAck(int messageId, int cumulative, int bitmap) {
+        Outgoing o = null;
+        for (Outgoing a : active) {
+            if (a.messageId == messageId && !a.delivered) {
+                o = a;
+                break;
+            }
+        }
+        if (o == null) {
+            return;
+        }
+        int before = o.ackedCount;
+        // 只确认已发出的分片
+        for (int seq = o.base; seq < Math.min(cumulative, o.next); seq++) {
+            markAcked(o, seq);
+        }
+        for (int i = 0; i < FragmentCodec.ACK_BITMAP_BITS; i++) {
+            int seq = cumulative + 1 + i;
+            if ((bitmap & (1 << i)) != 0 && seq < o.next) {
+                markAcked(o, seq);
+            }
+        }
+        if (o.ackedCount == before) {
+            return;
+        }
+        while (o.base < o.count && o.acked[o.base]) {
+            o.base++;
+        }
+        o.retries = 0;
+        if (o.listener != null) {
+            o.listener.onProgress(o.messageId, o.ackedCount, o.count);
+        }
+        if (o.ackedCount == o.count) {
+            complete(o);
+        } else {
+            armRetransmit(o);
+        }
+        pump();
+    }
+
+    private void markAcked(Outgoing o, int seq) {
+        if (!o.acked[seq]) {
+            o.acked[seq] = true;
+            o.ackedCount++;
+            o.outstanding--;
+            inFlight--;
+        }
+    }
+
+    private void complete(Outgoing o) {
+        cancelRetransmit(o);
+        o.delivered = true;
+        CoreLog.d(TAG, "✅ Message " + o.messageId + " delivered (" + o.count + " fragment(s), " + o.retransmits
+                + " retransmitted)");
+        // 按发送顺序回调：前面还有在途的消息时先挂起
+        while (!active.isEmpty() && active.peekFirst().delivered) {
+            deliver(active.peekFirst());
+        }
+    }
+
+    private void deliver(Outgoing o) {
+        active.remove(o);
+        sentMessages++;
+        if (o.listener != null) {
+            o.listener.onComplete(o.messageId);
+        }
+    }
+
+    private void fail(Outgoing o, IOException error) {
+        if (!active.remove(o)) {
+            return;
+        }
+        cancelRetransmit(o);
+        inFlight -= o.outstanding;
+        o.outstanding = 0;
+        CoreLog.w(TAG, "❌ Message " + o.messageId + " failed: " + error.getMessage());
+        if (o.listener != null) {
+            o.listener.onFailed(o.messageId, error);
+        }
+        // 失败的消息可能挡着后面已完成的消息
+        while (!active.isEmpty() && active.peekFirst().delivered) {
+            deliver(active.peekFirst());
+        }
+        pump();
+    }
+
+    private static void cancelRetransmit(Outgoing o) {
+        if (o.retransmitFuture != null) {
+            o.retransmitFuture.cancel(false);
+            o.retransmitFuture = null;
+        }
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public String getStatus() {
+        return "MessageFragmenter[queued=" + queue.size() + ", sending=" + active.size() + ", messages="
+                + sentMessages + ", fragments=" + sentFragments + ", retransmitted=" + retransmittedFragments + "]";
+    }
+}
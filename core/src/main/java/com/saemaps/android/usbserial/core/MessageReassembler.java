@@ -0,0 +1,327 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 分片消息重组（接收端）
+ * 按 {@link FragmentCodec} 的格式收集分片，分片可以乱序、重复到达；收齐后拼成完整消息交给监听器。
+ * 每收到 ackEvery 个新分片、出现乱序或重复分片、补上缺口、以及消息收齐时回一个确认帧（累计确认 + 选择确认位图），
+ * 发送端据此滑动窗口、只重传缺失的分片。
+ *
+ * 内存有界：
+ * - 单条消息超过 maxMessageBytes 直接丢弃（不确认，发送端重试耗尽后报失败）
+ * - 同时重组的消息数和已缓存的分片字节总数有上限，超出时淘汰最久没有进展的消息
+ * - 超过 timeoutMs 没有新分片的消息视为放弃，释放其分片
+ * - 最近完成的消息ID会记住一小段时间：发送端没收到最后的确认而重传时，直接再确认一次
+ *
+ * 线程安全：所有公开方法都已同步；监听器和确认帧在调用 onFrame() 的线程上回调/发送。
+ *
+ * @author SAE Maps
+ */
+public final class MessageReassembler {
+
+    private static final String TAG = "MessageReassembler";
+
+    // 记住的已完成消息数
+    private static final int COMPLETED_HISTORY = 16;
+
+    /**
+     * 完整消息回调
+     */
+    public interface Listener {
+        void onMessage(int type, byte[] message);
+    }
+
+    public static final class Config {
+        int maxMessageBytes = 64 * 1024;
+        int maxPendingBytes = 256 * 1024;
+        int maxMessages = 4;
+        long timeoutMs = 30000;
+        int ackEvery = 4;
+
+        /** 单条消息的大小上限 */
+        public Config setMaxMessageBytes(int maxMessageBytes) {
+            this.maxMessageBytes = maxMessageBytes;
+            return this;
+        }
+
+        /** 所有未完成消息已缓存分片的字节总数上限 */
+        public Config setMaxPendingBytes(int maxPendingBytes) {
+            this.maxPendingBytes = maxPendingBytes;
+            return this;
+        }
+
+        /** 同时重组的消息数上限 */
+        public Config setMaxMessages(int maxMessages) {
+            this.maxMessages = maxMessages;
+            return this;
+        }
+
+        /** 多久没有新分片放弃该消息 */
+        public Config setTimeoutMs(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            return this;
+        }
+
+        /** 每收到多少个新分片确认一次（应不大于发送窗口的一半） */
+        public Config setAckEvery(int ackEvery) {
+            this.ackEvery = ackEvery;
+            return this;
+        }
+    }
+
+    /**
+     * 一条正在重组的消息
+     */
+    private static final class Assembly {
+        final int messageId;
+        final int type;
+        final byte[][] parts;
+        int received;
+        int bytes;
+        // 第一个缺失的分片序号
+        int cumulative;
+        int sinceAck;
+        long lastActivityNanos;
+
+        Assembly(int messageId, int type, int count) {
+            this.messageId = messageId;
+            this.type = type;
+            this.parts = new byte[count][];
+        }
+
+        int bitmap() {
+            int bits = 0;
+            for (int i = 0; i < FragmentCodec.ACK_BITMAP_BITS; i++) {
+                int seq = cumulative + 1 + i;
+                if (seq < parts.length && parts[seq] != null) {
+                    bits |= 1 << i;
+                }
+            }
+            return bits;
+        }
+
+        byte[] join() {
+            byte[] message = new byte[bytes];
+            int pos = 0;
+            for (byte[] part : parts) {
+                System.arraycopy(part, 0, message, pos, part.length);
+                pos += part.length;
+            }
+            return message;
+        }
+    }
+
+    private final Config config;
+    private final FragmentCodec.FrameSink ackSink;
+    private final Listener listener;
+    private final Map<Integer, Assembly> assemblies = new HashMap<>();
+    // 最近完成的消息：消息ID -> 分片总数
+    private final ArrayDeque<int[]> completed = new ArrayDeque<>();
+    private int pendingBytes;
+
+    private long messages;
+    private long fragments;
+    private long duplicates;
+    private long dropped;
+
+    /**
+     * @param ackSink  确认帧发送通道
+     * @param listener 完整消息回调
+     */
+    public MessageReassembler(Config config, FragmentCodec.FrameSink ackSink, Listener listener) {
+        this.config = config;
+        this.ackSink = ackSink;
+        this.listener = listener;
+    }
+
+    /**
+     * 处理一个分片帧
+     *
+     * @return false 表示不是合法分片帧或被丢弃
+     */
+    public synchronized boolean onFrame(byte[] frame) {
+        if (!FragmentCodec.isFragment(frame)) {
+            return false;
+        }
+        long now = System.nanoTime();
+        expire(now);
+        int messageId = FragmentCodec.messageId(frame);
+        int seq = FragmentCodec.sequence(frame);
+        int count = FragmentCodec.count(frame);
+        int length = FragmentCodec.payloadLength(frame);
+        if (count == 0 || seq >= count) {
+            dropped++;
+            return false;
+        }
+        Assembly assembly = assemblies.get(messageId);
+        if (assembly != null && (assembly.parts.length != count || assembly.type != FragmentCodec.type(frame))) {
+            // 同一ID的新消息（旧消息已被发送端放弃）
+            discard(assembly, "superseded");
+            assembly = null;
+        }
+        if (assembly == null) {
+            int[] done = findCompleted(messageId, count);
+            if (done != null) {
+                // 已完成消息的重传：发送端没收到最后的确认
+                duplicates++;
+                sendAck(messageId, count, 0);
+                return true;
+            }
+            // 分片数据都不为空时消息至少 count 字节，分片数明显超出上限的直接拒绝
+            if (count > config.maxMessageBytes) {
+                dropped++;
+                return false;
+            }
+            assembly = new Assembly(messageId, FragmentCodec.type(frame), count);
+            assemblies.put(messageId, assembly);
+            evictIfNeeded(assembly, 0);
+        }
+        assembly.lastActivityNanos = now;
+        if (assembly.parts[seq] != null) {
+            duplicates++;
+            ackNow(assembly);
+            return true;
+        }
+        if (assembly.bytes + length > config.maxMessageBytes) {
+            CoreLog.w(TAG, "⚠️ Message " + messageId + " exceeds " + config.maxMessageBytes + " bytes, dropped");
+            discard(assembly, "too large");
+            return false;
+        }
+        if (!evictIfNeeded(assembly, length)) {
+            dropped++;
+            return false;
+        }
+        byte[] part = new byte[length];
+        System.arraycopy(frame, FragmentCodec.payloadOffset(), part, 0, length);
+        assembly.parts[seq] = part;
+        assembly.received++;
+        assembly.bytes += length;
+        pendingBytes += length;
+        fragments++;
+        int before = assembly.cumulative;
+        while (assembly.cumulative < count && assembly.parts[assembly.cumulative] != null) {
+            assembly.cumulative++;
+        }
+        // 乱序到达或补上了缺口（累计确认一次前进多个）时立即确认，发送端不必等超时
+        boolean outOfOrder = seq != before;
+        boolean filledGap = assembly.cumulative - before > 1;
+        if (assembly.received == count) {
+            complete(assembly);
+        } else if (outOfOrder || filledGap || ++assembly.sinceAck >= config.ackEvery) {
+            ackNow(assembly);
+        }
+        return true;
+    }
+
+    private void complete(Assembly assembly) {
+        assemblies.remove(assembly.messageId);
+        pendingBytes -= assembly.bytes;
+        completed.addLast(new int[]{assembly.messageId, assembly.parts.length});
+        if (completed.size() > COMPLETED_HISTORY) {
+            completed.removeFirst();
+        }
+        messages++;
+        sendAck(assembly.messageId, assembly.parts.length, 0);
+        byte[] message = assembly.join();
+        CoreLog.d(TAG, "🧩 Message " + assembly.messageId + " complete: " + message.length + " bytes in "
+                + assembly.parts.length + " fragment(s)");
+        listener.onMessage(assembly.type, message);
+    }
+
+    private int[] findCompleted(int messageId, int count) {
+        for (int[] done : completed) {
+            if (done[0] == messageId && done[1] == count) {
+                return done;
+            }
+        }
+        return null;
+    }
+
+    private void ackNow(Assembly assembly) {
+        assembly.sinceAck = 0;
+        sendAck(assembly.messageId, assembly.cumulative, assembly.bitmap());
+    }
+
+    private void sendAck(int messageId, int cumulative, int bitmap) {
+        try {
+            ackSink.send(FrameCodec.CMD_FRAGMENT_ACK, FragmentCodec.ack(messageId, cumulative, bitmap));
+        } catch (IOException e) {
+            CoreLog.w(TAG, "⚠️ Fragment ack failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 为新分片腾出空间：超过消息数或字节上限时淘汰最久没有进展的其它消息
+     *
+     * @return false 表示淘汰其它消息后仍放不下
+     */
+    private boolean evictIfNeeded(Assembly keep, int incoming) {
+        while (assemblies.size() > config.maxMessages || pendingBytes + incoming > config.maxPendingBytes) {
+            Assembly oldest = null;
+            for (Assembly a : assemblies.values()) {
+                if (a != keep && (oldest == null || a.lastActivityNanos < oldest.lastActivityNanos)) {
+                    oldest = a;
+                }
+            }
+            if (oldest == null) {
+                return pendingBytes + incoming <= config.maxPendingBytes;
+            }
+            discard(oldest, "evicted");
+        }
+        return true;
+    }
+
+    private void discard(Assembly assembly, String reason) {
+        assemblies.remove(assembly.messageId);
+        pendingBytes -= assembly.bytes;
+        dropped++;
+        CoreLog.w(TAG, "🗑 Message " + assembly.messageId + " " + reason + " (" + assembly.received + "/"
+                + assembly.parts.length + " fragments)");
+    }
+
+    /**
+     * 放弃超时没有新分片的消息
+     */
+    public synchronized void expire(long nowNanos) {
+        long timeoutNanos = config.timeoutMs * 1_000_000L;
+        Iterator<Assembly> it = assemblies.values().iterator();
+        while (it.hasNext()) {
+            Assembly a = it.next();
+            if (nowNanos - a.lastActivityNanos > timeoutNanos) {
+                it.remove();
+                pendingBytes -= a.bytes;
+                dropped++;
+                CoreLog.w(TAG, "⌛ Message " + a.messageId + " timed out (" + a.received + "/" + a.parts.length
+                        + " fragments)");
+            }
+        }
+    }
+
+    /**
+     * 丢弃所有未完成的消息（断开连接时调用）
+     */
+    public synchronized void clear() {
+        assemblies.clear();
+        completed.clear();
+        pendingBytes = 0;
+    }
+
+    public synchronized int getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public synchronized String getStatus() {
+        return "MessageReassembler[pending=" + assemblies.size() + " msg/" + pendingBytes + " bytes, messages="
+                + messages + ", fragments=" + fragments + ", duplicates=" + duplicates + ", dropped=" + dropped + "]";
+    }
+}
@@ -0,0 +1,596 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 本地数据包转发桥
+ * 把拆包后的完整数据包通过 TCP/UDP 分发给本机（或车内局域网）上的其他进程，一条USB链路可同时供多个消费者使用，
+ * 拆包只在插件内做一次。
+ *
+ * 特性：
+ * - 单个 NIO 选择器线程服务全部连接，publish() 只入队不做IO，不阻塞数据线程
+ * - 每个客户端一个有界队列（按字节计），一次写入尽量打包多个数据包
+ * - TCP 慢客户端队列溢出时直接断开，不拖慢其他客户端；UDP 订阅者溢出时丢弃最旧的包
+ * - UDP 订阅：向 UDP 端口发送任意数据报即订阅，SUBSCRIPTION_TIMEOUT_MS 内需重复发送保活
+ *
+ * 输出格式见 {@link Format}；COMPRESSED 模式下定位帧用 {@link LocationDeltaCodec} 差分压缩，每个客户端独立的编码状态。
+ *
+ * @author SAE Maps
+ */
+public final class PacketBridge implements Closeable {
+
+    private static final String TAG = "PacketBridge";
+
+    public static final int DEFAULT_TCP_PORT = 7655;
+    public static final int DEFAULT_UDP_PORT = 7656;
+    public static final int DEFAULT_QUEUE_LIMIT_BYTES = 256 * 1024;
+    public static final long SUBSCRIPTION_TIMEOUT_MS = 30000;
+
+    // 单次写入的批量缓冲区大小
+    private static final int TCP_BATCH_BYTES = 16 * 1024;
+    // 保持在常见 MTU 以下，避免 IP 分片
+    private static final int UDP_DATAGRAM_BYTES = 1400;
+    private static final int MAX_CLIENTS = 16;
+    private static final int LENGTH_PREFIX = 2;
+
+    private static final byte KIND_RAW = 0;
+    private static final byte KIND_LOCATION_DELTA = 1;
+
+    /**
+     * 输出格式
+     */
+    public enum Format {
+        /** 原样拼接数据包（帧头自带长度，可按 0x68 0x00 重新拆包） */
+        RAW,
+        /** 每个数据包前加 2 字节大端长度 */
+        LENGTH_PREFIXED,
+        /** [2字节大端长度][类型 1][内容]：类型 0 为原始数据包，1 为 LocationDeltaCodec 差分记录 */
+        COMPRESSED
+    }
+
+    /**
+     * 桥接配置
+     */
+    public static final class Config {
+        int tcpPort = DEFAULT_TCP_PORT;
+        int udpPort = DEFAULT_UDP_PORT;
+        boolean loopbackOnly = true;
+        Format format = Format.LENGTH_PREFIXED;
+        int queueLimitBytes = DEFAULT_QUEUE_LIMIT_BYTES;
+
+        /** TCP 端口，0 表示不开启 */
+        public Config setTcpPort(int port) {
+            this.tcpPort = port;
+            return this;
+        }
+
+        /** UDP 端口，0 表示不开启 */
+        public Config setUdpPort(int port) {
+            this.udpPort = port;
+            return this;
+        }
+
+        /** true 只监听 127.0.0.1；false 监听所有网卡（供车内笔记本接入） */
+        public Config setLoopbackOnly(boolean loopbackOnly) {
+            this.loopbackOnly = loopbackOnly;
+            return this;
+        }
+
+        public Config setFormat(Format format) {
+            this.format = format;
+            return this;
+        }
+
+        /** 每客户端排队字节上限 */
+        public Config setQueueLimitBytes(int bytes) {
+            this.queueLimitBytes = bytes;
+            return this;
+        }
+    }
+
+    /**
+     * 一个订阅者（TCP 连接或 UDP 地址）的发送队列
+     */
+    private final class Client {
+        final SocketChannel channel;
+        final SocketAddress udpAddress;
+        final String name;
+        final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        final ByteBuffer out;
+        final LocationDeltaCodec.Encoder encoder;
+        int queuedBytes;
+        long lastSeen;
+        boolean scheduled;
+        boolean closed;
+        long sentBytes;
+        long dropped;
+
+        Client(SocketChannel channel, SocketAddress udpAddress, String name) {
+            this.channel = channel;
+            this.udpAddress = udpAddress;
+            this.name = name;
+            this.out = ByteBuffer.allocateDirect(channel != null ? TCP_BATCH_BYTES : UDP_DATAGRAM_BYTES);
+            this.out.flip();
+            this.encoder = config.format == Format.COMPRESSED ? new LocationDeltaCodec.Encoder() : null;
+            this.lastSeen = System.currentTimeMillis();
+        }
+
+        /**
+         * 入队（数据线程，持有 Client 锁）
+         *
+         * @return true 如果需要通知选择器线程
+         */
+        boolean enqueue(byte[] packet) {
+            if (closed) {
+                return false;
+            }
+            if (queuedBytes + packet.length > config.queueLimitBytes) {
+                if (channel != null) {
+                    // TCP 慢客户端：断开，保持其余客户端的实时性
+                    closed = true;
+                    return true;
+                }
+                while (!queue.isEmpty() && queuedBytes + packet.length > config.queueLimitBytes) {
+                    queuedBytes -= queue.pollFirst().length;
+                    dropped++;
+                }
+            }
+            queue.addLast(packet);
+            queuedBytes += packet.length;
+            if (scheduled) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        /**
+         * 把队列中的数据包按格式编码进批量缓冲区（选择器线程）
+         *
+         * @return 缓冲区中待发送的字节数
+         */
+        int fill() {
+            out.compact();
+            synchronized (this) {
+                while (!queue.isEmpty()) {
+                    byte[] packet = queue.peekFirst();
+                    if (!encode(packet, out)) {
+                        break;
+                    }
+                    queue.pollFirst();
+                    queuedBytes -= packet.length;
+                }
+                if (queue.isEmpty()) {
+                    scheduled = false;
+                }
+            }
+            out.flip();
+            return out.remaining();
+        }
+
+        private boolean encode(byte[] packet, ByteBuffer buf) {
+            switch (config.format) {
+                case RAW:
+                    if (buf.remaining() < packet.length) {
+                        return false;
+                    }
+                    buf.put(packet);
+                    return true;
+                case LENGTH_PREFIXED:
+                    if (buf.remaining() < LENGTH_PREFIX + packet.length) {
+                        return false;
+                    }
+                    buf.putShort((short) packet.length);
+                    buf.put(packet);
+                    return true;
+                default:
+                    if (buf.remaining() < LENGTH_PREFIX + 1 + Math.max(packet.length,
+                            LocationDeltaCodec.MAX_RECORD_SIZE)) {
+                        return false;
+                    }
+                    LocationFrame fix = locationView.wrap(packet);
+                    if (fix != null) {
+                        int len = encoder.encode(fix, scratch, 0);
+                        buf.putShort((short) (len + 1));
+                        buf.put(KIND_LOCATION_DELTA);
+                        buf.put(scratch, 0, len);
+                    } else {
+                        buf.putShort((short) (packet.length + 1));
+                        buf.put(KIND_RAW);
+                        buf.put(packet);
+                    }
+                    return true;
+            }
+        }
+    }
+
+    private final Config config;
+    private final Selector selector;
+    private final Object clientsLock = new Object();
+    private final List<Client> tcpClients = new ArrayList<>();
+    private final Map<SocketAddress, Client> udpClients = new HashMap<>();
+    private final ConcurrentLinkedQueue<Client> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final ByteBuffer inputBuffer = ByteBuffer.allocate(512);
+    // 以下只在选择器线程上使用
+    private final LocationFrame locationView = new LocationFrame();
+    private final byte[] scratch = new byte[LocationDeltaCodec.MAX_RECORD_SIZE];
+    private final List<Client> udpPending = new ArrayList<>();
+
+    private ServerSocketChannel server;
+    private DatagramChannel udp;
+    private Thread thread;
+    private volatile boolean running;
+
+    // 统计
+    private volatile long published;
+    private long batches;
+    private long slowClientsDropped;
+
+    public PacketBridge(Config config) throws IOException {
+        this.config = config;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * 打开端口并启动选择器线程
+     *
+     * @throws IOException 端口被占用等
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        InetAddress bind = config.loopbackOnly ? InetAddress.getLoopbackAddress() : null;
+        try {
+            if (config.tcpPort > 0) {
+                server = ServerSocketChannel.open();
+                server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                server.bind(new InetSocketAddress(bind, config.tcpPort));
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            if (config.udpPort > 0) {
+                udp = DatagramChannel.open();
+                udp.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                udp.bind(new InetSocketAddress(bind, config.udpPort));
+                udp.configureBlocking(false);
+                udp.register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        running = true;
+        thread = new Thread(this::runLoop, "PacketBridge");
+        thread.setDaemon(true);
+        thread.start();
+        CoreLog.i(TAG, String.format("🌉 Packet bridge started: tcp=%d udp=%d %s format=%s",
+                config.tcpPort, config.udpPort, config.loopbackOnly ? "loopback" : "all-interfaces",
+                config.format));
+    }
+
+    /**
+     * 分发一个完整数据包给所有订阅者（任意线程，只入队）
+     */
+    public void publish(byte[] packet) {
+        if (!running) {
+            return;
+        }
+        published++;
+        boolean wake = false;
+        synchronized (clientsLock) {
+            for (int i = 0; i < tcpClients.size(); i++) {
+                wake |= offer(tcpClients.get(i), packet);
+            }
+            for (Client client : udpClients.values()) {
+                wake |= offer(client, packet);
+            }
+        }
+        if (wake && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    private boolean offer(Client client, byte[] packet) {
+        synchronized (client) {
+            if (client.enqueue(packet)) {
+                ready.add(client);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                selector.select(1000);
+                wakeupPending.set(false);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == udp) {
+                        if (key.isReadable()) {
+                            receiveSubscriptions();
+                        }
+                        if (key.isWritable()) {
+                            flushUdp();
+                        }
+                    } else if (key.isWritable()) {
+                        flushTcp((Client) key.attachment());
+                    } else if (key.isReadable()) {
+                        drainTcpInput((Client) key.attachment());
+                    }
+                }
+                Client client;
+                while ((client = ready.poll()) != null) {
+                    if (client.channel != null) {
+                        flushTcp(client);
+                    } else if (!udpPending.contains(client)) {
+                        udpPending.add(client);
+                    }
+                }
+                flushUdp();
+                expireUdpSubscribers();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                CoreLog.w(TAG, "⚠️ Bridge selector error: " + e.getMessage());
+            }
+        }
+        closeChannels();
+        CoreLog.i(TAG, "🌉 Packet bridge stopped: " + getStatus());
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        synchronized (clientsLock) {
+            if (tcpClients.size() >= MAX_CLIENTS) {
+                CoreLog.w(TAG, "⚠️ Rejecting bridge client, limit " + MAX_CLIENTS + " reached");
+                channel.close();
+                return;
+            }
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Client client = new Client(channel, null, "tcp:" + channel.getRemoteAddress());
+        channel.register(selector, SelectionKey.OP_READ, client);
+        synchronized (clientsLock) {
+            tcpClients.add(client);
+        }
+        CoreLog.i(TAG, "➕ Bridge client connected: " + client.name);
+    }
+
+    /**
+     * TCP 客户端不应发送数据；读取只为及时发现对端关闭
+     */
+    private void drainTcpInput(Client client) {
+        try {
+            inputBuffer.clear();
+            if (client.channel.read(inputBuffer) < 0) {
+                dropTcp(client, "closed by peer");
+            }
+        } catch (IOException e) {
+            dropTcp(client, e.getMessage());
+        }
+    }
+
+    private void flushTcp(Client client) {
+        if (client.closed) {
+            if (dropTcp(client, "queue overflow (slow client)")) {
+                slowClientsDropped++;
+            }
+            return;
+        }
+        try {
+            while (client.fill() > 0) {
+                int written = client.channel.write(client.out);
+                client.sentBytes += written;
+                batches++;
+                if (client.out.hasRemaining()) {
+                    // 内核发送缓冲区满，等待可写
+                    client.channel.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            client.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            dropTcp(client, e.getMessage());
+        }
+    }
+
+    /**
+     * @return false 如果该客户端已被移除过
+     */
+    private boolean dropTcp(Client client, String reason) {
+        synchronized (clientsLock) {
+            if (!tcpClients.remove(client)) {
+                return false;
+            }
+        }
+        synchronized (client) {
+            client.closed = true;
+            client.queue.clear();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+        CoreLog.i(TAG, "➖ Bridge client " + client.name + " removed: " + reason + " (sent " + client.sentBytes
+                + " bytes)");
+        return true;
+    }
+
+    private void receiveSubscriptions() throws IOException {
+        SocketAddress from;
+        while ((from = receive()) != null) {
+            synchronized (clientsLock) {
+                Client client = udpClients.get(from);
+                if (client == null) {
+                    if (udpClients.size() >= MAX_CLIENTS) {
+                        continue;
+                    }
+                    client = new Client(null, from, "udp:" + from);
+                    udpClients.put(from, client);
+                    CoreLog.i(TAG, "➕ UDP subscriber: " + client.name);
+                }
+                client.lastSeen = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private SocketAddress receive() throws IOException {
+        inputBuffer.clear();
+        return udp.receive(inputBuffer);
+    }
+
+    /**
+     * 每个 UDP 订阅者的待发数据打包成不超过 UDP_DATAGRAM_BYTES 的数据报
+     */
+    private void flushUdp() throws IOException {
+        if (udp == null || udpPending.isEmpty()) {
+            return;
+        }
+        Iterator<Client> it = udpPending.iterator();
+        while (it.hasNext()) {
+            Client client = it.next();
+            boolean blocked = false;
+            while (client.out.hasRemaining() || client.fill() > 0) {
+                if (udp.send(client.out, client.udpAddress) == 0) {
+                    blocked = true;
+                    break;
+                }
+                client.sentBytes += client.out.limit();
+                client.out.position(client.out.limit());
+                batches++;
+            }
+            if (blocked) {
+                udp.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            it.remove();
+        }
+        udp.keyFor(selector).interestOps(SelectionKey.OP_READ);
+    }
+
+    private void expireUdpSubscribers() {
+        long now = System.currentTimeMillis();
+        synchronized (clientsLock) {
+            Iterator<Client> it = udpClients.values().iterator();
+            while (it.hasNext()) {
+                Client client = it.next();
+                if (now - client.lastSeen > SUBSCRIPTION_TIMEOUT_MS) {
+                    it.remove();
+                    udpPending.remove(client);
+                    synchronized (client) {
+                        client.closed = true;
+                        client.queue.clear();
+                    }
+                    CoreLog.i(TAG, "➖ UDP subscriber expired: " + client.name);
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前订阅者数（TCP + UDP）
+     */
+    public int getClientCount() {
+        synchronized (clientsLock) {
+            return tcpClients.size() + udpClients.size();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        selector.wakeup();
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void closeChannels() {
+        synchronized (clientsLock) {
+            for (Client client : tcpClients) {
+                try {
+                    client.channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            tcpClients.clear();
+            udpClients.clear();
+        }
+        for (Closeable c : new Closeable[] { server, udp, selector }) {
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public String getStatus() {
+        long dropped = 0;
+        int tcp;
+        int udpCount;
+        synchronized (clientsLock) {
+            tcp = tcpClients.size();
+            udpCount = udpClients.size();
+            for (Client client : udpClients.values()) {
+                dropped += client.dropped;
+            }
+        }
+        return String.format("PacketBridge[tcp=%d, udp=%d, published=%d, batches=%d, slowDropped=%d, "
+                + "udpDropped=%d]", tcp, udpCount, published, batches, slowClientsDropped, dropped);
+    }
+}
@@ -0,0 +1,160 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 多读者共享的数据块环
+ * 生产者把每次读到的数据复制一次进预分配的字节环，按单调递增的序号编号；
+ * 任意多个消费者各自记住读到的序号，按 [from, to) 区间批量读取，同一份数据不再为每个消费者各复制一份。
+ *
+ * 特性：
+ * - 每块数据在字节环中连续存放（放不下时从头开始），读取回调直接拿到 (storage, offset, length) 切片
+ * - 空间或序号槽位不够时淘汰最旧的块；读得太慢的消费者会被"套圈"，forEach() 返回值可得知丢了多少块
+ * - 回调在持有环锁的情况下执行，回调里应尽快复制或解析，不能长时间阻塞
+ *
+ * 线程安全：所有公开方法都可在任意线程调用。
+ *
+ * @author SAE Maps
+ */
+public final class PacketRing {
+
+    /**
+     * 数据块回调
+     */
+    public interface Visitor {
+        /**
+         * @param sequence 块序号
+         * @param data     字节环存储（只读，回调返回后可能被覆盖）
+         * @param offset   块在 data 中的起始偏移
+         * @param length   块长度
+         */
+        void onPacket(long sequence, byte[] data, int offset, int length);
+    }
+
+    private final byte[] storage;
+    private final int slotCapacity;
+    private final int[] slotOffset;
+    private final int[] slotLength;
+
+    // 下一个写入的序号；最旧的有效序号
+    private long head;
+    private long tail;
+    private int writePos;
+
+    private long appendedBytes;
+    private long evicted;
+
+    /**
+     * @param dataCapacity 字节环大小
+     * @param slotCapacity 最多保留的块数
+     */
+    public PacketRing(int dataCapacity, int slotCapacity) {
+        if (dataCapacity <= 0 || slotCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid packet ring dimensions");
+        }
+        this.storage = new byte[dataCapacity];
+        this.slotCapacity = slotCapacity;
+        this.slotOffset = new int[slotCapacity];
+        this.slotLength = new int[slotCapacity];
+    }
+
+    /**
+     * 追加一块数据
+     *
+     * @return 块序号；数据比整个字节环还大时返回 -1
+     */
+    public synchronized long append(byte[] data, int offset, int length) {
+        if (length > storage.length) {
+            return -1;
+        }
+        int start = writePos;
+        if (start + length > storage.length) {
+            // 尾部放不下：跳过尾部剩余空间，从头开始；跳过区间里的旧块也一并淘汰
+            while (tail < head && slotOffset[slot(tail)] >= start) {
+                evictTail();
+            }
+            start = 0;
+        }
+        int end = start + length;
+        while (tail < head && (head - tail >= slotCapacity || overlaps(slot(tail), start, end))) {
+            evictTail();
+        }
+        System.arraycopy(data, offset, storage, start, length);
+        int s = slot(head);
+        slotOffset[s] = start;
+        slotLength[s] = length;
+        writePos = end;
+        appendedBytes += length;
+        return head++;
+    }
+
+    public long append(byte[] data) {
+        return append(data, 0, data.length);
+    }
+
+    private boolean overlaps(int s, int start, int end) {
+        int o = slotOffset[s];
+        return o < end && o + slotLength[s] > start;
+    }
+
+    private void evictTail() {
+        tail++;
+        evicted++;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % slotCapacity);
+    }
+
+    /**
+     * 下一个将写入的序号（即当前已写入区间的上界）
+     */
+    public synchronized long getHeadSequence() {
+        return head;
+    }
+
+    /**
+     * 仍然可读的最旧序号
+     */
+    public synchronized long getTailSequence() {
+        return tail;
+    }
+
+    /**
+     * 依次回调 [fromSequence, toSequence) 中仍然有效的块
+     *
+     * @return 因被淘汰而跳过的块数
+     */
+    public synchronized long forEach(long fromSequence, long toSequence, Visitor visitor) {
+        long to = Math.min(toSequence, head);
+        long from = Math.max(fromSequence, tail);
+        for (long seq = from; seq < to; seq++) {
+            int s = slot(seq);
+            visitor.onPacket(seq, storage, slotOffset[s], slotLength[s]);
+        }
+        return Math.max(0, Math.min(tail, to) - fromSequence);
+    }
+
+    /**
+     * 复制一块数据
+     *
+     * @return 块副本；已被淘汰或尚未写入时返回 null
+     */
+    public synchronized byte[] copy(long sequence) {
+        if (sequence < tail || sequence >= head) {
+            return null;
+        }
+        int s = slot(sequence);
+        byte[] out = new byte[slotLength[s]];
+        System.arraycopy(storage, slotOffset[s], out, 0, out.length);
+        return out;
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public synchronized String getStatus() {
+        return String.format("PacketRing[live=%d, head=%d, bytes=%d, evicted=%d]", head - tail, head,
+                appendedBytes, evicted);
+    }
+}
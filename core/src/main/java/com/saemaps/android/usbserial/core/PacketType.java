@@ -0,0 +1,78 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 已知数据包类型（命令类型 + 固定包长度字段）
+ *
+ * @author SAE Maps
+ */
+public enum PacketType {
+    POWER_ON(FrameCodec.CMD_POWER_ON, 1, "开机响应包"), // 0x68 0x00 0x01 0x55，4字节
+    DEVICE_ID(FrameCodec.CMD_DEVICE_ID, 4, "查询ID响应包"), // 0x68 0x00 0x04 0x02 + 3字节ID，7字节
+    LOCATION(FrameCodec.CMD_LOCATION, 42, "定位数据包"), // 0x68 0x00 0x2A 0xCC + 41字节数据，45字节
+    UNKNOWN(-1, -1, "未知类型");
+
+    private final int command;
+    private final int lengthField;
+    private final String displayName;
+
+    PacketType(int command, int lengthField, String displayName) {
+        this.command = command;
+        this.lengthField = lengthField;
+        this.displayName = displayName;
+    }
+
+    public int getCommand() {
+        return command;
+    }
+
+    /**
+     * 包长度字段的期望值
+     */
+    public int getLengthField() {
+        return lengthField;
+    }
+
+    /**
+     * 帧总长度的期望值
+     */
+    public int getFrameLength() {
+        return lengthField < 0 ? -1 : FrameCodec.frameLength(lengthField);
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * 根据命令类型和包长度字段识别数据包类型
+     *
+     * @param command     命令类型
+     * @param lengthField 包长度字段
+     * @return 数据包类型，命令未知或长度不符时返回 UNKNOWN
+     */
+    public static PacketType of(int command, int lengthField) {
+        switch (command) {
+            case FrameCodec.CMD_POWER_ON:
+                return lengthField == POWER_ON.lengthField ? POWER_ON : UNKNOWN;
+            case FrameCodec.CMD_DEVICE_ID:
+                return lengthField == DEVICE_ID.lengthField ? DEVICE_ID : UNKNOWN;
+            case FrameCodec.CMD_LOCATION:
+                return lengthField == LOCATION.lengthField ? LOCATION : UNKNOWN;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    /**
+     * 识别一帧的数据包类型
+     *
+     * @param frame 帧数据
+     * @return 数据包类型
+     */
+    public static PacketType of(byte[] frame) {
+        if (frame == null || frame.length < FrameCodec.MIN_FRAME_LENGTH) {
+            return UNKNOWN;
+        }
+        return of(FrameCodec.command(frame), FrameCodec.lengthField(frame));
+    }
+}
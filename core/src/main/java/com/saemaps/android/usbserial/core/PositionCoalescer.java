@@ -0,0 +1,242 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 位置更新合并器
+ * 多个手台的定位数据可能以远高于屏幕刷新率的速度到达，逐包更新地图标记会压垮UI线程。
+ * 合并器按单位（手台ID）只保留最新一次位置，每个显示帧调用一次 {@link #drain} 批量取出，
+ * 并过滤掉相对上次已应用位置移动不足阈值的单位。
+ *
+ * 特性：
+ * - 单位槽位、待处理位置、脏标记列表全部预分配，offer()/drain() 不产生对象分配
+ * - offer() 可在任意线程调用；drain() 只能在单一消费线程（UI线程）上调用
+ * - 新出现的单位总是会被应用，之后只有移动超过阈值才会再次应用
+ *
+ * @author SAE Maps
+ */
+public final class PositionCoalescer {
+
+    private static final String TAG = "PositionCoalescer";
+
+    // 地球平均半径（米）
+    private static final double EARTH_RADIUS_M = 6371008.8;
+    private static final double E7_TO_RAD = Math.toRadians(1e-7);
+    private static final int NEVER_APPLIED = Integer.MIN_VALUE;
+
+    /**
+     * 位置更新回调（在 drain() 调用线程上执行）
+     */
+    public interface UpdateSink {
+        /**
+         * @param unitId         手台ID
+         * @param latitudeE7     纬度（1e-7 度）
+         * @param longitudeE7    经度（1e-7 度）
+         * @param altitudeCm     海拔（厘米）
+         * @param courseCentiDeg 航向（0.01 度）
+         * @param timeMillis     定位时间
+         * @param created        true 表示该单位第一次被应用
+         */
+        void onPositionUpdate(int unitId, int latitudeE7, int longitudeE7, int altitudeCm, int courseCentiDeg,
+                long timeMillis, boolean created);
+    }
+
+    private final int maxUnits;
+    private final double thresholdMeters;
+
+    // 槽位数据（受 lock 保护）
+    private final UnitIndex index;
+    private final int[] pendingLat;
+    private final int[] pendingLon;
+    private final int[] pendingAlt;
+    private final int[] pendingCourse;
+    private final long[] pendingTime;
+    private final boolean[] dirty;
+    private final int[] dirtyList;
+    private int dirtyCount;
+
+    // 已应用位置（只在 drain 线程上访问）
+    private final int[] appliedLat;
+    private final int[] appliedLon;
+
+    // drain 用的快照缓冲区
+    private final int[] snapSlot;
+    private final int[] snapLat;
+    private final int[] snapLon;
+    private final int[] snapAlt;
+    private final int[] snapCourse;
+    private final long[] snapTime;
+
+    private final Object lock = new Object();
+
+    // 统计
+    private long offered;
+    private long coalesced;
+    private long dropped;
+    private long applied;
+    private long suppressed;
+
+    /**
+     * @param maxUnits        最多跟踪的单位数
+     * @param thresholdMeters 移动阈值（米），小于该距离的位置变化不会应用
+     */
+    public PositionCoalescer(int maxUnits, double thresholdMeters) {
+        if (maxUnits <= 0) {
+            throw new IllegalArgumentException("maxUnits must be positive");
+        }
+        this.maxUnits = maxUnits;
+        this.thresholdMeters = Math.max(0, thresholdMeters);
+
+        index = new UnitIndex(maxUnits);
+        pendingLat = new int[maxUnits];
+        pendingLon = new int[maxUnits];
+        pendingAlt = new int[maxUnits];
+        pendingCourse = new int[maxUnits];
+        pendingTime = new long[maxUnits];
+        dirty = new boolean[maxUnits];
+        dirtyList = new int[maxUnits];
+        appliedLat = new int[maxUnits];
+        appliedLon = new int[maxUnits];
+        java.util.Arrays.fill(appliedLat, NEVER_APPLIED);
+
+        snapSlot = new int[maxUnits];
+        snapLat = new int[maxUnits];
+        snapLon = new int[maxUnits];
+        snapAlt = new int[maxUnits];
+        snapCourse = new int[maxUnits];
+        snapTime = new long[maxUnits];
+    }
+
+    /**
+     * 提交一个单位的最新位置（覆盖该单位尚未 drain 的旧位置）
+     *
+     * @return false 如果单位数已达上限而被丢弃
+     */
+    public boolean offer(int unitId, int latitudeE7, int longitudeE7, int altitudeCm, int courseCentiDeg,
+            long timeMillis) {
+        synchronized (lock) {
+            offered++;
+            int known = index.size();
+            int slot = index.findOrAdd(unitId);
+            if (slot < 0) {
+                dropped++;
+                return false;
+            }
+            if (index.size() > known) {
+                CoreLog.d(TAG, "➕ Tracking unit " + unitId + " (" + index.size() + "/" + maxUnits + ")");
+            }
+            pendingLat[slot] = latitudeE7;
+            pendingLon[slot] = longitudeE7;
+            pendingAlt[slot] = altitudeCm;
+            pendingCourse[slot] = courseCentiDeg;
+            pendingTime[slot] = timeMillis;
+            if (dirty[slot]) {
+                coalesced++;
+            } else {
+                dirty[slot] = true;
+                dirtyList[dirtyCount++] = slot;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 提交一个已解码的定位帧
+     *
+     * @return false 如果单位数已达上限而被丢弃
+     */
+    public boolean offer(LocationFrame frame) {
+        return offer(frame.getUnitId(), frame.getLatitudeE7(), frame.getLongitudeE7(), frame.getAltitudeCm(),
+                frame.getCourseCentiDegrees(), frame.getTimeMillis());
+    }
+
+    /**
+     * 是否有待处理的位置
+     */
+    public boolean hasPending() {
+        synchronized (lock) {
+            return dirtyCount > 0;
+        }
+    }
+
+    /**
+     * 取出本帧所有待处理位置，并把移动超过阈值的单位交给 sink（只能在单一消费线程上调用）
+     *
+     * @param sink 更新回调
+     * @return 实际应用的单位数
+     */
+    public int drain(UpdateSink sink) {
+        int count;
+        synchronized (lock) {
+            count = dirtyCount;
+            for (int n = 0; n < count; n++) {
+                int slot = dirtyList[n];
+                snapSlot[n] = slot;
+                snapLat[n] = pendingLat[slot];
+                snapLon[n] = pendingLon[slot];
+                snapAlt[n] = pendingAlt[slot];
+                snapCourse[n] = pendingCourse[slot];
+                snapTime[n] = pendingTime[slot];
+                dirty[slot] = false;
+            }
+            dirtyCount = 0;
+        }
+
+        // 在锁外回调，避免 UI 操作阻塞数据线程
+        int appliedNow = 0;
+        for (int n = 0; n < count; n++) {
+            int slot = snapSlot[n];
+            boolean created = appliedLat[slot] == NEVER_APPLIED;
+            if (!created && distanceMeters(appliedLat[slot], appliedLon[slot], snapLat[n], snapLon[n])
+                    < thresholdMeters) {
+                suppressed++;
+                continue;
+            }
+            appliedLat[slot] = snapLat[n];
+            appliedLon[slot] = snapLon[n];
+            sink.onPositionUpdate(index.unitIdAt(slot), snapLat[n], snapLon[n], snapAlt[n], snapCourse[n],
+                    snapTime[n], created);
+            appliedNow++;
+        }
+        applied += appliedNow;
+        return appliedNow;
+    }
+
+    /**
+     * 当前跟踪的单位数
+     */
+    public int getUnitCount() {
+        synchronized (lock) {
+            return index.size();
+        }
+    }
+
+    /**
+     * 两点间的近似地面距离（等距矩形投影，适用于判断小位移）
+     */
+    public static double distanceMeters(int lat1E7, int lon1E7, int lat2E7, int lon2E7) {
+        double dLat = (double) (lat2E7 - lat1E7) * E7_TO_RAD;
+        long dLonE7 = (long) lon2E7 - lon1E7;
+        // 跨越 180° 经线时取较短的一侧
+        if (dLonE7 > 1800000000L) {
+            dLonE7 -= 3600000000L;
+        } else if (dLonE7 < -1800000000L) {
+            dLonE7 += 3600000000L;
+        }
+        double dLon = dLonE7 * E7_TO_RAD;
+        double meanLat = ((double) lat1E7 + lat2E7) * 0.5 * E7_TO_RAD;
+        double x = dLon * Math.cos(meanLat);
+        return EARTH_RADIUS_M * Math.sqrt(x * x + dLat * dLat);
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public String getStatus() {
+        synchronized (lock) {
+            return String.format("PositionCoalescer[units=%d/%d, offered=%d, coalesced=%d, applied=%d, "
+                    + "suppressed=%d, dropped=%d, threshold=%.1fm]",
+                    index.size(), maxUnits, offered, coalesced, applied, suppressed, dropped, thresholdMeters);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 有界的读取积压缓冲（内存 + 磁盘溢出）
+ * 界面未连接时串口读到的数据先放在内存里，超过内存上限后把最旧的数据追加到磁盘段文件；
+ * 界面重新连接后先分页回放内存中最近的数据，更早的数据在用户向上滚动时再按页从磁盘倒序读入。
+ *
+ * 磁盘记录格式：[长度 int][数据][长度 int]（大端），首尾都带长度以便从文件末尾向前翻页。
+ * 磁盘总量超过上限时删除最旧的段文件。
+ *
+ * 使用约定：
+ * - reset() 开始一个新的积压周期（界面断开时调用），清空内存和磁盘
+ * - setSpillEnabled(false) 后不再溢出到磁盘（回放期间），保证磁盘上的数据总是早于内存中的数据
+ * - 界面重新连接时调用 rewindIfSpilled()：返回 true 说明界面上已有的内容都早于新溢出的数据，
+ *   界面应清空后从最新的磁盘数据重新往前翻页
+ *
+ * 线程安全：所有公开方法都已同步。
+ *
+ * @author SAE Maps
+ */
+public final class ReadBacklog implements Closeable {
+
+    private static final String TAG = "ReadBacklog";
+
+    public static final int DEFAULT_MEMORY_LIMIT = 64 * 1024;
+    public static final long DEFAULT_DISK_LIMIT = 16L * 1024 * 1024;
+    private static final int SEGMENTS = 4;
+    private static final int RECORD_OVERHEAD = 8;
+    private static final int READ_BLOCK = 64 * 1024;
+
+    private final File directory;
+    private final String prefix;
+    private final int memoryLimit;
+    private final long segmentLimit;
+
+    // 内存部分（最新的数据）
+    private final ArrayDeque<byte[]> memory = new ArrayDeque<>();
+    private int memoryBytes;
+    private boolean spillEnabled = true;
+    // 上次 rewindIfSpilled() 之后是否又有数据溢出到磁盘
+    private boolean spilledSinceRewind;
+
+    // 磁盘部分：段文件从旧到新
+    private final List<File> segments = new ArrayList<>();
+    private final List<Long> segmentSizes = new ArrayList<>();
+    private RandomAccessFile writer;
+    private int segmentSeq;
+
+    // 倒序翻页游标：当前段下标与段内结束位置（下标为 -1 表示已读完）
+    private boolean cursorStarted;
+    private int cursorSegment;
+    private long cursorPos;
+    private final byte[] block = new byte[READ_BLOCK];
+    private File blockFile;
+    private long blockStart;
+    private int blockLength;
+
+    private long spilledBytes;
+    private long droppedBytes;
+
+    /**
+     * @param directory   段文件目录
+     * @param prefix      段文件名前缀
+     * @param memoryLimit 内存上限（字节）
+     * @param diskLimit   磁盘上限（字节）
+     */
+    public ReadBacklog(File directory, String prefix, int memoryLimit, long diskLimit) {
+        if (memoryLimit <= 0 || diskLimit < SEGMENTS) {
+            throw new IllegalArgumentException("Invalid backlog limits");
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.memoryLimit = memoryLimit;
+        this.segmentLimit = diskLimit / SEGMENTS;
+    }
+
+    /**
+     * 追加一块数据；内存超限时把最旧的数据溢出到磁盘（溢出失败则丢弃）
+     */
+    public synchronized void add(byte[] data) {
+        if (data == null || data.length == 0) {
+            return;
+        }
+        memory.addLast(data);
+        memoryBytes += data.length;
+        if (memoryBytes > memoryLimit && spillEnabled) {
+            spill();
+        }
+    }
+
+    /**
+     * 溢出到内存上限的 3/4，避免每次追加都写盘
+     */
+    private void spill() {
+        int target = memoryLimit * 3 / 4;
+        try {
+            while (memoryBytes > target && !memory.isEmpty()) {
+                byte[] data = memory.peekFirst();
+                RandomAccessFile out = writerFor(data.length);
+                byte[] record = new byte[data.length + RECORD_OVERHEAD];
+                putInt(record, 0, data.length);
+                System.arraycopy(data, 0, record, 4, data.length);
+                putInt(record, record.length - 4, data.length);
+                out.write(record);
+                int last = segmentSizes.size() - 1;
+                segmentSizes.set(last, segmentSizes.get(last) + data.length + RECORD_OVERHEAD);
+                memory.pollFirst();
+                memoryBytes -= data.length;
+                spilledBytes += data.length;
+                spilledSinceRewind = true;
+            }
+        } catch (IOException e) {
+            CoreLog.w(TAG, "⚠️ Backlog spill failed, dropping oldest data: " + e.getMessage());
+            while (memoryBytes > target && !memory.isEmpty()) {
+                int n = memory.pollFirst().length;
+                memoryBytes -= n;
+                droppedBytes += n;
+            }
+        }
+    }
+
+    private RandomAccessFile writerFor(int length) throws IOException {
+        int last = segments.size() - 1;
+        if (writer != null && segmentSizes.get(last) + length + RECORD_OVERHEAD > segmentLimit
+                && segmentSizes.get(last) > 0) {
+            writer.close();
+            writer = null;
+        }
+        if (writer == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            if (segments.size() == SEGMENTS) {
+                // 磁盘已满：删除最旧的段
+                File oldest = segments.remove(0);
+                droppedBytes += segmentSizes.remove(0);
+                if (!oldest.delete()) {
+                    CoreLog.w(TAG, "⚠️ Could not delete " + oldest);
+                }
+                if (cursorStarted && cursorSegment >= 0) {
+                    cursorSegment--;
+                }
+            }
+            File file = new File(directory, prefix + "-" + (segmentSeq++) + ".spill");
+            writer = new RandomAccessFile(file, "rw");
+            writer.setLength(0);
+            segments.add(file);
+            segmentSizes.add(0L);
+        }
+        return writer;
+    }
+
+    /**
+     * 从内存中按时间顺序取出最旧的一页数据（用于回放）
+     *
+     * @param maxBytes  本页最多字节数（至少返回一块）
+     * @param maxChunks 本页最多块数（调用方按块数把内存数据分配给各自的回放位置）
+     * @return 数据块，内存为空或 maxChunks 为 0 时返回空队列
+     */
+    public synchronized ArrayDeque<byte[]> pollRecent(int maxBytes, int maxChunks) {
+        ArrayDeque<byte[]> page = new ArrayDeque<>();
+        int bytes = 0;
+        while (!memory.isEmpty() && page.size() < maxChunks
+                && (page.isEmpty() || bytes + memory.peekFirst().length <= maxBytes)) {
+            byte[] data = memory.pollFirst();
+            memoryBytes -= data.length;
+            bytes += data.length;
+            page.addLast(data);
+        }
+        return page;
+    }
+
+    public synchronized boolean isMemoryEmpty() {
+        return memory.isEmpty();
+    }
+
+    /**
+     * 内存中的块数（空数据不入队，每次 add() 计一块）
+     */
+    public synchronized int memoryChunks() {
+        return memory.size();
+    }
+
+    /**
+     * 是否还有更早（已溢出到磁盘、尚未翻页读出）的数据
+     */
+    public synchronized boolean hasOlder() {
+        if (!cursorStarted) {
+            return totalDiskBytes() > 0;
+        }
+        return cursorSegment > 0 || (cursorSegment == 0 && cursorPos > 0);
+    }
+
+    /**
+     * 从磁盘倒序读出紧挨着上一页之前的一页数据（页内按时间顺序）
+     *
+     * @param maxBytes 本页最多字节数（至少返回一块）
+     * @return 数据块，没有更早的数据时返回空队列
+     */
+    public synchronized ArrayDeque<byte[]> readOlder(int maxBytes) {
+        ArrayDeque<byte[]> page = new ArrayDeque<>();
+        if (!cursorStarted) {
+            cursorStarted = true;
+            cursorSegment = segments.size() - 1;
+            cursorPos = cursorSegment >= 0 ? segmentSizes.get(cursorSegment) : 0;
+        }
+        int bytes = 0;
+        try {
+            while (cursorSegment >= 0) {
+                if (cursorPos <= 0) {
+                    cursorSegment--;
+                    cursorPos = cursorSegment >= 0 ? segmentSizes.get(cursorSegment) : 0;
+                    continue;
+                }
+                File file = segments.get(cursorSegment);
+                int length = readInt(file, cursorPos - 4);
+                if (length < 0 || length + RECORD_OVERHEAD > cursorPos) {
+                    CoreLog.w(TAG, "⚠️ Corrupt backlog record in " + file.getName() + ", skipping segment");
+                    cursorPos = 0;
+                    continue;
+                }
+                if (!page.isEmpty() && bytes + length > maxBytes) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                readFully(file, cursorPos - 4 - length, data);
+                page.addFirst(data);
+                bytes += length;
+                cursorPos -= length + RECORD_OVERHEAD;
+            }
+        } catch (IOException e) {
+            CoreLog.w(TAG, "⚠️ Backlog read failed: " + e.getMessage());
+            cursorSegment = -1;
+        }
+        return page;
+    }
+
+    /**
+     * 上次调用之后若又有数据溢出到磁盘，把倒序翻页游标重置到最新的磁盘数据
+     *
+     * @return 是否有新的溢出
+     */
+    public synchronized boolean rewindIfSpilled() {
+        if (!spilledSinceRewind) {
+            return false;
+        }
+        spilledSinceRewind = false;
+        cursorStarted = false;
+        cursorSegment = -1;
+        cursorPos = 0;
+        return true;
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private int readInt(File file, long pos) throws IOException {
+        byte[] b = new byte[4];
+        readFully(file, pos, b);
+        return ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16) | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+    }
+
+    /**
+     * 带块缓存的随机读：倒序翻页时连续的小记录只需要很少几次磁盘读取
+     */
+    private void readFully(File file, long pos, byte[] out) throws IOException {
+        if (out.length > block.length) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.seek(pos);
+                raf.readFully(out);
+            }
+            return;
+        }
+        if (file != blockFile || pos < blockStart || pos + out.length > blockStart + blockLength) {
+            // 以请求位置为结尾加载一块（倒序读取时下一次请求大概率落在这块里）
+            long start = Math.max(0, pos + out.length - block.length);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                int n = (int) Math.min(block.length, raf.length() - start);
+                raf.seek(start);
+                raf.readFully(block, 0, n);
+                blockLength = n;
+            }
+            blockFile = file;
+            blockStart = start;
+            if (pos + out.length > blockStart + blockLength) {
+                throw new IOException("Short read at " + pos);
+            }
+        }
+        System.arraycopy(block, (int) (pos - blockStart), out, 0, out.length);
+    }
+
+    /**
+     * 是否允许溢出到磁盘（回放期间关闭，保证磁盘上的数据早于内存中的数据）
+     */
+    public synchronized void setSpillEnabled(boolean enabled) {
+        this.spillEnabled = enabled;
+        if (enabled && memoryBytes > memoryLimit) {
+            spill();
+        }
+    }
+
+    /**
+     * 开始新的积压周期：清空内存与磁盘
+     */
+    public synchronized void reset() {
+        memory.clear();
+        memoryBytes = 0;
+        deleteSegments();
+        cursorStarted = false;
+        cursorSegment = -1;
+        cursorPos = 0;
+        spillEnabled = true;
+        spilledSinceRewind = false;
+    }
+
+    private void deleteSegments() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            writer = null;
+        }
+        for (File file : segments) {
+            if (!file.delete()) {
+                CoreLog.w(TAG, "⚠️ Could not delete " + file);
+            }
+        }
+        segments.clear();
+        segmentSizes.clear();
+        blockFile = null;
+    }
+
+    private long totalDiskBytes() {
+        long total = 0;
+        for (long size : segmentSizes) {
+            total += size;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void close() {
+        memory.clear();
+        memoryBytes = 0;
+        deleteSegments();
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public synchronized String getStatus() {
+        return String.format("ReadBacklog[memory=%d/%d, disk=%d in %d segment(s), spilled=%d, dropped=%d]",
+                memoryBytes, memoryLimit, totalDiskBytes(), segments.size(), spilledBytes, droppedBytes);
+    }
+}
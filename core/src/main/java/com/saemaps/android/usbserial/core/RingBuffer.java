@@ -1,6 +1,4 @@
-package com.saemaps.android.usbserial.usbserial;
-
-import android.util.Log;
+package com.saemaps.android.usbserial.core;
 
 /**
  * 环形缓冲区实现
@@ -30,6 +28,16 @@ public class RingBuffer {
     // 同步锁
     private final Object lock = new Object();
 
+    // 接收时间戳标记 - 记录每次写入的首字节绝对序号及其接收时间，用于端到端延迟追踪
+    private static final int MAX_TIMESTAMP_MARKS = 64;
+    private final long[] markSequence = new long[MAX_TIMESTAMP_MARKS];
+    private final long[] markNanos = new long[MAX_TIMESTAMP_MARKS];
+    private int markNext;
+    private int markCount;
+    private long totalWritten; // 累计写入字节数（绝对序号）
+    private long totalConsumed; // 累计移出字节数（绝对序号）
+    private long lastPacketTimestamp; // 最近一次拆出数据包的接收时间
+
     /**
      * 构造函数 - 使用默认容量
      */
@@ -52,7 +60,7 @@ public class RingBuffer {
         this.tail = 0;
         this.size = 0;
 
-        Log.d(TAG, "RingBuffer created with capacity: " + capacity);
+        CoreLog.d(TAG, "RingBuffer created with capacity: " + capacity);
     }
 
     /**
@@ -64,11 +72,34 @@ public class RingBuffer {
      * @return 实际写入的字节数
      */
     public int write(byte[] data, int offset, int length) {
+        return write(data, offset, length, 0L);
+    }
+
+    /**
+     * 写入数据到缓冲区，并记录该段数据的接收时间戳
+     * 
+     * @param data          要写入的数据
+     * @param offset        数据偏移量
+     * @param length        数据长度
+     * @param timestampNanos 接收时间（System.nanoTime()），0 表示不记录
+     * @return 实际写入的字节数
+     */
+    public int write(byte[] data, int offset, int length, long timestampNanos) {
         if (data == null || length <= 0) {
             return 0;
         }
 
         synchronized (lock) {
+            if (timestampNanos != 0) {
+                markSequence[markNext] = totalWritten;
+                markNanos[markNext] = timestampNanos;
+                markNext = (markNext + 1) % MAX_TIMESTAMP_MARKS;
+                if (markCount < MAX_TIMESTAMP_MARKS) {
+                    markCount++;
+                }
+            }
+            totalWritten += length;
+
             // 检查是否需要扩容
             if (size + length > capacity) {
                 expandBuffer(size + length);
@@ -99,7 +130,7 @@ public class RingBuffer {
                 written += toWrite;
             }
 
-            Log.v(TAG, String.format("Written %d bytes, buffer size: %d/%d",
+            CoreLog.v(TAG, String.format("Written %d bytes, buffer size: %d/%d",
                     written, size, capacity));
             return written;
         }
@@ -118,6 +149,20 @@ public class RingBuffer {
         return write(data, 0, data.length);
     }
 
+    /**
+     * 写入数据到缓冲区并记录接收时间戳（重载方法）
+     * 
+     * @param data           要写入的数据
+     * @param timestampNanos 接收时间（System.nanoTime()）
+     * @return 实际写入的字节数
+     */
+    public int write(byte[] data, long timestampNanos) {
+        if (data == null) {
+            return 0;
+        }
+        return write(data, 0, data.length, timestampNanos);
+    }
+
     /**
      * 检查是否有足够的数据包
      * 
@@ -139,20 +184,18 @@ public class RingBuffer {
     public int hasCompleteVariablePacket() {
         synchronized (lock) {
             // 至少需要4字节才能判断包头和包长度
-            if (size < 4) {
+            if (size < FrameCodec.MIN_FRAME_LENGTH) {
                 return -1;
             }
 
             // 查找包头 0x0068
             int searchPos = 0;
-            while (searchPos <= size - 4) {
+            while (searchPos <= size - FrameCodec.MIN_FRAME_LENGTH) {
                 // 检查包头 (Big-Endian: 0x68 0x00)
-                if (getByteAt(searchPos) == (byte) 0x68 &&
-                        getByteAt(searchPos + 1) == (byte) 0x00) {
+                if (FrameCodec.isHeader(getByteAt(searchPos), getByteAt(searchPos + 1))) {
 
                     // 获取包长度字段（第3字节）
-                    int packetDataLength = getByteAt(searchPos + 2) & 0xFF;
-                    int totalPacketLength = packetDataLength + 3; // 包长度 + 3字节包头
+                    int totalPacketLength = FrameCodec.frameLength(getByteAt(searchPos + FrameCodec.OFFSET_LENGTH));
 
                     // 检查是否有足够的数据
                     if (size - searchPos >= totalPacketLength) {
@@ -202,16 +245,46 @@ public class RingBuffer {
                 read += toRead;
             }
 
-            // 移除已处理的数据包
+            // 记录数据包首字节的接收时间，然后移除已处理的数据包
+            lastPacketTimestamp = timestampAt(totalConsumed + headerPos);
             removeProcessedData(headerPos + packetLength);
 
-            Log.v(TAG, String.format("Read variable packet of %d bytes, remaining: %d/%d",
+            CoreLog.v(TAG, String.format("Read variable packet of %d bytes, remaining: %d/%d",
                     packetLength, size, capacity));
 
             return packet;
         }
     }
 
+    /**
+     * 获取最近一次 readVariablePacket() 拆出的数据包首字节的接收时间
+     * 
+     * @return System.nanoTime() 时间戳，未知时返回0
+     */
+    public long getLastPacketTimestamp() {
+        synchronized (lock) {
+            return lastPacketTimestamp;
+        }
+    }
+
+    /**
+     * 查找包含指定绝对序号字节的那次写入的接收时间
+     * 
+     * @param sequence 字节绝对序号
+     * @return 接收时间，若标记已被覆盖则返回最早一条可用标记的时间
+     */
+    private long timestampAt(long sequence) {
+        long result = 0;
+        for (int n = 1; n <= markCount; n++) {
+            int i = (markNext - n + MAX_TIMESTAMP_MARKS) % MAX_TIMESTAMP_MARKS;
+            result = markNanos[i];
+            if (markSequence[i] <= sequence) {
+                break;
+            }
+        }
+        return result;
+    }
+
     /**
      * 获取指定位置的字节
      * 
@@ -229,8 +302,8 @@ public class RingBuffer {
      * @return 包头位置，如果没找到返回-1
      */
     private int findPacketHeader() {
-        for (int i = 0; i <= size - 4; i++) {
-            if (getByteAt(i) == (byte) 0x68 && getByteAt(i + 1) == (byte) 0x00) {
+        for (int i = 0; i <= size - FrameCodec.MIN_FRAME_LENGTH; i++) {
+            if (FrameCodec.isHeader(getByteAt(i), getByteAt(i + 1))) {
                 return i;
             }
         }
@@ -249,6 +322,7 @@ public class RingBuffer {
 
         tail = (tail + bytesToRemove) % capacity;
         size -= bytesToRemove;
+        totalConsumed += bytesToRemove;
 
         // 如果缓冲区为空，重置位置
         if (size == 0) {
@@ -266,7 +340,7 @@ public class RingBuffer {
     public byte[] readPacket(int packetSize) {
         synchronized (lock) {
             if (size < packetSize) {
-                Log.v(TAG, String.format("Insufficient data: need %d, have %d", packetSize, size));
+                CoreLog.v(TAG, String.format("Insufficient data: need %d, have %d", packetSize, size));
                 return null;
             }
 
@@ -289,8 +363,9 @@ public class RingBuffer {
             }
 
             size -= packetSize;
+            totalConsumed += packetSize;
 
-            Log.v(TAG, String.format("Read packet of %d bytes, remaining: %d/%d",
+            CoreLog.v(TAG, String.format("Read packet of %d bytes, remaining: %d/%d",
                     packetSize, size, capacity));
 
             return packet;
@@ -324,9 +399,10 @@ public class RingBuffer {
             }
 
             tail = head;
+            totalConsumed += size;
             size = 0;
 
-            Log.v(TAG, String.format("Read all %d bytes", data.length));
+            CoreLog.v(TAG, String.format("Read all %d bytes", data.length));
             return data;
         }
     }
@@ -381,7 +457,11 @@ public class RingBuffer {
             head = 0;
             tail = 0;
             size = 0;
-            Log.d(TAG, "Buffer cleared");
+            totalConsumed = totalWritten;
+            markCount = 0;
+            markNext = 0;
+            lastPacketTimestamp = 0;
+            CoreLog.d(TAG, "Buffer cleared");
         }
     }
 
@@ -410,7 +490,7 @@ public class RingBuffer {
         head = size;
         tail = 0;
 
-        Log.d(TAG, String.format("Buffer expanded to %d bytes", newCapacity));
+        CoreLog.d(TAG, String.format("Buffer expanded to %d bytes", newCapacity));
     }
 
     /**
@@ -0,0 +1,415 @@
+package com.saemaps.android.usbserial.core;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * 终端回滚缓冲（按行索引的环）
+ * 串口终端收到的文本按行存入固定大小的字符环，超过行数或字符数上限时淘汰最旧的行；
+ * 界面只需按行号取出可见窗口内的几百行来渲染，接收速度再高、运行时间再长，单次渲染的代价都不变。
+ *
+ * 特性：
+ * - 字符环、属性环、行环全部预分配；字节解码（UTF-8）使用可复用的缓冲区，追加不产生对象分配
+ * - 跨数据块被截断的多字节 UTF-8 序列会保留到下一块再解码
+ * - 控制字符转换为脱字符表示（^M 等），并在属性中打上 {@link #ATTR_CARET} 标记，便于界面加底色
+ * - 超过单行长度上限的行被折成续行（{@link #isContinuation}），渲染时不插入换行
+ * - 支持在头部插入更早的数据（{@link #prependBytes}），用于从积压缓冲分页读入历史；
+ *   历史数据先解码到可复用的暂存区（按页大小增长一次后不再分配）
+ *
+ * 行号是单调递增的绝对编号，淘汰不改变已有行的编号。
+ *
+ * 线程安全：非线程安全，只在 UI 线程上使用。
+ *
+ * @author SAE Maps
+ */
+public final class ScrollbackBuffer {
+
+    public static final int KIND_RECEIVE = 0;
+    public static final int KIND_SEND = 1;
+    public static final int KIND_STATUS = 2;
+    public static final int KIND_MASK = 0x03;
+    public static final int ATTR_CARET = 0x04;
+
+    public static final int DEFAULT_MAX_LINES = 5000;
+    public static final int DEFAULT_MAX_CHARS = 512 * 1024;
+    public static final int DEFAULT_MAX_LINE_LENGTH = 1024;
+
+    private static final int FLAG_CONTINUATION = 0x01;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int maxLines;
+    private final int maxLineLength;
+
+    // 字符环：绝对位置 [charTail, charHead) 有效
+    private final char[] chars;
+    private final byte[] attrs;
+    private long charTail;
+    private long charHead;
+
+    // 行环：绝对行号 [firstLine, endLine) 有效，相邻行在字符环中首尾相接
+    private final long[] lineStart;
+    private final int[] lineLength;
+    private final byte[] lineFlags;
+    private long firstLine;
+    private long endLine;
+    // 最后一行是否还没遇到换行（后续字符继续追加到这一行）
+    private boolean lastLineOpen;
+
+    // 可复用的解码缓冲
+    private final CharsetDecoder decoder;
+    private ByteBuffer pendingBytes = ByteBuffer.allocate(4096);
+    private final CharBuffer decoded = CharBuffer.allocate(4096);
+
+    // 头部插入的暂存区：历史数据先解码、分行到这里再倒序插入；按需增长后一直复用
+    private final CharsetDecoder stageDecoder;
+    private ByteBuffer stageInput = ByteBuffer.allocate(4096);
+    private char[] stageChars = new char[0];
+    private byte[] stageAttrs = new byte[0];
+    private int[] stagedLineLength = new int[0];
+    private byte[] stagedLineFlags = new byte[0];
+    private int stagedChars;
+    private int stagedLines;
+    private boolean stagedOpen;
+
+    private long evictedLines;
+    private long modificationCount;
+
+    public ScrollbackBuffer() {
+        this(DEFAULT_MAX_LINES, DEFAULT_MAX_CHARS, DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    /**
+     * @param maxLines      最多保留行数
+     * @param maxChars      最多保留字符数
+     * @param maxLineLength 单行长度上限，超过后折成续行
+     */
+    public ScrollbackBuffer(int maxLines, int maxChars, int maxLineLength) {
+        if (maxLines <= 0 || maxLineLength <= 0 || maxChars < maxLineLength * 2) {
+            throw new IllegalArgumentException("Invalid scrollback dimensions");
+        }
+        this.maxLines = maxLines;
+        this.maxLineLength = maxLineLength;
+        this.chars = new char[maxChars];
+        this.attrs = new byte[maxChars];
+        this.lineStart = new long[maxLines];
+        this.lineLength = new int[maxLines];
+        this.lineFlags = new byte[maxLines];
+        this.decoder = UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.stageDecoder = UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 追加串口原始字节（按 UTF-8 解码）
+     *
+     * @param kind        数据类别（KIND_*）
+     * @param keepNewline true 时 '\n' 换行，否则和其它控制字符一样显示为脱字符
+     */
+    public void appendBytes(byte[] data, int offset, int length, int kind, boolean keepNewline) {
+        if (pendingBytes.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(pendingBytes.position() + length);
+            pendingBytes.flip();
+            grown.put(pendingBytes);
+            pendingBytes = grown;
+        }
+        pendingBytes.put(data, offset, length);
+        pendingBytes.flip();
+        while (true) {
+            CoderResult result = decoder.decode(pendingBytes, decoded, false);
+            decoded.flip();
+            while (decoded.hasRemaining()) {
+                appendChar(decoded.get(), kind, keepNewline);
+            }
+            decoded.clear();
+            // 非 OVERFLOW 说明输入已用完，或只剩下不完整的多字节序列留给下一块
+            if (!result.isOverflow()) {
+                break;
+            }
+        }
+        pendingBytes.compact();
+        modificationCount++;
+    }
+
+    /**
+     * 追加文本
+     *
+     * @param kind        数据类别（KIND_*）
+     * @param keepNewline true 时 '\n' 换行，否则显示为脱字符
+     */
+    public void appendText(CharSequence text, int kind, boolean keepNewline) {
+        for (int i = 0; i < text.length(); i++) {
+            appendChar(text.charAt(i), kind, keepNewline);
+        }
+        modificationCount++;
+    }
+
+    private void appendChar(char c, int kind, boolean keepNewline) {
+        if (c == '\n' && keepNewline) {
+            if (!lastLineOpen) {
+                startLine(false);
+            }
+            lastLineOpen = false;
+        } else if (c < 32) {
+            putChar('^', kind | ATTR_CARET);
+            putChar((char) (c + 64), kind | ATTR_CARET);
+        } else {
+            putChar(c, kind);
+        }
+    }
+
+    private void putChar(char c, int attr) {
+        if (!lastLineOpen) {
+            startLine(false);
+        } else if (lineLength[slot(endLine - 1)] >= maxLineLength) {
+            startLine(true);
+        }
+        // 被淘汰的首行可能是空行（不释放字符），循环到腾出空间为止；
+        // maxChars >= 2 * maxLineLength，当前行本身不会被淘汰
+        while (charHead - charTail >= chars.length) {
+            evictFirstLine();
+        }
+        int p = charSlot(charHead++);
+        chars[p] = c;
+        attrs[p] = (byte) attr;
+        lineLength[slot(endLine - 1)]++;
+    }
+
+    private void startLine(boolean continuation) {
+        if (endLine - firstLine == maxLines) {
+            evictFirstLine();
+        }
+        int s = slot(endLine++);
+        lineStart[s] = charHead;
+        lineLength[s] = 0;
+        lineFlags[s] = (byte) (continuation ? FLAG_CONTINUATION : 0);
+        lastLineOpen = true;
+    }
+
+    private void evictFirstLine() {
+        charTail += lineLength[slot(firstLine)];
+        firstLine++;
+        evictedLines++;
+        if (firstLine < endLine) {
+            // 被淘汰行的续行成为新的首行，不再是续行
+            lineFlags[slot(firstLine)] &= ~FLAG_CONTINUATION;
+        }
+    }
+
+    /**
+     * 在头部插入更早的数据（按 UTF-8 解码）；空间不足时只插入最靠后的部分
+     *
+     * @return 插入的行数
+     */
+    public int prependBytes(byte[] data, int offset, int length, int kind, boolean keepNewline) {
+        if (endLine == firstLine) {
+            long before = endLine;
+            appendBytes(data, offset, length, kind, keepNewline);
+            return (int) (endLine - before);
+        }
+        stageBytes(data, offset, length, kind, keepNewline);
+        if (stagedOpen) {
+            // 历史数据的最后一行没有换行，现有首行是它的延续
+            lineFlags[slot(firstLine)] |= FLAG_CONTINUATION;
+        }
+        int inserted = 0;
+        int end = stagedChars;
+        for (int line = stagedLines - 1; line >= 0; line--) {
+            int n = stagedLineLength[line];
+            int start = end - n;
+            end = start;
+            if (endLine - firstLine == maxLines || charHead - charTail + n > chars.length) {
+                lineFlags[slot(firstLine)] &= ~FLAG_CONTINUATION;
+                break;
+            }
+            charTail -= n;
+            for (int i = 0; i < n; i++) {
+                int to = charSlot(charTail + i);
+                chars[to] = stageChars[start + i];
+                attrs[to] = stageAttrs[start + i];
+            }
+            int t = slot(--firstLine);
+            lineStart[t] = charTail;
+            lineLength[t] = n;
+            lineFlags[t] = stagedLineFlags[line];
+            inserted++;
+        }
+        if (inserted > 0) {
+            lineFlags[slot(firstLine)] &= ~FLAG_CONTINUATION;
+            modificationCount++;
+        }
+        return inserted;
+    }
+
+    /**
+     * 把要插入头部的数据解码、分行到暂存区（与追加相同的换行、脱字符和折行规则）
+     */
+    private void stageBytes(byte[] data, int offset, int length, int kind, boolean keepNewline) {
+        stagedChars = 0;
+        stagedLines = 0;
+        stagedOpen = false;
+        if (stageInput.capacity() < length) {
+            stageInput = ByteBuffer.allocate(length);
+        }
+        stageInput.clear();
+        stageInput.put(data, offset, length);
+        stageInput.flip();
+        stageDecoder.reset();
+        boolean flushing = false;
+        while (true) {
+            CoderResult result = flushing ? stageDecoder.flush(decoded) : stageDecoder.decode(stageInput, decoded, true);
+            decoded.flip();
+            while (decoded.hasRemaining()) {
+                stageChar(decoded.get(), kind, keepNewline);
+            }
+            decoded.clear();
+            if (result.isOverflow()) {
+                continue;
+            }
+            if (flushing) {
+                break;
+            }
+            flushing = true;
+        }
+    }
+
+    private void stageChar(char c, int kind, boolean keepNewline) {
+        if (c == '\n' && keepNewline) {
+            if (!stagedOpen) {
+                stageLine(false);
+            }
+            stagedOpen = false;
+        } else if (c < 32) {
+            stagePut('^', kind | ATTR_CARET);
+            stagePut((char) (c + 64), kind | ATTR_CARET);
+        } else {
+            stagePut(c, kind);
+        }
+    }
+
+    private void stagePut(char c, int attr) {
+        if (!stagedOpen) {
+            stageLine(false);
+        } else if (stagedLineLength[stagedLines - 1] >= maxLineLength) {
+            stageLine(true);
+        }
+        if (stagedChars == stageChars.length) {
+            int grown = Math.max(1024, stageChars.length * 2);
+            stageChars = Arrays.copyOf(stageChars, grown);
+            stageAttrs = Arrays.copyOf(stageAttrs, grown);
+        }
+        stageChars[stagedChars] = c;
+        stageAttrs[stagedChars++] = (byte) attr;
+        stagedLineLength[stagedLines - 1]++;
+    }
+
+    private void stageLine(boolean continuation) {
+        if (stagedLines == stagedLineLength.length) {
+            int grown = Math.max(64, stagedLineLength.length * 2);
+            stagedLineLength = Arrays.copyOf(stagedLineLength, grown);
+            stagedLineFlags = Arrays.copyOf(stagedLineFlags, grown);
+        }
+        stagedLineLength[stagedLines] = 0;
+        stagedLineFlags[stagedLines++] = (byte) (continuation ? FLAG_CONTINUATION : 0);
+        stagedOpen = true;
+    }
+
+    /**
+     * 最旧的仍然保留的行号
+     */
+    public long getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * 最新行号 + 1
+     */
+    public long getEndLine() {
+        return endLine;
+    }
+
+    public int getLineCount() {
+        return (int) (endLine - firstLine);
+    }
+
+    public int getLineLength(long line) {
+        checkLine(line);
+        return lineLength[slot(line)];
+    }
+
+    /**
+     * 该行是否是上一行超长折出的续行（渲染时不在它前面插入换行）
+     */
+    public boolean isContinuation(long line) {
+        checkLine(line);
+        return (lineFlags[slot(line)] & FLAG_CONTINUATION) != 0;
+    }
+
+    /**
+     * 复制一行的字符和属性
+     *
+     * @param attrsOut 可为 null
+     * @return 复制的字符数
+     */
+    public int copyLine(long line, char[] charsOut, byte[] attrsOut, int outOffset) {
+        checkLine(line);
+        int s = slot(line);
+        int n = lineLength[s];
+        int p = charSlot(lineStart[s]);
+        int first = Math.min(n, chars.length - p);
+        System.arraycopy(chars, p, charsOut, outOffset, first);
+        System.arraycopy(chars, 0, charsOut, outOffset + first, n - first);
+        if (attrsOut != null) {
+            System.arraycopy(attrs, p, attrsOut, outOffset, first);
+            System.arraycopy(attrs, 0, attrsOut, outOffset + first, n - first);
+        }
+        return n;
+    }
+
+    /**
+     * 每次内容变化都会递增，界面据此判断是否需要重新渲染
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    public void clear() {
+        charTail = charHead;
+        firstLine = endLine;
+        lastLineOpen = false;
+        decoder.reset();
+        pendingBytes.clear();
+        modificationCount++;
+    }
+
+    private void checkLine(long line) {
+        if (line < firstLine || line >= endLine) {
+            throw new IndexOutOfBoundsException("Line " + line + " not in [" + firstLine + ", " + endLine + ")");
+        }
+    }
+
+    private int slot(long line) {
+        return (int) Math.floorMod(line, (long) maxLines);
+    }
+
+    private int charSlot(long position) {
+        return (int) Math.floorMod(position, (long) chars.length);
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public String getStatus() {
+        return String.format("ScrollbackBuffer[lines=%d/%d, chars=%d/%d, evicted=%d]", endLine - firstLine,
+                maxLines, charHead - charTail, chars.length, evictedLines);
+    }
+}
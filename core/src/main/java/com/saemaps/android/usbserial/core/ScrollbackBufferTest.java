@@ -0,0 +1,128 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 终端回滚缓冲测试类
+ * 用于验证字符环满时的淘汰（含空行）和保留下来的行内容
+ *
+ * @author SAE Maps
+ */
+public class ScrollbackBufferTest {
+    private static final String TAG = "ScrollbackBufferTest";
+
+    private static void check(boolean condition, String what) {
+        if (condition) {
+            CoreLog.d(TAG, "✅ " + what);
+        } else {
+            CoreLog.e(TAG, "❌ " + what);
+        }
+    }
+
+    private static String line(ScrollbackBuffer buffer, long line) {
+        char[] chars = new char[buffer.getLineLength(line)];
+        byte[] attrs = new byte[chars.length];
+        int n = buffer.copyLine(line, chars, attrs, 0);
+        return new String(chars, 0, n);
+    }
+
+    private static void append(ScrollbackBuffer buffer, String text) {
+        buffer.appendText(text, ScrollbackBuffer.KIND_RECEIVE, true);
+    }
+
+    /**
+     * 最旧的行是空行时，字符环满了也要继续淘汰，直到腾出空间
+     */
+    public static void testBlankLineEviction() {
+        CoreLog.d(TAG, "🧪 Testing eviction when the oldest line is blank");
+        ScrollbackBuffer buffer = new ScrollbackBuffer(100, 64, 16);
+        append(buffer, "\n");
+        List<String> written = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 15; j++) {
+                sb.append((char) ('A' + (i + j) % 26));
+            }
+            written.add(sb.toString());
+            append(buffer, sb + "\n");
+        }
+        int retained = 0;
+        for (long line = buffer.getFirstLine(); line < buffer.getEndLine(); line++) {
+            retained += buffer.getLineLength(line);
+        }
+        check(retained <= 64, "Char ring stays within capacity: " + buffer.getStatus());
+        verifyTail(buffer, written, "Blank-line eviction");
+    }
+
+    /**
+     * 随机混入空行，保留下来的行必须与写入的末尾一致
+     */
+    public static void testRandomEviction() {
+        CoreLog.d(TAG, "🧪 Testing random lines with blank lines");
+        Random random = new Random(7);
+        ScrollbackBuffer buffer = new ScrollbackBuffer(50, 200, 20);
+        List<String> written = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int len = random.nextInt(4) == 0 ? 0 : random.nextInt(20);
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < len; j++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+            written.add(sb.toString());
+            append(buffer, sb + "\n");
+        }
+        verifyTail(buffer, written, "Random eviction");
+    }
+
+    private static void verifyTail(ScrollbackBuffer buffer, List<String> written, String what) {
+        int lines = buffer.getLineCount();
+        boolean ok = lines > 0 && lines <= written.size();
+        for (int i = 0; ok && i < lines; i++) {
+            String expected = written.get(written.size() - lines + i);
+            String actual = line(buffer, buffer.getFirstLine() + i);
+            if (!expected.equals(actual)) {
+                CoreLog.w(TAG, "Line " + i + ": expected '" + expected + "' got '" + actual + "'");
+                ok = false;
+            }
+        }
+        check(ok, what + ": " + lines + " retained lines match the newest written lines");
+    }
+
+    /**
+     * 运行所有测试
+     */
+    public static void runAllTests() {
+        CoreLog.d(TAG, "🚀 Starting ScrollbackBuffer test suite");
+        try {
+            testBlankLineEviction();
+            testRandomEviction();
+            CoreLog.d(TAG, "🎉 All tests completed");
+        } catch (Exception e) {
+            CoreLog.e(TAG, "❌ Test suite failed", e);
+        }
+    }
+
+    /**
+     * 在普通 JVM 上运行（gradle :core:scrollbackTest，:core:selfTest 也会先运行它）
+     * 任何一条错误级别日志都视为失败，以非零退出码结束
+     */
+    public static void main(String[] args) {
+        final AtomicInteger errors = new AtomicInteger();
+        CoreLog.setMinPriority(CoreLog.VERBOSE);
+        CoreLog.setSink((priority, tag, message, error) -> {
+            if (priority >= CoreLog.ERROR) {
+                errors.incrementAndGet();
+            }
+            CoreLog.CONSOLE.log(priority, tag, message, error);
+        });
+        runAllTests();
+        if (errors.get() > 0) {
+            System.err.println("ScrollbackBufferTest: " + errors.get() + " failure(s)");
+            System.exit(1);
+        }
+        System.out.println("ScrollbackBufferTest: OK");
+    }
+}
@@ -0,0 +1,158 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟串口链路
+ * 按波特率计算每个字节的线路传输时间，加上固定的设备处理延迟后，把应答分成随机大小的块回调给接收方，
+ * 近似真实 USB 串口"一次读到几个字节到几十个字节"的行为；可按比例随机丢弃整个请求，用于在没有硬件时
+ * 验证 {@link LinkStressTest} 的统计（吞吐、丢失、往返延迟）。
+ *
+ * 应答逻辑由 {@link Responder} 决定：{@link #ECHO} 原样回显（环回插头），
+ * {@link #radio(int)} 只应答设备 ID 查询（模拟电台）。
+ *
+ * 线程安全：send() 可在任意线程调用；接收回调在内部调度线程上执行。
+ *
+ * @author SAE Maps
+ */
+public final class SimulatedSerialLink implements LinkStressTest.Transport, Closeable {
+
+    private static final String TAG = "SimulatedSerialLink";
+
+    // 每次回调的最大块长度
+    private static final int MAX_CHUNK = 32;
+
+    /**
+     * 模拟设备：根据收到的请求生成应答
+     */
+    public interface Responder {
+        /**
+         * @return 应答字节，null 表示不应答
+         */
+        byte[] respond(byte[] request);
+    }
+
+    /**
+     * 接收回调
+     */
+    public interface Receiver {
+        void onReceive(byte[] data);
+    }
+
+    /**
+     * 原样回显
+     */
+    public static final Responder ECHO = request -> request;
+
+    /**
+     * 模拟电台：应答设备 ID 查询（68 00 01 02），ID 按小端序 3 字节返回
+     */
+    public static Responder radio(final int deviceId) {
+        final byte[] query = Commands.queryDeviceId();
+        final byte[] id = {(byte) deviceId, (byte) (deviceId >> 8), (byte) (deviceId >> 16)};
+        return request -> Arrays.equals(request, query)
+                ? FrameCodec.encode(FrameCodec.CMD_DEVICE_ID, id) : null;
+    }
+
+    private final long nanosPerByte;
+    private final long latencyNanos;
+    private final double lossRate;
+    private final Random random;
+    private final Responder responder;
+    private final Receiver receiver;
+    private final ScheduledExecutorService scheduler;
+
+    // 发送/接收方向线路空闲的时刻（同方向的数据按顺序排队占用线路，不会交错）
+    private long txFreeNanos;
+    private long rxFreeNanos;
+    private long dropped;
+    private volatile boolean closed;
+    // 待送达的块：每个定时任务只取队首，到点时间相近的任务乱序触发也不会打乱字节顺序
+    private final ArrayDeque<byte[]> inFlight = new ArrayDeque<>();
+
+    /**
+     * @param baudRate  波特率（按每字节 10 位计算传输时间）
+     * @param latencyMs 设备处理延迟
+     * @param lossRate  请求丢失概率 [0, 1)
+     * @param seed      随机种子
+     * @param responder 应答逻辑
+     * @param receiver  接收回调
+     */
+    public SimulatedSerialLink(int baudRate, int latencyMs, double lossRate, long seed, Responder responder,
+                               Receiver receiver) {
+        if (baudRate <= 0 || latencyMs < 0 || lossRate < 0 || lossRate >= 1) {
+            throw new IllegalArgumentException("Invalid simulated link parameters");
+        }
+        this.nanosPerByte = 10_000_000_000L / baudRate;
+        this.latencyNanos = latencyMs * 1_000_000L;
+        this.lossRate = lossRate;
+        this.random = new Random(seed);
+        this.responder = responder;
+        this.receiver = receiver;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SimulatedSerialLink");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public synchronized void send(byte[] data) throws IOException {
+        if (closed) {
+            throw new IOException("Simulated link closed");
+        }
+        long now = System.nanoTime();
+        // 请求占用线路的时间
+        long arrived = Math.max(now, txFreeNanos) + data.length * nanosPerByte;
+        txFreeNanos = arrived;
+        if (random.nextDouble() < lossRate) {
+            dropped++;
+            return;
+        }
+        byte[] response = responder.respond(data.clone());
+        if (response == null || response.length == 0) {
+            return;
+        }
+        // 应答在设备处理延迟之后逐块送达，每块到达时间由其最后一个字节决定
+        long at = Math.max(arrived + latencyNanos, rxFreeNanos);
+        int offset = 0;
+        while (offset < response.length) {
+            int n = Math.min(response.length - offset, 1 + random.nextInt(MAX_CHUNK));
+            byte[] chunk = new byte[n];
+            System.arraycopy(response, offset, chunk, 0, n);
+            offset += n;
+            at += n * nanosPerByte;
+            inFlight.addLast(chunk);
+            scheduler.schedule(this::deliver, Math.max(0, at - now), TimeUnit.NANOSECONDS);
+        }
+        rxFreeNanos = at;
+    }
+
+    private void deliver() {
+        byte[] chunk;
+        synchronized (this) {
+            chunk = inFlight.pollFirst();
+        }
+        if (chunk != null && !closed) {
+            receiver.onReceive(chunk);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        CoreLog.d(TAG, "🔌 Simulated link closed, dropped " + getDropped() + " request(s)");
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
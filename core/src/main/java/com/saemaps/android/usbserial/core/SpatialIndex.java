@@ -0,0 +1,355 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.Arrays;
+
+/**
+ * 在线手台的空间索引（均匀网格 + 空间哈希）
+ * 按固定大小的经纬度网格划分位置，每个单位随定位包增量更新所在网格；
+ * 用于回答"视野范围内有哪些单位"和"某点 N 米内有哪些单位"，使地图刷新和临近告警只处理相关单位。
+ *
+ * 实现：
+ * - 网格键 (行, 列) 哈希到定长桶数组，同桶单位用 next/prev 数组串成双向链表，更新为 O(1)，不产生对象分配
+ * - 哈希冲突只会让查询多遍历几个单位，结果按单位实际所在网格和坐标过滤，不影响正确性
+ * - 查询范围覆盖的网格数超过已跟踪单位数时退化为全量扫描
+ * - 网格在经度方向使用与纬度相同的角度大小，高纬度地区网格会变窄，只影响效率
+ *
+ * 线程安全：所有公开方法都可在任意线程调用。
+ *
+ * @author SAE Maps
+ */
+public final class SpatialIndex {
+
+    private static final String TAG = "SpatialIndex";
+
+    public static final double DEFAULT_CELL_SIZE_METERS = 500.0;
+
+    // 纬度方向 1 米对应的 1e-7 度数
+    private static final double E7_PER_METER = 1e7 / 111195.0;
+    private static final int NIL = -1;
+    private static final int MAX_LAT_E7 = 900000000;
+    private static final int MAX_LON_E7 = 1800000000;
+
+    private final int maxUnits;
+    private final int cellSizeE7;
+    private final double cellSizeMeters;
+    private final UnitIndex index;
+
+    // 每个槽位的位置与所在网格（受 lock 保护）
+    private final int[] lat;
+    private final int[] lon;
+    private final int[] cellRow;
+    private final int[] cellCol;
+    private final boolean[] present;
+
+    // 空间哈希桶：bucketHead[b] 为链表头槽位，next/prev 为同桶链表
+    private final int[] bucketHead;
+    private final int bucketMask;
+    private final int[] next;
+    private final int[] prev;
+
+    private final Object lock = new Object();
+
+    private long updates;
+    private long cellMoves;
+    private long dropped;
+    private long queries;
+    private long fullScans;
+
+    public SpatialIndex(int maxUnits) {
+        this(maxUnits, DEFAULT_CELL_SIZE_METERS);
+    }
+
+    /**
+     * @param maxUnits       最多跟踪的单位数
+     * @param cellSizeMeters 网格边长（米），取常见查询半径的量级最合适
+     */
+    public SpatialIndex(int maxUnits, double cellSizeMeters) {
+        if (maxUnits <= 0 || cellSizeMeters <= 0) {
+            throw new IllegalArgumentException("Invalid spatial index dimensions");
+        }
+        this.maxUnits = maxUnits;
+        this.cellSizeMeters = cellSizeMeters;
+        this.cellSizeE7 = (int) Math.max(1, Math.min(MAX_LAT_E7, Math.round(cellSizeMeters * E7_PER_METER)));
+        this.index = new UnitIndex(maxUnits);
+
+        lat = new int[maxUnits];
+        lon = new int[maxUnits];
+        cellRow = new int[maxUnits];
+        cellCol = new int[maxUnits];
+        present = new boolean[maxUnits];
+        next = new int[maxUnits];
+        prev = new int[maxUnits];
+
+        int buckets = Integer.highestOneBit(maxUnits * 2 - 1) << 1;
+        bucketHead = new int[buckets];
+        bucketMask = buckets - 1;
+        Arrays.fill(bucketHead, NIL);
+    }
+
+    /**
+     * 更新一个单位的位置（增量：网格不变时只改坐标）
+     *
+     * @return false 如果单位数已达上限而被丢弃
+     */
+    public boolean update(int unitId, int latitudeE7, int longitudeE7) {
+        synchronized (lock) {
+            int known = index.size();
+            int slot = index.findOrAdd(unitId);
+            if (slot < 0) {
+                dropped++;
+                return false;
+            }
+            if (index.size() > known) {
+                CoreLog.d(TAG, "➕ Indexing unit " + unitId + " (" + index.size() + "/" + maxUnits + ")");
+            }
+            updates++;
+            lat[slot] = latitudeE7;
+            lon[slot] = longitudeE7;
+            int row = rowOf(latitudeE7);
+            int col = colOf(longitudeE7);
+            if (present[slot]) {
+                if (row == cellRow[slot] && col == cellCol[slot]) {
+                    return true;
+                }
+                unlink(slot);
+                cellMoves++;
+            }
+            cellRow[slot] = row;
+            cellCol[slot] = col;
+            link(slot);
+            present[slot] = true;
+            return true;
+        }
+    }
+
+    /**
+     * 更新一个已解码定位帧的位置
+     *
+     * @return false 如果单位数已达上限而被丢弃
+     */
+    public boolean update(LocationFrame frame) {
+        return update(frame.getUnitId(), frame.getLatitudeE7(), frame.getLongitudeE7());
+    }
+
+    /**
+     * 从索引中移除一个单位（如超时离线）；槽位保留，再次更新时复用
+     *
+     * @return true 如果该单位在索引中
+     */
+    public boolean remove(int unitId) {
+        synchronized (lock) {
+            int slot = index.find(unitId);
+            if (slot < 0 || !present[slot]) {
+                return false;
+            }
+            unlink(slot);
+            present[slot] = false;
+            return true;
+        }
+    }
+
+    /**
+     * 读取单位的最新位置
+     *
+     * @param out 输出：[纬度E7, 经度E7]
+     * @return false 如果该单位不在索引中
+     */
+    public boolean getPosition(int unitId, int[] out) {
+        synchronized (lock) {
+            int slot = index.find(unitId);
+            if (slot < 0 || !present[slot]) {
+                return false;
+            }
+            out[0] = lat[slot];
+            out[1] = lon[slot];
+            return true;
+        }
+    }
+
+    /**
+     * 查询矩形范围内的单位（含边界）
+     * west &gt; east 表示范围跨越 180° 经线。
+     *
+     * @param south 南边界纬度（1e-7 度）
+     * @param west  西边界经度（1e-7 度）
+     * @param north 北边界纬度（1e-7 度）
+     * @param east  东边界经度（1e-7 度）
+     * @param out   输出：手台ID
+     * @return 输出的个数（不超过 out.length）
+     */
+    public int queryBox(int south, int west, int north, int east, int[] out) {
+        synchronized (lock) {
+            queries++;
+            if (south > north) {
+                return 0;
+            }
+            if (west > east) {
+                int n = queryBoxLocked(south, west, north, MAX_LON_E7, out, 0);
+                return queryBoxLocked(south, -MAX_LON_E7, north, east, out, n);
+            }
+            return queryBoxLocked(south, west, north, east, out, 0);
+        }
+    }
+
+    /**
+     * 查询某点 radiusMeters 米内的单位
+     *
+     * @param latitudeE7   中心纬度（1e-7 度）
+     * @param longitudeE7  中心经度（1e-7 度）
+     * @param radiusMeters 半径（米）
+     * @param out          输出：手台ID
+     * @return 输出的个数（不超过 out.length）
+     */
+    public int queryRadius(int latitudeE7, int longitudeE7, double radiusMeters, int[] out) {
+        if (radiusMeters < 0) {
+            return 0;
+        }
+        // 外接矩形：经度方向按中心纬度的余弦放大（极区附近退化为全经度）
+        long dLat = Math.round(radiusMeters * E7_PER_METER);
+        double cos = Math.cos(Math.toRadians(latitudeE7 * 1e-7));
+        long dLon = cos < 1e-6 ? MAX_LON_E7 : Math.min(MAX_LON_E7, Math.round(dLat / cos));
+        int south = (int) Math.max(-MAX_LAT_E7, latitudeE7 - dLat);
+        int north = (int) Math.min(MAX_LAT_E7, latitudeE7 + dLat);
+        int west;
+        int east;
+        if (dLon >= MAX_LON_E7) {
+            west = -MAX_LON_E7;
+            east = MAX_LON_E7;
+        } else {
+            west = wrapLon(longitudeE7 - dLon);
+            east = wrapLon(longitudeE7 + dLon);
+        }
+
+        synchronized (lock) {
+            queries++;
+            int n = west > east
+                    ? queryBoxLocked(south, -MAX_LON_E7, north, east, out,
+                            queryBoxLocked(south, west, north, MAX_LON_E7, out, 0))
+                    : queryBoxLocked(south, west, north, east, out, 0);
+            // 按实际距离过滤矩形候选
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int slot = index.find(out[i]);
+                if (PositionCoalescer.distanceMeters(latitudeE7, longitudeE7, lat[slot], lon[slot]) <= radiusMeters) {
+                    out[kept++] = out[i];
+                }
+            }
+            return kept;
+        }
+    }
+
+    private int queryBoxLocked(int south, int west, int north, int east, int[] out, int outPos) {
+        int rowMin = rowOf(south);
+        int rowMax = rowOf(north);
+        int colMin = colOf(west);
+        int colMax = colOf(east);
+        long cells = (long) (rowMax - rowMin + 1) * (colMax - colMin + 1);
+        if (cells > index.size()) {
+            // 范围覆盖的网格比单位还多，直接扫描所有单位更快
+            fullScans++;
+            for (int slot = 0; slot < index.size() && outPos < out.length; slot++) {
+                if (present[slot] && inBox(slot, south, west, north, east)) {
+                    out[outPos++] = index.unitIdAt(slot);
+                }
+            }
+            return outPos;
+        }
+        for (int row = rowMin; row <= rowMax; row++) {
+            for (int col = colMin; col <= colMax; col++) {
+                for (int slot = bucketHead[bucketOf(row, col)]; slot != NIL; slot = next[slot]) {
+                    // 同桶的其他网格由各自的 (row, col) 负责，避免重复输出
+                    if (cellRow[slot] != row || cellCol[slot] != col
+                            || !inBox(slot, south, west, north, east)) {
+                        continue;
+                    }
+                    if (outPos == out.length) {
+                        return outPos;
+                    }
+                    out[outPos++] = index.unitIdAt(slot);
+                }
+            }
+        }
+        return outPos;
+    }
+
+    private boolean inBox(int slot, int south, int west, int north, int east) {
+        int a = lat[slot];
+        int b = lon[slot];
+        return a >= south && a <= north && b >= west && b <= east;
+    }
+
+    private void link(int slot) {
+        int bucket = bucketOf(cellRow[slot], cellCol[slot]);
+        int head = bucketHead[bucket];
+        next[slot] = head;
+        prev[slot] = NIL;
+        if (head != NIL) {
+            prev[head] = slot;
+        }
+        bucketHead[bucket] = slot;
+    }
+
+    private void unlink(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p != NIL) {
+            next[p] = n;
+        } else {
+            bucketHead[bucketOf(cellRow[slot], cellCol[slot])] = n;
+        }
+        if (n != NIL) {
+            prev[n] = p;
+        }
+    }
+
+    private int rowOf(int latitudeE7) {
+        return Math.floorDiv(latitudeE7, cellSizeE7);
+    }
+
+    private int colOf(int longitudeE7) {
+        return Math.floorDiv(longitudeE7, cellSizeE7);
+    }
+
+    private int bucketOf(int row, int col) {
+        int h = (row * 0x9E3779B9) ^ (col * 0x85EBCA6B);
+        return (h ^ (h >>> 16)) & bucketMask;
+    }
+
+    private static int wrapLon(long longitudeE7) {
+        if (longitudeE7 > MAX_LON_E7) {
+            return (int) (longitudeE7 - 2L * MAX_LON_E7);
+        }
+        if (longitudeE7 < -MAX_LON_E7) {
+            return (int) (longitudeE7 + 2L * MAX_LON_E7);
+        }
+        return (int) longitudeE7;
+    }
+
+    /**
+     * 当前索引中的单位数
+     */
+    public int getUnitCount() {
+        synchronized (lock) {
+            int n = 0;
+            for (int slot = 0; slot < index.size(); slot++) {
+                if (present[slot]) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public String getStatus() {
+        synchronized (lock) {
+            return String.format("SpatialIndex[units=%d/%d, cell=%.0fm, updates=%d, cellMoves=%d, queries=%d, "
+                    + "fullScans=%d, dropped=%d]", index.size(), maxUnits, cellSizeMeters, updates, cellMoves,
+                    queries, fullScans, dropped);
+        }
+    }
+}
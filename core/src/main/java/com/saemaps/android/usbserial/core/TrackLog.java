@@ -0,0 +1,737 @@
+package com.saemaps.android.usbserial.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 崩溃安全的轨迹持久化日志
+ * 轨迹点以紧凑的差分记录追加写入内存映射的定长段文件，进程崩溃或 ATAK 重启后可快速恢复最近几小时的轨迹。
+ *
+ * 段文件格式（小端序）：
+ *
+ * <pre>
+ * 段头 64 字节：
+ *   0  int   魔数 'TRKL'
+ *   4  short 版本
+ *   6  short 标志（bit0: 已封存）
+ *   8  long  段序号
+ *  16  long  创建时间
+ *  24  int   已提交的写入偏移（该偏移之前的记录均已 force 到磁盘）
+ *  28  int   已提交的记录数
+ *  32  long  段内最早定位时间
+ *  40  long  段内最晚定位时间
+ * 记录：
+ *   [类型 1][负载长度 1][负载 n][CRC16 2]，紧随其后写一个 0 字节作为结束标记
+ *   CHECKPOINT 负载：单位ID、绝对时间、纬度、经度、海拔（变长整数）
+ *   DELTA 负载：单位ID、时间差、纬度差、经度差、海拔差（ZigZag 变长整数，编码方法见 LocationDeltaCodec）
+ * </pre>
+ *
+ * 崩溃安全：
+ * - 每段内每个单位的第一条记录为 CHECKPOINT，之后每 CHECKPOINT_EVERY 条再写一次，差分链不会跨段
+ * - 后台线程定期 force() 并在段头记录已提交偏移（周期检查点）；force() 在锁外执行，不阻塞追加
+ * - 启动时只需从最后一段的已提交偏移开始校验 CRC 向后扫描，找到真正的结尾；该段剩余空间足够时接着写，
+ *   否则封存并写入新段（频繁重启不会每次新建一段、按段数淘汰掉仍在回放窗口内的历史）
+ *
+ * 线程安全：公开方法都可在任意线程调用。UI 线程应使用 {@link #appendAsync}：追加、换段（创建并预分配段文件）
+ * 和周期同步都在同一个后台写线程上串行执行。
+ *
+ * @author SAE Maps
+ */
+public final class TrackLog implements Closeable {
+
+    private static final String TAG = "TrackLog";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 5000;
+    // 重新打开最后一段接着写时，至少要剩下的空间
+    private static final int MIN_REOPEN_FREE = 64 * 1024;
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private static final int MAGIC = 0x4C4B5254; // "TRKL"（小端）
+    private static final short VERSION = 1;
+    private static final short FLAG_SEALED = 0x01;
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_FLAGS = 6;
+    private static final int H_SEQUENCE = 8;
+    private static final int H_CREATED = 16;
+    private static final int H_COMMITTED = 24;
+    private static final int H_RECORDS = 28;
+    private static final int H_MIN_TIME = 32;
+    private static final int H_MAX_TIME = 40;
+
+    private static final byte TYPE_END = 0;
+    private static final byte TYPE_CHECKPOINT = 1;
+    private static final byte TYPE_DELTA = 2;
+    // 类型 + 长度 + CRC16
+    private static final int RECORD_OVERHEAD = 4;
+    private static final int MAX_PAYLOAD = 64;
+    // 每个单位每写多少条差分记录插入一次检查点
+    private static final int CHECKPOINT_EVERY = 256;
+    private static final int MAX_UNITS_PER_SEGMENT = 1024;
+
+    private static final String SEGMENT_PREFIX = "track-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * 回放回调
+     */
+    public interface Visitor {
+        void onPoint(int unitId, long timeMillis, int latitudeE7, int longitudeE7, int altitudeCm);
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long syncIntervalMs;
+
+    private final CRC32 crc = new CRC32();
+    private final byte[] scratch = new byte[RECORD_OVERHEAD + MAX_PAYLOAD];
+
+    // 当前段的写入状态
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private long segmentSequence;
+    private int writePos;
+    private int recordCount;
+    private long minTime;
+    private long maxTime;
+    private boolean dirty;
+
+    // 当前段内每个单位的差分基准（换段时清空）
+    private final UnitIndex units = new UnitIndex(MAX_UNITS_PER_SEGMENT);
+    private final long[] baseTime = new long[MAX_UNITS_PER_SEGMENT];
+    private final int[] baseLat = new int[MAX_UNITS_PER_SEGMENT];
+    private final int[] baseLon = new int[MAX_UNITS_PER_SEGMENT];
+    private final int[] baseAlt = new int[MAX_UNITS_PER_SEGMENT];
+    private final int[] sinceCheckpoint = new int[MAX_UNITS_PER_SEGMENT];
+
+    // 后台写线程：异步追加、换段和周期同步（打开期间非空）
+    private volatile ScheduledThreadPoolExecutor writer;
+    private volatile boolean writeFailed;
+    private boolean open;
+
+    private long appended;
+    private long rejected;
+
+    public TrackLog(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, DEFAULT_SYNC_INTERVAL_MS);
+    }
+
+    /**
+     * @param directory      段文件目录
+     * @param segmentSize    单个段文件大小（字节）
+     * @param maxSegments    最多保留的段数（超过后删除最旧的段）
+     * @param syncIntervalMs 后台 force() 周期，0 表示不自动同步
+     */
+    public TrackLog(File directory, int segmentSize, int maxSegments, long syncIntervalMs) {
+        if (segmentSize < HEADER_SIZE + 1024 || maxSegments < 2) {
+            throw new IllegalArgumentException("Track log segments too small");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    /**
+     * 打开日志：恢复最后一段并封存，然后开启新段
+     *
+     * @throws IOException 目录不可写或映射失败
+     */
+    public synchronized void open() throws IOException {
+        if (open) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create track log directory: " + directory);
+        }
+        long start = System.nanoTime();
+        long[] sequences = listSegments();
+        long nextSequence = 1;
+        boolean resumed = false;
+        if (sequences.length > 0) {
+            long last = sequences[sequences.length - 1];
+            File file = segmentPath(last);
+            recoverSegment(file);
+            resumed = file.isFile() && reopenSegment(last);
+            nextSequence = resumed ? last : last + 1;
+        }
+        if (!resumed) {
+            startSegment(nextSequence);
+        }
+        open = true;
+        writeFailed = false;
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "TrackLogWriter");
+            t.setDaemon(true);
+            return t;
+        });
+        if (syncIntervalMs > 0) {
+            executor.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMs, syncIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+        writer = executor;
+        CoreLog.i(TAG, String.format("📂 Track log opened in %.1fms: %d existing segment(s), %s #%d",
+                (System.nanoTime() - start) / 1e6, sequences.length, resumed ? "resuming" : "writing",
+                nextSequence));
+    }
+
+    /**
+     * 在后台写线程上追加一个轨迹点（不阻塞调用线程，可在 UI 线程调用）
+     * 写入失败（换段失败等）后日志停止接收新点。
+     *
+     * @return false 表示日志未打开、已失败或已关闭，该点没有排队
+     */
+    public boolean appendAsync(int unitId, long timeMillis, int latitudeE7, int longitudeE7, int altitudeCm) {
+        ScheduledThreadPoolExecutor executor = writer;
+        if (executor == null || writeFailed) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    append(unitId, timeMillis, latitudeE7, longitudeE7, altitudeCm);
+                } catch (IOException e) {
+                    writeFailed = true;
+                    CoreLog.e(TAG, "❌ Track log append failed, persistence disabled", e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 追加一个轨迹点
+     *
+     * @return true 如果已写入
+     * @throws IOException 换段失败
+     */
+    public synchronized boolean append(int unitId, long timeMillis, int latitudeE7, int longitudeE7,
+            int altitudeCm) throws IOException {
+        if (!open) {
+            return false;
+        }
+        int known = units.size();
+        int slot = units.findOrAdd(unitId);
+        if (slot < 0) {
+            // 本段单位数已满，换段后重新建立差分基准
+            rollSegment();
+            known = 0;
+            slot = units.findOrAdd(unitId);
+        }
+        boolean created = units.size() > known;
+        if (!created && timeMillis < baseTime[slot]) {
+            rejected++;
+            return false;
+        }
+
+        boolean checkpoint = created || sinceCheckpoint[slot] >= CHECKPOINT_EVERY;
+        int len = checkpoint
+                ? encodeCheckpoint(unitId, timeMillis, latitudeE7, longitudeE7, altitudeCm)
+                : encodeDelta(unitId, timeMillis - baseTime[slot], latitudeE7 - baseLat[slot],
+                        longitudeE7 - baseLon[slot], altitudeCm - baseAlt[slot]);
+        // 预留结束标记的1字节
+        if (writePos + len + 1 > segmentSize) {
+            rollSegment();
+            slot = units.findOrAdd(unitId);
+            len = encodeCheckpoint(unitId, timeMillis, latitudeE7, longitudeE7, altitudeCm);
+            checkpoint = true;
+        }
+
+        segment.position(writePos);
+        segment.put(scratch, 0, len);
+        segment.put(TYPE_END);
+        writePos += len;
+        recordCount++;
+        minTime = Math.min(minTime, timeMillis);
+        maxTime = Math.max(maxTime, timeMillis);
+        dirty = true;
+
+        baseTime[slot] = timeMillis;
+        baseLat[slot] = latitudeE7;
+        baseLon[slot] = longitudeE7;
+        baseAlt[slot] = altitudeCm;
+        sinceCheckpoint[slot] = checkpoint ? 0 : sinceCheckpoint[slot] + 1;
+        appended++;
+        return true;
+    }
+
+    /**
+     * 把当前段刷到磁盘并提交写入偏移（检查点）
+     * 只在锁内取快照和写段头，force() 在锁外执行；段头只提交快照时已写入的记录。
+     */
+    public void sync() {
+        MappedByteBuffer buf;
+        int committed;
+        int records;
+        long min;
+        long max;
+        synchronized (this) {
+            if (segment == null || !dirty) {
+                return;
+            }
+            buf = segment;
+            committed = writePos;
+            records = recordCount;
+            min = minTime;
+            max = maxTime;
+            dirty = false;
+        }
+        buf.force();
+        synchronized (this) {
+            if (segment != buf) {
+                // 期间已换段或关闭，旧段已封存
+                return;
+            }
+            writeHeader(buf, (short) 0, committed, records, min, max);
+        }
+        buf.force();
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (Throwable t) {
+            CoreLog.w(TAG, "⚠️ Track log sync failed: " + t.getMessage());
+        }
+    }
+
+    /**
+     * 回放不早于 sinceMillis 的全部轨迹点（按段的时间范围跳过无关的段，段内按写入顺序）
+     *
+     * @param sinceMillis 起始时间
+     * @param visitor     回调
+     * @return 回放的点数
+     * @throws IOException 读取失败
+     */
+    public synchronized int replay(long sinceMillis, Visitor visitor) throws IOException {
+        long start = System.nanoTime();
+        int points = 0;
+        int scanned = 0;
+        for (long sequence : listSegments()) {
+            if (sequence == segmentSequence && segment != null) {
+                points += decodeSegment(segment, writePos, sinceMillis, visitor);
+                scanned++;
+                continue;
+            }
+            File file = segmentPath(sequence);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                if (buf.capacity() < HEADER_SIZE || buf.getInt(H_MAGIC) != MAGIC
+                        || buf.getLong(H_MAX_TIME) < sinceMillis) {
+                    continue;
+                }
+                points += decodeSegment(buf, buf.getInt(H_COMMITTED), sinceMillis, visitor);
+                scanned++;
+            }
+        }
+        CoreLog.i(TAG, String.format("⏪ Replayed %d points from %d segment(s) in %.1fms", points, scanned,
+                (System.nanoTime() - start) / 1e6));
+        return points;
+    }
+
+    /**
+     * 回放到轨迹存储
+     */
+    public int replayInto(long sinceMillis, TrackStore store) throws IOException {
+        return replay(sinceMillis, store::append);
+    }
+
+    /**
+     * 关闭日志：等写线程写完已排队的点，再封存当前段
+     */
+    @Override
+    public void close() {
+        ScheduledThreadPoolExecutor executor = writer;
+        writer = null;
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    CoreLog.w(TAG, "⚠️ Track log writer did not finish, queued points dropped");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            sealCurrent();
+            CoreLog.i(TAG, "📕 Track log closed: " + getStatusLocked());
+        }
+    }
+
+    public synchronized String getStatus() {
+        return getStatusLocked();
+    }
+
+    private String getStatusLocked() {
+        return String.format("TrackLog[segment=#%d, offset=%d/%d, records=%d, appended=%d, rejected=%d]",
+                segmentSequence, writePos, segmentSize, recordCount, appended, rejected);
+    }
+
+    // ---------------------------------------------------------------- 段管理
+
+    private void startSegment(long sequence) throws IOException {
+        File file = segmentPath(sequence);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(segmentSize);
+        MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        segmentFile = raf;
+        segment = buf;
+        segmentSequence = sequence;
+        writePos = HEADER_SIZE;
+        recordCount = 0;
+        minTime = Long.MAX_VALUE;
+        maxTime = Long.MIN_VALUE;
+        units.clear();
+        Arrays.fill(sinceCheckpoint, 0);
+
+        buf.putInt(H_MAGIC, MAGIC);
+        buf.putShort(H_VERSION, VERSION);
+        buf.putLong(H_SEQUENCE, sequence);
+        buf.putLong(H_CREATED, System.currentTimeMillis());
+        buf.put(HEADER_SIZE, TYPE_END);
+        writeHeader(buf, (short) 0);
+        buf.force();
+        dirty = false;
+
+        pruneSegments();
+    }
+
+    /**
+     * 重新打开已恢复的最后一段接着写（段大小不变且剩余空间足够时）
+     * 各单位的差分基准从空开始，续写部分每个单位的第一条记录是检查点。
+     *
+     * @return false 表示不能续写，应开启新段
+     */
+    private boolean reopenSegment(long sequence) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segmentPath(sequence), "rw");
+        boolean reopened = false;
+        try {
+            if (raf.length() != segmentSize) {
+                return false;
+            }
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            int committed = buf.getInt(H_COMMITTED);
+            if (buf.getInt(H_MAGIC) != MAGIC || committed < HEADER_SIZE
+                    || committed + MIN_REOPEN_FREE > segmentSize) {
+                return false;
+            }
+            segmentFile = raf;
+            segment = buf;
+            segmentSequence = sequence;
+            writePos = committed;
+            recordCount = buf.getInt(H_RECORDS);
+            minTime = buf.getLong(H_MIN_TIME);
+            maxTime = buf.getLong(H_MAX_TIME);
+            units.clear();
+            Arrays.fill(sinceCheckpoint, 0);
+
+            buf.put(writePos, TYPE_END);
+            writeHeader(buf, (short) 0);
+            buf.force();
+            dirty = false;
+            reopened = true;
+            return true;
+        } finally {
+            if (!reopened) {
+                raf.close();
+            }
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        long next = segmentSequence + 1;
+        sealCurrent();
+        startSegment(next);
+        CoreLog.d(TAG, "🔄 Rolled to segment #" + next);
+    }
+
+    private void sealCurrent() {
+        if (segment == null) {
+            return;
+        }
+        segment.force();
+        writeHeader(segment, FLAG_SEALED);
+        segment.force();
+        try {
+            segmentFile.close();
+        } catch (IOException e) {
+            CoreLog.w(TAG, "Error closing segment: " + e.getMessage());
+        }
+        segment = null;
+        segmentFile = null;
+    }
+
+    private void writeHeader(MappedByteBuffer buf, short flags) {
+        writeHeader(buf, flags, writePos, recordCount, minTime, maxTime);
+    }
+
+    private static void writeHeader(MappedByteBuffer buf, short flags, int committed, int records, long min,
+            long max) {
+        buf.putShort(H_FLAGS, flags);
+        buf.putInt(H_COMMITTED, committed);
+        buf.putInt(H_RECORDS, records);
+        buf.putLong(H_MIN_TIME, min);
+        buf.putLong(H_MAX_TIME, max);
+    }
+
+    /**
+     * 恢复一个可能未正常关闭的段：从已提交偏移向后校验，找到真正的结尾并封存
+     */
+    private void recoverSegment(File file) throws IOException {
+        // 损坏的段在文件关闭后再删除
+        if (!recoverSegmentFile(file)) {
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * @return false 表示段已损坏，应删除
+     */
+    private boolean recoverSegmentFile(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                CoreLog.w(TAG, "⚠️ Discarding truncated segment " + file.getName());
+                return false;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt(H_MAGIC) != MAGIC) {
+                CoreLog.w(TAG, "⚠️ Discarding segment with bad magic " + file.getName());
+                return false;
+            }
+            if ((buf.getShort(H_FLAGS) & FLAG_SEALED) != 0) {
+                return true;
+            }
+
+            int committed = buf.getInt(H_COMMITTED);
+            int records = buf.getInt(H_RECORDS);
+            long min = buf.getLong(H_MIN_TIME);
+            long max = buf.getLong(H_MAX_TIME);
+            if (committed < HEADER_SIZE || committed > buf.capacity()) {
+                committed = HEADER_SIZE;
+                records = 0;
+                min = Long.MAX_VALUE;
+                max = Long.MIN_VALUE;
+            }
+
+            // 已提交偏移之后的记录可能不完整，逐条校验
+            int pos = committed;
+            while (true) {
+                int next = validRecordEnd(buf, pos, buf.capacity());
+                if (next < 0) {
+                    break;
+                }
+                pos = next;
+                records++;
+            }
+            // 重新计算时间范围需要完整的差分基准，从段头解码一遍（仅最后一段，开销有限）
+            final long[] range = { min, max };
+            decodeSegment(buf, pos, Long.MIN_VALUE, (u, t, la, lo, al) -> {
+                range[0] = Math.min(range[0], t);
+                range[1] = Math.max(range[1], t);
+            });
+
+            if (pos < buf.capacity()) {
+                buf.put(pos, TYPE_END);
+            }
+            buf.putShort(H_FLAGS, FLAG_SEALED);
+            buf.putInt(H_COMMITTED, pos);
+            buf.putInt(H_RECORDS, records);
+            buf.putLong(H_MIN_TIME, range[0]);
+            buf.putLong(H_MAX_TIME, range[1]);
+            buf.force();
+            CoreLog.i(TAG, "🩹 Recovered segment " + file.getName() + ": " + (pos - committed)
+                    + " uncommitted bytes kept, " + records + " records");
+            return true;
+        }
+    }
+
+    private void pruneSegments() {
+        long[] sequences = listSegments();
+        for (int i = 0; i < sequences.length - maxSegments; i++) {
+            File old = segmentPath(sequences[i]);
+            deleteQuietly(old);
+            CoreLog.d(TAG, "🗑 Pruned segment " + old.getName());
+        }
+    }
+
+    private long[] listSegments() {
+        String[] names = directory.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] sequences = new long[names.length];
+        int n = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    sequences[n++] = Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        long[] result = Arrays.copyOf(sequences, n);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private File segmentPath(long sequence) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.delete()) {
+            CoreLog.w(TAG, "⚠️ Could not delete " + file);
+        }
+    }
+
+    // ---------------------------------------------------------------- 记录编解码
+
+    private int encodeCheckpoint(int unitId, long time, int lat, int lon, int alt) {
+        int p = 2;
+        p = LocationDeltaCodec.putVarLong(scratch, p, unitId);
+        p = LocationDeltaCodec.putVarLong(scratch, p, time);
+        p = LocationDeltaCodec.putVarLong(scratch, p, LocationDeltaCodec.zigzag(lat));
+        p = LocationDeltaCodec.putVarLong(scratch, p, LocationDeltaCodec.zigzag(lon));
+        p = LocationDeltaCodec.putVarLong(scratch, p, LocationDeltaCodec.zigzag(alt));
+        return finishRecord(TYPE_CHECKPOINT, p);
+    }
+
+    private int encodeDelta(int unitId, long dt, int dLat, int dLon, int dAlt) {
+        int p = 2;
+        p = LocationDeltaCodec.putVarLong(scratch, p, unitId);
+        p = LocationDeltaCodec.putVarLong(scratch, p, dt);
+        p = LocationDeltaCodec.putVarLong(scratch, p, LocationDeltaCodec.zigzag(dLat));
+        p = LocationDeltaCodec.putVarLong(scratch, p, LocationDeltaCodec.zigzag(dLon));
+        p = LocationDeltaCodec.putVarLong(scratch, p, LocationDeltaCodec.zigzag(dAlt));
+        return finishRecord(TYPE_DELTA, p);
+    }
+
+    private int finishRecord(byte type, int end) {
+        scratch[0] = type;
+        scratch[1] = (byte) (end - 2);
+        crc.reset();
+        crc.update(scratch, 0, end);
+        int value = (int) crc.getValue();
+        scratch[end] = (byte) value;
+        scratch[end + 1] = (byte) (value >>> 8);
+        return end + 2;
+    }
+
+    /**
+     * 校验 pos 处的记录
+     *
+     * @return 记录结束偏移；结束标记、越界或校验失败返回 -1
+     */
+    private int validRecordEnd(MappedByteBuffer buf, int pos, int limit) {
+        if (pos + RECORD_OVERHEAD > limit) {
+            return -1;
+        }
+        byte type = buf.get(pos);
+        if (type != TYPE_CHECKPOINT && type != TYPE_DELTA) {
+            return -1;
+        }
+        int len = buf.get(pos + 1) & 0xFF;
+        int end = pos + 2 + len;
+        if (len > MAX_PAYLOAD || end + 2 > limit) {
+            return -1;
+        }
+        for (int i = 0; i < len + 2; i++) {
+            scratch[i] = buf.get(pos + i);
+        }
+        crc.reset();
+        crc.update(scratch, 0, len + 2);
+        int value = (int) crc.getValue();
+        if (buf.get(end) != (byte) value || buf.get(end + 1) != (byte) (value >>> 8)) {
+            return -1;
+        }
+        return end + 2;
+    }
+
+    /**
+     * 按写入顺序解码段内 [HEADER_SIZE, limit) 的记录，遇到无效记录即停止
+     */
+    private int decodeSegment(MappedByteBuffer buf, int limit, long sinceMillis, Visitor visitor) {
+        UnitIndex index = new UnitIndex(MAX_UNITS_PER_SEGMENT);
+        long[] time = new long[MAX_UNITS_PER_SEGMENT];
+        int[] lat = new int[MAX_UNITS_PER_SEGMENT];
+        int[] lon = new int[MAX_UNITS_PER_SEGMENT];
+        int[] alt = new int[MAX_UNITS_PER_SEGMENT];
+        boolean[] based = new boolean[MAX_UNITS_PER_SEGMENT];
+        int[] cursor = new int[1];
+        int points = 0;
+        int pos = HEADER_SIZE;
+        while (pos < limit) {
+            int end = validRecordEnd(buf, pos, limit);
+            if (end < 0) {
+                break;
+            }
+            // validRecordEnd 已把整条记录复制到 scratch
+            byte type = scratch[0];
+            int payloadEnd = 2 + (scratch[1] & 0xFF);
+            cursor[0] = 2;
+            int unitId = (int) LocationDeltaCodec.getVarLong(scratch, cursor, payloadEnd);
+            long t = LocationDeltaCodec.getVarLong(scratch, cursor, payloadEnd);
+            int a = (int) LocationDeltaCodec.unzigzag(LocationDeltaCodec.getVarLong(scratch, cursor, payloadEnd));
+            int b = (int) LocationDeltaCodec.unzigzag(LocationDeltaCodec.getVarLong(scratch, cursor, payloadEnd));
+            int c = (int) LocationDeltaCodec.unzigzag(LocationDeltaCodec.getVarLong(scratch, cursor, payloadEnd));
+            pos = end;
+            if (cursor[0] < 0) {
+                continue;
+            }
+            int slot = index.findOrAdd(unitId);
+            if (slot < 0) {
+                continue;
+            }
+            if (type == TYPE_CHECKPOINT) {
+                time[slot] = t;
+                lat[slot] = a;
+                lon[slot] = b;
+                alt[slot] = c;
+                based[slot] = true;
+            } else if (based[slot]) {
+                time[slot] += t;
+                lat[slot] += a;
+                lon[slot] += b;
+                alt[slot] += c;
+            } else {
+                // 差分记录缺少检查点基准（正常写入不会出现），跳过
+                continue;
+            }
+            if (time[slot] >= sinceMillis) {
+                visitor.onPoint(unitId, time[slot], lat[slot], lon[slot], alt[slot]);
+                points++;
+            }
+        }
+        return points;
+    }
+}
@@ -0,0 +1,324 @@
+package com.saemaps.android.usbserial.core;
+
+/**
+ * 定长内存的手台轨迹存储
+ * 按24位手台ID保存最近的轨迹点，数据全部放在预分配的列式基本类型数组中（时间、纬度、经度、海拔），
+ * 不保存 byte[] 数据包，也不为每个点创建对象。
+ *
+ * 每个单位两级环形存储：
+ * - 近期层：全分辨率，容量 recentCapacity
+ * - 历史层：被挤出近期层的旧点按 historyIntervalMs 降采样后保存，容量 historyCapacity
+ *
+ * 追加为 O(1)；按时间范围查询在两层上二分定位，O(log n + k)。
+ * 同一单位的点要求时间不递减，乱序到达的点会被丢弃并计数。
+ *
+ * 线程安全：所有公开方法都可在任意线程调用。
+ *
+ * @author SAE Maps
+ */
+public final class TrackStore {
+
+    private static final String TAG = "TrackStore";
+
+    public static final int DEFAULT_MAX_UNITS = 128;
+    public static final int DEFAULT_RECENT_CAPACITY = 256;
+    public static final int DEFAULT_HISTORY_CAPACITY = 256;
+    // 历史层每 10 秒最多保留一个点
+    public static final long DEFAULT_HISTORY_INTERVAL_MS = 10000;
+
+    private final int maxUnits;
+    private final int recentCapacity;
+    private final int historyCapacity;
+    private final long historyIntervalMs;
+    private final UnitIndex index;
+
+    // 近期层（单位槽位 s 的第 i 个物理位置为 s * recentCapacity + i）
+    private final long[] recentTime;
+    private final int[] recentLat;
+    private final int[] recentLon;
+    private final int[] recentAlt;
+    private final int[] recentHead;
+    private final int[] recentCount;
+
+    // 历史层
+    private final long[] historyTime;
+    private final int[] historyLat;
+    private final int[] historyLon;
+    private final int[] historyAlt;
+    private final int[] historyHead;
+    private final int[] historyCount;
+
+    private final long[] lastTime;
+    private final Object lock = new Object();
+
+    private long appended;
+    private long outOfOrder;
+    private long droppedUnits;
+    private long downsampled;
+
+    public TrackStore() {
+        this(DEFAULT_MAX_UNITS, DEFAULT_RECENT_CAPACITY, DEFAULT_HISTORY_CAPACITY, DEFAULT_HISTORY_INTERVAL_MS);
+    }
+
+    /**
+     * @param maxUnits          最多跟踪的单位数
+     * @param recentCapacity    每单位全分辨率点数
+     * @param historyCapacity   每单位降采样历史点数
+     * @param historyIntervalMs 历史层相邻两点的最小时间间隔
+     */
+    public TrackStore(int maxUnits, int recentCapacity, int historyCapacity, long historyIntervalMs) {
+        if (maxUnits <= 0 || recentCapacity <= 0 || historyCapacity <= 0 || historyIntervalMs < 0) {
+            throw new IllegalArgumentException("Invalid track store dimensions");
+        }
+        this.maxUnits = maxUnits;
+        this.recentCapacity = recentCapacity;
+        this.historyCapacity = historyCapacity;
+        this.historyIntervalMs = historyIntervalMs;
+        this.index = new UnitIndex(maxUnits);
+
+        int recentTotal = maxUnits * recentCapacity;
+        recentTime = new long[recentTotal];
+        recentLat = new int[recentTotal];
+        recentLon = new int[recentTotal];
+        recentAlt = new int[recentTotal];
+        recentHead = new int[maxUnits];
+        recentCount = new int[maxUnits];
+
+        int historyTotal = maxUnits * historyCapacity;
+        historyTime = new long[historyTotal];
+        historyLat = new int[historyTotal];
+        historyLon = new int[historyTotal];
+        historyAlt = new int[historyTotal];
+        historyHead = new int[maxUnits];
+        historyCount = new int[maxUnits];
+
+        lastTime = new long[maxUnits];
+
+        CoreLog.d(TAG, String.format("TrackStore created: units=%d, recent=%d, history=%d@%dms",
+                maxUnits, recentCapacity, historyCapacity, historyIntervalMs));
+    }
+
+    /**
+     * 登记一个单位（如查询ID响应中得到的本机手台ID），提前为其分配槽位
+     *
+     * @return false 如果单位数已达上限
+     */
+    public boolean registerUnit(int unitId) {
+        synchronized (lock) {
+            return slotFor(unitId) >= 0;
+        }
+    }
+
+    /**
+     * 追加一个已解码的定位帧
+     *
+     * @return true 如果已保存
+     */
+    public boolean append(LocationFrame frame) {
+        return append(frame.getUnitId(), frame.getTimeMillis(), frame.getLatitudeE7(), frame.getLongitudeE7(),
+                frame.getAltitudeCm());
+    }
+
+    /**
+     * 追加一个轨迹点（O(1)）
+     *
+     * @param unitId      手台ID
+     * @param timeMillis  定位时间
+     * @param latitudeE7  纬度（1e-7 度）
+     * @param longitudeE7 经度（1e-7 度）
+     * @param altitudeCm  海拔（厘米）
+     * @return true 如果已保存；单位已满或时间乱序时返回 false
+     */
+    public boolean append(int unitId, long timeMillis, int latitudeE7, int longitudeE7, int altitudeCm) {
+        synchronized (lock) {
+            int slot = slotFor(unitId);
+            if (slot < 0) {
+                droppedUnits++;
+                return false;
+            }
+            if (recentCount[slot] + historyCount[slot] > 0 && timeMillis < lastTime[slot]) {
+                outOfOrder++;
+                return false;
+            }
+            lastTime[slot] = timeMillis;
+
+            int base = slot * recentCapacity;
+            int head = recentHead[slot];
+            if (recentCount[slot] == recentCapacity) {
+                // 近期层已满：head 处即为最旧的点，挤出前按降采样规则决定是否转入历史层
+                promote(slot, base + head);
+            } else {
+                recentCount[slot]++;
+            }
+            int p = base + head;
+            recentTime[p] = timeMillis;
+            recentLat[p] = latitudeE7;
+            recentLon[p] = longitudeE7;
+            recentAlt[p] = altitudeCm;
+            recentHead[slot] = head + 1 == recentCapacity ? 0 : head + 1;
+            appended++;
+            return true;
+        }
+    }
+
+    private void promote(int slot, int from) {
+        int count = historyCount[slot];
+        long time = recentTime[from];
+        if (count > 0) {
+            int newest = historyHead[slot] == 0 ? historyCapacity - 1 : historyHead[slot] - 1;
+            if (time - historyTime[slot * historyCapacity + newest] < historyIntervalMs) {
+                downsampled++;
+                return;
+            }
+        }
+        int head = historyHead[slot];
+        int p = slot * historyCapacity + head;
+        historyTime[p] = time;
+        historyLat[p] = recentLat[from];
+        historyLon[p] = recentLon[from];
+        historyAlt[p] = recentAlt[from];
+        historyHead[slot] = head + 1 == historyCapacity ? 0 : head + 1;
+        if (count < historyCapacity) {
+            historyCount[slot] = count + 1;
+        }
+    }
+
+    /**
+     * 单位保存的轨迹点总数（历史层 + 近期层）
+     */
+    public int getPointCount(int unitId) {
+        synchronized (lock) {
+            int slot = index.find(unitId);
+            return slot < 0 ? 0 : recentCount[slot] + historyCount[slot];
+        }
+    }
+
+    /**
+     * 当前跟踪的单位数
+     */
+    public int getUnitCount() {
+        synchronized (lock) {
+            return index.size();
+        }
+    }
+
+    /**
+     * 复制所有已跟踪的手台ID
+     *
+     * @param out 输出数组
+     * @return 写入的个数
+     */
+    public int getUnitIds(int[] out) {
+        synchronized (lock) {
+            int n = Math.min(out.length, index.size());
+            for (int i = 0; i < n; i++) {
+                out[i] = index.unitIdAt(i);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 按时间范围查询轨迹（按时间先后输出，历史层在前）
+     *
+     * @param unitId  手台ID
+     * @param fromMs  起始时间（含）
+     * @param toMs    结束时间（含）
+     * @param outTime 输出：时间
+     * @param outLat  输出：纬度（1e-7 度）
+     * @param outLon  输出：经度（1e-7 度）
+     * @param outAlt  输出：海拔（厘米），可为 null
+     * @return 输出的点数（不超过 outTime.length）
+     */
+    public int query(int unitId, long fromMs, long toMs, long[] outTime, int[] outLat, int[] outLon,
+            int[] outAlt) {
+        synchronized (lock) {
+            int slot = index.find(unitId);
+            if (slot < 0 || fromMs > toMs) {
+                return 0;
+            }
+            int n = copyRange(historyTime, historyLat, historyLon, historyAlt, slot * historyCapacity,
+                    historyCapacity, historyHead[slot], historyCount[slot], fromMs, toMs,
+                    outTime, outLat, outLon, outAlt, 0);
+            return copyRange(recentTime, recentLat, recentLon, recentAlt, slot * recentCapacity,
+                    recentCapacity, recentHead[slot], recentCount[slot], fromMs, toMs,
+                    outTime, outLat, outLon, outAlt, n);
+        }
+    }
+
+    private static int copyRange(long[] time, int[] lat, int[] lon, int[] alt, int base, int capacity, int head,
+            int count, long fromMs, long toMs, long[] outTime, int[] outLat, int[] outLon, int[] outAlt,
+            int outPos) {
+        if (count == 0) {
+            return outPos;
+        }
+        int start = head - count;
+        if (start < 0) {
+            start += capacity;
+        }
+        // 二分查找第一个 time >= fromMs 的逻辑位置
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time[base + physical(start, mid, capacity)] < fromMs) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && outPos < outTime.length; i++) {
+            int p = base + physical(start, i, capacity);
+            if (time[p] > toMs) {
+                break;
+            }
+            outTime[outPos] = time[p];
+            outLat[outPos] = lat[p];
+            outLon[outPos] = lon[p];
+            if (outAlt != null) {
+                outAlt[outPos] = alt[p];
+            }
+            outPos++;
+        }
+        return outPos;
+    }
+
+    private static int physical(int start, int logical, int capacity) {
+        int i = start + logical;
+        return i >= capacity ? i - capacity : i;
+    }
+
+    /**
+     * 清空全部轨迹
+     */
+    public void clear() {
+        synchronized (lock) {
+            index.clear();
+            java.util.Arrays.fill(recentHead, 0);
+            java.util.Arrays.fill(recentCount, 0);
+            java.util.Arrays.fill(historyHead, 0);
+            java.util.Arrays.fill(historyCount, 0);
+        }
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public String getStatus() {
+        synchronized (lock) {
+            return String.format("TrackStore[units=%d/%d, appended=%d, downsampled=%d, outOfOrder=%d, "
+                    + "droppedUnits=%d]", index.size(), maxUnits, appended, downsampled, outOfOrder, droppedUnits);
+        }
+    }
+
+    private int slotFor(int unitId) {
+        int known = index.size();
+        int slot = index.findOrAdd(unitId);
+        if (index.size() > known) {
+            CoreLog.d(TAG, "➕ New track for unit " + unitId + " (" + index.size() + "/" + maxUnits + ")");
+        }
+        return slot;
+    }
+}
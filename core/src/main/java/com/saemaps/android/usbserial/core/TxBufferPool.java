@@ -0,0 +1,94 @@
+package com.saemaps.android.usbserial.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * 发送缓冲池
+ * 调用方从池里取一块直接缓冲区填充帧数据，交给分段写入（gather）接口；写任务把数据从缓冲区复制进
+ * USB 写分块（唯一一次复制）后自动归还，高频发送时不再为每帧分配数组。
+ *
+ * 特性：
+ * - 所有缓冲区容量相同（默认一帧数据内容的上限 {@link FrameCodec#MAX_DATA_LENGTH}）
+ * - 只回收从本池取出的缓冲区（按对象身份识别），调用方自己分配的缓冲区传给 release() 会被忽略
+ * - 空闲缓冲区超过上限时直接丢弃，交给 GC
+ *
+ * 线程安全：所有公开方法都可在任意线程调用。
+ *
+ * @author SAE Maps
+ */
+public final class TxBufferPool {
+
+    private final int bufferSize;
+    private final int maxIdle;
+    private final ArrayDeque<ByteBuffer> idle = new ArrayDeque<>();
+    // 已借出的缓冲区（ByteBuffer.equals 比较内容，必须按身份记录）
+    private final Set<ByteBuffer> outstanding = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+
+    private long allocated;
+    private long reused;
+
+    public TxBufferPool() {
+        this(FrameCodec.MAX_DATA_LENGTH, 32);
+    }
+
+    /**
+     * @param bufferSize 每块缓冲区的容量
+     * @param maxIdle    最多保留的空闲缓冲区数
+     */
+    public TxBufferPool(int bufferSize, int maxIdle) {
+        if (bufferSize <= 0 || maxIdle < 0) {
+            throw new IllegalArgumentException("Invalid buffer pool dimensions");
+        }
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * 取一块已清空（position=0, limit=capacity）的缓冲区
+     */
+    public synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            allocated++;
+        } else {
+            reused++;
+        }
+        outstanding.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区；不是从本池取出的缓冲区忽略
+     *
+     * @return 是否由本池回收
+     */
+    public synchronized boolean release(ByteBuffer buffer) {
+        if (buffer == null || !outstanding.remove(buffer)) {
+            return false;
+        }
+        buffer.clear();
+        if (idle.size() < maxIdle) {
+            idle.push(buffer);
+        }
+        return true;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public synchronized String getStatus() {
+        return "TxBufferPool[size=" + bufferSize + ", idle=" + idle.size() + ", outstanding=" + outstanding.size()
+                + ", allocated=" + allocated + ", reused=" + reused + "]";
+    }
+}
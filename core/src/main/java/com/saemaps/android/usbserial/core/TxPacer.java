@@ -0,0 +1,217 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发送限速（令牌桶）
+ * 部分电台固件的串口接收缓冲很小，转发到空口的速度远低于串口波特率；写任务按 port.write() 返回的速度
+ * 连续写出时固件缓冲溢出、静默丢数据。令牌桶按配置的字节速率补充令牌，桶容量（突发）决定
+ * 空闲后最多能一口气写出多少字节；每块写入前先取够令牌，不够时写线程睡到令牌补足为止。
+ *
+ * 另外可配置帧间隔：上一帧（一次提交的写入）写完后至少空闲多久才开始写下一帧，
+ * 用于需要靠线路空闲来分帧的固件。
+ *
+ * 速率为 0 表示不限速（默认），此时 {@link #acquire(int)} 直接返回，不引入任何开销。
+ *
+ * 线程安全：配置方法可在任意线程调用；acquire()/awaitFrameGap() 由写线程调用。
+ *
+ * @author SAE Maps
+ */
+public final class TxPacer {
+
+    private static final String TAG = "TxPacer";
+
+    // 突发未配置时按 50ms 的字节量估算，且不小于一个端点包
+    private static final int DEFAULT_BURST_MS = 50;
+    private static final int MIN_BURST = 64;
+
+    /**
+     * 一组限速参数
+     */
+    public static final class Settings {
+        public static final Settings UNLIMITED = new Settings(0, 0, 0);
+
+        public final long bytesPerSecond;
+        public final int burstBytes;
+        public final long frameGapMs;
+
+        /**
+         * @param bytesPerSecond 持续速率，0 表示不限速
+         * @param burstBytes     桶容量，0 表示按速率自动估算
+         * @param frameGapMs     帧间最小空闲时间，0 表示不插入间隔
+         */
+        public Settings(long bytesPerSecond, int burstBytes, long frameGapMs) {
+            if (bytesPerSecond < 0 || burstBytes < 0 || frameGapMs < 0) {
+                throw new IllegalArgumentException("Invalid pacing settings");
+            }
+            this.bytesPerSecond = bytesPerSecond;
+            this.burstBytes = bytesPerSecond == 0 ? 0 : burstBytes > 0 ? burstBytes
+                    : (int) Math.max(MIN_BURST, Math.min(Integer.MAX_VALUE, bytesPerSecond * DEFAULT_BURST_MS / 1000));
+            this.frameGapMs = frameGapMs;
+        }
+
+        public boolean isEnabled() {
+            return bytesPerSecond > 0 || frameGapMs > 0;
+        }
+
+        /**
+         * 编码为单行文本：bytesPerSecond,burst,frameGap
+         */
+        public String encode() {
+            return bytesPerSecond + "," + burstBytes + "," + frameGapMs;
+        }
+
+        /**
+         * @return 格式不对时返回 null
+         */
+        public static Settings decode(String text) {
+            if (text == null) {
+                return null;
+            }
+            String[] f = text.split(",");
+            if (f.length != 3) {
+                return null;
+            }
+            try {
+                return new Settings(Long.parseLong(f[0]), Integer.parseInt(f[1]), Long.parseLong(f[2]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (!isEnabled()) {
+                return "unlimited";
+            }
+            return String.format(Locale.US, "%s burst=%d gap=%dms",
+                    bytesPerSecond == 0 ? "rate=unlimited" : "rate=" + bytesPerSecond + "B/s", burstBytes, frameGapMs);
+        }
+    }
+
+    private Settings settings = Settings.UNLIMITED;
+    // 当前令牌数（可为负：单块超过剩余令牌时先透支，后续补充时偿还）
+    private double tokens;
+    private long lastRefillNanos;
+    private long lastFrameEndNanos;
+
+    private long pacedBytes;
+    private long waits;
+    private long waitedNanos;
+
+    /**
+     * 更新限速参数；令牌桶重新装满，新参数立即作用于下一块写入
+     */
+    public synchronized void configure(Settings settings) {
+        this.settings = settings == null ? Settings.UNLIMITED : settings;
+        tokens = this.settings.burstBytes;
+        lastRefillNanos = System.nanoTime();
+        CoreLog.d(TAG, "🚦 TX pacing: " + this.settings);
+    }
+
+    public synchronized Settings getSettings() {
+        return settings;
+    }
+
+    public synchronized boolean isEnabled() {
+        return settings.isEnabled();
+    }
+
+    /**
+     * 单块写入的最大字节数：不超过突发，保证每块都能被桶容纳
+     */
+    public synchronized int maxChunk(int requested) {
+        if (settings.bytesPerSecond == 0) {
+            return requested;
+        }
+        return Math.max(1, Math.min(requested, settings.burstBytes));
+    }
+
+    /**
+     * 预订 bytes 个令牌
+     *
+     * @param nowNanos 当前时间（System.nanoTime()）
+     * @return 需要等待的纳秒数，0 表示可以立即写出
+     */
+    public synchronized long reserve(int bytes, long nowNanos) {
+        long rate = settings.bytesPerSecond;
+        if (rate == 0) {
+            return 0;
+        }
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(settings.burstBytes, tokens + elapsed * (double) rate / 1_000_000_000L);
+            lastRefillNanos = nowNanos;
+        }
+        pacedBytes += bytes;
+        double deficit = bytes - tokens;
+        tokens -= bytes;
+        if (deficit <= 0) {
+            return 0;
+        }
+        long waitNanos = (long) Math.ceil(deficit * 1_000_000_000L / rate);
+        waits++;
+        waitedNanos += waitNanos;
+        return waitNanos;
+    }
+
+    /**
+     * 取得 bytes 个令牌，不够时阻塞到令牌补足（写线程调用）
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        sleepNanos(reserve(bytes, System.nanoTime()));
+    }
+
+    /**
+     * 开始写一帧前等待帧间隔（写线程调用）
+     */
+    public void awaitFrameGap() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (settings.frameGapMs == 0 || lastFrameEndNanos == 0) {
+                return;
+            }
+            waitNanos = lastFrameEndNanos + TimeUnit.MILLISECONDS.toNanos(settings.frameGapMs) - System.nanoTime();
+            if (waitNanos > 0) {
+                waits++;
+                waitedNanos += waitNanos;
+            }
+        }
+        sleepNanos(waitNanos);
+    }
+
+    /**
+     * 一帧写完（写线程调用），帧间隔从这里开始计时
+     */
+    public synchronized void onFrameWritten() {
+        lastFrameEndNanos = System.nanoTime();
+    }
+
+    /**
+     * 估算按当前速率写出 bytes 字节（分 frames 帧）还需要多少毫秒，用于同步写入的等待上限
+     */
+    public synchronized long estimateDelayMs(long bytes, int frames) {
+        long ms = frames * settings.frameGapMs;
+        if (settings.bytesPerSecond > 0) {
+            ms += bytes * 1000 / settings.bytesPerSecond;
+        }
+        return ms;
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    /**
+     * 获取统计信息（用于调试）
+     *
+     * @return 状态字符串
+     */
+    public synchronized String getStatus() {
+        return String.format(Locale.US, "TxPacer[%s, paced=%d bytes, waits=%d, waited=%dms]", settings, pacedBytes,
+                waits, waitedNanos / 1_000_000L);
+    }
+}
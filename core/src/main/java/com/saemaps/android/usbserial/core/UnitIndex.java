@@ -0,0 +1,103 @@
+package com.saemaps.android.usbserial.core;
+
+import java.util.Arrays;
+
+/**
+ * 手台ID → 槽位号 的定长索引（开放寻址，无装箱、无分配）
+ * 槽位按首次出现顺序从 0 开始连续分配，达到上限后不再接纳新单位；不支持删除。
+ * 手台ID为24位无符号数，键 -1 用作空位标记。
+ *
+ * 非线程安全，由调用方加锁。
+ *
+ * @author SAE Maps
+ */
+final class UnitIndex {
+
+    private final int capacity;
+    private final int[] keys;
+    private final int[] slots;
+    private final int mask;
+    private final int[] unitIds;
+    private int size;
+
+    UnitIndex(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        // 负载因子不超过 0.5
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        keys = new int[tableSize];
+        slots = new int[tableSize];
+        mask = tableSize - 1;
+        Arrays.fill(keys, -1);
+        unitIds = new int[capacity];
+    }
+
+    /**
+     * 查找单位的槽位
+     *
+     * @return 槽位号，不存在返回 -1
+     */
+    int find(int unitId) {
+        int i = mix(unitId) & mask;
+        while (true) {
+            int key = keys[i];
+            if (key == unitId) {
+                return slots[i];
+            }
+            if (key == -1) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * 查找或分配单位的槽位
+     *
+     * @return 槽位号，已满时返回 -1
+     */
+    int findOrAdd(int unitId) {
+        int i = mix(unitId) & mask;
+        while (true) {
+            int key = keys[i];
+            if (key == unitId) {
+                return slots[i];
+            }
+            if (key == -1) {
+                if (size == capacity) {
+                    return -1;
+                }
+                int slot = size++;
+                keys[i] = unitId;
+                slots[i] = slot;
+                unitIds[slot] = unitId;
+                return slot;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    int unitIdAt(int slot) {
+        return unitIds[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    void clear() {
+        Arrays.fill(keys, -1);
+        size = 0;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}